@@ -2,6 +2,7 @@ package edu.kufpg.armatus;
 
 import android.app.Activity;
 import android.os.AsyncTask;
+import android.os.Process;
 
 import java.lang.ref.WeakReference;
 
@@ -32,6 +33,8 @@ public abstract class AsyncActivityTask<A extends Activity, Params, Progress, Re
 	 * {@code Activity} to ensure that the correct reference is returned.
 	 */
 	private WeakReference<A> mActivityRef;
+	/** The priority this task was executed with, or {@code null} if it wasn't given one. */
+	private volatile TaskScheduler.Priority mPriority;
 
 	public AsyncActivityTask(A activity) {
 		mActivityRef = new WeakReference<A>(activity);
@@ -49,6 +52,33 @@ public abstract class AsyncActivityTask<A extends Activity, Params, Progress, Re
 		return mActivityRef.get();
 	}
 
+	/**
+	 * Executes this task on the {@link TaskScheduler} rather than {@code AsyncTask}'s
+	 * default serial executor, so that it only waits behind tasks of equal or higher
+	 * priority.
+	 * @param priority The kind of work this task does.
+	 * @param params The parameters of the task.
+	 * @return this task.
+	 */
+	//The params are only handed on to executeOnExecutor(), so they cannot pollute the heap
+	@SuppressWarnings("unchecked")
+	public final AsyncTask<Params, Progress, Result> executeWithPriority(TaskScheduler.Priority priority, Params... params) {
+		mPriority = priority;
+		return executeOnExecutor(TaskScheduler.getExecutor(priority, this), params);
+	}
+
+	/**
+	 * Runs the rest of {@link #doInBackground(Object...)} at the thread priority of the
+	 * {@link TaskScheduler.Priority} the task was executed with. {@code AsyncTask} lowers
+	 * every worker thread to background priority just before calling {@code
+	 * doInBackground}, so work that the user is waiting on should call this first.
+	 */
+	protected final void applyThreadPriority() {
+		if (mPriority != null) {
+			Process.setThreadPriority(mPriority.getThreadPriority());
+		}
+	}
+
 	/**
 	 * Use this method to reestablish a connection to this task's {@link Activity} after
 	 * rotation or standby.
@@ -7,6 +7,9 @@ import android.os.Bundle;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ListMultimap;
 
+import edu.kufpg.armatus.console.SpannableGlyphRenderer;
+import edu.kufpg.armatus.data.CommandResponse;
+
 /**
  * This class manages the connection between an application's {@link Activity Activities}
  * and the {@link AsyncActivityTask AsyncActivityTasks} that they spawn.
@@ -46,6 +49,7 @@ public class BaseApplication extends Application {
 	public void onCreate() {
 		super.onCreate();
 		registerActivityLifecycleCallbacks(new TaskCallbacks(this));
+		CommandResponse.setRenderer(new SpannableGlyphRenderer());
 	}
 
 	/**
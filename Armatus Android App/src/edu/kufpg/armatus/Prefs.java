@@ -115,6 +115,12 @@ public final class Prefs {
 
     @NonNull static String SHOW_LINE_NUMBERS_KEY;
 
+	/**
+	 * {@link Preference Preference} key mapping to whether HERMIT command responses
+	 * should also be cached on disk, so that they outlive the app process.
+	 */
+    @NonNull static String RESPONSE_DISK_CACHE_KEY;
+
 	/**
 	 * {@link Preference} key used for resetting preferences back to their default values.
 	 */
@@ -144,6 +150,7 @@ public final class Prefs {
 
 		CHOOSE_BLUETOOTH_DEVICE_KEY = r.getString(R.string.pref_choose_bluetooth_device);
         SHOW_LINE_NUMBERS_KEY = r.getString(R.string.pref_show_line_numbers);
+        RESPONSE_DISK_CACHE_KEY = r.getString(R.string.pref_response_disk_cache);
 		RESTORE_DEFAULTS_KEY = r.getString(R.string.pref_restore_defaults);
 
 		DYNAMIC_PREF_DEFAULTS_MAP = mapDynamicPrefDefaults();
@@ -284,6 +291,10 @@ public final class Prefs {
 		return getPrefs(context).getBoolean(IS_HISTORY_DIR_CUSTOM_KEY, false);
 	}
 
+	public static boolean isResponseDiskCacheEnabled(@NonNull final Context context) {
+		return getPrefs(context).getBoolean(RESPONSE_DISK_CACHE_KEY, false);
+	}
+
     public static boolean isWebSource(@NonNull final Context context) {
         return Objects.equal(getNetworkSource(context), NetworkSource.WEB_SERVER);
     }
@@ -0,0 +1,189 @@
+package edu.kufpg.armatus;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.os.AsyncTask;
+import android.os.Process;
+import android.os.SystemClock;
+
+/**
+ * Runs {@link AsyncActivityTask AsyncActivityTasks} on a small pool of threads, in order of
+ * {@link Priority}. Unlike {@link AsyncTask}'s default serial executor, a slow low-priority
+ * task (such as saving history) cannot hold up an interactive command, and tasks that
+ * have waited so long that their result is no longer wanted are cancelled instead of run.
+ */
+public final class TaskScheduler {
+	/** The maximum number of tasks that may run at once. */
+	private static final int MAX_CONCURRENT_TASKS = 4;
+
+	private static final AtomicLong sSequence = new AtomicLong();
+
+	private static final ThreadPoolExecutor sExecutor = new ThreadPoolExecutor(
+			MAX_CONCURRENT_TASKS, MAX_CONCURRENT_TASKS, 30, TimeUnit.SECONDS,
+			new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+				private final AtomicInteger mCount = new AtomicInteger();
+
+				@Override
+				public Thread newThread(final Runnable r) {
+					return new Thread(new Runnable() {
+						@Override
+						public void run() {
+							Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+							r.run();
+						}
+					}, "TaskScheduler #" + mCount.incrementAndGet());
+				}
+			});
+
+	static {
+		sExecutor.allowCoreThreadTimeOut(true);
+	}
+
+	private TaskScheduler() {}
+
+	/**
+	 * Returns an {@link Executor} that runs a task through the scheduler, for use with
+	 * {@link AsyncTask#executeOnExecutor(Executor, Object...) executeOnExecutor}.
+	 * @param priority The task's priority.
+	 * @param task The task, which is cancelled if it goes stale while waiting.
+	 * @return an {@code Executor} for {@code task}.
+	 */
+	public static Executor getExecutor(final Priority priority, final AsyncTask<?, ?, ?> task) {
+		return new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				priority.mQueued.incrementAndGet();
+				sExecutor.execute(new ScheduledTask(priority, task, command));
+			}
+		};
+	}
+
+	/**
+	 * The kinds of work the scheduler runs, from most to least urgent.
+	 */
+	public enum Priority {
+		/** Work the user is actively waiting on, such as running a command. */
+		INTERACTIVE("interactive", 0, Process.THREAD_PRIORITY_DEFAULT),
+		/** Input completion, which is pointless once the user has moved on. */
+		COMPLETION("completion", 2000, Process.THREAD_PRIORITY_BACKGROUND),
+		/** Fetching the command catalog or session history. */
+		FETCH("fetch", 0, Process.THREAD_PRIORITY_BACKGROUND),
+		/** Saves and other work that nothing on screen is waiting for. */
+		BACKGROUND("background", 0, Process.THREAD_PRIORITY_BACKGROUND);
+
+		private final String mName;
+		private final long mMaxWaitMs;
+		private final int mThreadPriority;
+		private final AtomicInteger mQueued = new AtomicInteger();
+		private final AtomicLong mStarted = new AtomicLong();
+		private final AtomicLong mDropped = new AtomicLong();
+		private final AtomicLong mTotalWaitMs = new AtomicLong();
+		private final AtomicLong mLongestWaitMs = new AtomicLong();
+
+		/**
+		 * @param maxWaitMs How long a task may wait to start before it is considered
+		 * stale and cancelled, or 0 if it never goes stale.
+		 * @param threadPriority The {@link Process} thread priority to run tasks at.
+		 */
+		private Priority(String name, long maxWaitMs, int threadPriority) {
+			mName = name;
+			mMaxWaitMs = maxWaitMs;
+			mThreadPriority = threadPriority;
+		}
+
+		public String getName() {
+			return mName;
+		}
+
+		/** Returns the {@link Process} thread priority that tasks of this priority run at. */
+		public int getThreadPriority() {
+			return mThreadPriority;
+		}
+
+		/** Returns how many tasks of this priority are waiting to start. */
+		public int getQueueDepth() {
+			return mQueued.get();
+		}
+
+		/** Returns how many tasks of this priority have started. */
+		public long getStartedCount() {
+			return mStarted.get();
+		}
+
+		/** Returns how many tasks of this priority were cancelled for going stale. */
+		public long getDroppedCount() {
+			return mDropped.get();
+		}
+
+		/** Returns the average time, in milliseconds, that started tasks waited to start. */
+		public long getAverageWaitMs() {
+			long started = mStarted.get();
+			return started > 0 ? mTotalWaitMs.get() / started : 0;
+		}
+
+		/** Returns the longest time, in milliseconds, that a started task waited to start. */
+		public long getLongestWaitMs() {
+			return mLongestWaitMs.get();
+		}
+
+		private void recordStart(long waitMs) {
+			mStarted.incrementAndGet();
+			mTotalWaitMs.addAndGet(waitMs);
+			long longest;
+			do {
+				longest = mLongestWaitMs.get();
+			} while (waitMs > longest && !mLongestWaitMs.compareAndSet(longest, waitMs));
+		}
+	}
+
+	/**
+	 * A queued task. Tasks are ordered by priority and then by the order in which they
+	 * were submitted.
+	 */
+	private static class ScheduledTask implements Runnable, Comparable<ScheduledTask> {
+		private final Priority mPriority;
+		private final AsyncTask<?, ?, ?> mTask;
+		private final Runnable mCommand;
+		private final long mSequence = sSequence.getAndIncrement();
+		private final long mSubmitTime = SystemClock.elapsedRealtime();
+
+		public ScheduledTask(Priority priority, AsyncTask<?, ?, ?> task, Runnable command) {
+			mPriority = priority;
+			mTask = task;
+			mCommand = command;
+		}
+
+		@Override
+		public void run() {
+			mPriority.mQueued.decrementAndGet();
+			long waitMs = SystemClock.elapsedRealtime() - mSubmitTime;
+			if (mPriority.mMaxWaitMs > 0 && waitMs > mPriority.mMaxWaitMs) {
+				mPriority.mDropped.incrementAndGet();
+				mTask.cancel(true);
+				return;
+			}
+			mPriority.recordStart(waitMs);
+			try {
+				mCommand.run();
+			} finally {
+				//An interactive task may have raised the thread's priority
+				Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+			}
+		}
+
+		@Override
+		public int compareTo(ScheduledTask another) {
+			if (mPriority != another.mPriority) {
+				return mPriority.compareTo(another.mPriority);
+			}
+			return mSequence < another.mSequence ? -1 : (mSequence == another.mSequence ? 0 : 1);
+		}
+	}
+
+}
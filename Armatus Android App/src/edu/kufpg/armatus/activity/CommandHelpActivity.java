@@ -24,7 +24,7 @@ public class CommandHelpActivity extends Activity {
 
 		Bundle extras = getIntent().getExtras();
 		if (extras != null) {
-			mCommandInfo = extras.getParcelable("commandInfo");
+			mCommandInfo = (CommandInfo) extras.getSerializable("commandInfo");
 		}
 
 		TextView commandInfoView = (TextView) findViewById(R.id.command_help_info_text);
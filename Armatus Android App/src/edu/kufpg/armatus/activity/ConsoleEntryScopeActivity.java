@@ -70,7 +70,7 @@ public class ConsoleEntryScopeActivity extends ConsoleEntryActivity {
 
 		if (savedInstanceState == null) {
 			final ConsoleEntry entry = getEntry();
-			final Spannable spans = StringUtils.charWrap(entry.getCommandResponse().getGlyphText());
+			final Spannable spans = StringUtils.charWrap(SpannableString.valueOf(entry.getCommandResponse().getGlyphText()));
 			final Map<List<Crumb>, GlyphScopeSpan> crumbsSpanMap = Maps.newHashMap();
 			final int length = spans.length();
 			int index = 0;
@@ -0,0 +1,176 @@
+package edu.kufpg.armatus.console;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+
+import edu.kufpg.armatus.data.CommandResponse;
+
+/**
+ * The ASTs a session has visited, in order, with a position that moves back and forward
+ * along them like a browser's history. The responses shown at recently visited ASTs are
+ * kept, already rendered, so going back to one shows it again without asking the server.
+ * HERMIT runs each command from the AST in the token it is sent with, so the server does
+ * not need to hear about a move until the next command is sent.
+ */
+final class AstTimeline {
+	/** The most ASTs remembered. Older ones are forgotten first. */
+	private static final int MAX_VISITS = 200;
+	/** The most glyphs kept in memory, summed over all kept responses. */
+	private static final long MAX_GLYPHS = 20000;
+
+	private final List<Integer> mAsts = new ArrayList<Integer>();
+	private int mPosition = -1;
+	private final Cache<Integer, Visit> mVisits = CacheBuilder.newBuilder()
+			.maximumWeight(MAX_GLYPHS)
+			.weigher(new Weigher<Integer, Visit>() {
+				@Override
+				public int weigh(Integer ast, Visit visit) {
+					return 1 + (visit.mResponse.hasGlyphs() ? visit.mResponse.getGlyphs().size() : 0);
+				}
+			})
+			.build();
+
+	/**
+	 * Records that the session moved to an AST by running a command, which forgets any
+	 * ASTs ahead of the current position.
+	 * @param ast The AST moved to.
+	 * @param input The command that led to the AST, or {@code null} if none.
+	 * @param response The response shown at the AST, or {@code null} if none.
+	 * @param width The width the response was rendered at.
+	 */
+	void visit(int ast, String input, CommandResponse response, int width) {
+		if (mPosition >= 0) {
+			mAsts.subList(mPosition + 1, mAsts.size()).clear();
+		}
+		if (mAsts.isEmpty() || mAsts.get(mAsts.size() - 1) != ast) {
+			mAsts.add(ast);
+		}
+		if (mAsts.size() > MAX_VISITS) {
+			mAsts.subList(0, mAsts.size() - MAX_VISITS).clear();
+		}
+		mPosition = mAsts.size() - 1;
+		if (input != null && response != null) {
+			mVisits.put(ast, new Visit(input, response, width));
+		}
+	}
+
+	/**
+	 * Forgets every AST, since the session they belong to has ended or been renumbered.
+	 */
+	void clear() {
+		mAsts.clear();
+		mPosition = -1;
+		mVisits.invalidateAll();
+	}
+
+	/**
+	 * Moves to the AST before the current one.
+	 * @return {@code false} if there is none.
+	 */
+	boolean back() {
+		if (mPosition <= 0) {
+			return false;
+		}
+		mPosition--;
+		return true;
+	}
+
+	/**
+	 * Moves to the AST after the current one, which is only there after going back.
+	 * @return {@code false} if there is none.
+	 */
+	boolean forward() {
+		if (mPosition < 0 || mPosition == mAsts.size() - 1) {
+			return false;
+		}
+		mPosition++;
+		return true;
+	}
+
+	/**
+	 * Moves to the last visit of an AST, leaving the ASTs ahead of it in place.
+	 * @return {@code false} if the AST has not been visited.
+	 */
+	boolean jumpTo(int ast) {
+		int position = mAsts.lastIndexOf(ast);
+		if (position < 0) {
+			return false;
+		}
+		mPosition = position;
+		return true;
+	}
+
+	/**
+	 * Returns the AST at the current position, or -1 if none has been visited.
+	 */
+	int getCurrentAst() {
+		return (mPosition >= 0) ? mAsts.get(mPosition) : -1;
+	}
+
+	/**
+	 * Returns the visited ASTs, oldest first.
+	 */
+	List<Integer> getAsts() {
+		return Collections.unmodifiableList(mAsts);
+	}
+
+	/**
+	 * Returns what was shown at an AST, or {@code null} if nothing was shown there or it is
+	 * no longer kept.
+	 */
+	Visit getVisit(int ast) {
+		return mVisits.getIfPresent(ast);
+	}
+
+	/**
+	 * Returns the visited ASTs, oldest first, with the current one in brackets.
+	 */
+	String describe() {
+		if (mAsts.isEmpty()) {
+			return "No ASTs have been visited yet.";
+		}
+		StringBuilder builder = new StringBuilder("Visited ASTs, oldest first:");
+		for (int i = 0; i < mAsts.size(); i++) {
+			builder.append(' ');
+			if (i == mPosition) {
+				builder.append('[').append(mAsts.get(i)).append(']');
+			} else {
+				builder.append(mAsts.get(i));
+			}
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * The command that led to an AST and the response it showed.
+	 */
+	static class Visit {
+		private final String mInput;
+		private final CommandResponse mResponse;
+		private final int mWidth;
+
+		private Visit(String input, CommandResponse response, int width) {
+			mInput = input;
+			mResponse = response;
+			mWidth = width;
+		}
+
+		String getInput() {
+			return mInput;
+		}
+
+		CommandResponse getResponse() {
+			return mResponse;
+		}
+
+		int getWidth() {
+			return mWidth;
+		}
+	}
+
+}
@@ -0,0 +1,59 @@
+package edu.kufpg.armatus.console;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import android.os.Debug;
+
+import com.google.common.io.Files;
+
+import edu.kufpg.armatus.data.BinaryResponses;
+import edu.kufpg.armatus.data.CommandResponse;
+import edu.kufpg.armatus.data.DecodeBenchmark;
+
+/**
+ * Runs a {@link DecodeBenchmark} on the device, over the responses cached on disk, so
+ * that they come from real sessions. The same benchmark can be run off the device with
+ * {@link edu.kufpg.armatus.headless.BenchmarkDriver BenchmarkDriver}.
+ */
+final class CodecBenchmark {
+	/** How many times each response is decoded in each encoding. */
+	private static final int ROUNDS = 5;
+
+	private CodecBenchmark() {}
+
+	/**
+	 * Runs the benchmark. This reads from disk and takes a while, so it must not be called
+	 * from the UI thread.
+	 * @return a report of the results, for the console.
+	 * @throws IOException if the cached responses cannot be read.
+	 */
+	@SuppressWarnings("deprecation")
+	static String run() throws IOException {
+		File[] files = CommandResponseCache.getDiskFiles();
+		if (files.length == 0) {
+			return "No recorded responses to decode. Turn on the response disk cache and run some commands first.";
+		}
+
+		List<CommandResponse> responses = new ArrayList<CommandResponse>(files.length);
+		for (File file : files) {
+			responses.add(BinaryResponses.decode(Files.toByteArray(file)));
+		}
+
+		Debug.startAllocCounting();
+		try {
+			Debug.resetThreadAllocSize();
+			return new DecodeBenchmark(responses, new DecodeBenchmark.AllocationCounter() {
+				@Override
+				public long getAllocatedBytes() {
+					return Debug.getThreadAllocSize();
+				}
+			}).run(ROUNDS);
+		} finally {
+			Debug.stopAllocCounting();
+		}
+	}
+
+}
@@ -0,0 +1,258 @@
+package edu.kufpg.armatus.console;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.SortedSetMultimap;
+import com.google.common.collect.TreeMultimap;
+import com.google.common.hash.Hashing;
+
+import edu.kufpg.armatus.DeviceConstants;
+import edu.kufpg.armatus.data.CommandInfo;
+
+/**
+ * The command catalog of a HERMIT server, along with the tag and name lookups that {@link
+ * CommandHolder} serves to the command menu. Building those lookups is done when the
+ * catalog is constructed, so a catalog should be created off the UI thread and then
+ * handed to {@link CommandHolder#setCatalog(CommandCatalog)}.
+ * <p>
+ * Catalogs are saved per server in a compact binary form so that the command menu can be
+ * filled in as soon as the user connects, before the server has answered.
+ */
+public final class CommandCatalog {
+	private static final String CATALOG_DIR = DeviceConstants.CACHE_DIR + "/catalogs";
+	private static final int MAGIC = 0x41524d43; //"ARMC"
+	private static final int FORMAT_VERSION = 1;
+
+	private final List<CommandInfo> mCommands;
+	private final String mVersion;
+	private final String mEtag;
+	private final ImmutableSortedSet<String> mTags;
+	private final SortedSetMultimap<String, String> mTagCommandNames;
+	private final SortedSetMultimap<String, CommandInfo> mCommandNameInfos;
+
+	/**
+	 * Builds a catalog from the commands sent by a server.
+	 * @param commands The server's commands.
+	 * @param etag The {@code ETag} the server sent with the commands, or {@code null} if
+	 * there was none.
+	 */
+	public CommandCatalog(List<CommandInfo> commands, String etag) {
+		this(ImmutableList.copyOf(commands), Hashing.sha1().hashBytes(encodeCommands(commands)).toString(), etag);
+	}
+
+	private CommandCatalog(ImmutableList<CommandInfo> commands, String version, String etag) {
+		mCommands = commands;
+		mVersion = version;
+		mEtag = etag;
+
+		ImmutableSortedSet.Builder<String> tags = ImmutableSortedSet.naturalOrder();
+		mTagCommandNames = TreeMultimap.create();
+		mCommandNameInfos = TreeMultimap.create();
+		tags.add(CommandHolder.COMMONLY_USED_COMMANDS_TAG);
+		for (CommandInfo cmdInfo : commands) {
+			String cmdName = cmdInfo.getName();
+			if (CommandHolder.isCommonlyUsedCommand(cmdName)) {
+				mTagCommandNames.put(CommandHolder.COMMONLY_USED_COMMANDS_TAG, cmdName);
+			}
+			for (String tag : cmdInfo.getTags()) {
+				tags.add(tag);
+				mTagCommandNames.put(tag, cmdName);
+			}
+			mCommandNameInfos.put(cmdName, cmdInfo);
+		}
+		mTags = tags.build();
+	}
+
+	public List<CommandInfo> getCommands() {
+		return mCommands;
+	}
+
+	/**
+	 * Returns a hash of the catalog's contents. Two catalogs with the same version contain
+	 * the same commands.
+	 * @return the catalog's version.
+	 */
+	public String getVersion() {
+		return mVersion;
+	}
+
+	public String getEtag() {
+		return mEtag;
+	}
+
+	public boolean hasEtag() {
+		return mEtag != null;
+	}
+
+	ImmutableSortedSet<String> getTags() {
+		return mTags;
+	}
+
+	SortedSetMultimap<String, String> getTagCommandNames() {
+		return mTagCommandNames;
+	}
+
+	SortedSetMultimap<String, CommandInfo> getCommandNameInfos() {
+		return mCommandNameInfos;
+	}
+
+	/**
+	 * Returns whether a catalog has been saved for a server.
+	 * @param serverUrl The server's URL.
+	 * @return {@code true} if {@link #load(String)} may return a catalog.
+	 */
+	public static boolean isSaved(String serverUrl) {
+		return getFile(serverUrl).exists();
+	}
+
+	/**
+	 * Reads the catalog saved for a server. This must not be called from the UI thread.
+	 * @param serverUrl The server's URL.
+	 * @return the saved catalog, or {@code null} if there is none or it cannot be read.
+	 */
+	public static CommandCatalog load(String serverUrl) {
+		File file = getFile(serverUrl);
+		if (!file.exists()) {
+			return null;
+		}
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+					return null;
+				}
+				String version = readString(in);
+				String etag = in.readBoolean() ? readString(in) : null;
+				int count = in.readInt();
+				ImmutableList.Builder<CommandInfo> commands = ImmutableList.builder();
+				for (int i = 0; i < count; i++) {
+					commands.add(readCommand(in));
+				}
+				return new CommandCatalog(commands.build(), version, etag);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			file.delete();
+			return null;
+		}
+	}
+
+	/**
+	 * Saves this catalog as the one for a server. The previous catalog is only replaced
+	 * once the new one has been written in full. This must not be called from the UI
+	 * thread.
+	 * @param serverUrl The server's URL.
+	 */
+	public void save(String serverUrl) {
+		File file = getFile(serverUrl);
+		File tempFile = new File(file.getPath() + ".tmp");
+		file.getParentFile().mkdirs();
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(FORMAT_VERSION);
+				writeString(out, mVersion);
+				out.writeBoolean(hasEtag());
+				if (hasEtag()) {
+					writeString(out, mEtag);
+				}
+				out.write(encodeCommands(mCommands));
+			} finally {
+				out.close();
+			}
+			if (!tempFile.renameTo(file)) {
+				tempFile.delete();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			tempFile.delete();
+		}
+	}
+
+	private static File getFile(String serverUrl) {
+		String name = Hashing.sha1().hashString(serverUrl, Charsets.UTF_8).toString();
+		return new File(CATALOG_DIR, name + ".bin");
+	}
+
+	private static byte[] encodeCommands(List<CommandInfo> commands) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeInt(commands.size());
+			for (CommandInfo command : commands) {
+				writeCommand(out, command);
+			}
+			out.flush();
+		} catch (IOException e) {
+			//Writing to memory doesn't fail
+			throw new AssertionError(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static void writeCommand(DataOutputStream out, CommandInfo command) throws IOException {
+		writeString(out, command.getHelp());
+		writeString(out, command.getName());
+		writeStrings(out, command.getTags());
+		writeStrings(out, command.getArgTypes());
+		writeString(out, command.getResultType());
+	}
+
+	private static CommandInfo readCommand(DataInputStream in) throws IOException {
+		String help = readString(in);
+		String name = readString(in);
+		List<String> tags = readStrings(in);
+		List<String> argTypes = readStrings(in);
+		String resultType = readString(in);
+		return new CommandInfo(help, name, tags, argTypes, resultType);
+	}
+
+	private static void writeStrings(DataOutputStream out, List<String> strings) throws IOException {
+		out.writeInt(strings.size());
+		for (String string : strings) {
+			writeString(out, string);
+		}
+	}
+
+	private static List<String> readStrings(DataInputStream in) throws IOException {
+		int count = in.readInt();
+		ImmutableList.Builder<String> builder = ImmutableList.builder();
+		for (int i = 0; i < count; i++) {
+			builder.add(readString(in));
+		}
+		return builder.build();
+	}
+
+	//DataOutputStream.writeUTF is limited to 64KB, which long help texts could exceed
+	private static void writeString(DataOutputStream out, String string) throws IOException {
+		byte[] bytes = string.getBytes(Charsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) {
+			throw new IOException("Negative string length: " + length);
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, Charsets.UTF_8);
+	}
+
+}
@@ -54,6 +54,22 @@ public class CommandHolder {
 		return sTagCommandNames;
 	}
 
+	/**
+	 * Replaces the tags and commands shown in the command menu with those of a catalog,
+	 * or with only the client commands if {@code catalog} is {@code null}.
+	 */
+	static void setCatalog(CommandCatalog catalog) {
+		if (catalog != null) {
+			setTags(catalog.getTags());
+			setTagCommandNames(catalog.getTagCommandNames());
+			setCommandInfos(catalog.getCommandNameInfos());
+		} else {
+			setTags(null);
+			setTagCommandNames(null);
+			setCommandInfos(null);
+		}
+	}
+
 	static void setTags(Iterable<? extends String> tagList) {
 		ImmutableList.Builder<String> builder = ImmutableList.builder();
 		if (tagList != null) {
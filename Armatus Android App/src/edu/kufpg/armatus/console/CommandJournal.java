@@ -0,0 +1,175 @@
+package edu.kufpg.armatus.console;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import edu.kufpg.armatus.DeviceConstants;
+import edu.kufpg.armatus.data.Token;
+
+/**
+ * The operations a {@link HermitClient} logs in the {@link OperationJournal}: the commands
+ * it has queued and the history save it is waiting to send. Each operation records the
+ * session it was made in, since its commands only make sense from that session's ASTs.
+ * There is one journal per process, since every client logs to the same file.
+ */
+final class CommandJournal {
+	private static final String JOURNAL_PATH = DeviceConstants.CACHE_DIR + "/pending-operations.log";
+	static final String INPUT = "input", WIDTH = "width", REPEATS = "repeats";
+	private static final String COMMAND_OPERATION = "command", HISTORY_OPERATION = "history";
+	private static final String OPERATION_SERVER = "server", OPERATION_SESSION = "session",
+			OPERATION_USER = "user", OPERATION_AST = "ast";
+
+	private static CommandJournal sInstance;
+
+	private final OperationJournal mJournal = new OperationJournal(new File(JOURNAL_PATH),
+			Executors.newSingleThreadExecutor());
+	/** Whether the operations an earlier process never finished have been taken. */
+	private boolean mUnfinishedTaken = false;
+
+	private CommandJournal() {}
+
+	/**
+	 * Returns the process's journal. The first time, it starts reading what an earlier
+	 * process left unfinished in the background.
+	 */
+	static synchronized CommandJournal get() {
+		if (sInstance == null) {
+			sInstance = new CommandJournal();
+		}
+		return sInstance;
+	}
+
+	/**
+	 * Logs a command that has been queued.
+	 * @param repeats How many times in a row the command is to be run.
+	 * @return the command's ID, or {@link OperationJournal#NO_ID} if it could not be logged.
+	 */
+	long appendCommand(String serverUrl, String session, Token token, String input, int width, int repeats) {
+		try {
+			JSONObject operation = newOperation(serverUrl, session, token).put(INPUT, input).put(WIDTH, width);
+			if (repeats > 1) {
+				operation.put(REPEATS, repeats);
+			}
+			return mJournal.append(COMMAND_OPERATION, operation);
+		} catch (JSONException e) {
+			e.printStackTrace();
+			return OperationJournal.NO_ID;
+		}
+	}
+
+	/**
+	 * Logs a history save that is waiting to be sent.
+	 * @return the save's ID, or {@link OperationJournal#NO_ID} if it could not be logged.
+	 */
+	long appendHistorySave(String serverUrl, String session, Token token) {
+		return mJournal.append(HISTORY_OPERATION, newOperation(serverUrl, session, token));
+	}
+
+	/**
+	 * Marks an operation as done.
+	 */
+	void complete(long id) {
+		mJournal.complete(id);
+	}
+
+	private static JSONObject newOperation(String serverUrl, String session, Token token) {
+		JSONObject operation = new JSONObject();
+		try {
+			operation.put(OPERATION_SERVER, serverUrl).put(OPERATION_SESSION, session);
+			if (token != null) {
+				operation.put(OPERATION_USER, token.getUser()).put(OPERATION_AST, token.getAst());
+			}
+		} catch (JSONException e) {
+			e.printStackTrace();
+		}
+		return operation;
+	}
+
+	private static boolean isFromSession(JSONObject operation, String serverUrl, String session, Token token) {
+		return token != null && serverUrl != null && session != null
+				&& serverUrl.equals(operation.optString(OPERATION_SERVER))
+				&& session.equals(operation.optString(OPERATION_SESSION))
+				&& token.getUser() == operation.optInt(OPERATION_USER, -1);
+	}
+
+	/**
+	 * Returns the operations that an earlier process logged but never finished, once. The
+	 * operations of any session but the given one are marked as done and only counted,
+	 * since their commands would run from ASTs they were never meant for, and so are
+	 * operations of unknown kinds. This never waits for the journal to be read; a client
+	 * only asks once it has a session, by which time it almost always has been, and if not,
+	 * the operations are taken by a later call.
+	 * @return the unfinished operations, or {@code null} if there are none or they haven't
+	 * been read yet.
+	 */
+	synchronized Unfinished takeUnfinished(String serverUrl, String session, Token token) {
+		if (mUnfinishedTaken) {
+			return null;
+		}
+		List<JSONObject> operations = mJournal.getUnfinished();
+		if (operations == null) {
+			return null;
+		}
+		mUnfinishedTaken = true;
+		if (operations.isEmpty()) {
+			return null;
+		}
+
+		Unfinished unfinished = new Unfinished();
+		for (JSONObject operation : operations) {
+			long id = getId(operation);
+			String kind = operation.optString(OperationJournal.KIND);
+			if (!isFromSession(operation, serverUrl, session, token)) {
+				mJournal.complete(id);
+				if (kind.equals(COMMAND_OPERATION)) {
+					unfinished.mDropped++;
+				}
+			} else if (kind.equals(COMMAND_OPERATION) && operation.has(INPUT)) {
+				unfinished.mCommands.add(operation);
+			} else if (kind.equals(HISTORY_OPERATION)) {
+				unfinished.mHistorySaveIds.add(id);
+			} else {
+				mJournal.complete(id);
+			}
+		}
+		return unfinished;
+	}
+
+	static long getId(JSONObject operation) {
+		return operation.optLong(OperationJournal.ID, OperationJournal.NO_ID);
+	}
+
+	/**
+	 * The operations of the current session that an earlier process never finished.
+	 */
+	static class Unfinished {
+		private final List<JSONObject> mCommands = new ArrayList<JSONObject>();
+		private final List<Long> mHistorySaveIds = new ArrayList<Long>();
+		private int mDropped = 0;
+
+		/**
+		 * Returns the commands, oldest first, each with its {@link #INPUT}, {@link #WIDTH}
+		 * and, if it was repeated, {@link #REPEATS}.
+		 */
+		List<JSONObject> getCommands() {
+			return mCommands;
+		}
+
+		List<Long> getHistorySaveIds() {
+			return mHistorySaveIds;
+		}
+
+		/**
+		 * Returns how many commands from other sessions were dropped.
+		 */
+		int getDroppedCount() {
+			return mDropped;
+		}
+	}
+
+}
@@ -0,0 +1,303 @@
+package edu.kufpg.armatus.console;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+import edu.kufpg.armatus.DeviceConstants;
+import edu.kufpg.armatus.data.BinaryResponses;
+import edu.kufpg.armatus.data.CommandResponse;
+import edu.kufpg.armatus.data.Token;
+import edu.kufpg.armatus.util.StringUtils;
+
+/**
+ * Process-wide cache of {@link CommandResponse}s. HERMIT ASTs are immutable, so running a
+ * command from a given AST always produces the same response; re-running a step or
+ * replaying a session can therefore skip the round trip to the server. Responses are kept
+ * in a bounded in-memory LRU tier and, optionally, in a second tier on disk.
+ */
+public final class CommandResponseCache {
+	/** The maximum number of glyphs kept in memory, summed over all cached responses. */
+	private static final long MAX_MEMORY_GLYPHS = 50000;
+
+	/** The maximum number of responses kept on disk. */
+	private static final int MAX_DISK_ENTRIES = 500;
+
+	private static final String DISK_CACHE_DIR = DeviceConstants.CACHE_DIR + "/responses";
+	private static final String DISK_FILE_SUFFIX = ".bin";
+
+	/** Commands whose results depend on session state rather than only on the AST. */
+	private static final ImmutableSet<String> UNCACHEABLE_COMMANDS = ImmutableSet.of("abort", "resume", "log");
+	private static final String SETTING_COMMAND_PREFIX = "set-";
+
+	private static final Cache<Key, CommandResponse> sMemoryCache = CacheBuilder.newBuilder()
+			.maximumWeight(MAX_MEMORY_GLYPHS)
+			.weigher(new Weigher<Key, CommandResponse>() {
+				@Override
+				public int weigh(Key key, CommandResponse response) {
+					return 1 + (response.hasGlyphs() ? response.getGlyphs().size() : 0);
+				}
+			})
+			.recordStats()
+			.build();
+
+	private static final AtomicLong sHits = new AtomicLong();
+	private static final AtomicLong sMisses = new AtomicLong();
+	private static final AtomicLong sDiskEvictions = new AtomicLong();
+
+	private CommandResponseCache() {}
+
+	/**
+	 * Returns whether the response to a command can be cached.
+	 * @param command The command, as sent to the server.
+	 * @return {@code true} if the command's response depends only on the AST it is run from.
+	 */
+	public static boolean isCacheable(String command) {
+		String name = normalize(command).split(" ", 2)[0];
+		return !name.isEmpty() && !UNCACHEABLE_COMMANDS.contains(name)
+				&& !name.startsWith(SETTING_COMMAND_PREFIX);
+	}
+
+	/**
+	 * Returns the key of a command's response, or {@code null} if the response can't be
+	 * cached (see {@link #isCacheable(String)}).
+	 * @param width The pretty-printer width, or 0 for commands sent without one.
+	 */
+	public static Key keyFor(String server, String session, Token token, String command, int width) {
+		return isCacheable(command) ? new Key(server, session, token, command, width) : null;
+	}
+
+	/**
+	 * Looks up a response in the in-memory tier. This is cheap enough to call from the UI
+	 * thread.
+	 * @param key The cache key.
+	 * @return the cached response, or {@code null} if it is not in memory.
+	 */
+	public static CommandResponse get(Key key) {
+		CommandResponse response = sMemoryCache.getIfPresent(key);
+		(response != null ? sHits : sMisses).incrementAndGet();
+		return response;
+	}
+
+	/**
+	 * Finishes a lookup that {@link #get(Key)} missed by looking on disk, promoting disk
+	 * hits into memory. A hit here turns that miss into a hit, so each lookup is counted
+	 * once. This reads from disk, so it must not be called from the UI thread.
+	 * @param key The cache key.
+	 * @return the cached response, or {@code null} if it is not cached.
+	 */
+	public static CommandResponse getFromDisk(Key key) {
+		//The response may have been cached in memory since the first lookup
+		CommandResponse response = sMemoryCache.getIfPresent(key);
+		if (response == null) {
+			response = readFromDisk(key);
+		}
+		if (response != null) {
+			sMisses.decrementAndGet();
+			sHits.incrementAndGet();
+		}
+		return response;
+	}
+
+	private static CommandResponse readFromDisk(Key key) {
+		CommandResponse response;
+		File file = getDiskFile(key);
+		if (!file.exists()) {
+			return null;
+		}
+		try {
+			response = BinaryResponses.decode(Files.toByteArray(file));
+		} catch (IOException e) {
+			//A partially written or corrupted entry is treated as a miss
+			e.printStackTrace();
+			file.delete();
+			return null;
+		}
+		sMemoryCache.put(key, response);
+		return response;
+	}
+
+	/**
+	 * Adds a response to the cache.
+	 * @param key The cache key.
+	 * @param response The server's response.
+	 * @param toDisk {@code true} if the response should also be written to disk, in which
+	 * case this must not be called from the UI thread.
+	 */
+	public static void put(Key key, CommandResponse response, boolean toDisk) {
+		sMemoryCache.put(key, response);
+		if (toDisk) {
+			writeToDisk(getDiskFile(key), response);
+			trimDiskCache();
+		}
+	}
+
+	private static void writeToDisk(File file, CommandResponse response) {
+		//Write to a temporary file first so that a reader never sees half an entry
+		File tempFile = new File(file.getPath() + ".tmp");
+		try {
+			file.getParentFile().mkdirs();
+			Files.write(BinaryResponses.encode(response), tempFile);
+			if (!tempFile.renameTo(file)) {
+				tempFile.delete();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			tempFile.delete();
+		}
+	}
+
+	/**
+	 * Returns the files that hold the responses cached on disk.
+	 * @return the files, each in the {@link BinaryResponses} encoding.
+	 */
+	static File[] getDiskFiles() {
+		File[] files = new File(DISK_CACHE_DIR).listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String filename) {
+				return filename.endsWith(DISK_FILE_SUFFIX);
+			}
+		});
+		return (files != null) ? files : new File[0];
+	}
+
+	/**
+	 * Removes every cached response from memory and disk.
+	 */
+	public static void clear() {
+		sMemoryCache.invalidateAll();
+		File[] files = new File(DISK_CACHE_DIR).listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+	}
+
+	/**
+	 * Returns how many responses are held in memory.
+	 * @return the number of in-memory entries.
+	 */
+	public static long getSize() {
+		return sMemoryCache.size();
+	}
+
+	/**
+	 * Returns how many lookups were answered from memory or disk.
+	 * @return the number of cache hits.
+	 */
+	public static long getHitCount() {
+		return sHits.get();
+	}
+
+	/**
+	 * Returns how many lookups had to go to the server.
+	 * @return the number of cache misses.
+	 */
+	public static long getMissCount() {
+		return sMisses.get();
+	}
+
+	/**
+	 * Returns how many responses were dropped from memory or disk to make room.
+	 * @return the number of evictions.
+	 */
+	public static long getEvictionCount() {
+		return sMemoryCache.stats().evictionCount() + sDiskEvictions.get();
+	}
+
+	private static File getDiskFile(Key key) {
+		String name = Hashing.sha1().hashString(key.toString(), Charsets.UTF_8).toString();
+		return new File(DISK_CACHE_DIR, name + DISK_FILE_SUFFIX);
+	}
+
+	private static synchronized void trimDiskCache() {
+		File[] files = new File(DISK_CACHE_DIR).listFiles();
+		if (files == null || files.length <= MAX_DISK_ENTRIES) {
+			return;
+		}
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File lhs, File rhs) {
+				long lhsModified = lhs.lastModified(), rhsModified = rhs.lastModified();
+				return lhsModified < rhsModified ? -1 : (lhsModified == rhsModified ? 0 : 1);
+			}
+		});
+		for (int i = 0; i < files.length - MAX_DISK_ENTRIES; i++) {
+			if (files[i].delete()) {
+				sDiskEvictions.incrementAndGet();
+			}
+		}
+	}
+
+	private static String normalize(String command) {
+		return StringUtils.noCharWrap(command).trim().replaceAll(StringUtils.WHITESPACE, " ");
+	}
+
+	/**
+	 * Identifies a response by the server and session it came from, the AST the command
+	 * was run from, the command itself, and the pretty-printer width. The session is an ID
+	 * the client picks when it connects, since the user and AST numbers in a {@link Token}
+	 * are reused by a restarted server.
+	 */
+	public static final class Key {
+		/** Width used for commands sent without one (the server's default). */
+		private static final int NO_WIDTH = 0;
+
+		private final String mServer;
+		private final String mSession;
+		private final int mUser;
+		private final int mAst;
+		private final String mCommand;
+		private final int mWidth;
+
+		public Key(String server, String session, Token token, String command) {
+			this(server, session, token, command, NO_WIDTH);
+		}
+
+		public Key(String server, String session, Token token, String command, int width) {
+			//Copy the token's fields, since its AST changes as commands run
+			mServer = server;
+			mSession = session;
+			mUser = token.getUser();
+			mAst = token.getAst();
+			mCommand = normalize(command);
+			mWidth = width;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (o instanceof Key) {
+				Key k = (Key) o;
+				return mUser == k.mUser && mAst == k.mAst && mWidth == k.mWidth
+						&& Objects.equal(mServer, k.mServer) && Objects.equal(mSession, k.mSession)
+						&& mCommand.equals(k.mCommand);
+			} else {
+				return false;
+			}
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hashCode(mServer, mSession, mUser, mAst, mCommand, mWidth);
+		}
+
+		@Override
+		public String toString() {
+			return mServer + '\n' + mSession + '\n' + mUser + '\n' + mAst + '\n' + mWidth + '\n' + mCommand;
+		}
+	}
+
+}
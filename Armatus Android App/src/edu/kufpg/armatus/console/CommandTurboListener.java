@@ -0,0 +1,55 @@
+package edu.kufpg.armatus.console;
+
+import android.view.View;
+
+import edu.kufpg.armatus.networking.RequestKind;
+import edu.kufpg.armatus.util.LatencyHistogram;
+import edu.kufpg.armatus.util.OnTurboListener;
+import edu.kufpg.armatus.util.TurboImageButton;
+
+/**
+ * Runs a HERMIT command each time a turbo button fires, for as long as it is held, e.g.,
+ * to keep stepping {@code down} through an expression. Repeats never pile up behind a
+ * slow server: while a command is still running, further repeats are held back and then
+ * run as one repeated command (see {@link HermitClient#runRepeatedCommand(String, int, int)}),
+ * and the button repeats no faster than the server usually answers.
+ */
+public class CommandTurboListener extends OnTurboListener {
+	/** How many commands must have been answered before their latency sets the repeat rate. */
+	private static final int MIN_LATENCY_SAMPLES = 5;
+
+	private final ConsoleActivity mConsole;
+	private final String mCommand;
+
+	/**
+	 * @param console The console whose session runs the command.
+	 * @param command The command to run.
+	 */
+	public CommandTurboListener(ConsoleActivity console, String command) {
+		super(TurboImageButton.DEFAULT_INITIAL_INTERVAL, TurboImageButton.DEFAULT_NORMAL_INTERVAL);
+		mConsole = console;
+		mCommand = command;
+	}
+
+	@Override
+	public void onClick(View v) {
+		mConsole.getHermitClient().runCommand(mCommand, mConsole.getCharsPerLine());
+	}
+
+	@Override
+	protected void onRepeat(View v, int repeats) {
+		mConsole.getHermitClient().runRepeatedCommand(mCommand, repeats, mConsole.getCharsPerLine());
+	}
+
+	@Override
+	protected boolean isBusy() {
+		return mConsole.getHermitClient().isRunningCommands();
+	}
+
+	@Override
+	protected long getActionLatencyMs() {
+		LatencyHistogram latencies = RequestKind.COMMAND.getLatencies();
+		return (latencies.getRecentSampleCount() >= MIN_LATENCY_SAMPLES) ? latencies.getPercentile(0.5) : 0;
+	}
+
+}
@@ -0,0 +1,136 @@
+package edu.kufpg.armatus.console;
+
+import java.util.List;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Predicate;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.FluentIterable;
+
+import edu.kufpg.armatus.data.Completion;
+import edu.kufpg.armatus.data.Token;
+import edu.kufpg.armatus.util.StringUtils;
+
+/**
+ * Remembers the {@link Completion}s the HERMIT server returned for each AST and input
+ * prefix, in each session of each server. The server's completions for a word are all of the replacements that start with
+ * it, so a longer word can be completed by filtering the completions of any shorter
+ * prefix of it instead of asking the server again.
+ */
+class CompletionCache {
+	private static final int MAX_ENTRIES = 64;
+
+	private final Cache<Key, List<Completion>> mCache = CacheBuilder.newBuilder()
+			.maximumSize(MAX_ENTRIES)
+			.build();
+
+	/**
+	 * Returns the completions for an input, either as the server sent them or filtered
+	 * from the completions of a shorter prefix of the input's last word.
+	 * @param key The input to complete.
+	 * @return the completions, or {@code null} if the server must be asked.
+	 */
+	List<Completion> get(Key key) {
+		for (int length = key.mWord.length(); length >= 0; length--) {
+			List<Completion> completions = mCache.getIfPresent(key.withWord(key.mWord.substring(0, length)));
+			if (completions != null) {
+				if (length == key.mWord.length()) {
+					return completions;
+				} else {
+					final String word = key.mWord;
+					return FluentIterable.from(completions).filter(new Predicate<Completion>() {
+						@Override
+						public boolean apply(Completion completion) {
+							return completion.getReplacement().startsWith(word);
+						}
+					}).toList();
+				}
+			}
+		}
+		return null;
+	}
+
+	void put(Key key, List<Completion> completions) {
+		mCache.put(key, completions);
+	}
+
+	void clear() {
+		mCache.invalidateAll();
+	}
+
+	/**
+	 * An input to be completed, split into the word being completed (the last one) and
+	 * the text before it, which determines what kind of completions the server gives.
+	 */
+	static final class Key {
+		private final String mServer;
+		private final String mSession;
+		private final int mUser;
+		private final int mAst;
+		private final String mContext;
+		private final String mWord;
+
+		/**
+		 * @param server The server's URL.
+		 * @param session The session's ID, since a restarted server hands out the same user
+		 * and AST numbers again.
+		 * @param token The token whose AST the input is completed at.
+		 * @param input The input to complete.
+		 */
+		Key(String server, String session, Token token, String input) {
+			input = StringUtils.noCharWrap(input);
+			int wordStart = input.length();
+			while (wordStart > 0 && !Character.isWhitespace(input.charAt(wordStart - 1))) {
+				wordStart--;
+			}
+			mServer = server;
+			mSession = session;
+			mUser = token.getUser();
+			mAst = token.getAst();
+			mContext = input.substring(0, wordStart).trim().replaceAll(StringUtils.WHITESPACE, " ");
+			mWord = input.substring(wordStart);
+		}
+
+		private Key(String server, String session, int user, int ast, String context, String word) {
+			mServer = server;
+			mSession = session;
+			mUser = user;
+			mAst = ast;
+			mContext = context;
+			mWord = word;
+		}
+
+		private Key withWord(String word) {
+			return new Key(mServer, mSession, mUser, mAst, mContext, word);
+		}
+
+		/**
+		 * Returns whether the server's completions for this input also answer another
+		 * input, i.e., whether the other input only adds characters to the last word.
+		 */
+		boolean canAnswer(Key other) {
+			return mUser == other.mUser && mAst == other.mAst
+					&& Objects.equal(mServer, other.mServer) && Objects.equal(mSession, other.mSession)
+					&& mContext.equals(other.mContext) && other.mWord.startsWith(mWord);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (o instanceof Key) {
+				Key k = (Key) o;
+				return mUser == k.mUser && mAst == k.mAst
+						&& Objects.equal(mServer, k.mServer) && Objects.equal(mSession, k.mSession)
+						&& mContext.equals(k.mContext) && mWord.equals(k.mWord);
+			} else {
+				return false;
+			}
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hashCode(mServer, mSession, mUser, mAst, mContext, mWord);
+		}
+	}
+
+}
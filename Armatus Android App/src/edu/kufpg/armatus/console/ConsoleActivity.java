@@ -27,6 +27,7 @@ import android.view.View.OnLongClickListener;
 import android.view.ViewGroup;
 import android.view.ViewGroup.LayoutParams;
 import android.view.ViewTreeObserver.OnGlobalLayoutListener;
+import android.view.ViewTreeObserver.OnPreDrawListener;
 import android.view.Window;
 import android.view.WindowManager;
 import android.view.inputmethod.InputMethodManager;
@@ -67,9 +68,13 @@ import edu.kufpg.armatus.dialog.YesOrNoDialog;
 import edu.kufpg.armatus.input.SpecialKeyAdapter;
 import edu.kufpg.armatus.networking.BluetoothDeviceListActivity;
 import edu.kufpg.armatus.networking.BluetoothUtils;
+import edu.kufpg.armatus.networking.ConnectivityMonitor;
 import edu.kufpg.armatus.networking.InternetUtils;
 import edu.kufpg.armatus.util.OnExpandableItemLongClickListener;
+import edu.kufpg.armatus.util.StageTimings;
+import edu.kufpg.armatus.util.StageTimings.Stage;
 import edu.kufpg.armatus.util.StringUtils;
+import edu.kufpg.armatus.util.TurboImageButton;
 import edu.kufpg.armatus.util.Views;
 import org.lucasr.twowayview.TwoWayView;
 
@@ -114,6 +119,9 @@ public class ConsoleActivity extends BaseActivity {
 	private TextView mConsoleInputNumView, mSearchMatches;
 	private ConsoleInputEditText mConsoleInputEditText;
 	private View mConsoleEmptySpace;
+	private TurboImageButton mRepeatCommandButton;
+	/** The command the repeat button runs, or {@code null} if none has been entered yet. */
+	private String mRepeatCommand;
 	private EditText mSearchInputView;
 	protected SlidingMenu mSlidingMenu;
 	private String mTempCommand, mTempSearchInput, mPrevSearchCriterion;
@@ -149,6 +157,7 @@ public class ConsoleActivity extends BaseActivity {
 		final ImageButton prevEntryButton = (ImageButton) findViewById(R.id.console_input_previous_entry);
 		final ImageButton toggleSpecialKeysButton = (ImageButton) findViewById(R.id.console_options_toggle_special_keys);
 		final ImageButton hideOptionsBarButton = (ImageButton) findViewById(R.id.console_options_hide_button);
+		mRepeatCommandButton = (TurboImageButton) findViewById(R.id.console_options_repeat_command);
 		final TwoWayView specialKeyRow = (TwoWayView) findViewById(R.id.console_special_key_list);
 		TYPEFACE = Typeface.createFromAsset(getAssets(), TYPEFACE_PATH);
 
@@ -177,13 +186,19 @@ public class ConsoleActivity extends BaseActivity {
 				mConsoleInputEditText.setSelection(savedInstanceState.getInt("consoleInputCursor"));
 			}
 
-			mCommandHistory = savedInstanceState.getParcelableArrayList("commandHistory");
+			@SuppressWarnings("unchecked")
+			ArrayList<HistoryCommand> commandHistory = (ArrayList<HistoryCommand>) savedInstanceState.getSerializable("commandHistory");
+			mCommandHistory = commandHistory;
 			mConsoleInputNum = savedInstanceState.getInt("consoleInputNum");
 			mConsoleEntries = savedInstanceState.getParcelableArrayList("consoleEntries");
 			mHermitClient = savedInstanceState.getParcelable("hermitClient");
 			mHermitClient.attachConsole(this);
 			mUserInputHistory = savedInstanceState.getStringArrayList("userInputHistory");
 			mUserInputHistoryChoice = savedInstanceState.getInt("userInputHistoryChoice");
+			String repeatCommand = savedInstanceState.getString("repeatCommand");
+			if (repeatCommand != null) {
+				setRepeatCommand(repeatCommand);
+			}
 		}
 
 		mConsoleListLayout.addOnLayoutChangeListener(new OnLayoutChangeListener() {
@@ -408,9 +423,8 @@ public class ConsoleActivity extends BaseActivity {
 							} else {
 								mUserInputHistoryChoice = size - 1;
 							}
-							float lineWidth = mConsoleInputEditText.getMeasuredWidth();
-							float charWidth = mConsoleInputEditText.getPaint().measureText(" ");
-							mHermitClient.runCommand(input, (int) (lineWidth / charWidth));
+							mHermitClient.runCommand(input, getCharsPerLine());
+							setRepeatCommand(input);
 						}
 						mConsoleInputEditText.setText("");
 						return true;
@@ -489,12 +503,16 @@ public class ConsoleActivity extends BaseActivity {
 
 		updateConsoleEntries();
 		resizeSlidingMenu();
+		if (savedInstanceState == null) {
+			//A console started from scratch may be replacing one whose process was killed
+			mHermitClient.resumeSession();
+		}
 	}
 
 	@Override
 	protected void onSaveInstanceState(Bundle outState) {
 		super.onSaveInstanceState(outState);
-		outState.putParcelableArrayList("commandHistory", mCommandHistory);
+		outState.putSerializable("commandHistory", mCommandHistory);
 		outState.putInt("consoleInputNum", mConsoleInputNum);
 		outState.putString("consoleInput", mConsoleInputEditText.getText().toString());
 		outState.putParcelable("consoleSearcher", mSearcher);
@@ -511,6 +529,21 @@ public class ConsoleActivity extends BaseActivity {
 		outState.putParcelable("hermitClient", mHermitClient);
 		outState.putStringArrayList("userInputHistory", mUserInputHistory);
 		outState.putInt("userInputHistoryChoice", mUserInputHistoryChoice);
+		outState.putString("repeatCommand", mRepeatCommand);
+	}
+
+	@Override
+	protected void onStart() {
+		super.onStart();
+		ConnectivityMonitor.getInstance(this).addListener(mHermitClient);
+		mHermitClient.resumeServerChecks();
+	}
+
+	@Override
+	protected void onStop() {
+		ConnectivityMonitor.getInstance(this).removeListener(mHermitClient);
+		mHermitClient.pauseServerChecks();
+		super.onStop();
 	}
 
 	@Override
@@ -521,24 +554,23 @@ public class ConsoleActivity extends BaseActivity {
 	@Override
 	public void onActivityResult(int requestCode, int resultCode, Intent data) {
 		switch (requestCode) {
+		//Delayed requests are sent by the HermitClient once the ConnectivityMonitor sees
+		//the connection come up, so only failures need handling here.
 		case BluetoothUtils.REQUEST_ENABLE_BLUETOOTH:
 			if (mHermitClient.isRequestDelayed()) {
-				if (resultCode == RESULT_OK) {
-					mHermitClient.runDelayedRequest();
-				} else {
+				if (resultCode != RESULT_OK) {
 					appendErrorResponse("ERROR: Failed to enable Bluetooth.");
+				} else if (BluetoothUtils.getBluetoothDevice(this) == null) {
+					//Turning Bluetooth on isn't enough without a device to talk to
+					BluetoothUtils.findDeviceName(this);
 				}
 			}
 			break;
 		case InternetUtils.REQUEST_ENABLE_WIFI:
-			if (mHermitClient.isRequestDelayed()) {
-				//Unfortunately, ACTION_PICK_WIFI_NETWORK doesn't use RESULT_OK, so we
-				//have to check the Wi-Fi state manually.
-				if (InternetUtils.isWifiConnected(this)) {
-					mHermitClient.runDelayedRequest();
-				} else {
-					appendErrorResponse("ERROR: Failed to enable Wi-Fi.");
-				}
+			//Unfortunately, ACTION_PICK_WIFI_NETWORK doesn't use RESULT_OK, and the network
+			//may still be connecting, so only complain if Wi-Fi isn't even on.
+			if (mHermitClient.isRequestDelayed() && !InternetUtils.isWifiEnabled(this)) {
+				appendErrorResponse("ERROR: Failed to enable Wi-Fi.");
 			}
 			break;
 		case BluetoothUtils.REQUEST_FIND_BLUETOOTH_DEVICE:
@@ -774,6 +806,16 @@ public class ConsoleActivity extends BaseActivity {
 		addEntry(null, null, errorResponse);
 	}
 
+	/**
+	 * Adds an entry for a command that was tried without moving the session to its result.
+	 * @param command The command.
+	 * @param commandResponse The command's result, or {@code null} if it failed.
+	 * @param note How the result compares to the others tried, or why the command failed.
+	 */
+	void addExploredEntry(String command, CommandResponse commandResponse, String note) {
+		addEntry(command, commandResponse, note);
+	}
+
 	private void addEntry(String userInput, CommandResponse commandResponse, String errorResponse) {
 		if (userInput != null) {
 			mNextConsoleEntry.setUserInput(userInput);
@@ -791,6 +833,13 @@ public class ConsoleActivity extends BaseActivity {
 		scrollToBottom();
 	}
 
+	/**
+	 * Returns the commands run in this session, as shown in the command history.
+	 */
+	List<HistoryCommand> getCommandHistory() {
+		return Collections.unmodifiableList(mCommandHistory);
+	}
+
 	public void clearCommandHistory() {
 		mCommandHistory.clear();
 		mCommandHistoryAdapter.notifyDataSetChanged();
@@ -835,6 +884,65 @@ public class ConsoleActivity extends BaseActivity {
 		}
 	}
 
+	/**
+	 * Appends a {@link CommandResponse} to the entry with the given entry number. If that
+	 * entry is no longer visible (e.g., the console was cleared), the response is appended
+	 * to the most recent entry instead.
+	 */
+	public void appendCommandResponse(int entryNum, CommandResponse commandResponse) {
+		recordAtNextFrame(Stage.FIRST_FRAME, StageTimings.start());
+		ConsoleEntry entry = findEntry(entryNum);
+		if (entry != null && entry.getCommandResponse() == null) {
+			entry.appendCommandResponse(commandResponse);
+			updateConsoleEntries();
+			scrollToBottom();
+		} else {
+			appendCommandResponse(commandResponse);
+		}
+	}
+
+	/**
+	 * Appends an error message to the entry with the given entry number. If that entry is
+	 * no longer visible, the message is appended to the most recent entry instead.
+	 */
+	public void appendErrorResponse(int entryNum, String errorResponse) {
+		ConsoleEntry entry = findEntry(entryNum);
+		if (entry != null && entry.getErrorResponse() == null) {
+			entry.appendErrorResponse(errorResponse);
+			updateConsoleEntries();
+			scrollToBottom();
+		} else {
+			appendErrorResponse(errorResponse);
+		}
+	}
+
+	/**
+	 * Makes the repeat button on the options bar run a command: once when tapped, and over
+	 * and over while held, with repeats that come due while the server is busy sent as one
+	 * (see {@link CommandTurboListener}). Custom commands, and commands whose results don't
+	 * depend only on the AST (see {@link CommandResponseCache#isCacheable(String)}), leave
+	 * the button as it was.
+	 */
+	private void setRepeatCommand(String input) {
+		String name = input.trim().split(StringUtils.WHITESPACE)[0];
+		if (CustomCommandDispatcher.isCustomCommand(name)
+				|| !CommandResponseCache.isCacheable(StringUtils.noCharWrap(input))) {
+			return;
+		}
+		mRepeatCommand = input;
+		mRepeatCommandButton.setOnTurboListener(new CommandTurboListener(this, input));
+		mRepeatCommandButton.setEnabled(true);
+	}
+
+	/**
+	 * Returns how many characters fit on a line of the console.
+	 */
+	int getCharsPerLine() {
+		float lineWidth = mConsoleInputEditText.getMeasuredWidth();
+		float charWidth = mConsoleInputEditText.getPaint().measureText(" ");
+		return (int) (lineWidth / charWidth);
+	}
+
 	public void appendInputText(String text) {
 		mConsoleInputEditText.getText().append(text);
 		mConsoleInputEditText.setSelection(getInputLength());
@@ -881,11 +989,22 @@ public class ConsoleActivity extends BaseActivity {
 		}
 		
 		((BaseApplication) getApplication()).cancelTasks(this);
+		mHermitClient.discardCheckpoint();
 		Intent intent = new Intent(this, MainActivity.class);
 		intent.setFlags(Intent.FLAG_ACTIVITY_CLEAR_TASK | Intent.FLAG_ACTIVITY_NEW_TASK);
 		startActivity(intent);
 	}
 
+	private ConsoleEntry findEntry(int entryNum) {
+		for (int i = getEntryCount() - 1; i >= 0; i--) {
+			ConsoleEntry entry = mConsoleEntries.get(i);
+			if (entry.getEntryNum() == entryNum) {
+				return entry;
+			}
+		}
+		return null;
+	}
+
 	public ConsoleEntry getEntry(int index) {
 		return mConsoleEntries.get(index);
 	}
@@ -1123,11 +1242,29 @@ public class ConsoleActivity extends BaseActivity {
 		if (mConsoleEntries.size() > CONSOLE_ENTRY_LIMIT) {
 			mConsoleEntries.remove(0);
 		}
+		long start = StageTimings.start();
 		mConsoleListView.expandAllGroups();
 		mConsoleListAdapter.notifyDataSetChanged();
+		StageTimings.record(Stage.ADAPTER_NOTIFY, start);
 		updateInput();
 	}
 
+	/**
+	 * Records a {@link Stage} that ends when the console is next drawn.
+	 * @param stage The stage.
+	 * @param startNanos When the stage started, as returned by {@link StageTimings#start()}.
+	 */
+	void recordAtNextFrame(final Stage stage, final long startNanos) {
+		mConsoleListView.getViewTreeObserver().addOnPreDrawListener(new OnPreDrawListener() {
+			@Override
+			public boolean onPreDraw() {
+				StageTimings.record(stage, startNanos);
+				mConsoleListView.getViewTreeObserver().removeOnPreDrawListener(this);
+				return true;
+			}
+		});
+	}
+
 	void updateCommandExpandableMenu() {
 		int count = mCommandExpandableMenuAdapter.getGroupCount();
 		for (int i = 0; i < count; i++) {
@@ -8,10 +8,14 @@ import android.text.TextUtils;
 import android.text.style.BackgroundColorSpan;
 import android.text.style.ForegroundColorSpan;
 import com.google.common.base.Objects;
+import edu.kufpg.armatus.data.BinaryResponses;
 import edu.kufpg.armatus.data.CommandResponse;
 import edu.kufpg.armatus.util.ParcelUtils;
+import edu.kufpg.armatus.util.StageTimings;
+import edu.kufpg.armatus.util.StageTimings.Stage;
 import edu.kufpg.armatus.util.StringUtils;
 
+import java.io.IOException;
 import java.util.ArrayList;
 
 /**
@@ -159,6 +163,7 @@ public class ConsoleEntry implements Parcelable {
 	}
 	
 	private static ArrayList<CharSequence> makeContentLines(CharSequence contents) {
+		long start = StageTimings.start();
 		ArrayList<CharSequence> contentLines = new ArrayList<CharSequence>();
 		int lineStart = 0;
 		int length = contents.length();
@@ -170,6 +175,7 @@ public class ConsoleEntry implements Parcelable {
 			}
 		}
 		contentLines.add(contents.subSequence(lineStart, length));
+		StageTimings.record(Stage.CONTENT_LINES, start);
 		return contentLines;
 	}
 
@@ -222,7 +228,7 @@ public class ConsoleEntry implements Parcelable {
 			int entryNum = in.readInt();
 			int ast = in.readInt();
 			String userInput = in.readString();
-			CommandResponse commandResponse = in.readParcelable(CommandResponse.class.getClassLoader());
+			CommandResponse commandResponse = readResponse(in.createByteArray());
 			String errorResponse = in.readString();
 			CharSequence shortContents = TextUtils.CHAR_SEQUENCE_CREATOR.createFromParcel(in);
 			ArrayList<CharSequence> contentLines = ParcelUtils.readArrayList(in);
@@ -235,6 +241,17 @@ public class ConsoleEntry implements Parcelable {
 		}
 	};
 
+	private static CommandResponse readResponse(byte[] bytes) {
+		if (bytes == null) {
+			return null;
+		}
+		try {
+			return BinaryResponses.decode(bytes);
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not decode a parcelled response", e);
+		}
+	}
+
 	@Override
 	public int describeContents() {
 		return 0;
@@ -245,7 +262,7 @@ public class ConsoleEntry implements Parcelable {
 		dest.writeInt(mEntryNum);
 		dest.writeInt(mAst);
 		dest.writeString(mUserInput);
-		dest.writeParcelable(mCommandResponse, flags);
+		dest.writeByteArray(mCommandResponse != null ? BinaryResponses.encode(mCommandResponse) : null);
 		dest.writeString(mErrorResponse);
 		TextUtils.writeToParcel(mShortContents, dest, flags);
 		ParcelUtils.writeCollection(dest, mContentLines);
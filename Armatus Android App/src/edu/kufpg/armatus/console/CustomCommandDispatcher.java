@@ -1,9 +1,14 @@
 package edu.kufpg.armatus.console;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 import java.util.NavigableMap;
 import java.util.NavigableSet;
 
 import android.content.Intent;
+import android.os.AsyncTask;
 import android.widget.Toast;
 
 import com.google.common.collect.ImmutableListMultimap;
@@ -11,7 +16,18 @@ import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.ListMultimap;
 
 import edu.kufpg.armatus.BaseActivity;
+import edu.kufpg.armatus.DeviceConstants;
+import edu.kufpg.armatus.Prefs;
+import edu.kufpg.armatus.TaskScheduler.Priority;
 import edu.kufpg.armatus.dialog.TerminalNotInstalledDialog;
+import edu.kufpg.armatus.networking.CircuitBreaker;
+import edu.kufpg.armatus.networking.HermitHttpClient;
+import edu.kufpg.armatus.networking.RequestKind;
+import edu.kufpg.armatus.networking.ScriptedHermit;
+import edu.kufpg.armatus.networking.ServerPool;
+import edu.kufpg.armatus.util.LatencyHistogram;
+import edu.kufpg.armatus.util.StageTimings;
+import edu.kufpg.armatus.util.StageTimings.Stage;
 
 /**
  * Contains all {@link CustomCommandInfo}s and {@link Keyword}s that the console uses and allows
@@ -19,22 +35,124 @@ import edu.kufpg.armatus.dialog.TerminalNotInstalledDialog;
  */
 public class CustomCommandDispatcher {
 	public static final String CLIENT_COMMANDS_TAG = "Client";
+	private static final String BENCHMARK_INFO = "Decodes the responses in the response disk cache, which were recorded from real sessions, as an org.json tree, as streamed JSON and in the binary encoding, and shows how long each took and how much each allocated.";
+	private static final String CACHE_INFO = "Shows how often HERMIT command results were served from the response cache. Use \"cache clear\" to empty the cache.";
 	private static final String CLEAR_INFO = "Hides all currently visible console entries. The entries will still be accessible from the command history.";
-	private static final String CONNECT_INFO = "Attempts to connect to the HERMIT server. If successful, it will load additional commands.";
+	private static final String CONNECT_INFO = "Attempts to connect to the HERMIT server at the given address, or to the selected Bluetooth device if Bluetooth is the source. Given several addresses, it connects to whichever server is answering fastest and moves the session to another one if that server goes down. Use \"connect scripted\" to try the console against a built-in fake server, or \"connect scripted 3\" to try it against three. If successful, it will load additional commands.";
+	private static final String CONNECTIONS_INFO = "Shows how many HTTP connections to the HERMIT server were opened and how many were reused, and whether each server is reachable.";
 	private static final String EXIT_INFO = "Leaves the current console sessions, discarding any unsaved history.";
+	private static final String EXPLORE_INFO = "Runs several commands, separated by semicolons, from the current AST at once without moving the session, and shows what each produced, smallest first. Use \"explore pick 2\" to move the session to the second result.";
+	private static final String SCHEDULER_INFO = "Shows how many background tasks of each priority are waiting, how long they waited to start, and how many were dropped for going stale.";
+	private static final String SERVERS_INFO = "Shows whether each server that the session can be placed on is up, how fast it has been answering, and how many sessions were placed on it. Use \"servers stop scripted2\" or \"servers start scripted2\" to take a fake server down or bring it back.";
+	private static final String STATS_INFO = "Shows how long each stage of running a command takes (50th, 95th and 99th percentiles), and how many response bytes each kind of request has received over the network compared to after decompression. Use \"stats export\" to save the raw timings to a file, or \"stats clear\" to reset them.";
+	private static final String TIMELINE_INFO = "Lists the ASTs visited in this session. Use \"timeline back\" and \"timeline forward\" to move between them, or \"timeline 12\" to go to AST 12, without asking the server.";
 	private static final String TOAST_INFO = "Displays its arguments as a pop-up on the screen.";
 	private static final String TERMINAL_INFO = "Opens Android Terminal Emulator, if installed.";
 
+	private static final CustomCommandInfo BENCHMARK = new CustomCommandInfo(BENCHMARK_INFO, "benchmark", 0) {
+		@Override
+		protected void run(final ConsoleActivity console, String... args) {
+			console.appendErrorResponse("Decoding recorded responses...");
+			AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+				@Override
+				public void run() {
+					String message;
+					try {
+						message = CodecBenchmark.run();
+					} catch (IOException e) {
+						message = "ERROR: could not read the recorded responses (" + e.getMessage() + ")";
+					}
+					final String result = message;
+					console.runOnUiThread(new Runnable() {
+						@Override
+						public void run() {
+							console.appendErrorResponse(result);
+						}
+					});
+				}
+			});
+		}
+	};
+	private static final CustomCommandInfo CACHE = new CustomCommandInfo(CACHE_INFO, "cache", 0, true) {
+		@Override
+		protected void run(ConsoleActivity console, String... args) {
+			if (args.length > 0 && args[0].equals("clear")) {
+				//Deleting the on-disk entries can take a while, so keep it off the UI thread
+				AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+					@Override
+					public void run() {
+						CommandResponseCache.clear();
+					}
+				});
+				console.appendErrorResponse("Response cache cleared.");
+			} else {
+				long hits = CommandResponseCache.getHitCount();
+				long misses = CommandResponseCache.getMissCount();
+				long total = hits + misses;
+				console.appendErrorResponse("Cached responses: " + CommandResponseCache.getSize()
+						+ ", hits: " + hits + ", misses: " + misses
+						+ ", evictions: " + CommandResponseCache.getEvictionCount()
+						+ (total > 0 ? " (" + (100 * hits / total) + "% hit rate)" : ""));
+			}
+		}
+	};
 	private static final CustomCommandInfo CLEAR = new CustomCommandInfo(CLEAR_INFO, "clear", 0, true) {
 		@Override
 		protected void run(ConsoleActivity console, String... args) {
 			console.clear();
 		}
 	};
-	private static final CustomCommandInfo CONNECT = new CustomCommandInfo(CONNECT_INFO, "connect", 1, false) {
+	private static final CustomCommandInfo CONNECT = new CustomCommandInfo(CONNECT_INFO, "connect", 0, true) {
 		@Override
 		protected void run(ConsoleActivity console, String... args) {
-			console.getHermitClient().connect("http://" + args[0] + ":3000");
+			if (args.length > 0 && args[0].equals("scripted")) {
+				int count = 1;
+				if (args.length > 1) {
+					try {
+						count = Math.max(1, Integer.parseInt(args[1]));
+					} catch (NumberFormatException e) {
+						console.appendErrorResponse("ERROR: " + args[1] + " is not a number of servers.");
+						return;
+					}
+				}
+				console.getHermitClient().connect(HermitClient.getScriptedServerUrls(count));
+			} else if (args.length > 0) {
+				List<String> serverUrls = new ArrayList<String>(args.length);
+				for (String address : args) {
+					serverUrls.add("http://" + address + ":3000");
+				}
+				console.getHermitClient().connect(serverUrls);
+			} else if (Prefs.isBluetoothSource(console)) {
+				console.getHermitClient().connect((String) null);
+			} else {
+				console.appendErrorResponse("ERROR: connect requires a server address.");
+			}
+		}
+	};
+	private static final CustomCommandInfo CONNECTIONS = new CustomCommandInfo(CONNECTIONS_INFO, "connections", 0) {
+		@Override
+		protected void run(ConsoleActivity console, String... args) {
+			long opened = HermitHttpClient.getConnectionsOpened();
+			long reused = HermitHttpClient.getConnectionsReused();
+			long total = opened + reused;
+			StringBuilder builder = new StringBuilder("Connections opened: " + opened + ", reused: " + reused
+					+ (total > 0 ? " (" + (100 * reused / total) + "% reuse)" : ""));
+			for (CircuitBreaker breaker : CircuitBreaker.getAll()) {
+				builder.append('\n').append(breaker.getServer()).append(": ");
+				switch (breaker.getState()) {
+				case OPEN:
+					builder.append("down, retrying in ")
+					.append((breaker.getRemainingOpenMs() + 999) / 1000).append(" s");
+					break;
+				case HALF_OPEN:
+					builder.append("checking whether the server is back");
+					break;
+				default:
+					builder.append("reachable");
+					break;
+				}
+			}
+			console.appendErrorResponse(builder.toString());
 		}
 	};
 	private static final CustomCommandInfo EXIT = new CustomCommandInfo(EXIT_INFO, "exit", 0) {
@@ -43,6 +161,160 @@ public class CustomCommandDispatcher {
 			console.exit(false);
 		}
 	};
+	private static final CustomCommandInfo EXPLORE = new CustomCommandInfo(EXPLORE_INFO, "explore", 1, true) {
+		@Override
+		protected void run(ConsoleActivity console, String... args) {
+			if (args.length == 2 && args[0].equals("pick")) {
+				try {
+					console.getHermitClient().pickExplored(Integer.parseInt(args[1]));
+				} catch (NumberFormatException e) {
+					console.appendErrorResponse("ERROR: " + args[1] + " is not a result number.");
+				}
+				return;
+			}
+			List<String> candidates = new ArrayList<String>();
+			for (String candidate : varargsToString(args).split(";")) {
+				if (!candidate.trim().isEmpty()) {
+					candidates.add(candidate.trim());
+				}
+			}
+			if (candidates.isEmpty()) {
+				console.appendErrorResponse("ERROR: explore needs commands to try, separated by semicolons.");
+			} else {
+				console.getHermitClient().explore(candidates, console.getCharsPerLine());
+			}
+		}
+	};
+	private static final CustomCommandInfo SCHEDULER = new CustomCommandInfo(SCHEDULER_INFO, "scheduler", 0) {
+		@Override
+		protected void run(ConsoleActivity console, String... args) {
+			StringBuilder builder = new StringBuilder();
+			for (Priority priority : Priority.values()) {
+				if (builder.length() > 0) {
+					builder.append('\n');
+				}
+				builder.append(priority.getName()).append(": ")
+				.append(priority.getQueueDepth()).append(" queued, ")
+				.append(priority.getStartedCount()).append(" started, ")
+				.append(priority.getDroppedCount()).append(" dropped, wait avg ")
+				.append(priority.getAverageWaitMs()).append(" ms, max ")
+				.append(priority.getLongestWaitMs()).append(" ms");
+			}
+			console.appendErrorResponse(builder.toString());
+		}
+	};
+	private static final CustomCommandInfo SERVERS = new CustomCommandInfo(SERVERS_INFO, "servers", 0, true) {
+		@Override
+		protected void run(ConsoleActivity console, String... args) {
+			HermitClient client = console.getHermitClient();
+			if (args.length == 2 && (args[0].equals("stop") || args[0].equals("start"))) {
+				ScriptedHermit server = client.getScriptedServer(args[1]);
+				if (server == null) {
+					console.appendErrorResponse("ERROR: there is no fake server named " + args[1] + ".");
+				} else {
+					boolean stop = args[0].equals("stop");
+					server.setDown(stop);
+					console.appendErrorResponse(args[1] + (stop ? " stopped." : " started."));
+				}
+				return;
+			} else if (args.length > 0) {
+				console.appendErrorResponse("ERROR: use \"servers\", \"servers stop <name>\" or \"servers start <name>\".");
+				return;
+			}
+
+			ServerPool pool = client.getServerPool();
+			if (pool == null) {
+				console.appendErrorResponse("Not connected to several servers.");
+				return;
+			}
+			StringBuilder builder = new StringBuilder("server: state, average response (ms), sessions");
+			for (ServerPool.Server server : pool.getServers()) {
+				builder.append('\n').append(server.getName()).append(": ")
+				.append(server.getState().name().toLowerCase(Locale.US)).append(", ")
+				.append(server.getLatencyMs() >= 0 ? String.valueOf(server.getLatencyMs()) : "-").append(", ")
+				.append(server.getSessions());
+				if (server.getUrl().equals(client.getServerUrl())) {
+					builder.append(" (current)");
+				}
+			}
+			console.appendErrorResponse(builder.toString());
+		}
+	};
+	private static final CustomCommandInfo STATS = new CustomCommandInfo(STATS_INFO, "stats", 0, true) {
+		@Override
+		protected void run(final ConsoleActivity console, String... args) {
+			if (args.length > 0 && args[0].equals("export")) {
+				final String path = DeviceConstants.CACHE_DIR + "/timings-" + System.currentTimeMillis() + ".csv";
+				AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+					@Override
+					public void run() {
+						String message;
+						try {
+							StageTimings.export(path);
+							message = "Timings saved to " + path;
+						} catch (IOException e) {
+							message = "ERROR: could not save timings (" + e.getMessage() + ")";
+						}
+						final String result = message;
+						console.runOnUiThread(new Runnable() {
+							@Override
+							public void run() {
+								console.appendErrorResponse(result);
+							}
+						});
+					}
+				});
+			} else if (args.length > 0 && args[0].equals("clear")) {
+				StageTimings.clear();
+				RequestKind.clearByteCounts();
+				console.appendErrorResponse("Timings cleared.");
+			} else {
+				StringBuilder builder = new StringBuilder("stage: p50 / p95 / p99 (ms), samples");
+				for (Stage stage : Stage.values()) {
+					LatencyHistogram histogram = stage.getHistogram();
+					builder.append('\n').append(stage.getName()).append(": ");
+					if (histogram.getSampleCount() == 0) {
+						builder.append("no samples");
+					} else {
+						builder.append(formatMicros(histogram.getPercentile(0.5))).append(" / ")
+						.append(formatMicros(histogram.getPercentile(0.95))).append(" / ")
+						.append(formatMicros(histogram.getPercentile(0.99))).append(", ")
+						.append(histogram.getSampleCount());
+					}
+				}
+				builder.append("\n\nrequest: network / decoded (KB)");
+				for (RequestKind kind : RequestKind.values()) {
+					if (kind.getDecodedBytes() > 0) {
+						builder.append('\n').append(kind.name().toLowerCase(Locale.US)).append(": ")
+						.append(kind.getWireBytes() / 1024).append(" / ")
+						.append(kind.getDecodedBytes() / 1024);
+					}
+				}
+				console.appendErrorResponse(builder.toString());
+			}
+		}
+	};
+	private static final CustomCommandInfo TIMELINE = new CustomCommandInfo(TIMELINE_INFO, "timeline", 0, true) {
+		@Override
+		protected void run(ConsoleActivity console, String... args) {
+			HermitClient client = console.getHermitClient();
+			if (args.length == 0) {
+				console.appendErrorResponse(client.describeTimeline());
+			} else if (args.length > 1) {
+				console.appendErrorResponse("ERROR: timeline takes at most one argument.");
+			} else if (args[0].equals("back")) {
+				client.goBack();
+			} else if (args[0].equals("forward")) {
+				client.goForward();
+			} else {
+				try {
+					client.goToAst(Integer.parseInt(args[0]));
+				} catch (NumberFormatException e) {
+					console.appendErrorResponse("ERROR: " + args[0] + " is not back, forward, or an AST number.");
+				}
+			}
+		}
+	};
 	private static final CustomCommandInfo TOAST = new CustomCommandInfo(TOAST_INFO, "toast", 0, true) {
 		@Override
 		protected void run(ConsoleActivity console, String... args) {
@@ -150,12 +422,27 @@ public class CustomCommandDispatcher {
 		return builder.toString().trim();
 	}
 	
+	/**
+	 * Formats a duration in microseconds as milliseconds, to one decimal place.
+	 */
+	private static String formatMicros(long micros) {
+		return micros / 1000 + "." + (micros % 1000) / 100;
+	}
+
 	private static NavigableMap<String, CustomCommandInfo> mapCustomCommandNameInfos() {
 		ImmutableSortedMap.Builder<String, CustomCommandInfo> commandBuilder = ImmutableSortedMap.naturalOrder();
-		return commandBuilder.put(CLEAR.getName(), CLEAR)
+		return commandBuilder.put(BENCHMARK.getName(), BENCHMARK)
+				.put(CACHE.getName(), CACHE)
+				.put(CLEAR.getName(), CLEAR)
 				.put(CONNECT.getName(), CONNECT)
+				.put(CONNECTIONS.getName(), CONNECTIONS)
 				.put(EXIT.getName(), EXIT)
+				.put(EXPLORE.getName(), EXPLORE)
+				.put(SCHEDULER.getName(), SCHEDULER)
+				.put(SERVERS.getName(), SERVERS)
+				.put(STATS.getName(), STATS)
 				.put(TERMINAL.getName(), TERMINAL)
+				.put(TIMELINE.getName(), TIMELINE)
 				.put(TOAST.getName(), TOAST)
 				.build();
 	}
@@ -0,0 +1,46 @@
+package edu.kufpg.armatus.console;
+
+import edu.kufpg.armatus.data.CommandResponse;
+
+/**
+ * The last response with glyphs that the client showed, which the server may send the
+ * next command's response as a delta against (see {@link edu.kufpg.armatus.data.GlyphPatch
+ * GlyphPatch}). A delta only fits a base from the AST the command runs from, rendered at
+ * the width the command asks for.
+ */
+final class DeltaBase {
+	private CommandResponse mResponse;
+	private int mWidth;
+
+	/**
+	 * Remembers a response that the client showed, if it has glyphs to diff against.
+	 * @param width The width the response was rendered at.
+	 */
+	void remember(CommandResponse response, int width) {
+		if (response != null && response.hasGlyphs()) {
+			mResponse = response;
+			mWidth = width;
+		}
+	}
+
+	/**
+	 * Returns the response that a command's response may be a delta against, or
+	 * {@code null} if there is none for the AST at the width, in which case the server
+	 * sends the full response.
+	 */
+	CommandResponse get(int ast, int width) {
+		if (mResponse != null && mResponse.getAst() == ast && mWidth == width) {
+			return mResponse;
+		}
+		return null;
+	}
+
+	/**
+	 * Forgets the base, since the session it belongs to has ended, or the server turned
+	 * out not to have it.
+	 */
+	void clear() {
+		mResponse = null;
+	}
+
+}
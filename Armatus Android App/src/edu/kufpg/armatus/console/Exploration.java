@@ -0,0 +1,237 @@
+package edu.kufpg.armatus.console;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+
+import edu.kufpg.armatus.data.CommandResponse;
+
+/**
+ * The candidate commands of an exploration, each run from the same AST, with at most a
+ * fixed number in flight at a time. Once every candidate has finished, the results are
+ * ranked smallest first, since the smallest output is usually the most simplified term.
+ * How a candidate is run is up to the {@link Runner}, which reports back with
+ * {@link #finish(int, CommandResponse, String)}, either straight away (e.g., from a cache)
+ * or later. All calls must be made on the same thread.
+ */
+final class Exploration {
+	private final List<String> mCandidates;
+	private final int mFromAst;
+	private final int mCharsPerLine;
+	private final int mMaxParallel;
+	private final CommandResponse[] mResponses;
+	private final String[] mErrors;
+	private Runner mRunner;
+	private Listener mListener;
+	private int mNext = 0;
+	private int mRunning = 0;
+	private int mFinished = 0;
+	private boolean mCancelled = false;
+	/** The candidates' indices, best first, once every candidate has finished. */
+	private List<Integer> mRanking;
+
+	/**
+	 * @param candidates The commands to try.
+	 * @param fromAst The AST every candidate runs from.
+	 * @param charsPerLine The width to render the results at.
+	 * @param maxParallel How many candidates may run at once.
+	 */
+	Exploration(List<String> candidates, int fromAst, int charsPerLine, int maxParallel) {
+		if (maxParallel < 1) {
+			throw new IllegalArgumentException("maxParallel must be at least 1");
+		}
+		mCandidates = ImmutableList.copyOf(candidates);
+		mFromAst = fromAst;
+		mCharsPerLine = charsPerLine;
+		mMaxParallel = maxParallel;
+		mResponses = new CommandResponse[candidates.size()];
+		mErrors = new String[candidates.size()];
+	}
+
+	/**
+	 * Starts running the candidates.
+	 * @param runner Runs each candidate.
+	 * @param listener Told once every candidate has finished, unless the exploration is
+	 * cancelled first.
+	 */
+	void start(Runner runner, Listener listener) {
+		mRunner = runner;
+		mListener = listener;
+		if (mCandidates.isEmpty()) {
+			rank();
+		} else {
+			launchMore();
+		}
+	}
+
+	/**
+	 * Stops running candidates. Candidates still running are told to stop, and the
+	 * listener is never told about this exploration.
+	 */
+	void cancel() {
+		mCancelled = true;
+		if (mRunner != null) {
+			mRunner.cancelAll();
+		}
+	}
+
+	private void launchMore() {
+		while (!mCancelled && mRunning < mMaxParallel && mNext < mCandidates.size()) {
+			int index = mNext++;
+			mRunning++;
+			mRunner.run(this, index, mCandidates.get(index));
+		}
+	}
+
+	/**
+	 * Records how a candidate turned out and starts the next one.
+	 * @param index The candidate's index.
+	 * @param response What the candidate produced, or {@code null} if it failed.
+	 * @param error Why the candidate failed, if it did.
+	 */
+	void finish(int index, CommandResponse response, String error) {
+		if (mCancelled) {
+			return;
+		}
+		if (mResponses[index] != null || mErrors[index] != null) {
+			throw new IllegalStateException("Candidate " + index + " already finished");
+		}
+		mResponses[index] = response;
+		mErrors[index] = (response == null && error == null) ? "ERROR: cancelled." : error;
+		mRunning--;
+		mFinished++;
+		if (mFinished < mCandidates.size()) {
+			launchMore();
+		} else {
+			rank();
+		}
+	}
+
+	private void rank() {
+		List<Integer> ranking = new ArrayList<Integer>(mCandidates.size());
+		for (int i = 0; i < mCandidates.size(); i++) {
+			ranking.add(i);
+		}
+		//The sort is stable, so equally good candidates stay in the order they were given
+		Collections.sort(ranking, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer lhs, Integer rhs) {
+				return Long.signum(sizeOf(mResponses[lhs]) - sizeOf(mResponses[rhs]));
+			}
+		});
+		mRanking = Collections.unmodifiableList(ranking);
+		if (mListener != null) {
+			mListener.onExplored(this);
+		}
+	}
+
+	/**
+	 * Returns how a result ranks: expressions by their length, then results with only a
+	 * message (usually a command that did not apply), then failed requests.
+	 */
+	private static long sizeOf(CommandResponse response) {
+		if (response == null) {
+			return Long.MAX_VALUE;
+		} else if (response.hasGlyphs()) {
+			return response.getGlyphText().length();
+		} else {
+			return Integer.MAX_VALUE;
+		}
+	}
+
+	boolean isFinished() {
+		return mRanking != null;
+	}
+
+	/**
+	 * Returns the candidates' indices, best first.
+	 * @throws IllegalStateException if the exploration has not finished.
+	 */
+	List<Integer> getRanking() throws IllegalStateException {
+		if (mRanking == null) {
+			throw new IllegalStateException("Exploration has not finished");
+		}
+		return mRanking;
+	}
+
+	/**
+	 * Returns the index of the candidate with a rank, or -1 if no candidate has that
+	 * rank or the candidate failed.
+	 * @param rank The rank, counting from 1.
+	 * @throws IllegalStateException if the exploration has not finished.
+	 */
+	int getIndex(int rank) throws IllegalStateException {
+		List<Integer> ranking = getRanking();
+		if (rank < 1 || rank > ranking.size()) {
+			return -1;
+		}
+		int index = ranking.get(rank - 1);
+		return (mResponses[index] != null) ? index : -1;
+	}
+
+	/**
+	 * Returns how many candidates are running right now.
+	 */
+	int getRunningCount() {
+		return mRunning;
+	}
+
+	int size() {
+		return mCandidates.size();
+	}
+
+	int getFromAst() {
+		return mFromAst;
+	}
+
+	int getCharsPerLine() {
+		return mCharsPerLine;
+	}
+
+	String getCandidate(int index) {
+		return mCandidates.get(index);
+	}
+
+	/**
+	 * Returns what a candidate produced, or {@code null} if it failed or has not finished.
+	 */
+	CommandResponse getResponse(int index) {
+		return mResponses[index];
+	}
+
+	/**
+	 * Returns why a candidate failed, or {@code null} if it didn't or has not finished.
+	 */
+	String getError(int index) {
+		return mErrors[index];
+	}
+
+	/**
+	 * Runs the candidates of an exploration.
+	 */
+	interface Runner {
+		/**
+		 * Starts running a candidate, which must end in a call to
+		 * {@link Exploration#finish(int, CommandResponse, String)}, on the exploration's
+		 * thread, unless the exploration is cancelled.
+		 */
+		void run(Exploration exploration, int index, String candidate);
+
+		/**
+		 * Stops every candidate still running.
+		 */
+		void cancelAll();
+	}
+
+	/**
+	 * Interface definition for a callback to be invoked when every candidate of an
+	 * exploration has finished.
+	 */
+	interface Listener {
+		void onExplored(Exploration exploration);
+	}
+
+}
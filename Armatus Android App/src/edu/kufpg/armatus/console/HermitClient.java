@@ -1,84 +1,160 @@
 package edu.kufpg.armatus.console;
 
-import android.app.ProgressDialog;
-import android.content.Context;
-import android.content.DialogInterface;
-import android.content.DialogInterface.OnCancelListener;
+import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.Message;
 import android.os.Parcel;
 import android.os.Parcelable;
 import com.google.common.base.Function;
 import com.google.common.collect.Collections2;
-import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableSortedSet;
-import com.google.common.collect.SortedSetMultimap;
-import com.google.common.collect.TreeMultimap;
+import edu.kufpg.armatus.AsyncActivityTask;
 import edu.kufpg.armatus.DeviceConstants;
 import edu.kufpg.armatus.Prefs;
+import edu.kufpg.armatus.TaskScheduler.Priority;
 import edu.kufpg.armatus.data.Command;
+import edu.kufpg.armatus.data.BinaryResponses;
+import edu.kufpg.armatus.data.CommandBatch;
 import edu.kufpg.armatus.data.CommandInfo;
 import edu.kufpg.armatus.data.CommandResponse;
 import edu.kufpg.armatus.data.Complete;
 import edu.kufpg.armatus.data.Completion;
+import edu.kufpg.armatus.data.GlyphPatch;
 import edu.kufpg.armatus.data.History;
 import edu.kufpg.armatus.data.HistoryCommand;
 import edu.kufpg.armatus.data.Token;
+import edu.kufpg.armatus.networking.BluetoothTransport;
 import edu.kufpg.armatus.networking.BluetoothUtils;
-import edu.kufpg.armatus.networking.HermitBluetoothReceiveRequest;
-import edu.kufpg.armatus.networking.HermitBluetoothSendRequest;
+import edu.kufpg.armatus.networking.ConnectivityMonitor;
+import edu.kufpg.armatus.networking.ConnectivityMonitor.OnConnectivityChangedListener;
 import edu.kufpg.armatus.networking.HermitHttpServerRequest;
 import edu.kufpg.armatus.networking.HermitHttpServerRequest.HttpRequest;
+import edu.kufpg.armatus.networking.HermitProtocol;
+import edu.kufpg.armatus.networking.HermitTransport;
+import edu.kufpg.armatus.networking.HttpTransport;
+import edu.kufpg.armatus.networking.InMemoryTransport;
 import edu.kufpg.armatus.networking.InternetUtils;
+import edu.kufpg.armatus.networking.MainThreadScheduler;
+import edu.kufpg.armatus.networking.ScriptedHermit;
+import edu.kufpg.armatus.networking.ServerPool;
+import edu.kufpg.armatus.util.JsonReader;
 import edu.kufpg.armatus.util.JsonUtils;
 import edu.kufpg.armatus.util.ParcelUtils;
+import edu.kufpg.armatus.util.StageTimings;
+import edu.kufpg.armatus.util.StageTimings.Stage;
 import edu.kufpg.armatus.util.StringUtils;
-import org.json.JSONArray;
+import org.apache.http.HttpStatus;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
-public class HermitClient implements Parcelable {
+public class HermitClient implements Parcelable, OnConnectivityChangedListener, ServerPool.Listener {
     public static int NO_TOKEN = -1;
+    /** Connecting to this URL talks to an in-process {@link ScriptedHermit} instead of a server. */
+    public static final String SCRIPTED_SERVER_URL = "memory://scripted";
+    /** The size and simulated latency of the {@link ScriptedHermit}'s responses. */
+    private static final int SCRIPTED_GLYPHS_PER_RESPONSE = 400;
+    private static final long SCRIPTED_LATENCY_MS = 50;
     private static final String HISTORY_FILENAME = "/history.txt";
+    /** The maximum number of commands to send in a single batch request. */
+    static final int MAX_BATCH_SIZE = 50;
+    /** How many candidates of an exploration run at once, which leaves a thread for other work. */
+    private static final int MAX_PARALLEL_CANDIDATES = 3;
     private ConsoleActivity mConsole;
-    private ProgressDialog mProgress;
+    /** Times the session that is being started, until every startup step has finished. */
+    private Startup mStartup;
+    private Exploration mExploration;
 
-    private RequestName mDelayedRequestName = RequestName.NULL;
+    /** Shared by every client in the process, since they all log to the same file. */
+    private final CommandJournal mJournal = CommandJournal.get();
+
+    /** Requests that are waiting for a connection, in the order they were made. */
+    private Set<RequestName> mDelayedRequests = new LinkedHashSet<RequestName>();
     private String mServerUrl;
+    private HermitTransport mTransport;
+    /** The servers a session may be placed on, or {@code null} if there is only one. */
+    private ServerPool mServerPool;
+    private List<String> mRestoredPoolUrls = Collections.emptyList();
+    private boolean mPlacingSession = false;
+    /** Whether the console is in the background, when servers aren't checked. */
+    private boolean mServerChecksPaused = false;
+    private final SessionFailover mFailover = new SessionFailover();
+    private final Map<String, ScriptedHermit> mScriptedServers =
+            Collections.synchronizedMap(new HashMap<String, ScriptedHermit>());
     private Bundle mTempBundle = new Bundle();
+    private ArrayDeque<PendingCommand> mPendingCommands = new ArrayDeque<PendingCommand>();
+    private boolean mCommandInFlight = false;
+    private boolean mBatchUnsupported = false;
+    /** The version of the {@link CommandCatalog} shown in the command menu, if any. */
+    private String mCatalogVersion;
+    private final CompletionCache mCompletionCache = new CompletionCache();
+    private HermitHttpServerRequest<List<Completion>> mCompletionRequest;
+    private CompletionCache.Key mCompletionRequestKey;
+    private HermitHttpServerRequest<Void> mHistorySaveRequest;
+    private long mHistorySaveId = OperationJournal.NO_ID;
     private Token mToken;
-    private final Handler mHandler = new Handler() {
+    /**
+     * Identifies the server session that {@link #mToken} belongs to. A new one is picked on
+     * every connect, since a restarted server hands out the same user and AST numbers again.
+     */
+    private String mSession;
+    /** The AST the server session started at, where the way to any of its ASTs begins. */
+    private int mStartingAst;
+    private final DeltaBase mDeltaBase = new DeltaBase();
+    private final AstTimeline mTimeline = new AstTimeline();
+    private final SessionCheckpointer mCheckpointer = new SessionCheckpointer(this, new SessionCheckpointer.Listener() {
         @Override
-        public void handleMessage(Message msg) {
-            String input = (String) msg.obj;
-            if (input != null) {
-                mConsole.appendErrorResponse(input);
-            }
+        public void onCheckpointLoaded(SessionCheckpoint checkpoint, long startedAt) {
+            restoreCheckpoint(checkpoint, startedAt);
         }
-    };
+
+        @Override
+        public void onSessionLost() {
+            mToken = null;
+            mDeltaBase.clear();
+            mTimeline.clear();
+            skipPendingCommands("ERROR: command skipped because the session ended.");
+        }
+    });
 
     public HermitClient(ConsoleActivity console) {
         mConsole = console;
     }
 
-    public void handleInput(String input) {
-        mHandler.obtainMessage(-1, input).sendToTarget();
-    }
-
     public void completeInput(final String input) {
         if (isTokenAcquired(false)) {
-            if (isNetworkConnected(RequestName.COMPLETE)) {
+            CompletionCache.Key key = newCompletionKey(input);
+            List<Completion> cached = mCompletionCache.get(key);
+            if (cached != null) {
+                abortCompletionRequest();
+                showCompletions(cached);
+            } else if (mCompletionRequest != null && mCompletionRequestKey.canAnswer(key)) {
+                //The request already in flight will answer this input too
+                return;
+            } else if (isNetworkConnected(RequestName.COMPLETE)) {
+                //Any request still in flight was for input the user has since changed
+                abortCompletionRequest();
                 Complete complete = new Complete(mToken.getUser(), input);
-                newCompleteInputRequest().execute(mServerUrl + "/complete", complete.toString());
+                mCompletionRequestKey = key;
+                mCompletionRequest = newCompleteInputRequest(key, null);
+                mCompletionRequest.executeWithPriority(Priority.COMPLETION, mServerUrl + HermitProtocol.COMPLETE, complete.toString());
             } else {
                 mTempBundle.putString("input", input);
             }
@@ -87,25 +163,422 @@ public class HermitClient implements Parcelable {
         }
     }
 
+    private void abortCompletionRequest() {
+        if (mCompletionRequest != null) {
+            mCompletionRequest.abort();
+            mCompletionRequest = null;
+            mCompletionRequestKey = null;
+        }
+    }
+
+    private void showCompletions(List<Completion> completions) {
+        SortedSet<String> suggestions = new TreeSet<String>();
+        suggestions.addAll(Collections2.transform(completions, new Function<Completion, String>() {
+            @Override
+            public String apply(Completion input) {
+                return input.getReplacement();
+            }
+        }));
+        mConsole.attemptInputCompletion(suggestions);
+    }
+
+    /**
+     * Connects to a HERMIT server.
+     * @param serverUrl The server's URL, or {@link #SCRIPTED_SERVER_URL}. A server URL is
+     * ignored if Bluetooth is the selected source, since requests then go to the selected
+     * Bluetooth device.
+     */
     public void connect(String serverUrl) {
+        if (!isScripted(serverUrl) && Prefs.isBluetoothSource(mConsole)) {
+            serverUrl = BluetoothUtils.getServerUrl(mConsole);
+        }
+        setServerPool(null);
+        mScriptedServers.clear();
+        mTransport = newTransport(serverUrl);
+        connectTo(serverUrl, true);
+    }
+
+    /**
+     * Connects to whichever of several interchangeable HERMIT servers is answering
+     * fastest, once they have all been checked. The servers keep being checked while the
+     * session lasts, and if its server stops answering, the session is moved to another
+     * one (see {@link ServerPool}).
+     * @param serverUrls The servers' URLs, which must all be HTTP servers or all be
+     * scripted ones (see {@link #getScriptedServerUrls(int)}).
+     */
+    public void connect(List<String> serverUrls) {
+        if (serverUrls.size() == 1 || (!isScripted(serverUrls.get(0)) && Prefs.isBluetoothSource(mConsole))) {
+            connect(serverUrls.get(0));
+            return;
+        }
+        mScriptedServers.clear();
+        mTransport = newTransport(serverUrls.get(0));
+        setServerPool(newServerPool(serverUrls));
+        mServerUrl = null;
+        mToken = null;
+        placeSession();
+    }
+
+    /**
+     * Creates a pool of servers reached with the current transport, which are checked in
+     * the background and reported on the main thread.
+     */
+    private ServerPool newServerPool(List<String> serverUrls) {
+        return new ServerPool(serverUrls, mTransport, AsyncTask.THREAD_POOL_EXECUTOR, new MainThreadScheduler());
+    }
+
+    private void setServerPool(ServerPool pool) {
+        if (mServerPool != null) {
+            mServerPool.stop();
+            mServerPool.setListener(null);
+        }
+        mServerPool = pool;
+        mPlacingSession = false;
+        mFailover.reset();
+        if (pool != null) {
+            pool.setListener(this);
+        }
+    }
+
+    private void placeSession() {
+        if (isNetworkConnected(RequestName.CONNECT)) {
+            mConsole.appendErrorResponse("Checking " + mServerPool.getServers().size() + " servers...");
+            mPlacingSession = true;
+            mServerPool.start();
+        }
+    }
+
+    /**
+     * Opens a session on a server.
+     * @param startSession {@code false} if the session is replacing one on a server that
+     * stopped answering, in which case the console already has its catalog and history.
+     */
+    private void connectTo(String serverUrl, boolean startSession) {
         mServerUrl = serverUrl;
         if (isNetworkConnected(RequestName.CONNECT)) {
-            newConnectRequest().execute(mServerUrl + "/connect");
+            if (mServerPool != null) {
+                mServerPool.recordSession(serverUrl);
+            }
+            if (startSession) {
+                mStartup = new Startup();
+                loadSavedCatalog();
+            }
+            newConnectRequest().executeWithPriority(Priority.INTERACTIVE, mServerUrl + HermitProtocol.CONNECT);
+        }
+    }
+
+    private void reconnect() {
+        if (mServerPool != null && mServerUrl == null) {
+            placeSession();
+        } else {
+            connectTo(mServerUrl, !mFailover.isMoving());
+        }
+    }
+
+    /**
+     * Called after each round of server health checks. Places a new session on the best
+     * server, and moves the current session elsewhere if its server is down.
+     */
+    @Override
+    public void onServersChecked(ServerPool pool) {
+        if (pool != mServerPool || mConsole == null) {
+            return;
+        }
+        if (mPlacingSession) {
+            mPlacingSession = false;
+            String serverUrl = pool.pickServer(null);
+            if (serverUrl != null) {
+                connectTo(serverUrl, true);
+            } else {
+                mConsole.appendErrorResponse("ERROR: none of the servers responded.");
+            }
+            return;
+        }
+
+        String failureMessage = mFailover.takeFailure();
+        if (mToken != null && !mFailover.isMoving() && pool.isDown(mServerUrl) && failOver()) {
+            return;
+        }
+        if (failureMessage != null && !mPendingCommands.isEmpty()) {
+            //The server is still up, or there is nowhere to move to, so the command just failed
+            PendingCommand failed = mPendingCommands.poll();
+            mConsole.appendErrorResponse(failed.getEntryNum(), failureMessage);
+            mJournal.complete(failed.getId());
+            skipPendingCommands("ERROR: command skipped because a previous command failed.");
+        }
+    }
+
+    /**
+     * Moves the session to another server after its server stopped answering, by opening
+     * a new session there and replaying the commands that led to the current AST. Commands
+     * entered in the meantime wait, and are sent once the replay is done.
+     * @return {@code false} if there is no other server to move to.
+     */
+    private boolean failOver() {
+        String serverUrl = mServerPool.pickServer(mServerUrl);
+        if (serverUrl == null) {
+            return false;
+        }
+        try {
+            mFailover.start(mConsole.getCommandHistory(), mStartingAst, mToken.getAst());
+        } catch (IllegalArgumentException e) {
+            //Replaying only part of the way would leave the session somewhere it never was
+            mConsole.appendErrorResponse("ERROR: the session can't be moved to another server, since its history"
+                    + " doesn't lead back to where it started.");
+            return false;
+        }
+        mConsole.appendErrorResponse("The server stopped responding, so the session is moving to "
+                + Uri.parse(serverUrl).getHost() + ".");
+        mToken = null;
+        mDeltaBase.clear();
+        mTimeline.clear();
+        abortCompletionRequest();
+        connectTo(serverUrl, false);
+        return true;
+    }
+
+    private void replaySessionPath() {
+        List<HistoryCommand> path = mFailover.takePath();
+        if (path.isEmpty()) {
+            mConsole.setCommandHistory(mFailover.rebuildHistory(mStartingAst, path));
+            finishFailover(true);
+        } else {
+            loadHistoryCommands(path);
+        }
+    }
+
+    private void finishFailover(boolean succeeded) {
+        mFailover.finish();
+        if (succeeded) {
+            mTimeline.visit(mToken.getAst(), null, null, 0);
+            flushPendingOperations();
+        } else {
+            skipPendingCommands("ERROR: command skipped because the session could not be moved to another server.");
+        }
+    }
+
+    public ServerPool getServerPool() {
+        return mServerPool;
+    }
+
+    /**
+     * Returns the URL of the server the session is on, or {@code null} if there is none yet.
+     */
+    public String getServerUrl() {
+        return mServerUrl;
+    }
+
+    ConsoleActivity getConsole() {
+        return mConsole;
+    }
+
+    /**
+     * Returns the session's token, which moves along as commands run, or {@code null} if
+     * there is no session.
+     */
+    Token getToken() {
+        return mToken;
+    }
+
+    /**
+     * Returns the ID of the server session the token belongs to.
+     */
+    String getSession() {
+        return mSession;
+    }
+
+    /**
+     * Returns the AST the server session started at.
+     */
+    int getStartingAst() {
+        return mStartingAst;
+    }
+
+    /**
+     * Returns whether the server turned out to have no batch endpoint, so that commands
+     * are sent one at a time.
+     */
+    boolean isBatchUnsupported() {
+        return mBatchUnsupported;
+    }
+
+    void setBatchUnsupported() {
+        mBatchUnsupported = true;
+    }
+
+    /**
+     * Starts checking the servers of the pool, if there is one, in the background.
+     */
+    void resumeServerChecks() {
+        mServerChecksPaused = false;
+        if (mServerPool != null && !mPlacingSession) {
+            mServerPool.start();
+        }
+    }
+
+    /**
+     * Stops checking the servers of the pool while the console is in the background, even
+     * if a session is restored in the meantime.
+     */
+    void pauseServerChecks() {
+        mServerChecksPaused = true;
+        if (mServerPool != null) {
+            mServerPool.stop();
         }
     }
 
     public void fetchCommands() {
         if (isNetworkConnected(RequestName.COMMANDS) && isTokenAcquired(true)) {
-            newFetchCommandsRequest().execute(mServerUrl + "/commands");
+            fetchCommands(null);
+        }
+    }
+
+    private void fetchCommands(Startup startup) {
+        //With a saved catalog the menu is already filled in, so just check it quietly
+        boolean revalidate = CommandCatalog.isSaved(mServerUrl);
+        newFetchCommandsRequest(revalidate, startup).executeWithPriority(Priority.FETCH, mServerUrl + HermitProtocol.COMMANDS);
+    }
+
+    /**
+     * Starts every step that only needs the new session's token at once, rather than one
+     * after another: checking the command catalog, reading the session's history, and
+     * warming the completion cache with the command names. Each step updates the console
+     * by itself as soon as it finishes.
+     */
+    private void startSession(Startup startup) {
+        if (!isNetworkConnected(RequestName.COMMANDS)) {
+            return;
+        }
+        startup.addStep();
+        fetchCommands(startup);
+
+        startup.addStep();
+        newReadHistoryRequest(startup).executeWithPriority(Priority.FETCH, mServerUrl + HermitProtocol.HISTORY, mToken.toString());
+
+        startup.addStep();
+        CompletionCache.Key key = newCompletionKey("");
+        Complete complete = new Complete(mToken.getUser(), "");
+        newCompleteInputRequest(key, startup).executeWithPriority(Priority.BACKGROUND, mServerUrl + HermitProtocol.COMPLETE, complete.toString());
+    }
+
+    /**
+     * Returns the transport that carries requests to the current server.
+     */
+    public HermitTransport getTransport() {
+        if (mTransport == null) {
+            mTransport = newTransport(mServerUrl);
+        }
+        return mTransport;
+    }
+
+    private HermitTransport newTransport(String serverUrl) {
+        if (isScripted(serverUrl)) {
+            //Each scripted server URL reaches its own stand-in
+            return new InMemoryTransport(new InMemoryTransport.Server() {
+                @Override
+                public HermitTransport.Response respond(HermitTransport.Request request) throws IOException {
+                    String host = Uri.parse(request.getUrl()).getHost();
+                    synchronized (mScriptedServers) {
+                        ScriptedHermit server = mScriptedServers.get(host);
+                        if (server == null) {
+                            server = new ScriptedHermit(SCRIPTED_GLYPHS_PER_RESPONSE);
+                            mScriptedServers.put(host, server);
+                        }
+                        return server.respond(request);
+                    }
+                }
+            }, SCRIPTED_LATENCY_MS);
+        } else if (Prefs.isBluetoothSource(mConsole)) {
+            return new BluetoothTransport(mConsole);
+        } else {
+            return new HttpTransport();
+        }
+    }
+
+    static boolean isScripted(String serverUrl) {
+        return serverUrl != null && serverUrl.startsWith(SCRIPTED_SERVER_URL);
+    }
+
+    /**
+     * Returns the URLs of several scripted servers, for trying out a pool of servers
+     * without any real ones.
+     * @param count How many servers.
+     */
+    public static List<String> getScriptedServerUrls(int count) {
+        List<String> urls = new ArrayList<String>(count);
+        urls.add(SCRIPTED_SERVER_URL);
+        for (int i = 2; i <= count; i++) {
+            urls.add(SCRIPTED_SERVER_URL + i);
+        }
+        return urls;
+    }
+
+    /**
+     * Returns a scripted server that the current transport has talked to.
+     * @param name The server's host, e.g., {@code "scripted2"}.
+     * @return the server, or {@code null} if there is none by that name.
+     */
+    public ScriptedHermit getScriptedServer(String name) {
+        return mScriptedServers.get(name);
+    }
+
+    /**
+     * Fills in the command menu from the catalog saved for the current server while the
+     * connection is being made, unless the server's own catalog arrives first.
+     */
+    private void loadSavedCatalog() {
+        final String serverUrl = mServerUrl;
+        new AsyncActivityTask<ConsoleActivity, Void, Void, CommandCatalog>(mConsole) {
+            @Override
+            protected CommandCatalog doInBackground(Void... params) {
+                return CommandCatalog.load(serverUrl);
+            }
+
+            @Override
+            protected void onPostExecute(CommandCatalog catalog) {
+                super.onPostExecute(catalog);
+                if (catalog != null && mCatalogVersion == null && serverUrl.equals(mServerUrl)) {
+                    showCatalog(catalog);
+                }
+            }
+        }.executeWithPriority(Priority.FETCH);
+    }
+
+    private void showCatalog(CommandCatalog catalog) {
+        mCatalogVersion = (catalog != null) ? catalog.getVersion() : null;
+        CommandHolder.setCatalog(catalog);
+        if (mConsole != null) {
+            mConsole.updateCommandExpandableMenu();
+        }
+        if (mStartup != null) {
+            mStartup.checkInteractive();
         }
     }
 
+    /**
+     * Saves the session's history. A save that can't be sent yet is journaled and sent once
+     * there is a connection, and asking again while one is waiting or running does nothing,
+     * since a single save already captures the whole history.
+     */
     public void fetchHistory() {
-        if (isNetworkConnected(RequestName.HISTORY) && isTokenAcquired(true)) {
-            newSaveHistoryRequest().execute(mServerUrl + "/history", mToken.toString());
+        if (mHistorySaveRequest != null || !isTokenAcquired(true)) {
+            return;
+        }
+        if (mHistorySaveId == OperationJournal.NO_ID) {
+            mHistorySaveId = mJournal.appendHistorySave(mServerUrl, mSession, mToken);
+        }
+        if (isNetworkConnected(RequestName.HISTORY)) {
+            mHistorySaveRequest = newSaveHistoryRequest();
+            mHistorySaveRequest.executeWithPriority(Priority.BACKGROUND, mServerUrl + HermitProtocol.HISTORY, mToken.toString());
         }
     }
 
+    private void finishHistorySave() {
+        mHistorySaveRequest = null;
+        mJournal.complete(mHistorySaveId);
+        mHistorySaveId = OperationJournal.NO_ID;
+    }
+
     public void loadHistory() {
         if (isNetworkConnected(RequestName.HISTORY) && isTokenAcquired(false)) {
             String path = "";
@@ -144,58 +617,407 @@ public class HermitClient implements Parcelable {
                 CustomCommandDispatcher.runCustomCommand(mConsole, inputs[0],
                         Arrays.copyOfRange(inputs, 1, inputs.length));
             }
+        } else if (inputs[0].equals("abort") || inputs[0].equals("resume")) {
+            if (isNetworkConnected(RequestName.COMMAND) && isTokenAcquired(true)) {
+                //Aborting or resuming ends the session, so anything still queued is moot
+                skipPendingCommands("ERROR: command skipped because the session ended.");
+                String cleanInput = StringUtils.noCharWrap(input);
+                Command command = new Command(mToken, cleanInput, charsPerLine);
+                newRunAbortResumeRequest().executeWithPriority(Priority.INTERACTIVE, mServerUrl + HermitProtocol.COMMAND, command.toString());
+            }
+        } else if (mFailover.isMoving() || isTokenAcquired(true)) {
+            String cleanInput = StringUtils.noCharWrap(input);
+            int entryNum = mConsole.getEntry(mConsole.getEntryCount() - 1).getEntryNum();
+            mPendingCommands.add(new PendingCommand(mJournal.appendCommand(mServerUrl, mSession, mToken, cleanInput, charsPerLine, 1),
+                    cleanInput, charsPerLine, entryNum));
+            dispatchNextCommand();
+        }
+    }
+
+    /**
+     * Runs a command several times in a row, as when a button bound to it is held down,
+     * with a single console entry for all of the repeats. The repeats are sent as one
+     * batch request if the server supports batches, and one at a time otherwise. Commands
+     * whose results don't depend only on the AST (see {@link CommandResponseCache#isCacheable(String)})
+     * are run just once.
+     */
+    public void runRepeatedCommand(String input, int repeats, int charsPerLine) {
+        String cleanInput = StringUtils.noCharWrap(input);
+        String name = input.trim().split(StringUtils.WHITESPACE)[0];
+        if (repeats <= 1 || CustomCommandDispatcher.isCustomCommand(name)
+                || !CommandResponseCache.isCacheable(cleanInput)) {
+            runCommand(input, charsPerLine);
+            return;
+        }
+        mConsole.addUserInputEntry(input);
+        if (mFailover.isMoving() || isTokenAcquired(true)) {
+            int entryNum = mConsole.getEntry(mConsole.getEntryCount() - 1).getEntryNum();
+            mConsole.appendErrorResponse(entryNum, "Repeated " + repeats + " times.");
+            mPendingCommands.add(new PendingCommand(mJournal.appendCommand(mServerUrl, mSession, mToken, cleanInput, charsPerLine, repeats),
+                    cleanInput, charsPerLine, entryNum, repeats));
+            dispatchNextCommand();
+        }
+    }
+
+    /**
+     * Returns whether any command entered so far has yet to finish.
+     */
+    public boolean isRunningCommands() {
+        return mCommandInFlight || mFailover.isMoving() || !mPendingCommands.isEmpty();
+    }
+
+    /**
+     * Queues the operations that an earlier process journaled but never finished, ahead of
+     * anything entered since. Commands are shown again as if they had just been entered,
+     * unless they are already queued because the client itself was restored. Operations
+     * from any session but the current one are dropped, since their commands would run
+     * from ASTs they were never meant for.
+     */
+    private void restoreUnfinishedOperations() {
+        CommandJournal.Unfinished unfinished = mJournal.takeUnfinished(mServerUrl, mSession, mToken);
+        if (unfinished == null) {
+            return;
+        }
+
+        Set<Long> queuedIds = new HashSet<Long>();
+        for (PendingCommand pending : mPendingCommands) {
+            queuedIds.add(pending.getId());
+        }
+        List<PendingCommand> restored = new ArrayList<PendingCommand>();
+        for (JSONObject operation : unfinished.getCommands()) {
+            long id = CommandJournal.getId(operation);
+            if (!queuedIds.contains(id)) {
+                String input = operation.optString(CommandJournal.INPUT);
+                mConsole.addUserInputEntry(input);
+                int entryNum = mConsole.getEntry(mConsole.getEntryCount() - 1).getEntryNum();
+                restored.add(new PendingCommand(id, input, operation.optInt(CommandJournal.WIDTH), entryNum,
+                        operation.optInt(CommandJournal.REPEATS, 1)));
+            }
+        }
+        for (int i = restored.size() - 1; i >= 0; i--) {
+            mPendingCommands.addFirst(restored.get(i));
+        }
+        for (long id : unfinished.getHistorySaveIds()) {
+            if (mHistorySaveId == OperationJournal.NO_ID) {
+                mHistorySaveId = id;
+            } else {
+                mJournal.complete(id);
+            }
+        }
+        int dropped = unfinished.getDroppedCount();
+        if (dropped > 0) {
+            mConsole.appendErrorResponse("Dropped " + dropped + " unsent command" + (dropped == 1 ? "" : "s")
+                    + " from an earlier session.");
+        }
+    }
+
+    /**
+     * Sends everything that was waiting for a token, oldest first.
+     */
+    private void flushPendingOperations() {
+        dispatchNextCommand();
+        if (mHistorySaveId != OperationJournal.NO_ID) {
+            fetchHistory();
+        }
+    }
+
+    /**
+     * Sends the oldest queued command if no other command is currently running. Each
+     * command runs against the AST returned by the command before it, so commands are
+     * sent back-to-back in the order the user entered them while console input stays
+     * enabled.
+     */
+    private void dispatchNextCommand() {
+        //Commands only ever wait here with a token, or restored ones until there is one
+        if (mCommandInFlight || mFailover.isMoving() || mFailover.isHoldingFailure() || !isTokenAcquired(false)) {
+            return;
+        }
+        restoreUnfinishedOperations();
+        if (mPendingCommands.isEmpty()) {
+            return;
+        }
+        //Commands that were already run from the current AST don't need a round trip
+        while (!mPendingCommands.isEmpty()) {
+            PendingCommand next = mPendingCommands.peek();
+            CommandResponseCache.Key key = newCacheKey(mToken, next.getInput(), next.getCharsPerLine());
+            CommandResponse cached = (key != null) ? CommandResponseCache.get(key) : null;
+            if (cached == null) {
+                break;
+            }
+            completeStep(mPendingCommands.poll(), cached);
+        }
+        if (!mPendingCommands.isEmpty() && isNetworkConnected(RequestName.COMMAND)) {
+            PendingCommand pending = mPendingCommands.poll();
+            if (pending.getRepeats() > 1 && !mBatchUnsupported) {
+                int steps = Math.min(pending.getRepeats(), MAX_BATCH_SIZE);
+                CommandBatch batch = new CommandBatch(mToken, Collections.nCopies(steps, pending.getInput()),
+                        pending.getCharsPerLine());
+                mCommandInFlight = true;
+                newRunRepeatedCommandRequest(pending, steps).executeWithPriority(Priority.INTERACTIVE, mServerUrl + HermitProtocol.BATCH, batch.toString());
+                return;
+            }
+            CommandResponse base = mDeltaBase.get(mToken.getAst(), pending.getCharsPerLine());
+            Command command = (base != null)
+                    ? new Command(mToken, pending.getInput(), pending.getCharsPerLine(), base.getAst())
+                    : new Command(mToken, pending.getInput(), pending.getCharsPerLine());
+            mCommandInFlight = true;
+            newRunCommandRequest(pending, base).executeWithPriority(Priority.INTERACTIVE, mServerUrl + HermitProtocol.COMMAND, command.toString());
+        }
+    }
+
+    /**
+     * Completes one run of a command. If the command is repeated, the session moves on
+     * without showing the response, and the remaining repeats are queued ahead of
+     * everything else.
+     */
+    private void completeStep(PendingCommand pending, CommandResponse response) {
+        if (pending.getRepeats() > 1) {
+            advance(pending.getInput(), pending.getCharsPerLine(), response);
+            mPendingCommands.addFirst(pending.withRepeats(pending.getRepeats() - 1));
         } else {
-            //Hardcode Bluetooth testing for now since I'm lazy
-            if (Prefs.isBluetoothSource(mConsole)) {
-                if (input.equals("btconnect") && !BluetoothUtils.isBluetoothConnected(mConsole)) {
-                    new HermitBluetoothReceiveRequest(mConsole).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
-                } else if (isNetworkConnected(RequestName.COMMAND) && BluetoothUtils.isBluetoothConnected(mConsole)) {
-                    String cleanInput = StringUtils.noCharWrap(input);
-                    new HermitBluetoothSendRequest(mConsole).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, cleanInput);
-                } else if (BluetoothUtils.isBluetoothConnected(mConsole)) {
-                    mTempBundle.putString("input", input);
-                    mTempBundle.putInt("charsPerLine", charsPerLine);
-                }
+            completeCommand(pending, response);
+        }
+    }
+
+    private void completeCommand(PendingCommand pending, CommandResponse response) {
+        advance(pending.getInput(), pending.getCharsPerLine(), response);
+        mConsole.appendCommandResponse(pending.getEntryNum(), response);
+        mConsole.recordAtNextFrame(Stage.TOTAL, pending.getSubmittedAt());
+        mJournal.complete(pending.getId());
+        mCheckpointer.save(pending.getInput(), pending.getCharsPerLine(), response);
+    }
+
+    /**
+     * Moves the session to the AST a command led to and records the step in the command
+     * history.
+     */
+    private void advance(String input, int charsPerLine, CommandResponse response) {
+        int fromAst = mToken.getAst();
+        int toAst = response.getAst();
+        mToken.setAst(toAst);
+        mConsole.addCommandHistoryEntry(fromAst, input, toAst);
+        mTimeline.visit(toAst, input, response, charsPerLine);
+        mDeltaBase.remember(response, charsPerLine);
+    }
+
+    /**
+     * Forgets the saved session, since the user has left it.
+     */
+    void discardCheckpoint() {
+        mCheckpointer.discard();
+    }
+
+    /**
+     * Reattaches to the session in the last {@link SessionCheckpoint}, if there is one, for a
+     * console started after the process was killed. The saved history and last response
+     * are shown straight away, and a single request checks that the server still has the
+     * session, rather than opening a new session and replaying the whole history.
+     */
+    void resumeSession() {
+        mCheckpointer.load();
+    }
+
+    private void restoreCheckpoint(SessionCheckpoint checkpoint, long startedAt) {
+        mServerUrl = checkpoint.getServerUrl();
+        mTransport = newTransport(mServerUrl);
+        if (checkpoint.getServerUrls().size() > 1) {
+            setServerPool(newServerPool(checkpoint.getServerUrls()));
+            if (!mServerChecksPaused) {
+                mServerPool.start();
+            }
+        }
+        mToken = checkpoint.getToken();
+        mSession = checkpoint.getSession();
+        mStartingAst = checkpoint.getStartingAst();
+        mConsole.setCommandHistory(checkpoint.getHistory());
+        if (checkpoint.hasResponse()) {
+            mConsole.addUserInputEntry(checkpoint.getInput());
+            int entryNum = mConsole.getEntry(mConsole.getEntryCount() - 1).getEntryNum();
+            mConsole.appendCommandResponse(entryNum, checkpoint.getResponse());
+            mDeltaBase.remember(checkpoint.getResponse(), checkpoint.getWidth());
+        }
+        mTimeline.clear();
+        mTimeline.visit(mToken.getAst(), checkpoint.getInput(), checkpoint.getResponse(), checkpoint.getWidth());
+        mConsole.updateInput();
+        loadSavedCatalog();
+        mConsole.appendErrorResponse("Resumed the session on " + Uri.parse(mServerUrl).getHost() + " in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt) + " ms.");
+
+        if (isNetworkConnected(RequestName.COMMANDS)) {
+            mCheckpointer.check();
+            fetchCommands(null);
+        }
+        flushPendingOperations();
+    }
+
+    /**
+     * Runs several candidate commands from the current AST at once, without moving the
+     * session to any of their results, and shows what each one produced, smallest first,
+     * since the smallest output is usually the most simplified term. One of the results
+     * can then be taken with {@link #pickExplored(int)}.
+     * @param candidates The commands to try.
+     * @param charsPerLine The width to render the results at.
+     */
+    public void explore(List<String> candidates, int charsPerLine) {
+        if (candidates.isEmpty() || !isTokenAcquired(true) || !isNetworkConnected(RequestName.COMMAND)) {
+            return;
+        }
+        if (mExploration != null) {
+            mExploration.cancel();
+        }
+        int fromAst = mToken.getAst();
+        mConsole.appendErrorResponse("Trying " + candidates.size() + " commands from AST " + fromAst + "...");
+        mExploration = new Exploration(candidates, fromAst, charsPerLine, MAX_PARALLEL_CANDIDATES);
+        ExplorationRunner runner = new ExplorationRunner(fromAst);
+        mExploration.start(runner, runner);
+    }
+
+    /**
+     * Moves the session to the result of a candidate from the last exploration, as if the
+     * candidate had been run as a command.
+     * @param rank The candidate's rank in the exploration's results, counting from 1.
+     */
+    public void pickExplored(int rank) {
+        if (mExploration == null || !mExploration.isFinished()) {
+            mConsole.appendErrorResponse("ERROR: there are no explored results to pick from.");
+            return;
+        }
+        int index = mExploration.getIndex(rank);
+        if (index < 0) {
+            mConsole.appendErrorResponse("ERROR: there is no explored result #" + rank + ".");
+        } else if (mToken == null || mToken.getAst() != mExploration.getFromAst()) {
+            mConsole.appendErrorResponse("ERROR: the session has moved on since the exploration.");
+        } else if (mCommandInFlight || !mPendingCommands.isEmpty()) {
+            mConsole.appendErrorResponse("ERROR: wait for the running commands to finish first.");
+        } else {
+            String candidate = mExploration.getCandidate(index);
+            CommandResponse response = mExploration.getResponse(index);
+            mToken.setAst(response.getAst());
+            mConsole.addCommandHistoryEntry(mExploration.getFromAst(), candidate, response.getAst());
+            mTimeline.visit(response.getAst(), candidate, response, mExploration.getCharsPerLine());
+            mConsole.appendErrorResponse("Moved to the result of " + candidate + ".");
+            mDeltaBase.remember(response, mExploration.getCharsPerLine());
+            mConsole.updateInput();
+            mCheckpointer.save(candidate, mExploration.getCharsPerLine(), response);
+        }
+    }
+
+    /**
+     * Moves the session back to the AST it was at before its last command, or before its
+     * last move forward. See {@link AstTimeline}.
+     */
+    public void goBack() {
+        if (canMoveInTimeline()) {
+            if (mTimeline.back()) {
+                showTimelineAst();
             } else {
-                if (isNetworkConnected(RequestName.COMMAND) && isTokenAcquired(true)) {
-                    String cleanInput = StringUtils.noCharWrap(input);
-                    Command command = new Command(mToken, cleanInput, charsPerLine);
-                    if (inputs[0].equals("abort") || inputs[0].equals("resume")) {
-                        newRunAbortResumeRequest().execute(mServerUrl + "/command", command.toString());
-                    } else {
-                        newRunCommandRequest(cleanInput).execute(mServerUrl + "/command", command.toString());
-                    }
-                } else {
-                    mTempBundle.putString("input", input);
-                    mTempBundle.putInt("charsPerLine", charsPerLine);
-                }
+                mConsole.appendErrorResponse("ERROR: there is no earlier AST to go back to.");
             }
         }
     }
 
-    private HermitHttpServerRequest<List<Completion>> newCompleteInputRequest() {
-        return new HermitHttpServerRequest<List<Completion>>(mConsole, HttpRequest.POST) {
-            @Override
-            protected void onPreExecute() {
-                super.onPreExecute();
-                getActivity().disableInput(false);
+    /**
+     * Moves the session forward again to the AST it was at before going back.
+     */
+    public void goForward() {
+        if (canMoveInTimeline()) {
+            if (mTimeline.forward()) {
+                showTimelineAst();
+            } else {
+                mConsole.appendErrorResponse("ERROR: there is no later AST to go forward to.");
+            }
+        }
+    }
+
+    /**
+     * Moves the session to an AST it has visited before.
+     */
+    public void goToAst(int ast) {
+        if (canMoveInTimeline()) {
+            if (mTimeline.jumpTo(ast)) {
+                showTimelineAst();
+            } else {
+                mConsole.appendErrorResponse("ERROR: AST " + ast + " has not been visited in this session.");
             }
+        }
+    }
+
+    /**
+     * Returns the ASTs the session has visited, oldest first, and which one it is at.
+     */
+    public String describeTimeline() {
+        return mTimeline.describe();
+    }
+
+    private boolean canMoveInTimeline() {
+        if (!isTokenAcquired(true)) {
+            return false;
+        } else if (mCommandInFlight || mFailover.isMoving() || !mPendingCommands.isEmpty()) {
+            mConsole.appendErrorResponse("ERROR: wait for the running commands to finish first.");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Moves the token to the timeline's current AST and shows the response that was shown
+     * there, without a round trip. The server catches up when the next command is sent
+     * from the moved token.
+     */
+    private void showTimelineAst() {
+        int ast = mTimeline.getCurrentAst();
+        mToken.setAst(ast);
+        AstTimeline.Visit visit = mTimeline.getVisit(ast);
+        if (visit != null) {
+            int entryNum = mConsole.getEntry(mConsole.getEntryCount() - 1).getEntryNum();
+            mConsole.appendCommandResponse(entryNum, visit.getResponse());
+            mConsole.appendErrorResponse("Moved to AST " + ast + ", the result of " + visit.getInput() + ".");
+            mDeltaBase.remember(visit.getResponse(), visit.getWidth());
+            mCheckpointer.save(visit.getInput(), visit.getWidth(), visit.getResponse());
+        } else {
+            mConsole.appendErrorResponse("Moved to AST " + ast + ". Its output is no longer kept, but the next command runs from it.");
+            mCheckpointer.save(null, 0, null);
+        }
+        mConsole.updateInput();
+    }
+
+    /**
+     * Returns the key of a command's response in the {@link CommandResponseCache}, when
+     * run in the current session, or {@code null} if the response can't be cached.
+     * @param from The token the command runs from, whose AST is copied.
+     * @param width The pretty-printer width, or 0 for commands sent without one.
+     */
+    CommandResponseCache.Key newCacheKey(Token from, String input, int width) {
+        return CommandResponseCache.keyFor(mServerUrl, mSession, from, input, width);
+    }
+
+    /**
+     * Returns the key of an input's completions in the {@link CompletionCache}, when
+     * completed at the current AST of the current session.
+     */
+    private CompletionCache.Key newCompletionKey(String input) {
+        return new CompletionCache.Key(mServerUrl, mSession, mToken, input);
+    }
 
+    private void skipPendingCommands(String reason) {
+        for (PendingCommand pending : mPendingCommands) {
+            mConsole.appendErrorResponse(pending.getEntryNum(), reason);
+            mJournal.complete(pending.getId());
+        }
+        mPendingCommands.clear();
+    }
+
+    /**
+     * Creates a request for the completions of an input.
+     * @param startup The session startup that this request warms the cache for, in which
+     * case the completions are only cached, or {@code null} if the user asked for them.
+     */
+    private HermitHttpServerRequest<List<Completion>> newCompleteInputRequest(final CompletionCache.Key key,
+            final Startup startup) {
+        return new HermitHttpServerRequest<List<Completion>>(mConsole, HttpRequest.POST, false) {
             @Override
-            protected List<Completion> onResponse(String response) {
-                JSONObject insertNameHere;
-                try {
-                    insertNameHere = new JSONObject(response);
-                    JSONArray completions = insertNameHere.getJSONArray("completions");
-                    ImmutableList.Builder<Completion> completionsBuilder = ImmutableList.builder();
-                    for (int i = 0; i < completions.length(); i++) {
-                        completionsBuilder.add(new Completion(completions.getJSONObject(i)));
-                    }
-                    return completionsBuilder.build();
-                } catch (JSONException e) {
-                    e.printStackTrace();
-                    return null;
-                }
+            protected List<Completion> onResponse(JsonReader reader) throws IOException {
+                return HermitProtocol.readCompletions(reader);
             }
 
             @Override
@@ -205,6 +1027,13 @@ public class HermitClient implements Parcelable {
                 if (newErrorMessage != null && getActivity() != null) {
                     getActivity().addErrorResponseEntry(newErrorMessage);
                 }
+                if (mCompletionRequest == this) {
+                    mCompletionRequest = null;
+                    mCompletionRequestKey = null;
+                }
+                if (startup != null) {
+                    startup.finishStep();
+                }
 
                 super.onCancelled(error);
             }
@@ -212,152 +1041,167 @@ public class HermitClient implements Parcelable {
             @Override
             protected void onPostExecute(List<Completion> completions) {
                 super.onPostExecute(completions);
-                SortedSet<String> suggestions = new TreeSet<String>();
-                suggestions.addAll(Collections2.transform(completions, new Function<Completion, String>() {
-                    @Override
-                    public String apply(Completion input) {
-                        return input.getReplacement();
+                if (mCompletionRequest == this) {
+                    mCompletionRequest = null;
+                    mCompletionRequestKey = null;
+                }
+                mCompletionCache.put(key, completions);
+                if (startup != null) {
+                    startup.finishStep();
+                    return;
+                }
+
+                //Only show the completions if they still fit what the user has typed
+                if (mToken != null) {
+                    CompletionCache.Key current = newCompletionKey(getActivity().getInput());
+                    if (key.canAnswer(current)) {
+                        showCompletions(mCompletionCache.get(current));
                     }
-                }));
-                getActivity().attemptInputCompletion(suggestions);
+                }
             }
         };
     }
 
     private HermitHttpServerRequest<Token> newConnectRequest() {
         return new HermitHttpServerRequest<Token>(mConsole, HttpRequest.POST) {
-
-            @Override
-            protected void onPreExecute() {
-                super.onPreExecute();
-
-                getActivity().setProgressBarVisibility(false);
-                showProgressDialog(getActivity(), this, "Connecting...");
-            }
-
-            @Override
-            protected void onActivityDetached() {
-                if (mProgress != null) {
-                    mProgress.dismiss();
-                    mProgress = null;
-                }
-            }
-
-            @Override
-            protected void onActivityAttached() {
-                if (mProgress == null) {
-                    showProgressDialog(getActivity(), this, "Connecting...");
-                }
-            }
-
             @Override
-            protected Token onResponse(String response) {
-                try {
-                    return new Token(new JSONObject(response));
-                } catch (JSONException e) {
-                    e.printStackTrace();
-                    return null;
-                }
+            protected Token onResponse(JsonReader reader) throws IOException {
+                return Token.fromJson(reader);
             }
 
             @Override
             protected void onCancelled(Token error) {
                 super.onCancelled(error);
-                dismissProgressDialog();
+                mStartup = null;
+                if (mFailover.isMoving()) {
+                    finishFailover(false);
+                }
             }
 
             @Override
             protected void onPostExecute(Token token) {
                 super.onPostExecute(token);
                 mToken = token;
-                dismissProgressDialog();
+                mSession = UUID.randomUUID().toString();
+                mStartingAst = token.getAst();
+                mDeltaBase.clear();
+                //The old session's completions can never be looked up again
+                mCompletionCache.clear();
+                if (!mFailover.isMoving()) {
+                    mTimeline.clear();
+                    mTimeline.visit(token.getAst(), null, null, 0);
+                }
                 getActivity().updateInput();
-                fetchCommands();
+                Startup startup = mStartup;
+                if (startup != null) {
+                    startup.checkInteractive();
+                    startSession(startup);
+                    startup.finishStep();
+                }
+                if (mFailover.isMoving()) {
+                    replaySessionPath();
+                } else {
+                    mCheckpointer.save(null, 0, null);
+                    flushPendingOperations();
+                }
             }
-
         };
     }
 
-    private HermitHttpServerRequest<List<CommandInfo>> newFetchCommandsRequest() {
-        return new HermitHttpServerRequest<List<CommandInfo>>(mConsole, HttpRequest.GET) {
+    /**
+     * Creates a request for the server's command catalog.
+     * @param revalidate {@code true} if a catalog for this server was saved earlier, in
+     * which case the request runs without a progress dialog and the command menu is only
+     * updated if the catalog has changed.
+     * @param startup The session startup this request is a step of, or {@code null}.
+     */
+    private HermitHttpServerRequest<CommandCatalog> newFetchCommandsRequest(final boolean revalidate,
+            final Startup startup) {
+        final String serverUrl = mServerUrl;
+        return new HermitHttpServerRequest<CommandCatalog>(mConsole, HttpRequest.GET, false) {
+            private String mSavedVersion;
+            private String mSavedEtag;
+
             @Override
-            protected void onPreExecute() {
-                super.onPreExecute();
+            protected void onPrepareRequest(HermitTransport.Request request) {
+                if (revalidate) {
+                    CommandCatalog saved = CommandCatalog.load(serverUrl);
+                    if (saved != null) {
+                        mSavedVersion = saved.getVersion();
+                        mSavedEtag = saved.getEtag();
+                        if (saved.hasEtag()) {
+                            request.addHeader("If-None-Match", saved.getEtag());
+                        }
+                    }
+                }
+            }
 
-                getActivity().setProgressBarVisibility(false);
-                showProgressDialog(getActivity(), this, "Fetching commands...");
+            @Override
+            protected CommandCatalog onNotModified() {
+                return null;
             }
 
             @Override
-            protected void onActivityDetached() {
-                if (mProgress != null) {
-                    mProgress.dismiss();
-                    mProgress = null;
+            protected CommandCatalog onResponse(JsonReader reader) throws IOException {
+                List<CommandInfo> commands = HermitProtocol.readCommands(reader);
+
+                //Build the menu's lookups here rather than on the UI thread
+                CommandCatalog catalog = new CommandCatalog(commands, getResponseHeader("ETag"));
+                if (!catalog.getVersion().equals(mSavedVersion)
+                        || (catalog.hasEtag() && !catalog.getEtag().equals(mSavedEtag))) {
+                    catalog.save(serverUrl);
                 }
+                return catalog;
             }
 
             @Override
-            protected void onActivityAttached() {
-                if (mProgress == null) {
-                    showProgressDialog(getActivity(), this, "Fetching commands...");
+            protected void onCancelled(CommandCatalog error) {
+                super.onCancelled(error);
+                if (startup != null) {
+                    startup.finishStep();
                 }
             }
 
             @Override
-            protected List<CommandInfo> onResponse(String response) {
-                JSONObject insertNameHere = null;
-                try {
-                    insertNameHere = new JSONObject(response);
-                } catch (JSONException e) {
-                    e.printStackTrace();
-                    return null;
+            protected void onPostExecute(CommandCatalog catalog) {
+                super.onPostExecute(catalog);
+                //A null catalog means the server's catalog hasn't changed since it was saved
+                if (catalog != null && !catalog.getVersion().equals(mCatalogVersion)) {
+                    showCatalog(catalog);
                 }
-                try {
-                    JSONArray cmds = insertNameHere.getJSONArray("cmds");
-                    ImmutableList.Builder<CommandInfo> commandListBuilder = ImmutableList.builder();
-                    for (int i = 0; i < cmds.length(); i++) {
-                        commandListBuilder.add(new CommandInfo(cmds.getJSONObject(i)));
-                    }
-                    return commandListBuilder.build();
-                } catch (JSONException e) {
-                    e.printStackTrace();
-                    return null;
+                if (startup != null) {
+                    startup.finishStep();
                 }
             }
 
+        };
+    }
+
+    /**
+     * Creates a request that shows the session's history in the command history list,
+     * without saving it (see {@link #fetchHistory()}).
+     */
+    private HermitHttpServerRequest<History> newReadHistoryRequest(final Startup startup) {
+        return new HermitHttpServerRequest<History>(mConsole, HttpRequest.POST, false) {
             @Override
-            protected void onCancelled(List<CommandInfo> error) {
-                super.onCancelled(error);
-                dismissProgressDialog();
+            protected History onResponse(JsonReader reader) throws IOException {
+                return History.fromJson(reader);
             }
 
             @Override
-            protected void onPostExecute(List<CommandInfo> commands) {
-                super.onPostExecute(commands);
-                ImmutableSortedSet.Builder<String> tags = ImmutableSortedSet.naturalOrder();
-                SortedSetMultimap<String, String> tagCommandNames = TreeMultimap.create();
-                SortedSetMultimap<String, CommandInfo> commandNameInfos = TreeMultimap.create();
+            protected void onCancelled(History error) {
+                super.onCancelled(error);
+                startup.finishStep();
+            }
 
-                tags.add(CommandHolder.COMMONLY_USED_COMMANDS_TAG);
-                for (CommandInfo cmdInfo : commands) {
-                    String cmdName = cmdInfo.getName();
-                    if (CommandHolder.isCommonlyUsedCommand(cmdName)) {
-                        tagCommandNames.put(CommandHolder.COMMONLY_USED_COMMANDS_TAG, cmdName);
-                    }
-                    for (String tag : cmdInfo.getTags()) {
-                        tags.add(tag);
-                        tagCommandNames.put(tag, cmdName);
-                    }
-                    commandNameInfos.put(cmdName, cmdInfo);
+            @Override
+            protected void onPostExecute(History history) {
+                super.onPostExecute(history);
+                if (!history.getCommands().isEmpty()) {
+                    getActivity().setCommandHistory(history.getCommands());
                 }
-
-                CommandHolder.setTags(tags.build());
-                CommandHolder.setTagCommandNames(tagCommandNames);
-                CommandHolder.setCommandInfos(commandNameInfos);
-                getActivity().updateCommandExpandableMenu();
-                dismissProgressDialog();
+                startup.finishStep();
             }
-
         };
     }
 
@@ -370,13 +1214,8 @@ public class HermitClient implements Parcelable {
             }
 
             @Override
-            protected Void onResponse(String response) {
-                JSONObject history = null;
-                try {
-                    history = new JSONObject(response);
-                } catch (JSONException e) {
-                    e.printStackTrace();
-                }
+            protected Void onResponse(JsonReader reader) throws IOException {
+                History history = History.fromJson(reader);
 
                 String path = "";
                 if (Prefs.isHistoryDirCustom(getActivity())) {
@@ -387,7 +1226,7 @@ public class HermitClient implements Parcelable {
 
                 final File file = new File(path + HISTORY_FILENAME);
                 if (file.exists()) {
-                    JsonUtils.saveJsonFile(history, file.getAbsolutePath());
+                    JsonUtils.saveJsonFile(history.toJSONObject(), file.getAbsolutePath());
                 } else {
                     cancel(true);
                 }
@@ -401,6 +1240,7 @@ public class HermitClient implements Parcelable {
                 if (newErrorMessage != null && getActivity() != null) {
                     getActivity().addErrorResponseEntry(newErrorMessage);
                 }
+                finishHistorySave();
 
                 super.onCancelled(error);
             }
@@ -408,128 +1248,236 @@ public class HermitClient implements Parcelable {
             @Override
             protected void onPostExecute(Void nothing) {
                 super.onPostExecute(nothing);
+                finishHistorySave();
                 getActivity().showToast("History saved successfully!");
             }
         };
     }
 
-    private void loadHistoryCommands(final List<HistoryCommand> historyCommands) {
-        loadHistoryCommands(historyCommands, 0);
-    }
-
-    private void loadHistoryCommands(final List<HistoryCommand> historyCommands, final int index) {
-        if (!historyCommands.isEmpty()) {
-            Command tokenCommand = new Command(mToken, historyCommands.get(index).getCommand());
-            new HermitHttpServerRequest<CommandResponse>(mConsole, HttpRequest.POST) {
-                @Override
-                protected void onPreExecute() {
-                    super.onPreExecute();
-                    getActivity().disableInput(false);
-                }
-
-                @Override
-                protected CommandResponse onResponse(String response) {
-                    try {
-                        return new CommandResponse(new JSONObject(response));
-                    } catch (JSONException e) {
-                        e.printStackTrace();
-                        return null;
+    private void loadHistoryCommands(List<HistoryCommand> historyCommands) {
+        if (historyCommands.isEmpty()) {
+            return;
+        }
+        new HistoryReplay(this, historyCommands, new HistoryReplay.Listener() {
+            @Override
+            public void onReplayFinished(boolean loaded, List<HistoryCommand> replayed) {
+                if (mFailover.isMoving()) {
+                    //Commands on branches the session left stay in its history
+                    mConsole.setCommandHistory(mFailover.rebuildHistory(mStartingAst, replayed));
+                } else {
+                    for (HistoryCommand step : replayed) {
+                        mConsole.addCommandHistoryEntry(step.getFrom(), step.getCommand(), step.getTo());
                     }
                 }
-
-                @Override
-                protected void onCancelled(CommandResponse error) {
-                    String newErrorMessage = getErrorMessage();
-                    setErrorMessage(null);
-                    if (newErrorMessage != null && getActivity() != null) {
-                        getActivity().addErrorResponseEntry(newErrorMessage);
-                    }
-
-                    super.onCancelled(error);
+                if (loaded) {
+                    mCheckpointer.save(null, 0, null);
                 }
-
-                @Override
-                protected void onPostExecute(CommandResponse response) {
-                    super.onPostExecute(response);
-                    mToken.setAst(response.getAst());
-                    if (index < historyCommands.size() - 1) {
-                        loadHistoryCommands(historyCommands, index + 1);
-                    } else {
-                        getActivity().setCommandHistory(historyCommands);
-                        getActivity().addErrorResponseEntry("Session loaded successfully!");
-                    }
+                if (mFailover.isMoving()) {
+                    finishFailover(loaded);
                 }
-            }.execute(mServerUrl + "/command", tokenCommand.toString());
-        }
+            }
+        }).start();
     }
 
-    private HermitHttpServerRequest<CommandResponse> newRunCommandRequest(final String command) {
-        return new HermitHttpServerRequest<CommandResponse>(mConsole, HttpRequest.POST) {
+    /**
+     * Returns whether a request failed because the server could not be reached or failed
+     * itself, rather than because of the request.
+     */
+    private static boolean isServerFailure(int statusCode) {
+        return statusCode == 0 || statusCode >= HttpStatus.SC_INTERNAL_SERVER_ERROR;
+    }
+
+    /**
+     * Creates a request that runs a command. If the command was sent with a delta base
+     * and the server's delta doesn't fit it, the command is queued again to be sent
+     * without one.
+     * @param base The response the command was sent with as a delta base, or {@code null}
+     * if it was sent without one.
+     */
+    private HermitHttpServerRequest<CommandResponse> newRunCommandRequest(final PendingCommand pending,
+            final CommandResponse base) {
+        final CommandResponseCache.Key key = newCacheKey(mToken, pending.getInput(), pending.getCharsPerLine());
+        final boolean useDiskCache = key != null && Prefs.isResponseDiskCacheEnabled(mConsole);
+        return new HermitHttpServerRequest<CommandResponse>(mConsole, HttpRequest.POST, false) {
+            private volatile boolean mStaleBase = false;
 
             @Override
             protected CommandResponse doInBackground(String... params) {
+                if (useDiskCache) {
+                    CommandResponse cached = CommandResponseCache.getFromDisk(key);
+                    if (cached != null) {
+                        return cached;
+                    }
+                }
                 return super.doInBackground(params);
             }
 
             @Override
-            protected CommandResponse onResponse(String response) {
+            protected void onPrepareRequest(HermitTransport.Request request) {
+                HermitProtocol.acceptBinary(request);
+            }
+
+            @Override
+            protected CommandResponse onResponse(JsonReader reader) throws IOException {
                 try {
-                    return new CommandResponse(new JSONObject(response));
-                } catch (JSONException e) {
-                    e.printStackTrace();
-                    return null;
+                    return cache(CommandResponse.fromJson(reader, base));
+                } catch (GlyphPatch.StaleBaseException e) {
+                    mStaleBase = true;
+                    throw e;
                 }
             }
 
+            @Override
+            protected CommandResponse onBinaryResponse(InputStream in) throws IOException {
+                return cache(BinaryResponses.read(in));
+            }
+
+            private CommandResponse cache(CommandResponse response) {
+                if (key != null) {
+                    CommandResponseCache.put(key, response, useDiskCache);
+                }
+                return response;
+            }
+
+            @Override
+            protected void onCancelled(CommandResponse error) {
+                String newErrorMessage = getErrorMessage();
+                setErrorMessage(null);
+                if (mStaleBase) {
+                    mDeltaBase.clear();
+                    mCommandInFlight = false;
+                    mPendingCommands.addFirst(pending);
+                    dispatchNextCommand();
+                } else {
+                    failCommand(getActivity(), pending, newErrorMessage, getStatusCode());
+                }
+                super.onCancelled(error);
+            }
+
             @Override
             protected void onPostExecute(CommandResponse response) {
                 super.onPostExecute(response);
-                int fromAst = mToken.getAst();
-                int toAst = response.getAst();
-                mToken.setAst(toAst);
-                getActivity().addCommandHistoryEntry(fromAst, command, toAst);
-                getActivity().appendCommandResponse(response);
+                mCommandInFlight = false;
+                completeStep(pending, response);
+                dispatchNextCommand();
             }
 
         };
     }
 
+    /**
+     * Creates a request that runs several repeats of a command in one batch. Only the
+     * last repeat's response is shown. If the server turns out not to support batches,
+     * the repeats are sent one at a time instead.
+     * @param steps How many of the command's repeats to run.
+     */
+    private HermitHttpServerRequest<List<CommandResponse>> newRunRepeatedCommandRequest(final PendingCommand pending,
+            final int steps) {
+        final Token fromToken = new Token(mToken.getUser(), mToken.getAst());
+        return new HermitHttpServerRequest<List<CommandResponse>>(mConsole, HttpRequest.POST, false) {
+            @Override
+            protected List<CommandResponse> onResponse(JsonReader reader) throws IOException {
+                List<CommandResponse> responses = HermitProtocol.readBatchResponses(reader);
+                //Each repeat ran from the AST the repeat before it produced
+                for (CommandResponse response : responses) {
+                    CommandResponseCache.Key key = newCacheKey(fromToken, pending.getInput(), pending.getCharsPerLine());
+                    if (key != null) {
+                        CommandResponseCache.put(key, response, false);
+                    }
+                    fromToken.setAst(response.getAst());
+                }
+                return responses;
+            }
+
+            @Override
+            protected void onCancelled(List<CommandResponse> error) {
+                String newErrorMessage = getErrorMessage();
+                setErrorMessage(null);
+                if (HermitProtocol.isBatchUnsupported(getStatusCode())) {
+                    mBatchUnsupported = true;
+                    mCommandInFlight = false;
+                    mPendingCommands.addFirst(pending);
+                    dispatchNextCommand();
+                } else {
+                    failCommand(getActivity(), pending, newErrorMessage, getStatusCode());
+                }
+                super.onCancelled(error);
+            }
+
+            @Override
+            protected void onPostExecute(List<CommandResponse> responses) {
+                super.onPostExecute(responses);
+                if (responses == null || responses.size() != steps) {
+                    failCommand(getActivity(), pending, "ERROR: server returned an unexpected batch response.",
+                            HttpStatus.SC_OK);
+                    return;
+                }
+                mCommandInFlight = false;
+                for (CommandResponse response : responses.subList(0, steps - 1)) {
+                    advance(pending.getInput(), pending.getCharsPerLine(), response);
+                }
+                completeStep(pending.withRepeats(pending.getRepeats() - (steps - 1)), responses.get(steps - 1));
+                dispatchNextCommand();
+            }
+        };
+    }
+
+    /**
+     * Handles a command that got no response. If the server may have gone down, the
+     * command is kept until a check shows whether the session has to move to another
+     * server. Otherwise, the error is shown and the commands queued after it are skipped.
+     */
+    private void failCommand(ConsoleActivity console, PendingCommand pending, String errorMessage, int statusCode) {
+        mCommandInFlight = false;
+        if (errorMessage != null && mServerPool != null && isServerFailure(statusCode)) {
+            //Keep the command until a check shows whether the session has to move
+            mPendingCommands.addFirst(pending);
+            mFailover.holdFailure(errorMessage);
+            mServerPool.checkNow();
+        } else {
+            mJournal.complete(pending.getId());
+            if (console != null) {
+                if (errorMessage != null) {
+                    console.appendErrorResponse(pending.getEntryNum(), errorMessage);
+                }
+                //Later commands were written against this command's result, so don't run them
+                skipPendingCommands("ERROR: command skipped because a previous command failed.");
+            }
+        }
+    }
+
     private HermitHttpServerRequest<String> newRunAbortResumeRequest() {
         return new HermitHttpServerRequest<String>(mConsole, HttpRequest.POST) {
             @Override
-            protected String onResponse(String response) {
-                try {
-                    return new JSONObject(response).getString("msg");
-                } catch (JSONException e) {
-                    e.printStackTrace();
-                    return null;
-                }
+            protected String onResponse(JsonReader reader) throws IOException {
+                return HermitProtocol.readMessage(reader);
             }
 
             @Override
             protected void onPostExecute(String message) {
                 super.onPostExecute(message);
                 mToken = null;
+                mDeltaBase.clear();
+                mTimeline.clear();
+                mCheckpointer.discard();
                 getActivity().clearCommandHistory();
                 getActivity().appendErrorResponse(message);
 
-                CommandHolder.setTags(null);
-                CommandHolder.setTagCommandNames(null);
-                CommandHolder.setCommandInfos(null);
-                getActivity().updateCommandExpandableMenu();
+                showCatalog(null);
             }
         };
     }
 
+    /**
+     * Makes the requests that were waiting for a connection, in the order they were made.
+     */
     public void runDelayedRequest() {
-        if (mDelayedRequestName != null) {
-            switch (mDelayedRequestName) {
+        List<RequestName> names = new ArrayList<RequestName>(mDelayedRequests);
+        mDelayedRequests.clear();
+        for (RequestName name : names) {
+            switch (name) {
                 case COMMAND: {
-                    String input = mTempBundle.getString("input");
-                    int charsPerLine = mTempBundle.getInt("charsPerLine");
-                    runCommand(input, charsPerLine);
-                    mTempBundle.remove("input");
-                    mTempBundle.remove("charsPerLine");
+                    dispatchNextCommand();
                     break;
                 }
                 case COMMANDS: {
@@ -537,13 +1485,16 @@ public class HermitClient implements Parcelable {
                     break;
                 }
                 case COMPLETE: {
-                    String input = mTempBundle.getString("input");
-                    completeInput(input);
-                    mTempBundle.remove("input");
+                    //Only the latest input is worth completing
+                    if (mTempBundle.containsKey("input")) {
+                        String input = mTempBundle.getString("input");
+                        mTempBundle.remove("input");
+                        completeInput(input);
+                    }
                     break;
                 }
                 case CONNECT: {
-                    connect(mServerUrl);
+                    reconnect();
                     break;
                 }
                 case HISTORY: {
@@ -558,11 +1509,12 @@ public class HermitClient implements Parcelable {
 
     void attachConsole(ConsoleActivity console) {
         mConsole = console;
-    }
-
-    private void dismissProgressDialog() {
-        if (mProgress != null) {
-            mProgress.dismiss();
+        if (mServerPool == null && !mRestoredPoolUrls.isEmpty()) {
+            if (mTransport == null) {
+                mTransport = newTransport(mRestoredPoolUrls.get(0));
+            }
+            setServerPool(newServerPool(mRestoredPoolUrls));
+            mRestoredPoolUrls = Collections.emptyList();
         }
     }
 
@@ -571,34 +1523,63 @@ public class HermitClient implements Parcelable {
     }
 
     private boolean isNetworkConnected(RequestName name) {
+        if (isSourceAvailable()) {
+            return true;
+        }
+        ConnectivityMonitor monitor = ConnectivityMonitor.getInstance(mConsole);
+        //The user has already been asked once for whatever the other requests are waiting on
+        boolean prompted = isRequestDelayed();
         if (Prefs.isBluetoothSource(mConsole)) {
-            if (BluetoothUtils.isBluetoothEnabled(mConsole)) {
-                if (BluetoothUtils.getBluetoothDevice(mConsole) != null) {
-                    return true;
-                } else {
-                    notifyDelay(name);
-                    BluetoothUtils.findDeviceName(mConsole);
-                }
+            notifyDelay(name);
+            if (prompted) {
+                return false;
+            } else if (monitor.isBluetoothEnabled()) {
+                BluetoothUtils.findDeviceName(mConsole);
             } else {
-                notifyDelay(name);
                 BluetoothUtils.enableBluetooth(mConsole);
             }
         } else if (Prefs.isWebSource(mConsole)) {
-            if (InternetUtils.isAirplaneModeOn(mConsole)) {
+            if (monitor.isAirplaneModeOn()) {
                 mConsole.appendErrorResponse("ERROR: Please disable airplane mode before attempting to connect.");
-            } else if (!InternetUtils.isWifiConnected(mConsole)
-                    && !InternetUtils.isMobileConnected(mConsole)) {
-                notifyDelay(name);
-                InternetUtils.enableWifi(mConsole);
             } else {
-                return true;
+                notifyDelay(name);
+                if (!prompted) {
+                    InternetUtils.enableWifi(mConsole);
+                }
             }
         }
         return false;
     }
 
+    /**
+     * Returns whether requests can be sent to the selected source right now. This only
+     * reads the state kept by the {@link ConnectivityMonitor}, so it is cheap enough to
+     * check before every request.
+     */
+    private boolean isSourceAvailable() {
+        ConnectivityMonitor monitor = ConnectivityMonitor.getInstance(mConsole);
+        if (getTransport() instanceof InMemoryTransport) {
+            return true;
+        } else if (Prefs.isBluetoothSource(mConsole)) {
+            return monitor.isBluetoothEnabled() && BluetoothUtils.getBluetoothDevice(mConsole) != null;
+        } else if (Prefs.isWebSource(mConsole)) {
+            return !monitor.isAirplaneModeOn() && monitor.isNetworkConnected();
+        }
+        return false;
+    }
+
+    /**
+     * Sends the requests that were waiting for a connection as soon as there is one.
+     */
+    @Override
+    public void onConnectivityChanged(ConnectivityMonitor monitor) {
+        if (isRequestDelayed() && isSourceAvailable()) {
+            runDelayedRequest();
+        }
+    }
+
     public boolean isRequestDelayed() {
-        return !mDelayedRequestName.equals(RequestName.NULL);
+        return !mDelayedRequests.isEmpty();
     }
 
     public boolean isTokenAcquired() {
@@ -616,29 +1597,140 @@ public class HermitClient implements Parcelable {
     }
 
     private void notifyDelay(RequestName name) {
-        mDelayedRequestName = name;
+        //Asking twice for the same thing only needs doing once
+        mDelayedRequests.add(name);
     }
 
-    public void notifyDelayedRequestFinished() {
-        mDelayedRequestName = RequestName.NULL;
+    private enum RequestName {
+        COMMAND, COMMANDS, COMPLETE, CONNECT, HISTORY
     }
 
-    private void showProgressDialog(Context context, final AsyncTask<?,?,?> task, String message) {
-        mProgress = new ProgressDialog(context);
-        mProgress.setProgressStyle(ProgressDialog.STYLE_SPINNER);
-        mProgress.setMessage(message);
-        mProgress.setCancelable(true);
-        mProgress.setOnCancelListener(new OnCancelListener() {
-            @Override
-            public void onCancel(DialogInterface dialog) {
-                task.cancel(true);
+    /**
+     * Times the startup of a session: how long after {@link #connect(String)} the console
+     * became usable, with a token and a filled-in command menu, and how long until every
+     * step of {@link #startSession(Startup)} had finished. Both are reported in the console.
+     */
+    private class Startup {
+        private final long mStartedAt = StageTimings.start();
+        private long mInteractiveAt = 0;
+        /** Starts at one for the connect request itself. */
+        private int mRunningSteps = 1;
+
+        public void addStep() {
+            mRunningSteps++;
+        }
+
+        public void checkInteractive() {
+            if (mInteractiveAt == 0 && mToken != null && mCatalogVersion != null) {
+                mInteractiveAt = System.nanoTime();
             }
-        });
-        mProgress.show();
+        }
+
+        public void finishStep() {
+            mRunningSteps--;
+            if (mRunningSteps > 0) {
+                return;
+            }
+            checkInteractive();
+            long finishedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - mStartedAt);
+            if (mConsole != null) {
+                if (mInteractiveAt != 0) {
+                    long interactiveMs = TimeUnit.NANOSECONDS.toMillis(mInteractiveAt - mStartedAt);
+                    mConsole.appendErrorResponse("Connected: usable after " + interactiveMs
+                            + " ms, ready after " + finishedMs + " ms.");
+                } else {
+                    mConsole.appendErrorResponse("Connected after " + finishedMs + " ms, without a command menu.");
+                }
+            }
+            if (mStartup == this) {
+                mStartup = null;
+            }
+        }
     }
 
-    private enum RequestName {
-        COMMAND, COMMANDS, COMPLETE, CONNECT, HISTORY, NULL
+    /**
+     * Runs an exploration's candidates as command requests from the exploration's AST and
+     * shows the results once they are ranked. Cached results are used as they are, and
+     * results are cached for commands run later from the same AST.
+     */
+    private class ExplorationRunner implements Exploration.Runner, Exploration.Listener {
+        private final long mStartedAt = StageTimings.start();
+        private final Token mFromToken;
+        private final List<HermitHttpServerRequest<CommandResponse>> mRequests =
+                new ArrayList<HermitHttpServerRequest<CommandResponse>>();
+
+        public ExplorationRunner(int fromAst) {
+            mFromToken = new Token(mToken.getUser(), fromAst);
+        }
+
+        @Override
+        public void run(final Exploration exploration, final int index, String candidate) {
+            int charsPerLine = exploration.getCharsPerLine();
+            final CommandResponseCache.Key key = newCacheKey(mFromToken, candidate, charsPerLine);
+            CommandResponse cached = (key != null) ? CommandResponseCache.get(key) : null;
+            if (cached != null) {
+                exploration.finish(index, cached, null);
+                return;
+            }
+
+            Command command = new Command(mFromToken, candidate, charsPerLine);
+            HermitHttpServerRequest<CommandResponse> request =
+                    new HermitHttpServerRequest<CommandResponse>(mConsole, HttpRequest.POST, false) {
+                @Override
+                protected CommandResponse onResponse(JsonReader reader) throws IOException {
+                    CommandResponse response = CommandResponse.fromJson(reader);
+                    if (key != null) {
+                        CommandResponseCache.put(key, response, false);
+                    }
+                    return response;
+                }
+
+                @Override
+                protected void onCancelled(CommandResponse error) {
+                    String newErrorMessage = getErrorMessage();
+                    setErrorMessage(null);
+                    super.onCancelled(error);
+                    exploration.finish(index, null, newErrorMessage);
+                }
+
+                @Override
+                protected void onPostExecute(CommandResponse response) {
+                    super.onPostExecute(response);
+                    exploration.finish(index, response, null);
+                }
+            };
+            mRequests.add(request);
+            request.executeWithPriority(Priority.INTERACTIVE, mServerUrl + HermitProtocol.COMMAND, command.toString());
+        }
+
+        @Override
+        public void cancelAll() {
+            for (HermitHttpServerRequest<CommandResponse> request : mRequests) {
+                request.abort();
+            }
+        }
+
+        @Override
+        public void onExplored(Exploration exploration) {
+            //A newer exploration replaced this one
+            if (mExploration != exploration || mConsole == null) {
+                return;
+            }
+            List<Integer> ranking = exploration.getRanking();
+            for (int rank = 1; rank <= ranking.size(); rank++) {
+                int i = ranking.get(rank - 1);
+                CommandResponse result = exploration.getResponse(i);
+                if (result == null) {
+                    mConsole.addExploredEntry(exploration.getCandidate(i), null, exploration.getError(i));
+                } else {
+                    String size = result.hasGlyphs() ? result.getGlyphText().length() + " characters" : "no expression";
+                    mConsole.addExploredEntry(exploration.getCandidate(i), result, "#" + rank + " of " + ranking.size()
+                            + ": " + size + ", AST " + result.getAst() + ". Use \"explore pick " + rank + "\" to take it.");
+                }
+            }
+            mConsole.appendErrorResponse("Explored " + exploration.size() + " commands in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - mStartedAt) + " ms.");
+        }
     }
 
     public static final Parcelable.Creator<HermitClient> CREATOR
@@ -655,13 +1747,16 @@ public class HermitClient implements Parcelable {
     };
 
     private HermitClient(Parcel in) {
-        mDelayedRequestName = ParcelUtils.readEnum(in);
+        mDelayedRequests = ParcelUtils.readSet(in);
         mServerUrl = in.readString();
         mTempBundle = in.readBundle();
-        mToken = in.readParcelable(Token.class.getClassLoader());
+        mToken = (in.readInt() != 0) ? new Token(in.readInt(), in.readInt()) : null;
+        mSession = in.readString();
+        mPendingCommands = ParcelUtils.readArrayDeque(in);
+        mHistorySaveId = in.readLong();
+        mRestoredPoolUrls = in.createStringArrayList();
     }
 
-
     @Override
     public int describeContents() {
         return 0;
@@ -669,10 +1764,20 @@ public class HermitClient implements Parcelable {
 
     @Override
     public void writeToParcel(Parcel dest, int flags) {
-        ParcelUtils.writeEnum(dest, mDelayedRequestName);
+        ParcelUtils.writeCollection(dest, mDelayedRequests);
         dest.writeString(mServerUrl);
         dest.writeBundle(mTempBundle);
-        dest.writeParcelable(mToken, flags);
+        if (mToken != null) {
+            dest.writeInt(1);
+            dest.writeInt(mToken.getUser());
+            dest.writeInt(mToken.getAst());
+        } else {
+            dest.writeInt(0);
+        }
+        dest.writeString(mSession);
+        ParcelUtils.writeCollection(dest, mPendingCommands);
+        dest.writeLong(mHistorySaveId);
+        dest.writeStringList((mServerPool != null) ? mServerPool.getServerUrls() : Collections.<String>emptyList());
     }
 
 }
@@ -0,0 +1,238 @@
+package edu.kufpg.armatus.console;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.kufpg.armatus.Prefs;
+import edu.kufpg.armatus.TaskScheduler.Priority;
+import edu.kufpg.armatus.data.Command;
+import edu.kufpg.armatus.data.CommandBatch;
+import edu.kufpg.armatus.data.CommandResponse;
+import edu.kufpg.armatus.data.HistoryCommand;
+import edu.kufpg.armatus.data.Token;
+import edu.kufpg.armatus.networking.HermitHttpServerRequest;
+import edu.kufpg.armatus.networking.HermitHttpServerRequest.HttpRequest;
+import edu.kufpg.armatus.networking.HermitProtocol;
+import edu.kufpg.armatus.util.JsonReader;
+
+/**
+ * Runs a list of history commands again on a {@link HermitClient}'s session, moving its
+ * token along, as when a saved history is loaded or a session is moved to another server.
+ * Up to {@link HermitClient#MAX_BATCH_SIZE} commands go in each request to the server's
+ * batch endpoint, or, if the server has none, one command goes in each request. Commands
+ * whose responses are already cached are skipped, and the responses of the ones sent are
+ * cached for commands run later from the same ASTs. The listener is handed the steps that
+ * were replayed, with the ASTs this server gave them, to record in the session's history.
+ */
+final class HistoryReplay {
+	private static final String LOADED_MESSAGE = "Session loaded successfully!";
+
+	private final HermitClient mClient;
+	private final List<HistoryCommand> mCommands;
+	private final Listener mListener;
+	private final List<HistoryCommand> mReplayed = new ArrayList<HistoryCommand>();
+
+	/**
+	 * @param client The client whose session the commands run in.
+	 * @param commands The commands, oldest first.
+	 * @param listener Told when the replay is over.
+	 */
+	HistoryReplay(HermitClient client, List<HistoryCommand> commands, Listener listener) {
+		mClient = client;
+		mCommands = commands;
+		mListener = listener;
+	}
+
+	/**
+	 * Starts replaying the commands, with console input disabled until the replay is over.
+	 */
+	void start() {
+		mClient.getConsole().disableInput(false);
+		if (mClient.isBatchUnsupported()) {
+			replayCommands(0);
+		} else {
+			replayBatch(0);
+		}
+	}
+
+	/**
+	 * Replays up to {@link HermitClient#MAX_BATCH_SIZE} commands with a single request to
+	 * the server's batch endpoint, then moves on to the next chunk. Falls back to {@link
+	 * #replayCommands(int)} if the server has no batch endpoint.
+	 */
+	private void replayBatch(int next) {
+		final int start = skipCachedCommands(next);
+		if (start == mCommands.size()) {
+			finish(LOADED_MESSAGE, true);
+			return;
+		}
+
+		final int end = Math.min(start + HermitClient.MAX_BATCH_SIZE, mCommands.size());
+		final List<String> commands = new ArrayList<String>(end - start);
+		for (HistoryCommand historyCommand : mCommands.subList(start, end)) {
+			commands.add(historyCommand.getCommand());
+		}
+		Token token = mClient.getToken();
+		final Token fromToken = new Token(token.getUser(), token.getAst());
+		String serverUrl = mClient.getServerUrl();
+		final boolean cacheToDisk = Prefs.isResponseDiskCacheEnabled(mClient.getConsole());
+		CommandBatch batch = new CommandBatch(token, commands);
+		new HermitHttpServerRequest<List<CommandResponse>>(mClient.getConsole(), HttpRequest.POST, false) {
+			@Override
+			protected List<CommandResponse> onResponse(JsonReader reader) throws IOException {
+				List<CommandResponse> responses = HermitProtocol.readBatchResponses(reader);
+				if (responses.size() == commands.size()) {
+					//Each command in the batch ran from the AST the previous command produced
+					for (int i = 0; i < responses.size(); i++) {
+						CommandResponseCache.Key key = mClient.newCacheKey(fromToken, commands.get(i), 0);
+						if (key != null) {
+							CommandResponseCache.put(key, responses.get(i), cacheToDisk);
+						}
+						fromToken.setAst(responses.get(i).getAst());
+					}
+				}
+				return responses;
+			}
+
+			@Override
+			protected void onCancelled(List<CommandResponse> error) {
+				String newErrorMessage = getErrorMessage();
+				setErrorMessage(null);
+				if (HermitProtocol.isBatchUnsupported(getStatusCode())) {
+					mClient.setBatchUnsupported();
+					replayCommands(start);
+				} else {
+					finish(newErrorMessage, false);
+				}
+
+				super.onCancelled(error);
+			}
+
+			@Override
+			protected void onPostExecute(List<CommandResponse> responses) {
+				if (responses == null || responses.size() != end - start) {
+					finish("ERROR: server returned an unexpected batch response.", false);
+				} else {
+					for (int i = 0; i < responses.size(); i++) {
+						recordStep(commands.get(i), responses.get(i).getAst());
+					}
+					if (end < mCommands.size()) {
+						//Start the next chunk before this request ends so the progress bar stays up
+						replayBatch(end);
+					} else {
+						finish(LOADED_MESSAGE, true);
+					}
+				}
+				super.onPostExecute(responses);
+			}
+		}.executeWithPriority(Priority.INTERACTIVE, serverUrl + HermitProtocol.BATCH, batch.toString());
+	}
+
+	/**
+	 * Replays commands one request at a time, sending each command as soon as the previous
+	 * one returns. Used for servers without a batch endpoint.
+	 */
+	private void replayCommands(int next) {
+		final int index = skipCachedCommands(next);
+		if (index == mCommands.size()) {
+			finish(LOADED_MESSAGE, true);
+			return;
+		}
+
+		String input = mCommands.get(index).getCommand();
+		String serverUrl = mClient.getServerUrl();
+		final CommandResponseCache.Key key = mClient.newCacheKey(mClient.getToken(), input, 0);
+		final boolean cacheToDisk = Prefs.isResponseDiskCacheEnabled(mClient.getConsole());
+		Command tokenCommand = new Command(mClient.getToken(), input);
+		new HermitHttpServerRequest<CommandResponse>(mClient.getConsole(), HttpRequest.POST, false) {
+			@Override
+			protected CommandResponse onResponse(JsonReader reader) throws IOException {
+				CommandResponse response = CommandResponse.fromJson(reader);
+				if (key != null) {
+					CommandResponseCache.put(key, response, cacheToDisk);
+				}
+				return response;
+			}
+
+			@Override
+			protected void onCancelled(CommandResponse error) {
+				String newErrorMessage = getErrorMessage();
+				setErrorMessage(null);
+				finish(newErrorMessage, false);
+
+				super.onCancelled(error);
+			}
+
+			@Override
+			protected void onPostExecute(CommandResponse response) {
+				recordStep(mCommands.get(index).getCommand(), response.getAst());
+				if (index < mCommands.size() - 1) {
+					//Start the next step before this request ends so the progress bar stays up
+					replayCommands(index + 1);
+				} else {
+					finish(LOADED_MESSAGE, true);
+				}
+				super.onPostExecute(response);
+			}
+		}.executeWithPriority(Priority.INTERACTIVE, serverUrl + HermitProtocol.COMMAND, tokenCommand.toString());
+	}
+
+	/**
+	 * Advances the client's token past every command, starting at {@code index}, whose
+	 * response is already cached in memory.
+	 * @return the index of the first command that still has to be sent.
+	 */
+	private int skipCachedCommands(int index) {
+		Token token = mClient.getToken();
+		while (index < mCommands.size()) {
+			CommandResponseCache.Key key = mClient.newCacheKey(token, mCommands.get(index).getCommand(), 0);
+			CommandResponse cached = (key != null) ? CommandResponseCache.get(key) : null;
+			if (cached == null) {
+				break;
+			}
+			recordStep(mCommands.get(index).getCommand(), cached.getAst());
+			index++;
+		}
+		return index;
+	}
+
+	/**
+	 * Records that a command ran from the client's current AST, and moves its token on to
+	 * the AST the command led to.
+	 */
+	private void recordStep(String command, int toAst) {
+		Token token = mClient.getToken();
+		mReplayed.add(new HistoryCommand(token.getAst(), command, toAst));
+		token.setAst(toAst);
+	}
+
+	/**
+	 * @param message What to show in the console, or {@code null} if nothing.
+	 * @param loaded Whether every command was replayed.
+	 */
+	private void finish(String message, boolean loaded) {
+		ConsoleActivity console = mClient.getConsole();
+		if (console != null) {
+			if (message != null) {
+				console.addErrorResponseEntry(message);
+			}
+			console.enableInput();
+		}
+		mListener.onReplayFinished(loaded, mReplayed);
+	}
+
+	/**
+	 * Interface definition for a callback to be invoked when a replay is over.
+	 */
+	interface Listener {
+		/**
+		 * @param loaded {@code true} if every command was replayed, or {@code false} if the
+		 * replay stopped at a command that failed.
+		 * @param replayed The steps that were replayed, oldest first, with the ASTs the
+		 * server gave them.
+		 */
+		void onReplayFinished(boolean loaded, List<HistoryCommand> replayed);
+	}
+
+}
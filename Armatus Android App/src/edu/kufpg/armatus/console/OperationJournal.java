@@ -0,0 +1,253 @@
+package edu.kufpg.armatus.console;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.google.common.base.Charsets;
+
+/**
+ * An append-only log of operations that the user asked for but that have not reached the
+ * server yet, such as commands typed while the network was down. Each operation is
+ * logged when it is queued and marked done once it has been answered, so operations that
+ * were still waiting when the process died can be picked up again by the next
+ * {@link HermitClient}. The log is read and written by a background thread, one entry at
+ * a time and in order, so logging never makes the UI thread wait for the disk.
+ * <p>
+ * Every line of the log is a JSON object: either an operation, with an {@code "id"}, or a
+ * {@code {"done": id}} marker. The log is compacted when it is loaded and deleted once
+ * every operation in it is done.
+ */
+class OperationJournal {
+	static final String ID = "id", DONE = "done", KIND = "kind";
+
+	/** Returned by {@link #append(String, JSONObject)} if the operation could not be logged. */
+	static final long NO_ID = -1;
+
+	private final File mFile;
+	/** Entries are written one at a time and in order, so a done marker never precedes its operation. */
+	private final Executor mWriter;
+	private final FutureTask<List<JSONObject>> mLoad;
+	private long mNextId = 1;
+	/** The IDs of the operations that are not done yet. */
+	private final Set<Long> mLive = new HashSet<Long>();
+
+	/**
+	 * Starts reading the log on the writer, before anything appended to this journal is
+	 * written. See {@link #getUnfinished()}.
+	 * @param file The log.
+	 * @param writer Reads and writes the log, one task at a time and in order.
+	 */
+	OperationJournal(File file, Executor writer) {
+		mFile = file;
+		mWriter = writer;
+		mLoad = new FutureTask<List<JSONObject>>(new Callable<List<JSONObject>>() {
+			@Override
+			public List<JSONObject> call() {
+				return load();
+			}
+		});
+		mWriter.execute(mLoad);
+	}
+
+	/**
+	 * Returns the operations that an earlier process logged but never finished, oldest
+	 * first, each with its {@code "id"} in this journal. This doesn't wait for the log to
+	 * be read.
+	 * @return the operations, or {@code null} if the log hasn't been read yet.
+	 */
+	List<JSONObject> getUnfinished() {
+		if (!mLoad.isDone()) {
+			return null;
+		}
+		try {
+			return mLoad.get();
+		} catch (InterruptedException e) {
+			//The task is done, so there is nothing to wait for
+			throw new IllegalStateException(e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	/**
+	 * Reads the operations that are not done yet, oldest first, and rewrites the log so
+	 * that it only contains them. A line cut short by the process dying is skipped. This
+	 * runs on the writer, before anything appended to this journal is written.
+	 */
+	private synchronized List<JSONObject> load() {
+		Map<Long, JSONObject> live = new LinkedHashMap<Long, JSONObject>();
+		if (mFile.exists()) {
+			BufferedReader reader = null;
+			try {
+				reader = new BufferedReader(new InputStreamReader(new FileInputStream(mFile), Charsets.UTF_8));
+				String line;
+				while ((line = reader.readLine()) != null) {
+					try {
+						JSONObject entry = new JSONObject(line);
+						if (entry.has(DONE)) {
+							live.remove(entry.getLong(DONE));
+						} else {
+							live.put(entry.getLong(ID), entry);
+						}
+					} catch (JSONException e) {
+						//Only the line being written when the process died can be unreadable
+					}
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			} finally {
+				closeQuietly(reader);
+			}
+		}
+
+		//Operations appended before the log was read already have IDs, so the ones that
+		//were read are numbered after them
+		List<JSONObject> operations = new ArrayList<JSONObject>(live.values());
+		for (JSONObject operation : operations) {
+			long id = mNextId++;
+			try {
+				operation.put(ID, id);
+			} catch (JSONException e) {
+				//IDs are never NaN or infinite
+				throw new IllegalStateException(e);
+			}
+			mLive.add(id);
+		}
+		if (operations.isEmpty()) {
+			mFile.delete();
+		} else {
+			compact(operations);
+		}
+		return operations;
+	}
+
+	/**
+	 * Logs a new operation. The operation is written in the background, so this returns
+	 * straight away.
+	 * @param kind What sort of operation it is, which {@link #getUnfinished()} gives back
+	 * as its {@code "kind"}.
+	 * @param operation The operation, which is given an {@code "id"}.
+	 * @return the operation's ID, or {@link #NO_ID} if it could not be logged (in which
+	 * case it is only kept in memory).
+	 */
+	synchronized long append(String kind, JSONObject operation) {
+		long id = mNextId++;
+		try {
+			operation.put(KIND, kind).put(ID, id);
+		} catch (JSONException e) {
+			e.printStackTrace();
+			return NO_ID;
+		}
+		mLive.add(id);
+		writeInBackground(operation);
+		return id;
+	}
+
+	/**
+	 * Marks an operation as done, so that it is not picked up again. Marking an operation
+	 * done again does nothing.
+	 * @param id The operation's ID, as returned by {@link #append(String, JSONObject)}.
+	 */
+	synchronized void complete(final long id) {
+		if (!mLive.remove(id)) {
+			return;
+		}
+		mWriter.execute(new Runnable() {
+			@Override
+			public void run() {
+				//Decided on the writer, since the operations read from the log only count
+				//once they have been read
+				synchronized (OperationJournal.this) {
+					if (mLive.isEmpty()) {
+						mFile.delete();
+						return;
+					}
+				}
+				try {
+					write(new JSONObject().put(DONE, id));
+				} catch (JSONException e) {
+					e.printStackTrace();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		});
+	}
+
+	private void writeInBackground(final JSONObject entry) {
+		mWriter.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					write(entry);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		});
+	}
+
+	private void write(JSONObject entry) throws IOException {
+		mFile.getParentFile().mkdirs();
+		FileOutputStream out = new FileOutputStream(mFile, true);
+		try {
+			out.write((entry.toString() + '\n').getBytes(Charsets.UTF_8));
+			//The whole point of the journal is to outlive the process
+			out.getFD().sync();
+		} finally {
+			out.close();
+		}
+	}
+
+	private void compact(List<JSONObject> operations) {
+		File tempFile = new File(mFile.getPath() + ".tmp");
+		BufferedWriter writer = null;
+		try {
+			writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), Charsets.UTF_8));
+			for (JSONObject operation : operations) {
+				writer.write(operation.toString());
+				writer.newLine();
+			}
+			writer.close();
+			writer = null;
+			if (!tempFile.renameTo(mFile)) {
+				tempFile.delete();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			closeQuietly(writer);
+			tempFile.delete();
+		}
+	}
+
+	private static void closeQuietly(Closeable closeable) {
+		if (closeable != null) {
+			try {
+				closeable.close();
+			} catch (IOException e) {
+				//Nothing left to do
+			}
+		}
+	}
+
+}
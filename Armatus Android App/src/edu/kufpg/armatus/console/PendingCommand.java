@@ -0,0 +1,102 @@
+package edu.kufpg.armatus.console;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+import edu.kufpg.armatus.util.StageTimings;
+
+/**
+ * A command that the user has entered but that has not yet been sent to the server,
+ * along with the number of the {@link ConsoleEntry} that should display its result.
+ */
+final class PendingCommand implements Parcelable {
+	/** The command's ID in the {@link OperationJournal}. */
+	private final long mId;
+	private final String mInput;
+	private final int mCharsPerLine;
+	private final int mEntryNum;
+	/** How many times in a row the command is still to be run. */
+	private final int mRepeats;
+	/** Not parcelled, since {@link System#nanoTime()} does not survive the process. */
+	private final long mSubmittedAt;
+
+	PendingCommand(long id, String input, int charsPerLine, int entryNum) {
+		this(id, input, charsPerLine, entryNum, 1);
+	}
+
+	PendingCommand(long id, String input, int charsPerLine, int entryNum, int repeats) {
+		this(id, input, charsPerLine, entryNum, repeats, StageTimings.start());
+	}
+
+	private PendingCommand(long id, String input, int charsPerLine, int entryNum, int repeats, long submittedAt) {
+		mId = id;
+		mInput = input;
+		mCharsPerLine = charsPerLine;
+		mEntryNum = entryNum;
+		mRepeats = repeats;
+		mSubmittedAt = submittedAt;
+	}
+
+	/**
+	 * Returns the same command with fewer repeats left to run.
+	 */
+	PendingCommand withRepeats(int repeats) {
+		return new PendingCommand(mId, mInput, mCharsPerLine, mEntryNum, repeats, mSubmittedAt);
+	}
+
+	long getId() {
+		return mId;
+	}
+
+	String getInput() {
+		return mInput;
+	}
+
+	int getCharsPerLine() {
+		return mCharsPerLine;
+	}
+
+	int getEntryNum() {
+		return mEntryNum;
+	}
+
+	int getRepeats() {
+		return mRepeats;
+	}
+
+	long getSubmittedAt() {
+		return mSubmittedAt;
+	}
+
+	public static final Parcelable.Creator<PendingCommand> CREATOR
+			= new Parcelable.Creator<PendingCommand>() {
+		@Override
+		public PendingCommand createFromParcel(Parcel in) {
+			long id = in.readLong();
+			String input = in.readString();
+			int charsPerLine = in.readInt();
+			int entryNum = in.readInt();
+			int repeats = in.readInt();
+			return new PendingCommand(id, input, charsPerLine, entryNum, repeats);
+		}
+
+		@Override
+		public PendingCommand[] newArray(int size) {
+			return new PendingCommand[size];
+		}
+	};
+
+	@Override
+	public int describeContents() {
+		return 0;
+	}
+
+	@Override
+	public void writeToParcel(Parcel dest, int flags) {
+		dest.writeLong(mId);
+		dest.writeString(mInput);
+		dest.writeInt(mCharsPerLine);
+		dest.writeInt(mEntryNum);
+		dest.writeInt(mRepeats);
+	}
+
+}
@@ -0,0 +1,248 @@
+package edu.kufpg.armatus.console;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.util.Log;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+
+import edu.kufpg.armatus.DeviceConstants;
+import edu.kufpg.armatus.data.BinaryResponses;
+import edu.kufpg.armatus.data.CommandResponse;
+import edu.kufpg.armatus.data.HistoryCommand;
+import edu.kufpg.armatus.data.Token;
+
+/**
+ * A snapshot of the current session, rewritten after every command, so that a console
+ * started after the process was killed can reattach to the same server session straight
+ * away instead of reconnecting and replaying its history. It holds the server, the
+ * session's {@link Token}, its command history, and the last command and the response it
+ * showed. The response is written to its own file, in the {@link BinaryResponses}
+ * encoding, before the snapshot that names it, so the snapshot never points to a response
+ * that isn't there.
+ */
+final class SessionCheckpoint {
+	private static final String TAG = SessionCheckpoint.class.getSimpleName();
+	private static final File DIR = new File(DeviceConstants.CACHE_DIR + "/session");
+	private static final String SNAPSHOT_NAME = "checkpoint.json";
+	private static final String RESPONSE_PREFIX = "response-";
+	private static final String SERVER = "server", SERVERS = "servers", TOKEN = "token", SESSION = "session", HISTORY = "history",
+			INPUT = "input", WIDTH = "width", RESPONSE = "response", STARTING_AST = "startingAst";
+
+	/** Writes happen one at a time and in order, so the newest snapshot always wins. */
+	private static final Executor sWriter = Executors.newSingleThreadExecutor();
+
+	private final String mServerUrl;
+	private final ImmutableList<String> mServerUrls;
+	private final Token mToken;
+	private final String mSession;
+	private final int mStartingAst;
+	private final ImmutableList<HistoryCommand> mHistory;
+	private final String mInput;
+	private final int mWidth;
+	private final CommandResponse mResponse;
+
+	/**
+	 * @param serverUrl The server the session is on.
+	 * @param serverUrls The servers the session may be moved between, if there are several.
+	 * @param token The session's token, which is copied.
+	 * @param session Identifies the server session the token belongs to.
+	 * @param startingAst The AST the server session started at.
+	 * @param history The session's command history, which is copied.
+	 * @param input The last command, or {@code null} if there is no response to show.
+	 * @param width The width the response was rendered at.
+	 * @param response The last command's response, or {@code null}.
+	 */
+	SessionCheckpoint(String serverUrl, List<String> serverUrls, Token token, String session, int startingAst,
+			List<HistoryCommand> history, String input, int width, CommandResponse response) {
+		mServerUrl = serverUrl;
+		mServerUrls = ImmutableList.copyOf(serverUrls);
+		mToken = new Token(token.getUser(), token.getAst());
+		mSession = session;
+		mStartingAst = startingAst;
+		mHistory = ImmutableList.copyOf(history);
+		mInput = input;
+		mWidth = width;
+		mResponse = response;
+	}
+
+	String getServerUrl() {
+		return mServerUrl;
+	}
+
+	List<String> getServerUrls() {
+		return mServerUrls;
+	}
+
+	Token getToken() {
+		return new Token(mToken.getUser(), mToken.getAst());
+	}
+
+	String getSession() {
+		return mSession;
+	}
+
+	int getStartingAst() {
+		return mStartingAst;
+	}
+
+	List<HistoryCommand> getHistory() {
+		return mHistory;
+	}
+
+	boolean hasResponse() {
+		return mInput != null && mResponse != null;
+	}
+
+	String getInput() {
+		return mInput;
+	}
+
+	int getWidth() {
+		return mWidth;
+	}
+
+	CommandResponse getResponse() {
+		return mResponse;
+	}
+
+	/**
+	 * Writes the checkpoint in the background, replacing the previous one.
+	 */
+	void save() {
+		sWriter.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					write();
+				} catch (IOException e) {
+					Log.w(TAG, "Could not write the session checkpoint", e);
+				} catch (JSONException e) {
+					Log.w(TAG, "Could not write the session checkpoint", e);
+				}
+			}
+		});
+	}
+
+	private void write() throws IOException, JSONException {
+		DIR.mkdirs();
+		String responseName = null;
+		if (hasResponse()) {
+			responseName = RESPONSE_PREFIX + mToken.getAst() + ".bin";
+			writeAtomically(new File(DIR, responseName), BinaryResponses.encode(mResponse));
+		}
+
+		JSONArray history = new JSONArray();
+		for (HistoryCommand command : mHistory) {
+			history.put(command.toJSONObject());
+		}
+		JSONObject snapshot = new JSONObject().put(SERVER, mServerUrl).put(SERVERS, new JSONArray(mServerUrls))
+				.put(TOKEN, mToken.toJSONObject()).put(SESSION, mSession).put(STARTING_AST, mStartingAst)
+				.put(HISTORY, history).put(WIDTH, mWidth);
+		if (responseName != null) {
+			snapshot.put(INPUT, mInput).put(RESPONSE, responseName);
+		}
+		writeAtomically(new File(DIR, SNAPSHOT_NAME), snapshot.toString().getBytes(Charsets.UTF_8));
+
+		//Only the response the snapshot names is still needed
+		File[] files = DIR.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (file.getName().startsWith(RESPONSE_PREFIX) && !file.getName().equals(responseName)) {
+					file.delete();
+				}
+			}
+		}
+	}
+
+	private static void writeAtomically(File file, byte[] bytes) throws IOException {
+		File tempFile = new File(file.getPath() + ".tmp");
+		Files.write(bytes, tempFile);
+		if (!tempFile.renameTo(file)) {
+			tempFile.delete();
+			throw new IOException("Could not replace " + file);
+		}
+	}
+
+	/**
+	 * Reads the last checkpoint written. This reads from disk, so it must not be called
+	 * from the UI thread.
+	 * @return the checkpoint, or {@code null} if there is none or it cannot be read. A
+	 * checkpoint whose response cannot be read is returned without one.
+	 */
+	static SessionCheckpoint load() {
+		File snapshotFile = new File(DIR, SNAPSHOT_NAME);
+		if (!snapshotFile.exists()) {
+			return null;
+		}
+		try {
+			JSONObject snapshot = new JSONObject(Files.toString(snapshotFile, Charsets.UTF_8));
+			ImmutableList.Builder<String> serverUrls = ImmutableList.builder();
+			JSONArray servers = snapshot.getJSONArray(SERVERS);
+			for (int i = 0; i < servers.length(); i++) {
+				serverUrls.add(servers.getString(i));
+			}
+			ImmutableList.Builder<HistoryCommand> history = ImmutableList.builder();
+			JSONArray commands = snapshot.getJSONArray(HISTORY);
+			for (int i = 0; i < commands.length(); i++) {
+				history.add(new HistoryCommand(commands.getJSONObject(i)));
+			}
+
+			String input = null;
+			CommandResponse response = null;
+			if (snapshot.has(RESPONSE)) {
+				try {
+					response = BinaryResponses.decode(Files.toByteArray(new File(DIR, snapshot.getString(RESPONSE))));
+					input = snapshot.getString(INPUT);
+				} catch (IOException e) {
+					Log.w(TAG, "Could not read the checkpointed response", e);
+				}
+			}
+			//Checkpoints written before sessions had IDs just don't share cached responses
+			String session = snapshot.optString(SESSION, UUID.randomUUID().toString());
+			Token token = new Token(snapshot.getJSONObject(TOKEN));
+			ImmutableList<HistoryCommand> historyCommands = history.build();
+			//Checkpoints written before they recorded where the session started fall back on
+			//where its history starts
+			int startingAst = snapshot.has(STARTING_AST) ? snapshot.getInt(STARTING_AST)
+					: SessionFailover.getStartingAst(historyCommands, token.getAst());
+			return new SessionCheckpoint(snapshot.getString(SERVER), serverUrls.build(), token, session,
+					startingAst, historyCommands, input, snapshot.getInt(WIDTH), response);
+		} catch (IOException e) {
+			Log.w(TAG, "Could not read the session checkpoint", e);
+		} catch (JSONException e) {
+			Log.w(TAG, "Could not read the session checkpoint", e);
+		}
+		return null;
+	}
+
+	/**
+	 * Deletes the checkpoint in the background, once any checkpoint still being written
+	 * is done, since the session it describes has ended.
+	 */
+	static void clear() {
+		sWriter.execute(new Runnable() {
+			@Override
+			public void run() {
+				File[] files = DIR.listFiles();
+				if (files != null) {
+					for (File file : files) {
+						file.delete();
+					}
+				}
+			}
+		});
+	}
+
+}
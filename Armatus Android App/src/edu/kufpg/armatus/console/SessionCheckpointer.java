@@ -0,0 +1,129 @@
+package edu.kufpg.armatus.console;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.http.HttpStatus;
+
+import edu.kufpg.armatus.AsyncActivityTask;
+import edu.kufpg.armatus.TaskScheduler.Priority;
+import edu.kufpg.armatus.data.CommandResponse;
+import edu.kufpg.armatus.data.History;
+import edu.kufpg.armatus.data.Token;
+import edu.kufpg.armatus.networking.HermitHttpServerRequest;
+import edu.kufpg.armatus.networking.HermitHttpServerRequest.HttpRequest;
+import edu.kufpg.armatus.networking.HermitProtocol;
+import edu.kufpg.armatus.util.JsonReader;
+import edu.kufpg.armatus.util.StageTimings;
+
+/**
+ * Saves where a {@link HermitClient}'s session is as a {@link SessionCheckpoint}, so that a
+ * console started after the process was killed can reattach to it, and checks that the
+ * server still has a session that was reattached to.
+ */
+final class SessionCheckpointer {
+	private final HermitClient mClient;
+	private final Listener mListener;
+
+	SessionCheckpointer(HermitClient client, Listener listener) {
+		mClient = client;
+		mListener = listener;
+	}
+
+	/**
+	 * Saves where the session is. Scripted servers die with the process, so their sessions
+	 * are not saved.
+	 * @param input The command whose response is being shown, or {@code null} if none.
+	 */
+	void save(String input, int width, CommandResponse response) {
+		String serverUrl = mClient.getServerUrl();
+		Token token = mClient.getToken();
+		if (token == null || serverUrl == null || HermitClient.isScripted(serverUrl)) {
+			return;
+		}
+		List<String> serverUrls = (mClient.getServerPool() != null)
+				? mClient.getServerPool().getServerUrls() : Collections.<String>emptyList();
+		new SessionCheckpoint(serverUrl, serverUrls, token, mClient.getSession(), mClient.getStartingAst(),
+				mClient.getConsole().getCommandHistory(), input, width, response).save();
+	}
+
+	/**
+	 * Forgets the saved session, since the user has left it or it has ended.
+	 */
+	void discard() {
+		SessionCheckpoint.clear();
+	}
+
+	/**
+	 * Reads the last checkpoint in the background, and hands it to the listener unless the
+	 * client has connected in the meantime, which starts a session of its own.
+	 */
+	void load() {
+		final long startedAt = StageTimings.start();
+		new AsyncActivityTask<ConsoleActivity, Void, Void, SessionCheckpoint>(mClient.getConsole()) {
+			@Override
+			protected SessionCheckpoint doInBackground(Void... params) {
+				applyThreadPriority();
+				return SessionCheckpoint.load();
+			}
+
+			@Override
+			protected void onPostExecute(SessionCheckpoint checkpoint) {
+				super.onPostExecute(checkpoint);
+				if (checkpoint != null && mClient.getServerUrl() == null && mClient.getToken() == null) {
+					mListener.onCheckpointLoaded(checkpoint, startedAt);
+				}
+			}
+		}.executeWithPriority(Priority.INTERACTIVE);
+	}
+
+	/**
+	 * Checks that the server still has a reattached session, by reading the session's
+	 * history, which is shown in the command history list. If the server has forgotten
+	 * the session, the checkpoint is dropped and the listener is told.
+	 */
+	void check() {
+		final Token token = mClient.getToken();
+		new HermitHttpServerRequest<History>(mClient.getConsole(), HttpRequest.POST, false) {
+			@Override
+			protected History onResponse(JsonReader reader) throws IOException {
+				return History.fromJson(reader);
+			}
+
+			@Override
+			protected void onCancelled(History error) {
+				int statusCode = getStatusCode();
+				if (statusCode >= HttpStatus.SC_BAD_REQUEST && statusCode < HttpStatus.SC_INTERNAL_SERVER_ERROR
+						&& mClient.getToken() == token) {
+					setErrorMessage("ERROR: the server no longer has the resumed session. Connect again to start a new one.");
+					discard();
+					mListener.onSessionLost();
+				}
+				super.onCancelled(error);
+			}
+
+			@Override
+			protected void onPostExecute(History history) {
+				super.onPostExecute(history);
+				if (mClient.getToken() == token && !history.getCommands().isEmpty()) {
+					getActivity().setCommandHistory(history.getCommands());
+				}
+			}
+		}.executeWithPriority(Priority.FETCH, mClient.getServerUrl() + HermitProtocol.HISTORY, token.toString());
+	}
+
+	/**
+	 * Interface definition for callbacks to be invoked when a checkpoint is read back, and
+	 * when the server turns out to have forgotten its session.
+	 */
+	interface Listener {
+		/**
+		 * @param startedAt When the checkpoint started being read, from {@link StageTimings#start()}.
+		 */
+		void onCheckpointLoaded(SessionCheckpoint checkpoint, long startedAt);
+
+		void onSessionLost();
+	}
+
+}
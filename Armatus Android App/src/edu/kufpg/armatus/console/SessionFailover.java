@@ -0,0 +1,190 @@
+package edu.kufpg.armatus.console;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import edu.kufpg.armatus.data.HistoryCommand;
+
+/**
+ * Where a {@link HermitClient} is in moving its session to another server of its
+ * {@link edu.kufpg.armatus.networking.ServerPool ServerPool}. A command that fails to
+ * reach the server is held until the next check says whether the server is gone. If it
+ * is, the session is moved: a new session is opened on another server, and the commands
+ * that led to the old session's AST are replayed there. Commands wait while either is
+ * going on. Once the commands have been replayed, the session's history is rebuilt with
+ * the ASTs the new server gave them.
+ */
+final class SessionFailover {
+	private String mFailureMessage;
+	private boolean mMoving = false;
+	private List<HistoryCommand> mHistory;
+	private int mStartingAst;
+	private List<HistoryCommand> mPath;
+	private boolean mPathTaken;
+
+	/**
+	 * Holds the error of a command that failed to reach the server, until a check says
+	 * whether the server is gone.
+	 */
+	void holdFailure(String message) {
+		mFailureMessage = message;
+	}
+
+	/**
+	 * Returns whether a failed command is waiting for a check.
+	 */
+	boolean isHoldingFailure() {
+		return mFailureMessage != null;
+	}
+
+	/**
+	 * Returns the error of the command that failed to reach the server, and stops holding
+	 * it, or returns {@code null} if there is none.
+	 */
+	String takeFailure() {
+		String message = mFailureMessage;
+		mFailureMessage = null;
+		return message;
+	}
+
+	/**
+	 * Starts moving the session.
+	 * @param history Every command the session has run, in any order.
+	 * @param startingAst The AST the session started at.
+	 * @param ast The session's current AST.
+	 * @throws IllegalArgumentException if the history doesn't lead from the starting AST
+	 * to the current one, in which case the session is not moved.
+	 */
+	void start(List<HistoryCommand> history, int startingAst, int ast) {
+		mPath = getPath(history, startingAst, ast);
+		mHistory = new ArrayList<HistoryCommand>(history);
+		mStartingAst = startingAst;
+		mPathTaken = false;
+		mMoving = true;
+	}
+
+	/**
+	 * Returns whether the session is being moved.
+	 */
+	boolean isMoving() {
+		return mMoving;
+	}
+
+	/**
+	 * Returns the commands to replay on the new server, once.
+	 */
+	List<HistoryCommand> takePath() {
+		if (mPath == null || mPathTaken) {
+			return Collections.<HistoryCommand>emptyList();
+		}
+		mPathTaken = true;
+		return mPath;
+	}
+
+	/**
+	 * Returns the moved session's history: the commands that were replayed, as the new
+	 * server ran them, and every other command of the old session, on the branches the
+	 * session had left or on the part of the way that couldn't be replayed. Those commands
+	 * start from the new server's ASTs where they can, but the ASTs they led to only exist
+	 * on the old server, so they are given negative numbers, which no server hands out.
+	 * @param startingAst The AST the new session started at.
+	 * @param replayed The steps that were replayed on the new server, oldest first, with
+	 * the ASTs it gave them. They follow the path from {@link #takePath()}, which may not
+	 * have been replayed all the way.
+	 */
+	List<HistoryCommand> rebuildHistory(int startingAst, List<HistoryCommand> replayed) {
+		Map<Integer, Integer> newAsts = new HashMap<Integer, Integer>();
+		newAsts.put(mStartingAst, startingAst);
+		Set<HistoryCommand> moved = Collections.newSetFromMap(new IdentityHashMap<HistoryCommand, Boolean>());
+		for (int i = 0; i < replayed.size() && i < mPath.size(); i++) {
+			newAsts.put(mPath.get(i).getTo(), replayed.get(i).getTo());
+			moved.add(mPath.get(i));
+		}
+
+		List<HistoryCommand> history = new ArrayList<HistoryCommand>(replayed);
+		int nextPlaceholder = -1;
+		for (HistoryCommand command : mHistory) {
+			if (moved.contains(command)) {
+				continue;
+			}
+			for (int ast : new int[] { command.getFrom(), command.getTo() }) {
+				if (!newAsts.containsKey(ast)) {
+					newAsts.put(ast, nextPlaceholder--);
+				}
+			}
+			history.add(new HistoryCommand(newAsts.get(command.getFrom()), command.getCommand(),
+					newAsts.get(command.getTo())));
+		}
+		return history;
+	}
+
+	/**
+	 * Records that the session has been moved, or could not be.
+	 */
+	void finish() {
+		mMoving = false;
+		mHistory = null;
+		mPath = null;
+	}
+
+	/**
+	 * Forgets everything, since the client has moved to another pool or none.
+	 */
+	void reset() {
+		mFailureMessage = null;
+		finish();
+	}
+
+	/**
+	 * Returns the commands that led from the start of a session to an AST, oldest first,
+	 * leaving out commands on branches the session has since left.
+	 * @param history Every command the session has run, in any order.
+	 * @param startingAst The AST the session started at.
+	 * @param ast The AST to find the way to.
+	 * @throws IllegalArgumentException if the history doesn't lead from the starting AST
+	 * to {@code ast}.
+	 */
+	static List<HistoryCommand> getPath(List<HistoryCommand> history, int startingAst, int ast) {
+		LinkedList<HistoryCommand> path = new LinkedList<HistoryCommand>();
+		int start = walkBack(history, ast, path);
+		if (start != startingAst) {
+			throw new IllegalArgumentException("No command leads to AST " + start
+					+ " on the way from AST " + startingAst + " to AST " + ast);
+		}
+		return path;
+	}
+
+	/**
+	 * Returns the AST that a history leads back to from an AST, for sessions whose
+	 * starting AST wasn't recorded.
+	 * @param history Every command the session has run, in any order.
+	 * @param ast The AST to start from.
+	 */
+	static int getStartingAst(List<HistoryCommand> history, int ast) {
+		return walkBack(history, ast, new LinkedList<HistoryCommand>());
+	}
+
+	/**
+	 * Follows the commands that led to an AST back for as long as there are any.
+	 * @param path Gets the commands, oldest first.
+	 * @return the AST the first command ran from, or {@code ast} if no command led to it.
+	 */
+	private static int walkBack(List<HistoryCommand> history, int ast, LinkedList<HistoryCommand> path) {
+		Map<Integer, HistoryCommand> commandsByTarget = new HashMap<Integer, HistoryCommand>();
+		for (HistoryCommand command : history) {
+			commandsByTarget.put(command.getTo(), command);
+		}
+		HistoryCommand step;
+		for (; (step = commandsByTarget.remove(ast)) != null; ast = step.getFrom()) {
+			path.addFirst(step);
+		}
+		return ast;
+	}
+
+}
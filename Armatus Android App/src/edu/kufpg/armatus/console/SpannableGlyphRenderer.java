@@ -0,0 +1,65 @@
+package edu.kufpg.armatus.console;
+
+import java.util.List;
+
+import android.graphics.Color;
+import android.text.SpannableString;
+import android.text.SpannableStringBuilder;
+import android.text.style.BackgroundColorSpan;
+import android.text.style.ForegroundColorSpan;
+
+import edu.kufpg.armatus.data.Glyph;
+import edu.kufpg.armatus.data.Glyph.GlyphStyle;
+import edu.kufpg.armatus.data.GlyphRenderer;
+
+/**
+ * Renders glyphs in their colors, with warnings highlighted, as the console shows them.
+ */
+public class SpannableGlyphRenderer implements GlyphRenderer {
+
+	@Override
+	public CharSequence render(List<Glyph> glyphs) {
+		SpannableStringBuilder builder = new SpannableStringBuilder();
+		for (Glyph glyph : glyphs) {
+			appendGlyph(builder, glyph);
+		}
+		return builder;
+	}
+
+	@Override
+	public Editor edit(CharSequence text) {
+		final SpannableStringBuilder builder = new SpannableStringBuilder(text);
+		return new Editor() {
+			@Override
+			public int replace(int start, int end, List<Glyph> glyphs) {
+				CharSequence replacement = render(glyphs);
+				builder.replace(start, end, replacement);
+				return replacement.length();
+			}
+
+			@Override
+			public CharSequence toText() {
+				return builder;
+			}
+		};
+	}
+
+	private static void appendGlyph(SpannableStringBuilder builder, Glyph glyph) {
+		SpannableString spanWord = new SpannableString(glyph.getText());
+		if (glyph.getStyle().equals(GlyphStyle.WARNING)) {
+			spanWord.setSpan(new BackgroundColorSpan(Color.YELLOW),
+					0, glyph.getText().length(), 0);
+			spanWord.setSpan(new ForegroundColorSpan(Color.BLACK),
+					0, glyph.getText().length(), 0);
+		} else {
+			String glyphColor = glyph.getColor();
+			if (glyphColor != null) {
+				spanWord.setSpan(new ForegroundColorSpan(Color.parseColor(glyphColor)),
+						0, glyph.getText().length(), 0);
+			}
+
+		}
+		builder.append(spanWord);
+	}
+
+}
@@ -0,0 +1,305 @@
+package edu.kufpg.armatus.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+
+import edu.kufpg.armatus.data.Glyph.GlyphStyle;
+
+/**
+ * A compact binary encoding of {@link CommandResponse}s, used on the wire by servers that
+ * offer it (see {@link #CONTENT_TYPE}) and for responses cached on disk. It decodes to the
+ * same model classes as the JSON encoding, but much faster, since a pretty-printed AST
+ * repeats the same few crumbs and words thousands of times.
+ * <p>
+ * All integers are unsigned LEB128 varints (signed ones are zigzag-encoded first) and all
+ * strings are a varint byte count followed by UTF-8. A response is laid out as:
+ * <pre>
+ * 'H' 'G' version
+ * ast
+ * flags                               (1: has glyphs, 2: has message)
+ * [message]
+ * [string count, strings...           (crumb names and glyph texts)
+ *  crumb count, crumbs...             (name index &lt;&lt; 1 | has num, [zigzag num])
+ *  glyph count, glyphs...]
+ * </pre>
+ * and each glyph as a style byte (with {@link #BINDING_SITE_FLAG} set if it has a binding
+ * site), its text's index in the string table, its path as the number of crumbs it shares
+ * with the previous glyph's path followed by the count and crumb indices of the rest, and
+ * then its binding site, if any, as a count and crumb indices.
+ */
+public final class BinaryResponses {
+	/** The media type of a binary-encoded response. */
+	public static final String CONTENT_TYPE = "application/x-hermit-glyphs";
+
+	private static final byte MAGIC_0 = 'H', MAGIC_1 = 'G';
+	private static final byte VERSION = 1;
+	private static final int HAS_GLYPHS = 1, HAS_MESSAGE = 2;
+	private static final int BINDING_SITE_FLAG = 0x80;
+
+	/** Glyph styles by their byte value. New styles must only ever be added to the end. */
+	private static final GlyphStyle[] STYLES = { GlyphStyle.NORMAL, GlyphStyle.KEYWORD, GlyphStyle.SYNTAX,
+		GlyphStyle.VAR, GlyphStyle.COERCION, GlyphStyle.TYPE, GlyphStyle.LIT, GlyphStyle.WARNING };
+
+	private BinaryResponses() {}
+
+	/**
+	 * Decodes a response from a stream, which is read to its end.
+	 * @param in The stream to read.
+	 * @return the decoded response.
+	 * @throws IOException if the stream cannot be read or does not hold a valid response.
+	 */
+	public static CommandResponse read(InputStream in) throws IOException {
+		return decode(ByteStreams.toByteArray(in));
+	}
+
+	/**
+	 * Decodes a response.
+	 * @param bytes The encoded response.
+	 * @return the decoded response.
+	 * @throws IOException if the bytes do not hold a valid response.
+	 */
+	public static CommandResponse decode(byte[] bytes) throws IOException {
+		Reader reader = new Reader(bytes);
+		try {
+			if (reader.readByte() != MAGIC_0 || reader.readByte() != MAGIC_1) {
+				throw new IOException("Not a binary response");
+			}
+			int version = reader.readByte();
+			if (version != VERSION) {
+				throw new IOException("Unsupported binary response version " + version);
+			}
+			int ast = reader.readVarint();
+			int flags = reader.readByte();
+			String message = null;
+			if ((flags & HAS_MESSAGE) != 0) {
+				message = CommandResponse.tightenSpacing(reader.readString());
+			}
+			if ((flags & HAS_GLYPHS) == 0) {
+				return (message != null) ? new CommandResponse(ast, message) : new CommandResponse(ast);
+			}
+
+			String[] strings = new String[reader.readVarint()];
+			for (int i = 0; i < strings.length; i++) {
+				strings[i] = reader.readString();
+			}
+			Crumb[] crumbs = new Crumb[reader.readVarint()];
+			for (int i = 0; i < crumbs.length; i++) {
+				int header = reader.readVarint();
+				String name = strings[header >>> 1];
+				crumbs[i] = ((header & 1) != 0) ? new Crumb(reader.readSignedVarint(), name) : new Crumb(name);
+			}
+
+			int glyphCount = reader.readVarint();
+			ImmutableList.Builder<Glyph> glyphs = ImmutableList.builder();
+			ImmutableList<Crumb> path = ImmutableList.of();
+			for (int i = 0; i < glyphCount; i++) {
+				int style = reader.readByte();
+				String text = strings[reader.readVarint()];
+				int shared = reader.readVarint();
+				int added = reader.readVarint();
+				//Neighbouring glyphs usually sit at the same place in the AST
+				if (shared != path.size() || added != 0) {
+					ImmutableList.Builder<Crumb> pathBuilder = ImmutableList.builder();
+					pathBuilder.addAll(path.subList(0, shared));
+					for (int j = 0; j < added; j++) {
+						pathBuilder.add(crumbs[reader.readVarint()]);
+					}
+					path = pathBuilder.build();
+				}
+				if ((style & BINDING_SITE_FLAG) != 0) {
+					glyphs.add(new Glyph(STYLES[style & ~BINDING_SITE_FLAG], readCrumbs(reader, crumbs), path, text));
+				} else {
+					glyphs.add(new Glyph(STYLES[style], path, text));
+				}
+			}
+			return (message != null) ? new CommandResponse(ast, glyphs.build(), message)
+					: new CommandResponse(ast, glyphs.build());
+		} catch (IndexOutOfBoundsException e) {
+			throw new IOException("Malformed binary response", e);
+		}
+	}
+
+	private static ImmutableList<Crumb> readCrumbs(Reader reader, Crumb[] crumbs) throws IOException {
+		int count = reader.readVarint();
+		ImmutableList.Builder<Crumb> builder = ImmutableList.builder();
+		for (int i = 0; i < count; i++) {
+			builder.add(crumbs[reader.readVarint()]);
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Encodes a response.
+	 * @param response The response to encode.
+	 * @return the encoded response.
+	 */
+	public static byte[] encode(CommandResponse response) {
+		Writer writer = new Writer();
+		writer.writeByte(MAGIC_0);
+		writer.writeByte(MAGIC_1);
+		writer.writeByte(VERSION);
+		writer.writeVarint(response.getAst());
+		writer.writeByte((response.hasGlyphs() ? HAS_GLYPHS : 0) | (response.hasMessage() ? HAS_MESSAGE : 0));
+		if (response.hasMessage()) {
+			writer.writeString(response.getMessage());
+		}
+		if (!response.hasGlyphs()) {
+			return writer.toByteArray();
+		}
+
+		List<Glyph> glyphs = response.getGlyphs();
+		Map<String, Integer> strings = new LinkedHashMap<String, Integer>();
+		Map<Crumb, Integer> crumbs = new LinkedHashMap<Crumb, Integer>();
+		for (Glyph glyph : glyphs) {
+			index(strings, glyph.getText());
+			for (Crumb crumb : glyph.getPath()) {
+				index(strings, crumb.getCrumbName());
+				index(crumbs, crumb);
+			}
+			if (glyph.hasBindingSite()) {
+				for (Crumb crumb : glyph.getBindingSite()) {
+					index(strings, crumb.getCrumbName());
+					index(crumbs, crumb);
+				}
+			}
+		}
+
+		writer.writeVarint(strings.size());
+		for (String string : strings.keySet()) {
+			writer.writeString(string);
+		}
+		writer.writeVarint(crumbs.size());
+		for (Crumb crumb : crumbs.keySet()) {
+			int name = strings.get(crumb.getCrumbName());
+			if (crumb.hasNum()) {
+				writer.writeVarint(name << 1 | 1);
+				writer.writeSignedVarint(crumb.getNum());
+			} else {
+				writer.writeVarint(name << 1);
+			}
+		}
+
+		writer.writeVarint(glyphs.size());
+		List<Crumb> previousPath = new ArrayList<Crumb>();
+		for (Glyph glyph : glyphs) {
+			int style = styleByte(glyph.getStyle());
+			writer.writeByte(glyph.hasBindingSite() ? style | BINDING_SITE_FLAG : style);
+			writer.writeVarint(strings.get(glyph.getText()));
+
+			List<Crumb> path = glyph.getPath();
+			int shared = 0;
+			while (shared < path.size() && shared < previousPath.size()
+					&& path.get(shared).equals(previousPath.get(shared))) {
+				shared++;
+			}
+			writer.writeVarint(shared);
+			writer.writeVarint(path.size() - shared);
+			for (Crumb crumb : path.subList(shared, path.size())) {
+				writer.writeVarint(crumbs.get(crumb));
+			}
+			previousPath = path;
+
+			if (glyph.hasBindingSite()) {
+				List<Crumb> bindingSite = glyph.getBindingSite();
+				writer.writeVarint(bindingSite.size());
+				for (Crumb crumb : bindingSite) {
+					writer.writeVarint(crumbs.get(crumb));
+				}
+			}
+		}
+		return writer.toByteArray();
+	}
+
+	private static int styleByte(GlyphStyle style) {
+		for (int i = 0; i < STYLES.length; i++) {
+			if (STYLES[i] == style) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("No byte for glyph style " + style);
+	}
+
+	private static <T> void index(Map<T, Integer> table, T value) {
+		if (!table.containsKey(value)) {
+			table.put(value, table.size());
+		}
+	}
+
+	private static class Reader {
+		private final byte[] mBytes;
+		private int mPosition;
+
+		public Reader(byte[] bytes) {
+			mBytes = bytes;
+		}
+
+		public int readByte() throws EOFException {
+			if (mPosition >= mBytes.length) {
+				throw new EOFException("Binary response ended early");
+			}
+			return mBytes[mPosition++] & 0xFF;
+		}
+
+		public int readVarint() throws IOException {
+			int value = 0;
+			for (int shift = 0; shift < 32; shift += 7) {
+				int b = readByte();
+				value |= (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) {
+					return value;
+				}
+			}
+			throw new IOException("Varint too long");
+		}
+
+		public int readSignedVarint() throws IOException {
+			int value = readVarint();
+			return (value >>> 1) ^ -(value & 1);
+		}
+
+		public String readString() throws IOException {
+			int length = readVarint();
+			if (length < 0 || length > mBytes.length - mPosition) {
+				throw new EOFException("Binary response ended early");
+			}
+			String string = new String(mBytes, mPosition, length, Charsets.UTF_8);
+			mPosition += length;
+			return string;
+		}
+	}
+
+	private static class Writer extends ByteArrayOutputStream {
+		public void writeByte(int b) {
+			write(b);
+		}
+
+		public void writeVarint(int value) {
+			while ((value & ~0x7F) != 0) {
+				write((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			write(value);
+		}
+
+		public void writeSignedVarint(int value) {
+			writeVarint((value << 1) ^ (value >> 31));
+		}
+
+		public void writeString(String string) {
+			byte[] bytes = string.getBytes(Charsets.UTF_8);
+			writeVarint(bytes.length);
+			write(bytes, 0, bytes.length);
+		}
+	}
+
+}
@@ -3,32 +3,38 @@ package edu.kufpg.armatus.data;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import android.os.Parcel;
-import android.os.Parcelable;
-
 import com.google.common.base.Optional;
 
-import edu.kufpg.armatus.util.ParcelUtils;
-
-public class Command implements Parcelable {
-	private static final String TOKEN = "token", CMD = "cmd", WIDTH = "width";
+public class Command {
+	private static final String TOKEN = "token", CMD = "cmd", WIDTH = "width", BASE = "base";
 	
 	private final Token mToken;
 	private final String mCommand;
 	private final Optional<Integer> mWidth;
+	private final Optional<Integer> mBaseAst;
 	
 	public Command(Token token, String command) {
-		this(token, command, Optional.<Integer>absent());
+		this(token, command, Optional.<Integer>absent(), Optional.<Integer>absent());
 	}
 	
 	public Command(Token token, String command, int width) {
-		this(token, command, Optional.of(width));
+		this(token, command, Optional.of(width), Optional.<Integer>absent());
 	}
 	
-	private Command(Token token, String command, Optional<Integer> width) {
+	/**
+	 * Constructs a command whose response may be sent as a delta (see {@link GlyphPatch})
+	 * against the response the client already has for {@code baseAst}, which must have
+	 * been rendered at the same width.
+	 */
+	public Command(Token token, String command, int width, int baseAst) {
+		this(token, command, Optional.of(width), Optional.of(baseAst));
+	}
+	
+	private Command(Token token, String command, Optional<Integer> width, Optional<Integer> baseAst) {
 		mToken = token;
 		mCommand = command;
 		mWidth = width;
+		mBaseAst = baseAst;
 	}
 	
 	public int getWidth() throws IllegalStateException {
@@ -39,6 +45,14 @@ public class Command implements Parcelable {
 		return mWidth.isPresent();
 	}
 	
+	public int getBaseAst() throws IllegalStateException {
+		return mBaseAst.get();
+	}
+	
+	public boolean hasBaseAst() {
+		return mBaseAst.isPresent();
+	}
+	
 	public JSONObject toJSONObject() {
 		JSONObject o = new JSONObject();
 		try {
@@ -47,6 +61,9 @@ public class Command implements Parcelable {
 			if (hasWidth()) {
 				o.put(WIDTH, getWidth());
 			}
+			if (hasBaseAst()) {
+				o.put(BASE, getBaseAst());
+			}
 		} catch (JSONException e) {
 			e.printStackTrace();
 		}
@@ -57,33 +74,5 @@ public class Command implements Parcelable {
 	public String toString() {
 		return toJSONObject().toString();
 	}
-	
-	public static Parcelable.Creator<Command> CREATOR =
-			new Parcelable.Creator<Command>() {
-		@Override
-		public Command createFromParcel(Parcel source) {
-			Token token = source.readParcelable(Token.class.getClassLoader());
-			String command = source.readString();
-			Optional<Integer> width = ParcelUtils.readOptional(source);
-			return new Command(token, command, width);
-		}
-
-		@Override
-		public Command[] newArray(int size) {
-			return new Command[size];
-		}
-	};
-
-	@Override
-	public int describeContents() {
-		return 0;
-	}
-
-	@Override
-	public void writeToParcel(Parcel dest, int flags) {
-		dest.writeParcelable(mToken, flags);
-		dest.writeString(mCommand);
-		ParcelUtils.writeOptional(dest, mWidth);
-	}
 
 }
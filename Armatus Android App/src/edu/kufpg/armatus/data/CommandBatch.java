@@ -0,0 +1,77 @@
+package edu.kufpg.armatus.data;
+
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * A sequence of commands to be run one after another in a single request, starting
+ * from the AST in the {@link Token}. Each command runs against the AST produced by the
+ * command before it.
+ */
+public class CommandBatch {
+	private static final String TOKEN = "token", CMDS = "cmds", WIDTH = "width";
+
+	private final Token mToken;
+	private final List<String> mCommands;
+	private final Optional<Integer> mWidth;
+
+	public CommandBatch(Token token, List<String> commands) {
+		this(token, ImmutableList.copyOf(commands), Optional.<Integer>absent());
+	}
+
+	/**
+	 * Constructs a batch whose responses are pretty-printed at a given width, as with
+	 * {@link Command#Command(Token, String, int)}.
+	 */
+	public CommandBatch(Token token, List<String> commands, int width) {
+		this(token, ImmutableList.copyOf(commands), Optional.of(width));
+	}
+
+	private CommandBatch(Token token, ImmutableList<String> commands, Optional<Integer> width) {
+		mToken = token;
+		mCommands = commands;
+		mWidth = width;
+	}
+
+	public List<String> getCommands() {
+		return mCommands;
+	}
+
+	public int getWidth() throws IllegalStateException {
+		return mWidth.get();
+	}
+
+	public boolean hasWidth() {
+		return mWidth.isPresent();
+	}
+
+	public JSONObject toJSONObject() {
+		JSONObject o = new JSONObject();
+		try {
+			o.put(TOKEN, mToken.toJSONObject());
+			JSONArray cmds = new JSONArray();
+			for (String command : mCommands) {
+				cmds.put(command);
+			}
+			o.put(CMDS, cmds);
+			if (hasWidth()) {
+				o.put(WIDTH, getWidth());
+			}
+		} catch (JSONException e) {
+			e.printStackTrace();
+		}
+		return o;
+	}
+
+	@Override
+	public String toString() {
+		return toJSONObject().toString();
+	}
+
+}
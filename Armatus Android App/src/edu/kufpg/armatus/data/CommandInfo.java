@@ -1,26 +1,26 @@
 package edu.kufpg.armatus.data;
 
+import java.io.IOException;
+import java.io.Serializable;
 import java.util.List;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import android.os.Parcel;
-import android.os.Parcelable;
-
 import com.google.common.collect.ComparisonChain;
 import com.google.common.collect.ImmutableList;
 
-import edu.kufpg.armatus.util.ParcelUtils;
+import edu.kufpg.armatus.util.JsonReader;
+import edu.kufpg.armatus.util.JsonUtils;
 
-public class CommandInfo implements Comparable<CommandInfo>, Parcelable {
+public class CommandInfo implements Comparable<CommandInfo>, Serializable {
+	private static final long serialVersionUID = 1L;
 	private static final String HELP = "help", NAME = "name", TAGS = "tags", ARG_TYS = "argTys", RES_TY = "resTy";
 
 	private final String mHelp, mName, mResultType;
 	private final List<String> mTags, mArgTypes;
 
-
 	public CommandInfo(String help, String name, List<String> tags, List<String> argTypes, String resultType) {
 		this(help, name, ImmutableList.copyOf(tags), ImmutableList.copyOf(argTypes), resultType);
 	}
@@ -38,6 +38,32 @@ public class CommandInfo implements Comparable<CommandInfo>, Parcelable {
 		mResultType = resultType;
 	}
 
+	public static CommandInfo fromJson(JsonReader reader) throws IOException {
+		String help = null, name = null, resultType = null;
+		ImmutableList<String> tags = null, argTypes = null;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String field = reader.nextName();
+			if (HELP.equals(field)) {
+				help = reader.nextString();
+			} else if (NAME.equals(field)) {
+				name = reader.nextString();
+			} else if (TAGS.equals(field)) {
+				tags = readStrings(reader);
+			} else if (ARG_TYS.equals(field)) {
+				argTypes = readStrings(reader);
+			} else if (RES_TY.equals(field)) {
+				resultType = reader.nextString();
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		return new CommandInfo(JsonUtils.checkField(help, HELP), JsonUtils.checkField(name, NAME),
+				JsonUtils.checkField(tags, TAGS), JsonUtils.checkField(argTypes, ARG_TYS),
+				JsonUtils.checkField(resultType, RES_TY));
+	}
+
 	public String getHelp() {
 		return mHelp;
 	}
@@ -66,6 +92,16 @@ public class CommandInfo implements Comparable<CommandInfo>, Parcelable {
 		return builder.build();
 	}
 
+	private static ImmutableList<String> readStrings(JsonReader reader) throws IOException {
+		ImmutableList.Builder<String> builder = ImmutableList.builder();
+		reader.beginArray();
+		while (reader.hasNext()) {
+			builder.add(reader.nextString());
+		}
+		reader.endArray();
+		return builder.build();
+	}
+
 	@Override
 	public int compareTo(CommandInfo another) {
 		return ComparisonChain.start()
@@ -74,36 +110,4 @@ public class CommandInfo implements Comparable<CommandInfo>, Parcelable {
 				.result();
 	}
 
-	public static Parcelable.Creator<CommandInfo> CREATOR =
-			new Parcelable.Creator<CommandInfo>() {
-		@Override
-		public CommandInfo createFromParcel(Parcel source) {
-			String help = source.readString();
-			String name = source.readString();
-			ImmutableList<String> tags = ParcelUtils.readImmutableList(source);
-			ImmutableList<String> argTypes = ParcelUtils.readImmutableList(source);
-			String resultType = source.readString();
-			return new CommandInfo(help, name, tags, argTypes, resultType);
-		}
-
-		@Override
-		public CommandInfo[] newArray(int size) {
-			return new CommandInfo[size];
-		}
-	};
-
-	@Override
-	public int describeContents() {
-		return 0;
-	}
-
-	@Override
-	public void writeToParcel(Parcel dest, int flags) {
-		dest.writeString(mHelp);
-		dest.writeString(mName);
-		ParcelUtils.writeCollection(dest, mTags);
-		ParcelUtils.writeCollection(dest, mArgTypes);
-		dest.writeString(mResultType);
-	}
-
 }
\ No newline at end of file
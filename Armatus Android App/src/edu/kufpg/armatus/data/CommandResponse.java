@@ -1,34 +1,29 @@
 package edu.kufpg.armatus.data;
 
+import java.io.IOException;
 import java.util.List;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import android.graphics.Color;
-import android.os.Parcel;
-import android.os.Parcelable;
-import android.text.Spannable;
-import android.text.SpannableString;
-import android.text.SpannableStringBuilder;
-import android.text.style.BackgroundColorSpan;
-import android.text.style.ForegroundColorSpan;
-
 import com.google.common.base.Objects;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 
-import edu.kufpg.armatus.data.Glyph.GlyphStyle;
-import edu.kufpg.armatus.util.ParcelUtils;
-import edu.kufpg.armatus.util.StringUtils;
+import edu.kufpg.armatus.util.JsonReader;
+import edu.kufpg.armatus.util.JsonUtils;
+import edu.kufpg.armatus.util.StageTimings;
+import edu.kufpg.armatus.util.StageTimings.Stage;
+
+public class CommandResponse {
+	private static final String AST = "ast", GLYPHS = "glyphs", MSG = "msg", BASE = "base", EDITS = "edits";
 
-public class CommandResponse implements Parcelable {
-	private static final String AST = "ast", GLYPHS = "glyphs", MSG = "msg";
+	private static volatile GlyphRenderer sRenderer = GlyphRenderer.PLAIN;
 
 	private final int mAst;
 	private final Optional<? extends List<Glyph>> mGlyphs;
-	private final Optional<? extends Spannable> mGlyphText;
+	private final Optional<? extends CharSequence> mGlyphText;
 	private final Optional<String> mMessage;
 
 	public CommandResponse(int ast) {
@@ -55,14 +50,83 @@ public class CommandResponse implements Parcelable {
 		this(ast, maybeGlyphs, createPrettyText(maybeGlyphs), maybeMessage);
 	}
 	
-	private CommandResponse(int ast, Optional<ImmutableList<Glyph>> glyphs,
-			Optional<SpannableStringBuilder> glyphText, Optional<String> message) {
+	CommandResponse(int ast, Optional<ImmutableList<Glyph>> glyphs,
+			Optional<? extends CharSequence> glyphText, Optional<String> message) {
 		mAst = ast;
 		mGlyphs = glyphs;
 		mGlyphText = glyphText;
 		mMessage = message;
 	}
 
+	/**
+	 * Sets how the glyphs of every response decoded from now on are rendered as text.
+	 * @param renderer The renderer, which is {@link GlyphRenderer#PLAIN} until this is called.
+	 */
+	public static void setRenderer(GlyphRenderer renderer) {
+		sRenderer = renderer;
+	}
+
+	static GlyphRenderer getRenderer() {
+		return sRenderer;
+	}
+
+	/**
+	 * Decodes a {@code CommandResponse} directly from a stream of JSON, without building
+	 * an intermediate {@link JSONObject}.
+	 */
+	public static CommandResponse fromJson(JsonReader reader) throws IOException {
+		return fromJson(reader, null);
+	}
+
+	/**
+	 * Decodes a {@code CommandResponse} that the server may have sent as a delta against
+	 * an earlier response (see {@link GlyphPatch}), which it only does if it was told
+	 * which response the client has.
+	 * @param reader The JSON to decode.
+	 * @param base The response the server was told about, or {@code null} if none.
+	 * @throws IOException if the JSON is not a valid response.
+	 * @throws GlyphPatch.StaleBaseException if the response is a delta against a response
+	 * other than {@code base}, or that doesn't fit its edits.
+	 */
+	public static CommandResponse fromJson(JsonReader reader, CommandResponse base) throws IOException {
+		Integer ast = null;
+		Integer baseAst = null;
+		List<GlyphPatch.Edit> edits = null;
+		Optional<ImmutableList<Glyph>> glyphs = Optional.absent();
+		Optional<String> message = Optional.absent();
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+			if (AST.equals(name)) {
+				ast = reader.nextInt();
+			} else if (BASE.equals(name)) {
+				baseAst = reader.nextInt();
+			} else if (EDITS.equals(name)) {
+				edits = GlyphPatch.readEdits(reader);
+			} else if (GLYPHS.equals(name)) {
+				ImmutableList.Builder<Glyph> builder = ImmutableList.builder();
+				reader.beginArray();
+				while (reader.hasNext()) {
+					builder.add(Glyph.fromJson(reader));
+				}
+				reader.endArray();
+				glyphs = Optional.of(builder.build());
+			} else if (MSG.equals(name)) {
+				message = Optional.of(tightenSpacing(reader.nextString()));
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		if (edits != null) {
+			if (base == null || !base.hasGlyphs() || !JsonUtils.checkField(baseAst, BASE).equals(base.getAst())) {
+				throw new GlyphPatch.StaleBaseException("Delta against a response the client doesn't have");
+			}
+			return GlyphPatch.apply(base, edits, JsonUtils.checkField(ast, AST), message);
+		}
+		return new CommandResponse(JsonUtils.checkField(ast, AST), glyphs, message);
+	}
+
 	public int getAst() {
 		return mAst;
 	}
@@ -71,7 +135,7 @@ public class CommandResponse implements Parcelable {
 		return mGlyphs.get();
 	}
 
-	public Spannable getGlyphText() throws IllegalStateException {
+	public CharSequence getGlyphText() throws IllegalStateException {
 		return mGlyphText.get();
 	}
 
@@ -87,6 +151,26 @@ public class CommandResponse implements Parcelable {
 		return mMessage.isPresent();
 	}
 
+	public JSONObject toJSONObject() {
+		JSONObject o = new JSONObject();
+		try {
+			o.put(AST, mAst);
+			if (hasGlyphs()) {
+				JSONArray glyphs = new JSONArray();
+				for (Glyph glyph : getGlyphs()) {
+					glyphs.put(glyph.toJSONObject());
+				}
+				o.put(GLYPHS, glyphs);
+			}
+			if (hasMessage()) {
+				o.put(MSG, getMessage());
+			}
+		} catch (JSONException e) {
+			e.printStackTrace();
+		}
+		return o;
+	}
+
 	private static Optional<ImmutableList<Glyph>> jsonToGlyphs(JSONObject o) throws JSONException {
 		if (o.has(GLYPHS)) {
 			ImmutableList.Builder<Glyph> builder = ImmutableList.builder();
@@ -100,27 +184,12 @@ public class CommandResponse implements Parcelable {
 		}
 	}
 
-	private static Optional<SpannableStringBuilder> createPrettyText(Optional<? extends List<Glyph>> glyphs) {
+	private static Optional<CharSequence> createPrettyText(Optional<? extends List<Glyph>> glyphs) {
 		if (glyphs.isPresent()) {
-			SpannableStringBuilder builder = new SpannableStringBuilder();
-			for (Glyph glyph : glyphs.get()) {
-				SpannableString spanWord = new SpannableString(glyph.getText());
-				if (glyph.getStyle().equals(GlyphStyle.WARNING)) {
-					spanWord.setSpan(new BackgroundColorSpan(Color.YELLOW),
-							0, glyph.getText().length(), 0);
-					spanWord.setSpan(new ForegroundColorSpan(Color.BLACK),
-							0, glyph.getText().length(), 0);
-				} else {
-					String glyphColor = glyph.getColor();
-					if (glyphColor != null) {
-						spanWord.setSpan(new ForegroundColorSpan(Color.parseColor(glyphColor)),
-								0, glyph.getText().length(), 0);
-					}
-
-				}
-				builder.append(spanWord);
-			}
-			return Optional.of(builder);
+			long start = StageTimings.start();
+			CharSequence text = sRenderer.render(glyphs.get());
+			StageTimings.record(Stage.SPAN_BUILD, start);
+			return Optional.of(text);
 		} else {
 			return Optional.absent();
 		}
@@ -128,12 +197,24 @@ public class CommandResponse implements Parcelable {
 
 	private static Optional<String> jsonToMessage(JSONObject o) throws JSONException {
 		if (o.has(MSG)) {
-			return Optional.of(StringUtils.tightenSpacing(o.getString("msg")));
+			return Optional.of(tightenSpacing(o.getString("msg")));
 		} else {
 			return Optional.absent();
 		}
 	}
 	
+	/**
+	 * Collapses the blank lines in a message from HERMIT and trims it.
+	 */
+	static String tightenSpacing(String str) {
+		for (int i = 0; i < str.length(); i++) {
+			while (i < str.length() - 1 && str.charAt(i) == '\n' && str.charAt(i+1) == '\n') {
+				str = str.substring(0, i) + str.substring(i+1, str.length());
+			}
+		}
+		return str.trim();
+	}
+
 	@Override
 	public boolean equals(Object o) {
 		if (o instanceof CommandResponse) {
@@ -150,34 +231,4 @@ public class CommandResponse implements Parcelable {
 	public int hashCode() {
 		return Objects.hashCode(mAst, mGlyphs, mMessage);
 	}
-
-	public static Parcelable.Creator<CommandResponse> CREATOR =
-			new Parcelable.Creator<CommandResponse>() {
-		@Override
-		public CommandResponse createFromParcel(Parcel source) {
-			int ast = source.readInt();
-			Optional<ImmutableList<Glyph>> glyphs = ParcelUtils.readOptional(source);
-			Optional<SpannableStringBuilder> glyphText = ParcelUtils.readOptional(source);
-			Optional<String> message = ParcelUtils.readOptional(source);
-			return new CommandResponse(ast, glyphs, glyphText, message);
-		}
-
-		@Override
-		public CommandResponse[] newArray(int size) {
-			return new CommandResponse[size];
-		}
-	};
-
-	@Override
-	public int describeContents() {
-		return 0;
-	}
-
-	@Override
-	public void writeToParcel(Parcel dest, int flags) {
-		dest.writeInt(mAst);
-		ParcelUtils.writeOptional(dest, mGlyphs);
-		ParcelUtils.writeOptional(dest, mGlyphText);
-		ParcelUtils.writeOptional(dest, mMessage);
-	}
 }
\ No newline at end of file
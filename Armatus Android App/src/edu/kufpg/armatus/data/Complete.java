@@ -3,10 +3,7 @@ package edu.kufpg.armatus.data;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import android.os.Parcel;
-import android.os.Parcelable;
-
-public class Complete implements Parcelable {
+public class Complete {
 	private static final String USER = "user", CMD = "cmd";
 	
 	private final int mUser;
@@ -40,30 +37,4 @@ public class Complete implements Parcelable {
 	public String toString() {
 		return toJSONObject().toString();
 	}
-
-	public static Parcelable.Creator<Complete> CREATOR =
-			new Parcelable.Creator<Complete>() {
-		@Override
-		public Complete createFromParcel(Parcel source) {
-			int user = source.readInt();
-			String command = source.readString();
-			return new Complete(user, command);
-		}
-
-		@Override
-		public Complete[] newArray(int size) {
-			return new Complete[size];
-		}
-	};
-
-	@Override
-	public int describeContents() {
-		return 0;
-	}
-
-	@Override
-	public void writeToParcel(Parcel dest, int flags) {
-		dest.writeInt(mUser);
-		dest.writeString(mCommand);
-	}
 }
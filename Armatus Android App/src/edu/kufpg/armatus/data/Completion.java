@@ -1,14 +1,14 @@
 package edu.kufpg.armatus.data;
 
+import java.io.IOException;
+
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import edu.kufpg.armatus.util.ParcelUtils;
-
-import android.os.Parcel;
-import android.os.Parcelable;
+import edu.kufpg.armatus.util.JsonReader;
+import edu.kufpg.armatus.util.JsonUtils;
 
-public class Completion implements Parcelable {
+public class Completion {
 	private static final String IS_FINISHED = "isFinished", REPLACEMENT = "replacement", DISPLAY = "display";
 	
 	private final boolean mIsFinished;
@@ -25,6 +25,27 @@ public class Completion implements Parcelable {
 		this(o.getBoolean(IS_FINISHED), o.getString(REPLACEMENT), o.getString(DISPLAY));
 	}
 	
+	public static Completion fromJson(JsonReader reader) throws IOException {
+		Boolean isFinished = null;
+		String replacement = null, display = null;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+			if (IS_FINISHED.equals(name)) {
+				isFinished = reader.nextBoolean();
+			} else if (REPLACEMENT.equals(name)) {
+				replacement = reader.nextString();
+			} else if (DISPLAY.equals(name)) {
+				display = reader.nextString();
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		return new Completion(JsonUtils.checkField(isFinished, IS_FINISHED),
+				JsonUtils.checkField(replacement, REPLACEMENT), JsonUtils.checkField(display, DISPLAY));
+	}
+
 	public boolean isFinished() {
 		return mIsFinished;
 	}
@@ -36,33 +57,5 @@ public class Completion implements Parcelable {
 	public String getDisplay() {
 		return mDisplay;
 	}
-	
-	public static Parcelable.Creator<Completion> CREATOR =
-			new Parcelable.Creator<Completion>() {
-		@Override
-		public Completion createFromParcel(Parcel source) {
-			boolean isFinished = ParcelUtils.readBoolean(source);
-			String replacement = source.readString();
-			String display = source.readString();
-			return new Completion(isFinished, replacement, display);
-		}
-
-		@Override
-		public Completion[] newArray(int size) {
-			return new Completion[size];
-		}
-	};
-
-	@Override
-	public int describeContents() {
-		return 0;
-	}
-
-	@Override
-	public void writeToParcel(Parcel dest, int flags) {
-		ParcelUtils.writeBoolean(dest, mIsFinished);
-		dest.writeString(mReplacement);
-		dest.writeString(mDisplay);
-	}
 
 }
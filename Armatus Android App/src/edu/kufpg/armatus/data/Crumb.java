@@ -1,17 +1,17 @@
 package edu.kufpg.armatus.data;
 
+import java.io.IOException;
+
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import android.os.Parcel;
-import android.os.Parcelable;
-
 import com.google.common.base.Objects;
 import com.google.common.base.Optional;
 
-import edu.kufpg.armatus.util.ParcelUtils;
+import edu.kufpg.armatus.util.JsonReader;
+import edu.kufpg.armatus.util.JsonUtils;
 
-public class Crumb implements Parcelable {
+public class Crumb {
 	private static final String CRUMB = "crumb", NUM = "num";
 
 	private final Optional<Integer> mNum;
@@ -34,6 +34,24 @@ public class Crumb implements Parcelable {
 		mCrumbName = crumbName;
 	}
 
+	public static Crumb fromJson(JsonReader reader) throws IOException {
+		Optional<Integer> num = Optional.absent();
+		String crumbName = null;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+			if (CRUMB.equals(name)) {
+				crumbName = reader.nextString();
+			} else if (NUM.equals(name)) {
+				num = Optional.of(reader.nextInt());
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		return new Crumb(num, JsonUtils.checkField(crumbName, CRUMB));
+	}
+
 	public int getNum() throws IllegalStateException {
 		return mNum.get();
 	}
@@ -54,6 +72,19 @@ public class Crumb implements Parcelable {
 		}
 	}
 
+	public JSONObject toJSONObject() {
+		JSONObject o = new JSONObject();
+		try {
+			o.put(CRUMB, mCrumbName);
+			if (hasNum()) {
+				o.put(NUM, getNum());
+			}
+		} catch (JSONException e) {
+			e.printStackTrace();
+		}
+		return o;
+	}
+
 	@Override
 	public boolean equals(Object o) {
 		if (o instanceof Crumb) {
@@ -68,30 +99,4 @@ public class Crumb implements Parcelable {
 	public int hashCode() {
 		return Objects.hashCode(mNum, mCrumbName);
 	}
-
-	public static Parcelable.Creator<Crumb> CREATOR =
-			new Parcelable.Creator<Crumb>() {
-		@Override
-		public Crumb createFromParcel(Parcel source) {
-			Optional<Integer> num = ParcelUtils.readOptional(source);
-			String crumb = source.readString();
-			return new Crumb(num, crumb);
-		}
-
-		@Override
-		public Crumb[] newArray(int size) {
-			return new Crumb[size];
-		}
-	};
-
-	@Override
-	public int describeContents() {
-		return 0;
-	}
-
-	@Override
-	public void writeToParcel(Parcel dest, int flags) {
-		ParcelUtils.writeOptional(dest, mNum);
-		dest.writeString(mCrumbName);
-	}
 }
\ No newline at end of file
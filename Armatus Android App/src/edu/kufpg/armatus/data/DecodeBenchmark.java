@@ -0,0 +1,162 @@
+package edu.kufpg.armatus.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.google.common.base.Charsets;
+
+import edu.kufpg.armatus.util.JsonReader;
+
+/**
+ * Compares how long decoding a set of {@link CommandResponse}s takes, and how much it
+ * allocates, in each way the client can decode them: as an {@code org.json} tree, which
+ * is how responses were decoded before {@link CommandResponse#fromJson(JsonReader)}, as
+ * streamed JSON, and in the {@link BinaryResponses} encoding. Each pass decodes every
+ * response once. The first passes warm up the decoders and are not measured, and the
+ * time of the median pass is reported, so that runs on the same machine can be
+ * compared.
+ */
+public final class DecodeBenchmark {
+	/** How many passes of each decoder are run, and thrown away, before measuring. */
+	private static final int WARM_UP_PASSES = 3;
+
+	private final List<Encoding> mEncodings;
+	private final int mResponses;
+	private final long mGlyphs;
+	private final AllocationCounter mAllocations;
+
+	/**
+	 * @param responses The responses to decode.
+	 * @param allocations Counts the bytes the benchmark's thread allocates, or {@code null}
+	 * if they can't be counted.
+	 */
+	public DecodeBenchmark(List<CommandResponse> responses, AllocationCounter allocations) {
+		List<byte[]> json = new ArrayList<byte[]>(responses.size());
+		List<byte[]> binary = new ArrayList<byte[]>(responses.size());
+		long glyphs = 0;
+		for (CommandResponse response : responses) {
+			json.add(response.toJSONObject().toString().getBytes(Charsets.UTF_8));
+			binary.add(BinaryResponses.encode(response));
+			glyphs += response.hasGlyphs() ? response.getGlyphs().size() : 0;
+		}
+		mEncodings = Arrays.asList(new Encoding("json-tree", json) {
+			@Override
+			protected void decode(byte[] body) throws IOException {
+				try {
+					new CommandResponse(new JSONObject(new String(body, Charsets.UTF_8)));
+				} catch (JSONException e) {
+					throw new IOException("Malformed response: " + e.getMessage());
+				}
+			}
+		}, new Encoding("json-stream", json) {
+			@Override
+			protected void decode(byte[] body) throws IOException {
+				JsonReader reader = new JsonReader(new InputStreamReader(new ByteArrayInputStream(body), Charsets.UTF_8));
+				try {
+					CommandResponse.fromJson(reader);
+				} finally {
+					reader.close();
+				}
+			}
+		}, new Encoding("binary", binary) {
+			@Override
+			protected void decode(byte[] body) throws IOException {
+				BinaryResponses.decode(body);
+			}
+		});
+		mResponses = responses.size();
+		mGlyphs = glyphs;
+		mAllocations = allocations;
+	}
+
+	/**
+	 * Runs the benchmark on the calling thread. This takes a while, so it must not be
+	 * called from the UI thread.
+	 * @param passes How many passes of each decoder to measure.
+	 * @return a report of the results, one line per decoder.
+	 * @throws IOException if a response cannot be decoded.
+	 */
+	public String run(int passes) throws IOException {
+		if (passes < 1) {
+			throw new IllegalArgumentException("At least one pass must be measured");
+		}
+		for (Encoding encoding : mEncodings) {
+			for (int pass = 0; pass < WARM_UP_PASSES; pass++) {
+				encoding.decodeAll();
+			}
+		}
+
+		StringBuilder builder = new StringBuilder(String.format(
+				"Decoded %d responses (%d glyphs) %d times each, after %d warm-up passes.",
+				mResponses, mGlyphs, passes, WARM_UP_PASSES));
+		builder.append(String.format("%ndecoder: size (KB), median pass (ms), fastest pass (ms), allocated per pass (KB)"));
+		for (Encoding encoding : mEncodings) {
+			long[] nanos = new long[passes];
+			long allocatedBefore = allocatedBytes();
+			for (int pass = 0; pass < passes; pass++) {
+				long start = System.nanoTime();
+				encoding.decodeAll();
+				nanos[pass] = System.nanoTime() - start;
+			}
+			long allocated = allocatedBytes() - allocatedBefore;
+			Arrays.sort(nanos);
+
+			builder.append(String.format("%n%s: %d, %.1f, %.1f, %s", encoding.mName, encoding.getBytes() / 1024,
+					nanos[passes / 2] / 1e6, nanos[0] / 1e6,
+					(mAllocations != null) ? String.valueOf(allocated / passes / 1024) : "n/a"));
+		}
+		return builder.toString();
+	}
+
+	private long allocatedBytes() {
+		return (mAllocations != null) ? mAllocations.getAllocatedBytes() : 0;
+	}
+
+	/**
+	 * The responses in one encoding, and how to decode them.
+	 */
+	private static abstract class Encoding {
+		private final String mName;
+		private final List<byte[]> mBodies;
+
+		public Encoding(String name, List<byte[]> bodies) {
+			mName = name;
+			mBodies = bodies;
+		}
+
+		protected abstract void decode(byte[] body) throws IOException;
+
+		public void decodeAll() throws IOException {
+			for (byte[] body : mBodies) {
+				decode(body);
+			}
+		}
+
+		public long getBytes() {
+			long bytes = 0;
+			for (byte[] body : mBodies) {
+				bytes += body.length;
+			}
+			return bytes;
+		}
+	}
+
+	/**
+	 * Counts the bytes allocated by the thread running the benchmark, in whatever way the
+	 * platform allows.
+	 */
+	public interface AllocationCounter {
+		/**
+		 * Returns how many bytes the calling thread has allocated since some fixed point.
+		 */
+		long getAllocatedBytes();
+	}
+
+}
@@ -1,21 +1,20 @@
 package edu.kufpg.armatus.data;
 
+import java.io.IOException;
 import java.util.List;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import android.os.Parcel;
-import android.os.Parcelable;
-
 import com.google.common.base.Objects;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 
-import edu.kufpg.armatus.util.ParcelUtils;
+import edu.kufpg.armatus.util.JsonReader;
+import edu.kufpg.armatus.util.JsonUtils;
 
-public class Glyph implements Parcelable {
+public class Glyph {
 	public static final String BLUE = "#0090D3";
 	public static final String RED = "#CC060B";
 	public static final String YELLOW = "#FDFD0D";
@@ -48,6 +47,30 @@ public class Glyph implements Parcelable {
 		mText = text;
 	}
 
+	public static Glyph fromJson(JsonReader reader) throws IOException {
+		GlyphStyle style = GlyphStyle.NORMAL;
+		Optional<ImmutableList<Crumb>> bindingSite = Optional.absent();
+		ImmutableList<Crumb> path = null;
+		String text = null;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+			if (STYLE.equals(name)) {
+				style = GlyphStyle.valueOf(reader.nextString());
+			} else if (BINDING_SITE.equals(name)) {
+				bindingSite = Optional.of(readCrumbs(reader));
+			} else if (PATH.equals(name)) {
+				path = readCrumbs(reader);
+			} else if (TEXT.equals(name)) {
+				text = reader.nextString();
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		return new Glyph(style, bindingSite, JsonUtils.checkField(path, PATH), JsonUtils.checkField(text, TEXT));
+	}
+
 	public GlyphStyle getStyle() {
 		return mStyle;
 	}
@@ -85,6 +108,29 @@ public class Glyph implements Parcelable {
 		}
 	}
 
+	public JSONObject toJSONObject() {
+		JSONObject o = new JSONObject();
+		try {
+			o.put(STYLE, mStyle.name());
+			if (hasBindingSite()) {
+				o.put(BINDING_SITE, crumbsToJson(getBindingSite()));
+			}
+			o.put(PATH, crumbsToJson(mPath));
+			o.put(TEXT, mText);
+		} catch (JSONException e) {
+			e.printStackTrace();
+		}
+		return o;
+	}
+
+	private static JSONArray crumbsToJson(List<Crumb> crumbs) {
+		JSONArray a = new JSONArray();
+		for (Crumb crumb : crumbs) {
+			a.put(crumb.toJSONObject());
+		}
+		return a;
+	}
+
 	private static Optional<ImmutableList<Crumb>> jsonToBindingSite(JSONObject o, String name) throws JSONException {
 		if (o.has(name)) {
 			ImmutableList.Builder<Crumb> builder = ImmutableList.builder();
@@ -106,6 +152,16 @@ public class Glyph implements Parcelable {
 		return builder.build();
 	}
 
+	private static ImmutableList<Crumb> readCrumbs(JsonReader reader) throws IOException {
+		ImmutableList.Builder<Crumb> builder = ImmutableList.builder();
+		reader.beginArray();
+		while (reader.hasNext()) {
+			builder.add(Crumb.fromJson(reader));
+		}
+		reader.endArray();
+		return builder.build();
+	}
+
 	private static GlyphStyle jsonToStyle(JSONObject o) throws JSONException {
 		if (o.has(STYLE)) {
 			GlyphStyle glyphStyle = null;
@@ -141,34 +197,4 @@ public class Glyph implements Parcelable {
 	public String toString() {
 		return mText;
 	}
-
-	public static Parcelable.Creator<Glyph> CREATOR =
-			new Parcelable.Creator<Glyph>() {
-		@Override
-		public Glyph createFromParcel(Parcel source) {
-			GlyphStyle style = ParcelUtils.readEnum(source);
-			Optional<ImmutableList<Crumb>> bindingSite = ParcelUtils.readOptional(source);
-			ImmutableList<Crumb> path = ParcelUtils.readImmutableList(source);
-			String text = source.readString();
-			return new Glyph(style, bindingSite, path, text);
-		}
-
-		@Override
-		public Glyph[] newArray(int size) {
-			return new Glyph[size];
-		}
-	};
-
-	@Override
-	public int describeContents() {
-		return 0;
-	}
-
-	@Override
-	public void writeToParcel(Parcel dest, int flags) {
-		ParcelUtils.writeEnum(dest, mStyle);
-		ParcelUtils.writeOptional(dest, mBindingSite);
-		ParcelUtils.writeCollection(dest, mPath);
-		dest.writeString(mText);
-	}
 }
\ No newline at end of file
@@ -0,0 +1,162 @@
+package edu.kufpg.armatus.data;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+
+import edu.kufpg.armatus.util.JsonReader;
+import edu.kufpg.armatus.util.JsonUtils;
+import edu.kufpg.armatus.util.MalformedJsonException;
+import edu.kufpg.armatus.util.StageTimings;
+import edu.kufpg.armatus.util.StageTimings.Stage;
+
+/**
+ * Applies a delta response to the response it is against. A server that is told which
+ * response the client already has for the command's AST may answer with only the glyphs
+ * that changed:
+ * <pre>
+ * {"ast": 7, "base": 6, "edits": [{"start": 40, "end": 43, "glyphs": [...]}, ...]}
+ * </pre>
+ * Each edit replaces the base's glyphs from {@code start} (inclusive) to {@code end}
+ * (exclusive) with its {@code glyphs}, so an insertion has {@code start == end} and a
+ * deletion has no glyphs. Edits are in order and do not overlap.
+ * <p>
+ * The unchanged {@link Glyph}s are shared with the base, and the new text is a copy of the
+ * base's text, styles and all, with only the edited ranges rebuilt, so the cost of a delta
+ * grows with the size of the change rather than the size of the AST.
+ * <p>
+ * If the client does not have the response a delta is against, or its glyphs don't fit
+ * the edits, a {@link StaleBaseException} is thrown, and the command should be sent again
+ * without a base to get the whole response.
+ */
+public final class GlyphPatch {
+	private static final String START = "start", END = "end", GLYPHS = "glyphs";
+
+	private GlyphPatch() {}
+
+	static ImmutableList<Edit> readEdits(JsonReader reader) throws IOException {
+		ImmutableList.Builder<Edit> edits = ImmutableList.builder();
+		reader.beginArray();
+		while (reader.hasNext()) {
+			edits.add(Edit.fromJson(reader));
+		}
+		reader.endArray();
+		return edits.build();
+	}
+
+	/**
+	 * Builds the response that a delta describes.
+	 * @param base The response the delta is against, which must have glyphs.
+	 * @param edits The delta's edits.
+	 * @param ast The new response's AST.
+	 * @param message The new response's message, if any.
+	 * @return the new response.
+	 * @throws StaleBaseException if the edits are out of order or out of the base's range,
+	 * so that the server must have had a different base in mind.
+	 */
+	static CommandResponse apply(CommandResponse base, List<Edit> edits,
+			int ast, Optional<String> message) throws StaleBaseException {
+		long startNanos = StageTimings.start();
+		List<Glyph> baseGlyphs = base.getGlyphs();
+		ImmutableList.Builder<Glyph> glyphs = ImmutableList.builder();
+		GlyphRenderer.Editor text = CommandResponse.getRenderer().edit(base.getGlyphText());
+
+		int next = 0; //The first base glyph not yet copied or replaced
+		int baseOffset = 0; //Where that glyph starts in the base's text
+		int shift = 0; //How far the edits so far have moved it in the new text
+		for (Edit edit : edits) {
+			if (edit.mStart < next || edit.mEnd < edit.mStart || edit.mEnd > baseGlyphs.size()) {
+				throw new StaleBaseException("Delta edit [" + edit.mStart + ", " + edit.mEnd
+						+ ") is out of order or out of range");
+			}
+			for (int i = next; i < edit.mStart; i++) {
+				baseOffset += baseGlyphs.get(i).getText().length();
+			}
+			glyphs.addAll(baseGlyphs.subList(next, edit.mStart));
+
+			int removedLength = 0;
+			for (int i = edit.mStart; i < edit.mEnd; i++) {
+				removedLength += baseGlyphs.get(i).getText().length();
+			}
+			int replacementLength = text.replace(baseOffset + shift, baseOffset + shift + removedLength, edit.mGlyphs);
+			glyphs.addAll(edit.mGlyphs);
+
+			shift += replacementLength - removedLength;
+			baseOffset += removedLength;
+			next = edit.mEnd;
+		}
+		glyphs.addAll(baseGlyphs.subList(next, baseGlyphs.size()));
+
+		CommandResponse response = new CommandResponse(ast, Optional.of(glyphs.build()), Optional.of(text.toText()), message);
+		StageTimings.record(Stage.PATCH, startNanos);
+		return response;
+	}
+
+	/**
+	 * Thrown when a delta cannot be applied to the response the client has for its base.
+	 */
+	public static class StaleBaseException extends MalformedJsonException {
+		private static final long serialVersionUID = 1L;
+
+		public StaleBaseException(String message) {
+			super(message);
+		}
+	}
+
+	/**
+	 * One replaced range of a delta.
+	 */
+	public static class Edit {
+		private final int mStart;
+		private final int mEnd;
+		private final ImmutableList<Glyph> mGlyphs;
+
+		public Edit(int start, int end, ImmutableList<Glyph> glyphs) {
+			mStart = start;
+			mEnd = end;
+			mGlyphs = glyphs;
+		}
+
+		public static Edit fromJson(JsonReader reader) throws IOException {
+			Integer start = null;
+			Integer end = null;
+			ImmutableList<Glyph> glyphs = ImmutableList.of();
+			reader.beginObject();
+			while (reader.hasNext()) {
+				String name = reader.nextName();
+				if (START.equals(name)) {
+					start = reader.nextInt();
+				} else if (END.equals(name)) {
+					end = reader.nextInt();
+				} else if (GLYPHS.equals(name)) {
+					ImmutableList.Builder<Glyph> builder = ImmutableList.builder();
+					reader.beginArray();
+					while (reader.hasNext()) {
+						builder.add(Glyph.fromJson(reader));
+					}
+					reader.endArray();
+					glyphs = builder.build();
+				} else {
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+			return new Edit(JsonUtils.checkField(start, START), JsonUtils.checkField(end, END), glyphs);
+		}
+
+		public int getStart() {
+			return mStart;
+		}
+
+		public int getEnd() {
+			return mEnd;
+		}
+
+		public List<Glyph> getGlyphs() {
+			return mGlyphs;
+		}
+	}
+
+}
@@ -0,0 +1,75 @@
+package edu.kufpg.armatus.data;
+
+import java.util.List;
+
+/**
+ * Turns the {@link Glyph}s of a {@link CommandResponse} into the text that is shown for
+ * it. The app renders glyphs as styled text (see {@link CommandResponse#setRenderer(GlyphRenderer)});
+ * anywhere else, {@link #PLAIN} keeps only the characters.
+ */
+public interface GlyphRenderer {
+	/**
+	 * Renders glyphs as text.
+	 * @param glyphs The glyphs, in order.
+	 * @return the glyphs' text.
+	 */
+	CharSequence render(List<Glyph> glyphs);
+
+	/**
+	 * Starts editing a copy of text that this renderer produced, so that a {@link GlyphPatch}
+	 * only has to render the glyphs that changed.
+	 * @param text The text to copy.
+	 * @return an editor for the copy.
+	 */
+	Editor edit(CharSequence text);
+
+	/**
+	 * A copy of rendered text that ranges of glyphs can be replaced in.
+	 */
+	interface Editor {
+		/**
+		 * Replaces a range of the text with rendered glyphs.
+		 * @param start The start of the range, inclusive.
+		 * @param end The end of the range, exclusive.
+		 * @param glyphs The glyphs to render in its place.
+		 * @return the length of the text that replaced the range.
+		 */
+		int replace(int start, int end, List<Glyph> glyphs);
+
+		/**
+		 * Returns the edited text.
+		 */
+		CharSequence toText();
+	}
+
+	/** Renders glyphs as their characters alone. */
+	GlyphRenderer PLAIN = new GlyphRenderer() {
+		@Override
+		public CharSequence render(List<Glyph> glyphs) {
+			StringBuilder builder = new StringBuilder();
+			for (Glyph glyph : glyphs) {
+				builder.append(glyph.getText());
+			}
+			return builder.toString();
+		}
+
+		@Override
+		public Editor edit(CharSequence text) {
+			final StringBuilder builder = new StringBuilder(text);
+			return new Editor() {
+				@Override
+				public int replace(int start, int end, List<Glyph> glyphs) {
+					CharSequence replacement = render(glyphs);
+					builder.replace(start, end, replacement.toString());
+					return replacement.length();
+				}
+
+				@Override
+				public CharSequence toText() {
+					return builder.toString();
+				}
+			};
+		}
+	};
+
+}
@@ -1,19 +1,18 @@
 package edu.kufpg.armatus.data;
 
+import java.io.IOException;
 import java.util.List;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import android.os.Parcel;
-import android.os.Parcelable;
-
 import com.google.common.collect.ImmutableList;
 
-import edu.kufpg.armatus.util.ParcelUtils;
+import edu.kufpg.armatus.util.JsonReader;
+import edu.kufpg.armatus.util.JsonUtils;
 
-public class History implements Parcelable {
+public class History {
 	private static final String CMDS = "cmds", TAGS = "tags";
 	
 	private final List<HistoryCommand> mCommands;
@@ -32,6 +31,55 @@ public class History implements Parcelable {
 		mTags = tags;
 	}
 
+	public static History fromJson(JsonReader reader) throws IOException {
+		ImmutableList<HistoryCommand> commands = null;
+		ImmutableList<HistoryTag> tags = null;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+			if (CMDS.equals(name)) {
+				ImmutableList.Builder<HistoryCommand> builder = ImmutableList.builder();
+				reader.beginArray();
+				while (reader.hasNext()) {
+					builder.add(HistoryCommand.fromJson(reader));
+				}
+				reader.endArray();
+				commands = builder.build();
+			} else if (TAGS.equals(name)) {
+				ImmutableList.Builder<HistoryTag> builder = ImmutableList.builder();
+				reader.beginArray();
+				while (reader.hasNext()) {
+					builder.add(HistoryTag.fromJson(reader));
+				}
+				reader.endArray();
+				tags = builder.build();
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		return new History(JsonUtils.checkField(commands, CMDS), JsonUtils.checkField(tags, TAGS));
+	}
+
+	public JSONObject toJSONObject() {
+		JSONObject o = new JSONObject();
+		try {
+			JSONArray cmds = new JSONArray();
+			for (HistoryCommand command : mCommands) {
+				cmds.put(command.toJSONObject());
+			}
+			o.put(CMDS, cmds);
+			JSONArray tags = new JSONArray();
+			for (HistoryTag tag : mTags) {
+				tags.put(tag.toJSONObject());
+			}
+			o.put(TAGS, tags);
+		} catch (JSONException e) {
+			e.printStackTrace();
+		}
+		return o;
+	}
+
 	public List<HistoryCommand> getCommands() {
 		return mCommands;
 	}
@@ -55,30 +103,4 @@ public class History implements Parcelable {
 		}
 		return builder.build();
 	}
-
-	public static Parcelable.Creator<History> CREATOR =
-			new Parcelable.Creator<History>() {
-		@Override
-		public History createFromParcel(Parcel source) {
-			ImmutableList<HistoryCommand> commands = ParcelUtils.readImmutableList(source);
-			List<HistoryTag> tags = ParcelUtils.readImmutableList(source);
-			return new History(commands, tags);
-		}
-
-		@Override
-		public History[] newArray(int size) {
-			return new History[size];
-		}
-	};
-
-	@Override
-	public int describeContents() {
-		return 0;
-	}
-
-	@Override
-	public void writeToParcel(Parcel dest, int flags) {
-		ParcelUtils.writeCollection(dest, mCommands);
-		ParcelUtils.writeCollection(dest, mTags);
-	}
 }
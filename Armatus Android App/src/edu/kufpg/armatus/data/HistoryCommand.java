@@ -1,14 +1,18 @@
 package edu.kufpg.armatus.data;
 
+import java.io.IOException;
+import java.io.Serializable;
+
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import com.google.common.primitives.Ints;
 
-import android.os.Parcel;
-import android.os.Parcelable;
+import edu.kufpg.armatus.util.JsonReader;
+import edu.kufpg.armatus.util.JsonUtils;
 
-public class HistoryCommand implements Comparable<HistoryCommand>, Parcelable {
+public class HistoryCommand implements Comparable<HistoryCommand>, Serializable {
+	private static final long serialVersionUID = 1L;
 	private static final String FROM = "from", CMD = "cmd", TO = "to";
 	
 	private final int mFrom, mTo;
@@ -24,6 +28,39 @@ public class HistoryCommand implements Comparable<HistoryCommand>, Parcelable {
 		this(o.getInt(FROM), o.getString(CMD), o.getInt(TO));
 	}
 	
+	public static HistoryCommand fromJson(JsonReader reader) throws IOException {
+		Integer from = null, to = null;
+		String command = null;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+			if (FROM.equals(name)) {
+				from = reader.nextInt();
+			} else if (CMD.equals(name)) {
+				command = reader.nextString();
+			} else if (TO.equals(name)) {
+				to = reader.nextInt();
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		return new HistoryCommand(JsonUtils.checkField(from, FROM), JsonUtils.checkField(command, CMD),
+				JsonUtils.checkField(to, TO));
+	}
+
+	public JSONObject toJSONObject() {
+		JSONObject o = new JSONObject();
+		try {
+			o.put(FROM, mFrom);
+			o.put(CMD, mCommand);
+			o.put(TO, mTo);
+		} catch (JSONException e) {
+			e.printStackTrace();
+		}
+		return o;
+	}
+
 	public int getFrom() {
 		return mFrom;
 	}
@@ -35,34 +72,6 @@ public class HistoryCommand implements Comparable<HistoryCommand>, Parcelable {
 	public int getTo() {
 		return mTo;
 	}
-	
-	public static Parcelable.Creator<HistoryCommand> CREATOR =
-			new Parcelable.Creator<HistoryCommand>() {
-		@Override
-		public HistoryCommand createFromParcel(Parcel source) {
-			int from = source.readInt();
-			String command = source.readString();
-			int to = source.readInt();
-			return new HistoryCommand(from, command, to);
-		}
-
-		@Override
-		public HistoryCommand[] newArray(int size) {
-			return new HistoryCommand[size];
-		}
-	};
-
-	@Override
-	public int describeContents() {
-		return 0;
-	}
-
-	@Override
-	public void writeToParcel(Parcel dest, int flags) {
-		dest.writeInt(mFrom);
-		dest.writeString(mCommand);
-		dest.writeInt(mTo);
-	}
 
 	@Override
 	public int compareTo(HistoryCommand another) {
@@ -1,12 +1,14 @@
 package edu.kufpg.armatus.data;
 
+import java.io.IOException;
+
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import android.os.Parcel;
-import android.os.Parcelable;
+import edu.kufpg.armatus.util.JsonReader;
+import edu.kufpg.armatus.util.JsonUtils;
 
-public class HistoryTag implements Parcelable {
+public class HistoryTag {
 	private static final String TAG = "tag", AST = "ast";
 	
 	private final String mTag;
@@ -21,6 +23,35 @@ public class HistoryTag implements Parcelable {
 		this(o.getString(TAG), o.getInt(AST));
 	}
 	
+	public static HistoryTag fromJson(JsonReader reader) throws IOException {
+		String tag = null;
+		Integer ast = null;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+			if (TAG.equals(name)) {
+				tag = reader.nextString();
+			} else if (AST.equals(name)) {
+				ast = reader.nextInt();
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		return new HistoryTag(JsonUtils.checkField(tag, TAG), JsonUtils.checkField(ast, AST));
+	}
+
+	public JSONObject toJSONObject() {
+		JSONObject o = new JSONObject();
+		try {
+			o.put(TAG, mTag);
+			o.put(AST, mAst);
+		} catch (JSONException e) {
+			e.printStackTrace();
+		}
+		return o;
+	}
+
 	public String getTag() {
 		return mTag;
 	}
@@ -28,31 +59,5 @@ public class HistoryTag implements Parcelable {
 	public int getAst() {
 		return mAst;
 	}
-	
-	public static Parcelable.Creator<HistoryTag> CREATOR =
-			new Parcelable.Creator<HistoryTag>() {
-		@Override
-		public HistoryTag createFromParcel(Parcel source) {
-			String tag = source.readString();
-			int ast = source.readInt();
-			return new HistoryTag(tag, ast);
-		}
-
-		@Override
-		public HistoryTag[] newArray(int size) {
-			return new HistoryTag[size];
-		}
-	};
-
-	@Override
-	public int describeContents() {
-		return 0;
-	}
-
-	@Override
-	public void writeToParcel(Parcel dest, int flags) {
-		dest.writeString(mTag);
-		dest.writeInt(mAst);
-	}
 
 }
@@ -1,12 +1,14 @@
 package edu.kufpg.armatus.data;
 
+import java.io.IOException;
+
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import android.os.Parcel;
-import android.os.Parcelable;
+import edu.kufpg.armatus.util.JsonReader;
+import edu.kufpg.armatus.util.JsonUtils;
 
-public class Token implements Parcelable {
+public class Token {
 	private static final String USER = "user", AST = "ast";
 
 	private final int mUser;
@@ -21,6 +23,23 @@ public class Token implements Parcelable {
 		this(o.getInt(USER), o.getInt(AST));
 	}
 
+	public static Token fromJson(JsonReader reader) throws IOException {
+		Integer user = null, ast = null;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+			if (USER.equals(name)) {
+				user = reader.nextInt();
+			} else if (AST.equals(name)) {
+				ast = reader.nextInt();
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		return new Token(JsonUtils.checkField(user, USER), JsonUtils.checkField(ast, AST));
+	}
+
 	public int getUser() {
 		return mUser;
 	}
@@ -48,30 +67,4 @@ public class Token implements Parcelable {
 	public String toString() {
 		return toJSONObject().toString();
 	}
-
-	public static Parcelable.Creator<Token> CREATOR =
-			new Parcelable.Creator<Token>() {
-		@Override
-		public Token createFromParcel(Parcel source) {
-			int user = source.readInt();
-			int ast = source.readInt();
-			return new Token(user, ast);
-		}
-
-		@Override
-		public Token[] newArray(int size) {
-			return new Token[size];
-		}
-	};
-
-	@Override
-	public int describeContents() {
-		return 0;
-	}
-
-	@Override
-	public void writeToParcel(Parcel dest, int flags) {
-		dest.writeInt(mUser);
-		dest.writeInt(mAst);
-	}
 }
\ No newline at end of file
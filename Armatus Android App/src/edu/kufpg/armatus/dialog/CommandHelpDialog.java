@@ -28,7 +28,7 @@ public class CommandHelpDialog extends ConsiderateDialog {
 		Bundle args = new Bundle();
 		args.putInt("commandInfosSize", commandInfos.size());
 		for (int i = 0; i < commandInfos.size(); i++) {
-			args.putParcelable("commandInfo"+i, commandInfos.get(i));
+			args.putSerializable("commandInfo"+i, commandInfos.get(i));
 		}
 		hd.setArguments(args);
 		return hd;
@@ -40,7 +40,7 @@ public class CommandHelpDialog extends ConsiderateDialog {
 		int commandInfosSize = getArguments().getInt("commandInfosSize");
 		mCommandInfos = new ArrayList<CommandInfo>(commandInfosSize);
 		for (int i = 0; i < commandInfosSize; i++) {
-			mCommandInfos.add(i, (CommandInfo) getArguments().getParcelable("commandInfo"+i));
+			mCommandInfos.add(i, (CommandInfo) getArguments().getSerializable("commandInfo"+i));
 		}
 	}
 
@@ -0,0 +1,160 @@
+package edu.kufpg.armatus.headless;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.common.io.Files;
+
+import edu.kufpg.armatus.data.BinaryResponses;
+import edu.kufpg.armatus.data.CommandResponse;
+import edu.kufpg.armatus.data.DecodeBenchmark;
+import edu.kufpg.armatus.networking.HermitSession;
+import edu.kufpg.armatus.networking.InMemoryTransport;
+import edu.kufpg.armatus.networking.ScriptedHermit;
+
+/**
+ * Runs the {@link DecodeBenchmark} on the JVM, so that the JSON and binary decoders can be
+ * compared from one change to the next without a device. Run it with:
+ * <pre>
+ * java edu.kufpg.armatus.headless.BenchmarkDriver [passes] [responses-dir]
+ * </pre>
+ * where {@code responses-dir} holds responses recorded by the app's response disk cache
+ * (the {@code .bin} files pulled off a device). Without it, the responses come from a
+ * session with a {@link ScriptedHermit} at a few sizes, which are the same on every run.
+ * The allocation column needs a JVM that counts each thread's allocations, as HotSpot
+ * does.
+ */
+public final class BenchmarkDriver {
+	private static final String USAGE = "usage: BenchmarkDriver [passes] [responses-dir]";
+	/** How many glyphs the scripted responses have. */
+	private static final int[] SCRIPTED_SIZES = { 1000, 10000, 50000 };
+	/** How many commands are run at each size. */
+	private static final int SCRIPTED_COMMANDS = 3;
+	private static final int WIDTH = 80;
+
+	private BenchmarkDriver() {}
+
+	public static void main(String[] args) {
+		if (args.length > 2) {
+			System.err.println(USAGE);
+			System.exit(2);
+		}
+		int passes;
+		List<CommandResponse> responses;
+		try {
+			passes = (args.length > 0) ? Integer.parseInt(args[0]) : 10;
+			responses = (args.length > 1) ? readRecorded(new File(args[1])) : runScripted();
+		} catch (NumberFormatException e) {
+			System.err.println(USAGE);
+			System.exit(2);
+			return;
+		} catch (IOException e) {
+			System.err.println("Could not read the responses: " + e.getMessage());
+			System.exit(2);
+			return;
+		}
+		if (passes < 1) {
+			System.err.println(USAGE);
+			System.exit(2);
+			return;
+		} else if (responses.isEmpty()) {
+			System.err.println("No recorded responses in " + args[1]);
+			System.exit(2);
+			return;
+		}
+
+		try {
+			System.out.println(new DecodeBenchmark(responses, newAllocationCounter()).run(passes));
+		} catch (IOException e) {
+			System.err.println("Could not decode the responses: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Reads the responses recorded by the app's response disk cache.
+	 * @throws IOException if the directory or a response cannot be read.
+	 */
+	public static List<CommandResponse> readRecorded(File dir) throws IOException {
+		File[] files = dir.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String filename) {
+				return filename.endsWith(".bin");
+			}
+		});
+		if (files == null) {
+			throw new IOException(dir + " is not a directory");
+		}
+		//Read them in the same order on every run
+		Arrays.sort(files);
+		List<CommandResponse> responses = new ArrayList<CommandResponse>(files.length);
+		for (File file : files) {
+			responses.add(BinaryResponses.decode(Files.toByteArray(file)));
+		}
+		return responses;
+	}
+
+	/**
+	 * Runs a few commands against a {@link ScriptedHermit} at each size, and returns their
+	 * responses.
+	 * @throws IOException if a command fails, which a scripted server never does.
+	 */
+	public static List<CommandResponse> runScripted() throws IOException {
+		List<CommandResponse> responses = new ArrayList<CommandResponse>();
+		for (int size : SCRIPTED_SIZES) {
+			HermitSession session = HermitSession.connect(new InMemoryTransport(new ScriptedHermit(size), 0),
+					"http://benchmark-" + size);
+			for (int i = 0; i < SCRIPTED_COMMANDS; i++) {
+				responses.add(session.command("down", WIDTH));
+			}
+		}
+		return responses;
+	}
+
+	/**
+	 * Returns a counter of the calling thread's allocations, or {@code null} if the JVM
+	 * doesn't count them. The JVM's management classes are looked up by name, since this
+	 * package is built into the app too, and Android's library has none of them.
+	 */
+	private static DecodeBenchmark.AllocationCounter newAllocationCounter() {
+		final Object threads;
+		final Method getThreadAllocatedBytes;
+		try {
+			threads = Class.forName("java.lang.management.ManagementFactory").getMethod("getThreadMXBean").invoke(null);
+			Class<?> allocations = Class.forName("com.sun.management.ThreadMXBean");
+			if (!allocations.isInstance(threads)
+					|| !(Boolean) allocations.getMethod("isThreadAllocatedMemoryEnabled").invoke(threads)) {
+				return null;
+			}
+			getThreadAllocatedBytes = allocations.getMethod("getThreadAllocatedBytes", long.class);
+		} catch (ClassNotFoundException e) {
+			return null;
+		} catch (NoSuchMethodException e) {
+			return null;
+		} catch (IllegalAccessException e) {
+			return null;
+		} catch (InvocationTargetException e) {
+			return null;
+		}
+
+		return new DecodeBenchmark.AllocationCounter() {
+			@Override
+			public long getAllocatedBytes() {
+				try {
+					return (Long) getThreadAllocatedBytes.invoke(threads, Thread.currentThread().getId());
+				} catch (IllegalAccessException e) {
+					throw new IllegalStateException(e);
+				} catch (InvocationTargetException e) {
+					throw new IllegalStateException(e.getCause());
+				}
+			}
+		};
+	}
+
+}
@@ -0,0 +1,229 @@
+package edu.kufpg.armatus.headless;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import edu.kufpg.armatus.networking.HermitSession;
+import edu.kufpg.armatus.networking.HttpTransport;
+import edu.kufpg.armatus.networking.RequestKind;
+import edu.kufpg.armatus.util.LatencyHistogram;
+
+/**
+ * Replays a saved session ({@code history.txt}, as written by the app's "save history")
+ * against a HERMIT-web server with several virtual users at once, and reports the
+ * throughput and the latency percentiles of each endpoint. Each virtual user starts a
+ * session the way the app does (connect, then read the command catalog, the session's
+ * history and the command completions) and then runs the saved commands in order, as
+ * the app does when it loads a saved history. Run it with:
+ * <pre>
+ * java edu.kufpg.armatus.headless.ReplayDriver &lt;server-url&gt; &lt;history.txt&gt; [users] [rounds] [width]
+ * </pre>
+ * where {@code rounds} is how many times each user replays the session, from its
+ * starting AST, and {@code width} is the width to pretty-print at (0 for the server's
+ * default). Each user has its own {@link HermitSession} over HTTP, so requests are sent,
+ * retried and decoded exactly as the app sends them. Percentiles come from a {@link
+ * LatencyHistogram}, so on long runs they describe the most recent samples.
+ */
+public final class ReplayDriver {
+	private static final String USAGE = "usage: ReplayDriver <server-url> <history.txt> [users] [rounds] [width]";
+	private static final String CONNECT = "connect", COMMANDS = "commands", HISTORY = "history",
+			COMPLETE = "complete", COMMAND = "command";
+
+	private final String mServerUrl;
+	private final List<String> mCommands;
+	private final int mUsers;
+	private final int mRounds;
+	private final int mWidth;
+	/** Latencies in microseconds, by endpoint. Filled in before any user starts. */
+	private final Map<String, LatencyHistogram> mLatencies = new LinkedHashMap<String, LatencyHistogram>();
+	private final AtomicLong mRequests = new AtomicLong();
+	private final AtomicLong mFailures = new AtomicLong();
+
+	public ReplayDriver(String serverUrl, List<String> commands, int users, int rounds, int width) {
+		mServerUrl = serverUrl;
+		mCommands = commands;
+		mUsers = users;
+		mRounds = rounds;
+		mWidth = width;
+		for (String endpoint : new String[] { CONNECT, COMMANDS, HISTORY, COMPLETE, COMMAND }) {
+			mLatencies.put(endpoint, new LatencyHistogram());
+		}
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 2 || args.length > 5) {
+			System.err.println(USAGE);
+			System.exit(2);
+		}
+		List<String> commands;
+		int users, rounds, width;
+		try {
+			commands = readCommands(new File(args[1]));
+			users = (args.length > 2) ? Integer.parseInt(args[2]) : 1;
+			rounds = (args.length > 3) ? Integer.parseInt(args[3]) : 1;
+			width = (args.length > 4) ? Integer.parseInt(args[4]) : 0;
+		} catch (IOException e) {
+			System.err.println("Could not read " + args[1] + ": " + e.getMessage());
+			System.exit(2);
+			return;
+		} catch (NumberFormatException e) {
+			System.err.println(USAGE);
+			System.exit(2);
+			return;
+		}
+
+		ReplayDriver driver = new ReplayDriver(args[0].replaceAll("/+$", ""), commands, users, rounds, width);
+		System.out.println(driver.run());
+		System.exit(driver.mFailures.get() > 0 ? 1 : 0);
+	}
+
+	/**
+	 * Reads the commands of a saved session, in the order they were run.
+	 * @throws IOException if the file cannot be read or is not a saved session.
+	 */
+	public static List<String> readCommands(File historyFile) throws IOException {
+		try {
+			JSONArray history = new JSONObject(Files.toString(historyFile, Charsets.UTF_8)).getJSONArray("cmds");
+			List<String> commands = new ArrayList<String>(history.length());
+			for (int i = 0; i < history.length(); i++) {
+				commands.add(history.getJSONObject(i).getString("cmd"));
+			}
+			return Collections.unmodifiableList(commands);
+		} catch (JSONException e) {
+			throw new IOException("not a saved session (" + e.getMessage() + ")");
+		}
+	}
+
+	/**
+	 * Replays the session with every virtual user at once and waits for them all to finish.
+	 * @return a report of the results.
+	 */
+	public String run() {
+		ExecutorService users = Executors.newFixedThreadPool(mUsers);
+		long start = System.nanoTime();
+		for (int i = 0; i < mUsers; i++) {
+			final int user = i;
+			users.execute(new Runnable() {
+				@Override
+				public void run() {
+					replay(user);
+				}
+			});
+		}
+		users.shutdown();
+		try {
+			while (!users.awaitTermination(1, TimeUnit.MINUTES)) {
+				System.err.println(mRequests.get() + " requests so far...");
+			}
+		} catch (InterruptedException e) {
+			users.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+		return report(System.nanoTime() - start);
+	}
+
+	private void replay(int user) {
+		HermitSession session;
+		long start = System.nanoTime();
+		try {
+			session = HermitSession.connect(new HttpTransport(), mServerUrl);
+			record(CONNECT, start);
+		} catch (IOException e) {
+			fail(user, CONNECT, e);
+			return;
+		}
+
+		try {
+			start = System.nanoTime();
+			session.commands();
+			record(COMMANDS, start);
+			start = System.nanoTime();
+			session.history();
+			record(HISTORY, start);
+			start = System.nanoTime();
+			session.complete("");
+			record(COMPLETE, start);
+		} catch (IOException e) {
+			fail(user, COMMANDS + "/" + HISTORY + "/" + COMPLETE, e);
+		}
+
+		int startAst = session.getAst();
+		for (int round = 0; round < mRounds; round++) {
+			session.setAst(startAst);
+			for (String command : mCommands) {
+				try {
+					start = System.nanoTime();
+					session.command(command, mWidth);
+					record(COMMAND, start);
+				} catch (IOException e) {
+					//The rest of the round would run from the wrong AST
+					fail(user, command, e);
+					break;
+				}
+			}
+		}
+	}
+
+	private void record(String endpoint, long startNanos) {
+		mLatencies.get(endpoint).record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+		mRequests.incrementAndGet();
+	}
+
+	private void fail(int user, String request, IOException e) {
+		mFailures.incrementAndGet();
+		System.err.println("User " + user + ": " + request + " failed: " + e.getMessage());
+	}
+
+	private String report(long elapsedNanos) {
+		double seconds = elapsedNanos / 1e9;
+		long commands = mLatencies.get(COMMAND).getSampleCount();
+		StringBuilder builder = new StringBuilder();
+		builder.append(String.format("Replayed %d commands x %d rounds for %d users against %s in %.1f s",
+				mCommands.size(), mRounds, mUsers, mServerUrl, seconds));
+		long wireBytes = 0, decodedBytes = 0;
+		for (RequestKind kind : RequestKind.values()) {
+			wireBytes += kind.getWireBytes();
+			decodedBytes += kind.getDecodedBytes();
+		}
+		builder.append(String.format("%nrequests: %d ok, %d failed, %d KB read (%d KB decoded)",
+				mRequests.get(), mFailures.get(), wireBytes / 1024, decodedBytes / 1024));
+		builder.append(String.format("%nthroughput: %.1f commands/s, %.1f requests/s",
+				commands / seconds, mRequests.get() / seconds));
+		builder.append(String.format("%nendpoint: count, p50, p90, p99, max (ms)"));
+		for (Map.Entry<String, LatencyHistogram> entry : mLatencies.entrySet()) {
+			LatencyHistogram latencies = entry.getValue();
+			if (latencies.getSampleCount() == 0) {
+				continue;
+			}
+			builder.append(String.format("%n%s: %d, %.1f, %.1f, %.1f, %.1f", entry.getKey(),
+					latencies.getSampleCount(), percentile(latencies, 0.5), percentile(latencies, 0.9),
+					percentile(latencies, 0.99), latencies.getMax() / 1000.0));
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Returns a percentile in milliseconds. A histogram only knows the bucket a sample fell
+	 * in, so the bucket's bound is capped at the largest sample actually seen.
+	 */
+	private static double percentile(LatencyHistogram latencies, double fraction) {
+		return Math.min(latencies.getPercentile(fraction), latencies.getMax()) / 1000.0;
+	}
+
+}
@@ -0,0 +1,279 @@
+package edu.kufpg.armatus.networking;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothSocket;
+import android.util.Log;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+
+import edu.kufpg.armatus.util.JsonReader;
+
+/**
+ * Carries HERMIT requests and responses over a Bluetooth socket. Each request is sent as a
+ * {@link FramedMessageWriter framed} JSON envelope naming the endpoint it is for (as in the
+ * HTTP protocol) and a correlation ID:
+ * <pre>{"id": 7, "method": "POST", "path": "/command", "headers": {...}, "body": {...}}</pre>
+ * and the server answers with an envelope carrying the same ID:
+ * <pre>{"id": 7, "status": 200, "headers": {...}, "body": {...}}</pre>
+ * A single reader thread hands each response to the request waiting for it, so any
+ * number of requests can be in flight on one socket and may be answered in any order.
+ */
+public class BluetoothChannel {
+	private static final String TAG = BluetoothChannel.class.getSimpleName();
+	private static final String ID = "id", METHOD = "method", PATH = "path",
+			HEADERS = "headers", BODY = "body", STATUS = "status";
+
+	private static BluetoothChannel sChannel;
+
+	private final BluetoothSocket mSocket;
+	private final FramedMessageWriter mWriter;
+	private final FramedMessageReader mReader;
+	private final AtomicInteger mNextId = new AtomicInteger();
+	private final Map<Integer, SettableFuture<Reply>> mWaiting = new ConcurrentHashMap<Integer, SettableFuture<Reply>>();
+	private volatile IOException mFailure;
+
+	private BluetoothChannel(BluetoothSocket socket) throws IOException {
+		mSocket = socket;
+		mWriter = new FramedMessageWriter(socket.getOutputStream());
+		mReader = new FramedMessageReader(socket.getInputStream());
+		Thread readerThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				readReplies();
+			}
+		}, TAG);
+		readerThread.setDaemon(true);
+		readerThread.start();
+	}
+
+	/**
+	 * Returns the channel for a socket, connecting the socket first if necessary. This
+	 * blocks, so it must not be called on the UI thread.
+	 * @param adapter The device's Bluetooth adapter.
+	 * @param socket The socket to the HERMIT server.
+	 * @return the socket's channel.
+	 * @throws IOException if the socket cannot be connected.
+	 */
+	public static synchronized BluetoothChannel open(BluetoothAdapter adapter, BluetoothSocket socket) throws IOException {
+		if (sChannel != null && sChannel.mSocket == socket && sChannel.mFailure == null) {
+			return sChannel;
+		}
+		if (!socket.isConnected()) {
+			//Discovery slows down connecting considerably
+			adapter.cancelDiscovery();
+			try {
+				socket.connect();
+			} catch (IOException e) {
+				//A socket that failed to connect can't be used again
+				BluetoothUtils.discardSocket(socket);
+				throw e;
+			}
+		}
+		sChannel = new BluetoothChannel(socket);
+		return sChannel;
+	}
+
+	/**
+	 * Sends a request. This does not wait for the response.
+	 * @param method {@code "GET"} or {@code "POST"}.
+	 * @param path The endpoint the request is for, e.g., {@code "/command"}.
+	 * @param headers Any request headers.
+	 * @param body The request's JSON body, or {@code null} if it has none.
+	 * @return a future for the server's response. Cancelling it stops waiting for the
+	 * response.
+	 * @throws IOException if the channel has closed or the request cannot be written.
+	 */
+	public ListenableFuture<Reply> send(String method, String path, Map<String, String> headers, String body) throws IOException {
+		checkOpen();
+		final int id = mNextId.incrementAndGet();
+		JSONObject envelope = new JSONObject();
+		try {
+			envelope.put(ID, id);
+			envelope.put(METHOD, method);
+			envelope.put(PATH, path);
+			if (!headers.isEmpty()) {
+				envelope.put(HEADERS, new JSONObject(headers));
+			}
+			if (body != null && !body.isEmpty()) {
+				envelope.put(BODY, new JSONObject(body));
+			}
+		} catch (JSONException e) {
+			throw new IOException("Request body is not a JSON object", e);
+		}
+
+		SettableFuture<Reply> reply = SettableFuture.create();
+		mWaiting.put(id, reply);
+		reply.addListener(new Runnable() {
+			@Override
+			public void run() {
+				//Forget requests that were cancelled or timed out
+				mWaiting.remove(id);
+			}
+		}, MoreExecutors.sameThreadExecutor());
+		try {
+			synchronized (mWriter) {
+				mWriter.writeMessage(envelope.toString());
+			}
+		} catch (IOException e) {
+			fail(e);
+			throw e;
+		}
+		//The reader may have failed between the check and the put
+		checkOpen();
+		return reply;
+	}
+
+	private void checkOpen() throws IOException {
+		IOException failure = mFailure;
+		if (failure != null) {
+			throw new IOException("Bluetooth connection closed", failure);
+		}
+	}
+
+	private void readReplies() {
+		try {
+			String message;
+			while ((message = mReader.readMessage()) != null) {
+				Reply reply;
+				try {
+					reply = Reply.parse(message);
+				} catch (IOException e) {
+					Log.w(TAG, "Ignoring malformed message from server", e);
+					continue;
+				}
+				SettableFuture<Reply> waiting = mWaiting.remove(reply.mId);
+				if (waiting != null) {
+					waiting.set(reply);
+				} else {
+					Log.w(TAG, "Ignoring response to unknown or abandoned request " + reply.mId);
+				}
+			}
+			fail(new IOException("Bluetooth server closed the connection"));
+		} catch (IOException e) {
+			fail(e);
+		} catch (RuntimeException e) {
+			//Never leave requests waiting on a reader thread that has died
+			fail(new IOException("Bluetooth reader failed", e));
+			throw e;
+		}
+	}
+
+	/**
+	 * Marks the channel as closed, fails every request still waiting for a response and
+	 * discards the socket so that the next request opens a new one.
+	 */
+	private void fail(IOException failure) {
+		if (mFailure != null) {
+			return;
+		}
+		mFailure = failure;
+		for (Integer id : mWaiting.keySet()) {
+			SettableFuture<Reply> waiting = mWaiting.remove(id);
+			if (waiting != null) {
+				waiting.setException(failure);
+			}
+		}
+		BluetoothUtils.discardSocket(mSocket);
+	}
+
+	/**
+	 * A response from the server.
+	 */
+	public static class Reply {
+		private final int mId;
+		private final int mStatus;
+		private final Map<String, String> mHeaders;
+		private final String mMessage;
+
+		private Reply(int id, int status, Map<String, String> headers, String message) {
+			mId = id;
+			mStatus = status;
+			mHeaders = headers;
+			mMessage = message;
+		}
+
+		/**
+		 * Reads a response envelope's ID, status and headers, skipping over its body,
+		 * which is only decoded once it reaches the request that asked for it.
+		 */
+		private static Reply parse(String message) throws IOException {
+			int id = -1;
+			int status = 0;
+			ImmutableMap.Builder<String, String> headers = ImmutableMap.builder();
+			JsonReader reader = new JsonReader(new StringReader(message));
+			try {
+				reader.beginObject();
+				while (reader.hasNext()) {
+					String name = reader.nextName();
+					if (name.equals(ID)) {
+						id = reader.nextInt();
+					} else if (name.equals(STATUS)) {
+						status = reader.nextInt();
+					} else if (name.equals(HEADERS)) {
+						reader.beginObject();
+						while (reader.hasNext()) {
+							headers.put(reader.nextName(), reader.nextString());
+						}
+						reader.endObject();
+					} else {
+						reader.skipValue();
+					}
+				}
+				reader.endObject();
+			} catch (RuntimeException e) {
+				//JsonReader reports some malformed input as IllegalStateException or
+				//NumberFormatException, which must not reach the reader thread
+				throw new IOException("Malformed response envelope", e);
+			} finally {
+				reader.close();
+			}
+			if (id < 0) {
+				throw new IOException("Response has no " + ID);
+			}
+			return new Reply(id, status, headers.build(), message);
+		}
+
+		/** Returns the response's HTTP-style status code. */
+		public int getStatus() {
+			return mStatus;
+		}
+
+		/**
+		 * Returns the value of a response header.
+		 * @return the header's value, or {@code null} if the server did not send it.
+		 */
+		public String getHeader(String name) {
+			return mHeaders.get(name);
+		}
+
+		/**
+		 * Returns a {@link JsonReader} positioned at the start of the response's body.
+		 * @throws IOException if the response has no body.
+		 */
+		public JsonReader openBody() throws IOException {
+			JsonReader reader = new JsonReader(new StringReader(mMessage));
+			reader.beginObject();
+			while (reader.hasNext()) {
+				if (reader.nextName().equals(BODY)) {
+					return reader;
+				}
+				reader.skipValue();
+			}
+			reader.close();
+			throw new IOException("Response has no " + BODY);
+		}
+	}
+
+}
@@ -0,0 +1,151 @@
+package edu.kufpg.armatus.networking;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import android.bluetooth.BluetoothSocket;
+import android.content.Context;
+
+import edu.kufpg.armatus.util.JsonReader;
+
+/**
+ * Carries requests to a HERMIT server on the Bluetooth device selected in the app's
+ * preferences, through a {@link BluetoothChannel}.
+ */
+public class BluetoothTransport implements HermitTransport {
+	private final Context mContext;
+
+	public BluetoothTransport(Context context) {
+		mContext = context.getApplicationContext();
+	}
+
+	@Override
+	public void open() throws IOException {
+		getChannel();
+	}
+
+	private BluetoothChannel getChannel() throws IOException {
+		BluetoothSocket socket = BluetoothUtils.getBluetoothSocket(mContext);
+		if (socket == null) {
+			throw new IOException("No Bluetooth device selected");
+		}
+		return BluetoothChannel.open(BluetoothUtils.getBluetoothAdapter(mContext), socket);
+	}
+
+	@Override
+	public Call newCall(Request request) {
+		return new BluetoothCall(request);
+	}
+
+	@Override
+	public void close() {
+		BluetoothUtils.closeBluetooth();
+	}
+
+	private class BluetoothCall implements Call {
+		private final Request mRequest;
+		private volatile Future<BluetoothChannel.Reply> mReply;
+		private volatile boolean mAborted;
+
+		public BluetoothCall(Request request) {
+			mRequest = request;
+		}
+
+		@Override
+		public Response execute(int timeoutMs) throws IOException {
+			Future<BluetoothChannel.Reply> future = getChannel().send(mRequest.getMethod(), mRequest.getPath(),
+					mRequest.getHeaders(), mRequest.getBody());
+			mReply = future;
+			if (mAborted) {
+				future.cancel(false);
+			}
+			try {
+				return new BluetoothResponse(future.get(timeoutMs, TimeUnit.MILLISECONDS));
+			} catch (TimeoutException e) {
+				future.cancel(false);
+				throw new SocketTimeoutException("No response over Bluetooth");
+			} catch (InterruptedException e) {
+				future.cancel(false);
+				throw new InterruptedIOException();
+			} catch (CancellationException e) {
+				throw new InterruptedIOException("Request aborted");
+			} catch (ExecutionException e) {
+				throw (e.getCause() instanceof IOException) ? (IOException) e.getCause() : new IOException(e.getCause());
+			}
+		}
+
+		@Override
+		public void abort() {
+			mAborted = true;
+			Future<BluetoothChannel.Reply> reply = mReply;
+			if (reply != null) {
+				reply.cancel(false);
+			}
+		}
+	}
+
+	private static class BluetoothResponse implements Response {
+		private final BluetoothChannel.Reply mReply;
+
+		public BluetoothResponse(BluetoothChannel.Reply reply) {
+			mReply = reply;
+		}
+
+		@Override
+		public int getStatus() {
+			return mReply.getStatus();
+		}
+
+		@Override
+		public String getHeader(String name) {
+			return mReply.getHeader(name);
+		}
+
+		@Override
+		public JsonReader openBody() throws IOException {
+			return mReply.openBody();
+		}
+
+		/**
+		 * Always fails, since a reply's body is part of its JSON envelope.
+		 */
+		@Override
+		public InputStream openStream() throws IOException {
+			throw new IOException("Bluetooth replies can only carry JSON");
+		}
+
+		@Override
+		public String getContentType() {
+			return "application/json";
+		}
+
+		/**
+		 * Returns 0, since the whole envelope has arrived by the time the response exists.
+		 */
+		@Override
+		public long getReadNanos() {
+			return 0;
+		}
+
+		@Override
+		public long getWireBytes() {
+			return 0;
+		}
+
+		@Override
+		public long getDecodedBytes() {
+			return 0;
+		}
+
+		@Override
+		public void close() {}
+	}
+
+}
@@ -70,6 +70,23 @@ public final class BluetoothUtils {
 		sDevice = null;
 	}
 
+	/**
+	 * Closes a socket that can no longer be used (e.g., because it failed to connect or
+	 * its connection dropped), so that {@link #getBluetoothSocket(Context)} creates a new
+	 * one.
+	 * @param socket The socket to close.
+	 */
+	static void discardSocket(BluetoothSocket socket) {
+		try {
+			socket.close();
+		} catch (IOException e) {
+			Log.w(TAG, "Error occurred when closing Bluetooth socket!");
+		}
+		if (sSocket == socket) {
+			sSocket = null;
+		}
+	}
+
 	/**
 	 * If Bluetooth is not already on, this method prompts the user to turn on Bluetooth.
 	 * @param activity The {@link Activity} that will handle the result (with the {@code
@@ -175,6 +192,17 @@ public final class BluetoothUtils {
 		}
 	}
 
+	/**
+	 * Returns the address that identifies the selected Bluetooth device in place of a
+	 * server URL, e.g., for keying caches by server.
+	 * @param context The {@link Context} to use.
+	 * @return a {@code bluetooth://} URL naming the device.
+	 */
+	public static String getServerUrl(Context context) {
+		String address = Prefs.getBluetoothDeviceAddress(context);
+		return "bluetooth://" + (address != null ? address.replace(':', '-') : "unknown");
+	}
+
 	/**
 	 * Starts an {@link Intent} that allows the user to select a Bluetooth device from a list
 	 * of nearby devices.
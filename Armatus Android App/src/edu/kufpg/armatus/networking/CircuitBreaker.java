@@ -0,0 +1,137 @@
+package edu.kufpg.armatus.networking;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.common.base.Ticker;
+
+/**
+ * Tracks whether a HERMIT server is reachable. After several requests in a row fail to
+ * reach the server, the breaker <em>opens</em> and requests fail immediately instead of
+ * each waiting for a timeout. Once a cool-down has passed, a single request is let through
+ * to probe the server; if it succeeds, the breaker closes again.
+ */
+public class CircuitBreaker {
+	/** How many consecutive failures open the breaker. */
+	static final int FAILURE_THRESHOLD = 3;
+
+	/** How long the breaker stays open before a probe request is allowed. */
+	static final long OPEN_MS = 15000;
+
+	private static final Map<String, CircuitBreaker> sBreakers = new HashMap<String, CircuitBreaker>();
+
+	private final String mServer;
+	private final Ticker mTicker;
+	private State mState = State.CLOSED;
+	private int mConsecutiveFailures;
+	private long mOpenedAt;
+	private long mProbeStartedAt;
+
+	/**
+	 * @param server The server's host and port.
+	 * @param ticker Tells the time the cool-down is measured by.
+	 */
+	CircuitBreaker(String server, Ticker ticker) {
+		mServer = server;
+		mTicker = ticker;
+	}
+
+	/**
+	 * Returns the breaker for the server that a URL points to.
+	 * @param url A URL on the server.
+	 * @return the server's breaker.
+	 */
+	public static synchronized CircuitBreaker forUrl(String url) {
+		URI uri = URI.create(url);
+		String server = uri.getHost() + ':' + uri.getPort();
+		CircuitBreaker breaker = sBreakers.get(server);
+		if (breaker == null) {
+			breaker = new CircuitBreaker(server, Ticker.systemTicker());
+			sBreakers.put(server, breaker);
+		}
+		return breaker;
+	}
+
+	/**
+	 * Returns the breakers of every server contacted so far.
+	 */
+	public static synchronized Iterable<CircuitBreaker> getAll() {
+		return new HashMap<String, CircuitBreaker>(sBreakers).values();
+	}
+
+	/**
+	 * Returns whether a request may be sent to the server now. While the breaker is half
+	 * open, only one probe request is allowed at a time.
+	 */
+	public synchronized boolean allowRequest() {
+		long now = elapsedMs();
+		switch (mState) {
+		case OPEN:
+			if (now - mOpenedAt < OPEN_MS) {
+				return false;
+			}
+			mState = State.HALF_OPEN;
+			mProbeStartedAt = now;
+			return true;
+		case HALF_OPEN:
+			//Let another probe through if the last one never reported back
+			if (now - mProbeStartedAt < OPEN_MS) {
+				return false;
+			}
+			mProbeStartedAt = now;
+			return true;
+		default:
+			return true;
+		}
+	}
+
+	/**
+	 * Records that a request reached the server.
+	 */
+	public synchronized void recordSuccess() {
+		mState = State.CLOSED;
+		mConsecutiveFailures = 0;
+	}
+
+	/**
+	 * Records that a request could not reach the server or that the server failed.
+	 * @return {@code true} if this failure opened the breaker.
+	 */
+	public synchronized boolean recordFailure() {
+		mConsecutiveFailures++;
+		if (mState == State.HALF_OPEN
+				|| (mState == State.CLOSED && mConsecutiveFailures >= FAILURE_THRESHOLD)) {
+			mState = State.OPEN;
+			mOpenedAt = elapsedMs();
+			return true;
+		}
+		return false;
+	}
+
+	public String getServer() {
+		return mServer;
+	}
+
+	public synchronized State getState() {
+		return mState;
+	}
+
+	/**
+	 * Returns how long until a probe request will be allowed through.
+	 * @return the remaining cool-down, in milliseconds, or 0 if the breaker is not open.
+	 */
+	public synchronized long getRemainingOpenMs() {
+		if (mState != State.OPEN) {
+			return 0;
+		}
+		return Math.max(0, OPEN_MS - (elapsedMs() - mOpenedAt));
+	}
+
+	private long elapsedMs() {
+		return mTicker.read() / 1000000;
+	}
+
+	public enum State { CLOSED, OPEN, HALF_OPEN }
+
+}
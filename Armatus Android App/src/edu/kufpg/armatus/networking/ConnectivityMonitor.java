@@ -0,0 +1,123 @@
+package edu.kufpg.armatus.networking;
+
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import android.bluetooth.BluetoothAdapter;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+
+/**
+ * Keeps track of whether the device has a network connection, is in airplane mode, and
+ * has Bluetooth enabled. The state is read once and then kept up to date from the
+ * system's broadcasts, so checking it before each request is only a field read.
+ */
+public class ConnectivityMonitor {
+	private static ConnectivityMonitor sInstance;
+
+	private final Context mContext;
+	private final Set<OnConnectivityChangedListener> mListeners = new CopyOnWriteArraySet<OnConnectivityChangedListener>();
+	private volatile boolean mNetworkConnected;
+	private volatile boolean mAirplaneModeOn;
+	private volatile boolean mBluetoothEnabled;
+
+	private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
+		@Override
+		public void onReceive(Context context, Intent intent) {
+			String action = intent.getAction();
+			boolean changed;
+			if (BluetoothAdapter.ACTION_STATE_CHANGED.equals(action)) {
+				boolean enabled = intent.getIntExtra(BluetoothAdapter.EXTRA_STATE,
+						BluetoothAdapter.ERROR) == BluetoothAdapter.STATE_ON;
+				changed = enabled != mBluetoothEnabled;
+				mBluetoothEnabled = enabled;
+			} else {
+				changed = refreshNetworkState();
+			}
+			if (changed) {
+				for (OnConnectivityChangedListener listener : mListeners) {
+					listener.onConnectivityChanged(ConnectivityMonitor.this);
+				}
+			}
+		}
+	};
+
+	private ConnectivityMonitor(Context context) {
+		mContext = context.getApplicationContext();
+		refreshNetworkState();
+		mBluetoothEnabled = BluetoothUtils.isBluetoothEnabled(mContext);
+
+		IntentFilter filter = new IntentFilter();
+		filter.addAction(ConnectivityManager.CONNECTIVITY_ACTION);
+		filter.addAction(Intent.ACTION_AIRPLANE_MODE_CHANGED);
+		filter.addAction(BluetoothAdapter.ACTION_STATE_CHANGED);
+		mContext.registerReceiver(mReceiver, filter);
+	}
+
+	/**
+	 * Returns the monitor, which starts listening for changes the first time this is
+	 * called. This must be called on the main thread.
+	 * @param context The {@link Context} to use.
+	 */
+	public static ConnectivityMonitor getInstance(Context context) {
+		if (sInstance == null) {
+			sInstance = new ConnectivityMonitor(context);
+		}
+		return sInstance;
+	}
+
+	private boolean refreshNetworkState() {
+		boolean airplaneModeOn = InternetUtils.isAirplaneModeOn(mContext);
+		boolean networkConnected = InternetUtils.isWifiConnected(mContext)
+				|| InternetUtils.isMobileConnected(mContext);
+		boolean changed = airplaneModeOn != mAirplaneModeOn || networkConnected != mNetworkConnected;
+		mAirplaneModeOn = airplaneModeOn;
+		mNetworkConnected = networkConnected;
+		return changed;
+	}
+
+	/**
+	 * Returns whether the device is connected to a Wi-Fi or mobile network.
+	 */
+	public boolean isNetworkConnected() {
+		return mNetworkConnected;
+	}
+
+	public boolean isAirplaneModeOn() {
+		return mAirplaneModeOn;
+	}
+
+	public boolean isBluetoothEnabled() {
+		return mBluetoothEnabled;
+	}
+
+	/**
+	 * Registers a listener to be called on the main thread whenever the connectivity state
+	 * changes.
+	 * @param listener The listener to add.
+	 */
+	public void addListener(OnConnectivityChangedListener listener) {
+		mListeners.add(listener);
+	}
+
+	public void removeListener(OnConnectivityChangedListener listener) {
+		mListeners.remove(listener);
+	}
+
+	/**
+	 * Interface definition for a callback to be invoked when the device's connectivity
+	 * changes.
+	 */
+	public interface OnConnectivityChangedListener {
+		/**
+		 * Called when the device gains or loses a network connection, enters or leaves
+		 * airplane mode, or has Bluetooth turned on or off.
+		 * @param monitor The monitor, with the new state.
+		 */
+		void onConnectivityChanged(ConnectivityMonitor monitor);
+	}
+
+}
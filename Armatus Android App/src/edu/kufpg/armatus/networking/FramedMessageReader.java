@@ -0,0 +1,134 @@
+package edu.kufpg.armatus.networking;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Reads the length-prefixed messages that {@link FramedMessageWriter} writes. Each message
+ * is a four-byte big-endian length followed by that many bytes of UTF-8 text, so a message
+ * may arrive over any number of reads (and one read may hold several messages) without
+ * being split or merged.
+ * <p>
+ * The same byte and character buffers are used for every message, and the text is decoded
+ * as it arrives rather than after the whole message has been buffered, so reading does not
+ * create garbage beyond the {@code String} that is returned.
+ */
+public class FramedMessageReader {
+	/** The largest message accepted. Anything longer means the stream is out of sync. */
+	static final int MAX_MESSAGE_BYTES = 16 * 1024 * 1024;
+
+	private static final int BUFFER_BYTES = 8192;
+
+	/** Character buffers larger than this are not kept between messages. */
+	private static final int MAX_RETAINED_CHARS = 256 * 1024;
+
+	private final InputStream mIn;
+	/** Bytes read from the stream but not yet consumed. Kept in read mode (flipped). */
+	private final ByteBuffer mBytes = ByteBuffer.allocate(BUFFER_BYTES);
+	private final CharsetDecoder mDecoder = Charset.forName("UTF-8").newDecoder()
+			.onMalformedInput(CodingErrorAction.REPORT)
+			.onUnmappableCharacter(CodingErrorAction.REPORT);
+	private CharBuffer mChars = CharBuffer.allocate(BUFFER_BYTES);
+
+	public FramedMessageReader(InputStream in) {
+		mIn = in;
+		mBytes.flip();
+	}
+
+	/**
+	 * Blocks until a whole non-empty message has arrived and returns it. Empty messages
+	 * can be used as keep-alives and are skipped.
+	 * @return the message, or {@code null} if the stream ended cleanly between messages.
+	 * @throws EOFException if the stream ended partway through a message.
+	 * @throws CharacterCodingException if the message is not valid UTF-8.
+	 * @throws IOException if the stream cannot be read or a message is too long.
+	 */
+	public String readMessage() throws IOException {
+		int length;
+		do {
+			if (!fill(4)) {
+				if (mBytes.hasRemaining()) {
+					throw new EOFException("Stream ended inside a message header");
+				}
+				return null;
+			}
+			length = mBytes.getInt();
+		} while (length == 0);
+		if (length < 0 || length > MAX_MESSAGE_BYTES) {
+			throw new IOException("Bad message length: " + length);
+		}
+
+		//A UTF-8 message never has more chars than bytes
+		if (mChars.capacity() < length) {
+			mChars = CharBuffer.allocate(length);
+		}
+		mChars.clear();
+		mDecoder.reset();
+
+		int remaining = length;
+		while (remaining > 0) {
+			if (!mBytes.hasRemaining() && !fill(1)) {
+				throw new EOFException("Stream ended inside a message");
+			}
+			//Only decode this message's bytes, leaving any that follow it in the buffer
+			int limit = mBytes.limit();
+			int available = Math.min(remaining, mBytes.remaining());
+			mBytes.limit(mBytes.position() + available);
+			int start = mBytes.position();
+			CoderResult result = mDecoder.decode(mBytes, mChars, remaining == available);
+			remaining -= mBytes.position() - start;
+			mBytes.limit(limit);
+			if (result.isError()) {
+				result.throwException();
+			}
+			//A multi-byte character is split across reads, so get the rest of it
+			if (remaining > 0 && mBytes.hasRemaining() && !fill(mBytes.remaining() + 1)) {
+				throw new EOFException("Stream ended inside a message");
+			}
+		}
+		CoderResult result = mDecoder.flush(mChars);
+		if (result.isError()) {
+			result.throwException();
+		}
+
+		mChars.flip();
+		String message = mChars.toString();
+		if (mChars.capacity() > MAX_RETAINED_CHARS) {
+			mChars = CharBuffer.allocate(BUFFER_BYTES);
+		}
+		return message;
+	}
+
+	/**
+	 * Reads from the stream until at least {@code count} bytes are buffered, moving any
+	 * unconsumed bytes to the front of the buffer first.
+	 * @return {@code false} if the stream ended first.
+	 */
+	private boolean fill(int count) throws IOException {
+		if (mBytes.remaining() >= count) {
+			return true;
+		}
+		mBytes.compact();
+		try {
+			while (mBytes.position() < count) {
+				int read = mIn.read(mBytes.array(), mBytes.arrayOffset() + mBytes.position(), mBytes.remaining());
+				if (read < 0) {
+					return false;
+				}
+				mBytes.position(mBytes.position() + read);
+			}
+			return true;
+		} finally {
+			mBytes.flip();
+		}
+	}
+
+}
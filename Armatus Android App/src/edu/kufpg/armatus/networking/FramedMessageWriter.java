@@ -0,0 +1,65 @@
+package edu.kufpg.armatus.networking;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Writes messages in the length-prefixed format that {@link FramedMessageReader} reads: a
+ * four-byte big-endian length followed by the message as UTF-8. The header and message are
+ * written together so that the other end never sees a header without its message.
+ */
+public class FramedMessageWriter {
+	private static final int BUFFER_BYTES = 8192;
+
+	/** Byte buffers larger than this are not kept between messages. */
+	private static final int MAX_RETAINED_BYTES = 256 * 1024;
+
+	private final OutputStream mOut;
+	private final CharsetEncoder mEncoder = Charset.forName("UTF-8").newEncoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private ByteBuffer mBytes = ByteBuffer.allocate(BUFFER_BYTES);
+
+	public FramedMessageWriter(OutputStream out) {
+		mOut = out;
+	}
+
+	/**
+	 * Writes a message and flushes the stream.
+	 * @param message The message to write.
+	 * @throws IOException if the stream cannot be written or the message is too long.
+	 */
+	public void writeMessage(CharSequence message) throws IOException {
+		int maxBytes = 4 + (int) Math.ceil(message.length() * (double) mEncoder.maxBytesPerChar());
+		if (mBytes.capacity() < maxBytes) {
+			mBytes = ByteBuffer.allocate(maxBytes);
+		}
+		mBytes.clear();
+		mBytes.position(4);
+		mEncoder.reset();
+		CharBuffer chars = CharBuffer.wrap(message);
+		CoderResult result = mEncoder.encode(chars, mBytes, true);
+		if (!result.isUnderflow()) {
+			result.throwException();
+		}
+		mEncoder.flush(mBytes);
+
+		int length = mBytes.position() - 4;
+		if (length > FramedMessageReader.MAX_MESSAGE_BYTES) {
+			throw new IOException("Message too long: " + length + " bytes");
+		}
+		mBytes.putInt(0, length);
+		mOut.write(mBytes.array(), mBytes.arrayOffset(), mBytes.position());
+		mOut.flush();
+		if (mBytes.capacity() > MAX_RETAINED_BYTES) {
+			mBytes = ByteBuffer.allocate(BUFFER_BYTES);
+		}
+	}
+
+}
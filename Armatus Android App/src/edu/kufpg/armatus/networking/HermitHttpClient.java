@@ -0,0 +1,186 @@
+package edu.kufpg.armatus.networking;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ClientConnectionOperator;
+import org.apache.http.conn.ClientConnectionRequest;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.OperatedClientConnection;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
+import org.apache.http.impl.conn.DefaultClientConnectionOperator;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
+
+import edu.kufpg.armatus.util.StageTimings;
+import edu.kufpg.armatus.util.StageTimings.Stage;
+
+/**
+ * Process-wide HTTP client shared by every {@link HermitHttpServerRequest}. Connections to
+ * a HERMIT server are kept alive and pooled between requests so that consecutive commands
+ * and completions do not each pay for a new TCP handshake.
+ */
+public final class HermitHttpClient {
+	/** The maximum number of pooled connections across all servers. */
+	private static final int MAX_TOTAL_CONNECTIONS = 8;
+
+	/** The maximum number of pooled connections to a single server. */
+	private static final int MAX_CONNECTIONS_PER_ROUTE = 4;
+
+	/** How long an unused connection may stay in the pool before it is closed. */
+	private static final long IDLE_TIMEOUT_MS = 30000;
+
+	/**
+	 * Connect and socket timeout (10 seconds) for requests that don't set their own. See
+	 * {@link RequestKind#getTimeoutMs()}.
+	 */
+	private static final int TIMEOUT_MS = 10000;
+
+	private static final AtomicLong sConnectionsOpened = new AtomicLong();
+	private static final AtomicLong sConnectionsReused = new AtomicLong();
+
+	private static DefaultHttpClient sClient;
+
+	private HermitHttpClient() {}
+
+	/**
+	 * Executes a request using a pooled connection. Callers must consume or abort the
+	 * response entity so that the connection is returned to the pool.
+	 * @param request The request to execute.
+	 * @return the server's response.
+	 * @throws IOException if the request fails.
+	 */
+	public static HttpResponse execute(HttpUriRequest request) throws IOException {
+		DefaultHttpClient client = getClient();
+		evictIdleConnections(client);
+		return client.execute(request);
+	}
+
+	/**
+	 * Returns how many new connections have been opened since the pool was created.
+	 * @return the number of connections opened.
+	 */
+	public static long getConnectionsOpened() {
+		return sConnectionsOpened.get();
+	}
+
+	/**
+	 * Returns how many requests were served by an already-open pooled connection.
+	 * @return the number of connections reused.
+	 */
+	public static long getConnectionsReused() {
+		return sConnectionsReused.get();
+	}
+
+	/**
+	 * Closes every pooled connection. The pool is recreated on the next request.
+	 */
+	public static synchronized void shutdown() {
+		if (sClient != null) {
+			sClient.getConnectionManager().shutdown();
+			sClient = null;
+		}
+	}
+
+	private static synchronized DefaultHttpClient getClient() {
+		if (sClient == null) {
+			final HttpParams params = new BasicHttpParams();
+			HttpConnectionParams.setConnectionTimeout(params, TIMEOUT_MS);
+			HttpConnectionParams.setSoTimeout(params, TIMEOUT_MS);
+			HttpConnectionParams.setStaleCheckingEnabled(params, true);
+			ConnManagerParams.setMaxTotalConnections(params, MAX_TOTAL_CONNECTIONS);
+			ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(MAX_CONNECTIONS_PER_ROUTE));
+
+			SchemeRegistry registry = new SchemeRegistry();
+			registry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+			registry.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), 443));
+
+			sClient = new DefaultHttpClient(new CountingConnManager(params, registry), params);
+			//HermitHttpServerRequest decides what to retry, with backoff
+			sClient.setHttpRequestRetryHandler(new DefaultHttpRequestRetryHandler(0, false));
+			sClient.setKeepAliveStrategy(new ConnectionKeepAliveStrategy() {
+				private final ConnectionKeepAliveStrategy mDefault = new DefaultConnectionKeepAliveStrategy();
+
+				@Override
+				public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+					//Honor the server's Keep-Alive header, but never keep a connection longer
+					//than the idle timeout
+					long duration = mDefault.getKeepAliveDuration(response, context);
+					return (duration > 0 && duration < IDLE_TIMEOUT_MS) ? duration : IDLE_TIMEOUT_MS;
+				}
+			});
+		}
+		return sClient;
+	}
+
+	private static void evictIdleConnections(DefaultHttpClient client) {
+		client.getConnectionManager().closeExpiredConnections();
+		client.getConnectionManager().closeIdleConnections(IDLE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Connection manager that records whether each leased connection was already open
+	 * (reused) or will have to be opened, and how long opening new connections takes.
+	 */
+	private static class CountingConnManager extends ThreadSafeClientConnManager {
+		public CountingConnManager(HttpParams params, SchemeRegistry registry) {
+			super(params, registry);
+		}
+
+		@Override
+		protected ClientConnectionOperator createConnectionOperator(SchemeRegistry registry) {
+			return new DefaultClientConnectionOperator(registry) {
+				@Override
+				public void openConnection(OperatedClientConnection conn, HttpHost target,
+						InetAddress local, HttpContext context, HttpParams params) throws IOException {
+					long start = StageTimings.start();
+					super.openConnection(conn, target, local, context, params);
+					StageTimings.record(Stage.CONNECT, start);
+				}
+			};
+		}
+
+		@Override
+		public ClientConnectionRequest requestConnection(HttpRoute route, Object state) {
+			final ClientConnectionRequest request = super.requestConnection(route, state);
+			return new ClientConnectionRequest() {
+				@Override
+				public ManagedClientConnection getConnection(long timeout, TimeUnit tunit)
+						throws InterruptedException, ConnectionPoolTimeoutException {
+					ManagedClientConnection connection = request.getConnection(timeout, tunit);
+					if (connection.isOpen()) {
+						sConnectionsReused.incrementAndGet();
+					} else {
+						sConnectionsOpened.incrementAndGet();
+					}
+					return connection;
+				}
+
+				@Override
+				public void abortRequest() {
+					request.abortRequest();
+				}
+			};
+		}
+	}
+
+}
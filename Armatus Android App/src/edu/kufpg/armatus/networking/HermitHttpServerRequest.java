@@ -1,38 +1,32 @@
 package edu.kufpg.armatus.networking;
 
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
-import java.net.SocketTimeoutException;
-
-import org.apache.http.HttpException;
-import org.apache.http.HttpResponse;
-import org.apache.http.HttpStatus;
-import org.apache.http.NoHttpResponseException;
-import org.apache.http.client.ClientProtocolException;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.client.methods.HttpUriRequest;
-import org.apache.http.conn.ConnectTimeoutException;
-import org.apache.http.conn.HttpHostConnectException;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.params.BasicHttpParams;
-import org.apache.http.params.HttpConnectionParams;
-import org.apache.http.params.HttpParams;
-import org.apache.http.protocol.HTTP;
-import org.apache.http.util.EntityUtils;
+import java.io.InputStream;
 
 import edu.kufpg.armatus.AsyncActivityTask;
 import edu.kufpg.armatus.console.ConsoleActivity;
+import edu.kufpg.armatus.data.BinaryResponses;
+import edu.kufpg.armatus.networking.HermitTransport.Request;
+import edu.kufpg.armatus.networking.RequestExecutor.RequestFailedException;
+import edu.kufpg.armatus.util.JsonReader;
+import edu.kufpg.armatus.util.StageTimings;
+import edu.kufpg.armatus.util.StageTimings.Stage;
 
 /**
  * Task that connects to a server running HERMIT-web and simulates HERMIT commands
- * by using HTTP GET and POST requests.
+ * by using HTTP-style GET and POST requests. The requests are carried by the console's
+ * {@link HermitTransport}, which may be HTTP, Bluetooth or in-process, and are sent by a
+ * {@link RequestExecutor} on the task's background thread.
  */
 public abstract class HermitHttpServerRequest<Result> extends AsyncActivityTask<ConsoleActivity, String, Void, Result> {
+	/** The number of requests currently running, used to decide when to hide the progress bar. */
+	private static int sActiveRequests = 0;
+
 	private HttpRequest mRequest;
+	private final boolean mBlocksInput;
 	private String mErrorMessage;
+	private volatile RequestExecutor<Result> mExecutor;
+	private long mQueuedAt;
 
 	/**
 	 * Constructs a new instance. The constructor is not the place to put any input
@@ -41,79 +35,70 @@ public abstract class HermitHttpServerRequest<Result> extends AsyncActivityTask<
 	 * @param console reference to the current console.
 	 */
 	public HermitHttpServerRequest(ConsoleActivity console, HttpRequest request) {
+		this(console, request, true);
+	}
+
+	/**
+	 * Constructs a new instance that may leave the console input usable while the
+	 * request runs.
+	 * @param console reference to the current console.
+	 * @param request whether to use GET or POST.
+	 * @param blocksInput {@code true} if console input should be disabled until the
+	 * request finishes.
+	 */
+	public HermitHttpServerRequest(ConsoleActivity console, HttpRequest request, boolean blocksInput) {
 		super(console);
 		mRequest = request;
+		mBlocksInput = blocksInput;
 	}
 
 	@Override
 	protected void onPreExecute() {
 		super.onPreExecute();
 
-		getActivity().setProgressBarVisibility(true);
-		getActivity().disableInput(true);
-	}
+		mQueuedAt = StageTimings.start();
+		mExecutor = new RequestExecutor<Result>(getActivity().getHermitClient().getTransport()) {
+			@Override
+			protected boolean isAborted() {
+				return super.isAborted() || isCancelled();
+			}
 
-	@Override
-	protected Result doInBackground(String... params) {
-		HttpClient httpClient = null;
-		HttpResponse httpResponse = null;
-		String responseStr = null;
+			@Override
+			protected void onPrepareRequest(Request request) {
+				HermitHttpServerRequest.this.onPrepareRequest(request);
+			}
 
-		try {
-			final HttpParams httpParams = new BasicHttpParams();
-			//Set timeout length to 10 seconds
-			HttpConnectionParams.setConnectionTimeout(httpParams, 10000);
-			HttpConnectionParams.setSoTimeout(httpParams, 10000);
-			httpClient = new DefaultHttpClient(httpParams);
-			HttpUriRequest request = null;
-			if (mRequest.equals(HttpRequest.GET)) {
-				request = new HttpGet(params[0]);
-			} else if (mRequest.equals(HttpRequest.POST)) {
-				final HttpPost httpPost = new HttpPost(params[0]);
-				if (params.length > 1) {
-					httpPost.setHeader("content-type", "application/json");
-					if (params[1] != null && !params[1].isEmpty()) {
-						try {
-							httpPost.setEntity(new StringEntity(params[1]));
-						} catch (UnsupportedEncodingException e) {
-							e.printStackTrace();
-						}
-					}
-				}
-				request = httpPost;
+			@Override
+			protected Result onNotModified() {
+				return HermitHttpServerRequest.this.onNotModified();
 			}
 
-			if (!isCancelled()) {
-				httpResponse = httpClient.execute(request);
+			@Override
+			protected Result onResponse(JsonReader reader) throws IOException {
+				return HermitHttpServerRequest.this.onResponse(reader);
 			}
 
-			if (httpResponse.getStatusLine().getStatusCode() == HttpStatus.SC_OK) {
-				final String entity = EntityUtils.toString(httpResponse.getEntity(), HTTP.UTF_8).trim();
-				if (entity != null) {
-					responseStr = entity;
-				}
-			} else {
-				throw new HttpException("Error code " + httpResponse.getStatusLine().getStatusCode());
+			@Override
+			protected Result onBinaryResponse(InputStream in) throws IOException {
+				return HermitHttpServerRequest.this.onBinaryResponse(in);
 			}
-		} catch (HttpException e) {
-			return cancelResult(e, "ERROR: server problem (" + httpResponse.getStatusLine().getStatusCode() + ").");
-		} catch (HttpHostConnectException e) {
-			return cancelResult(e, "ERROR: server connection refused.");
-		} catch (ClientProtocolException e) {
-			return cancelResult(e, "ERROR: client protocol problem.");
-		} catch (NoHttpResponseException e) {
-			return cancelResult(e, "ERROR: the target server failed to respond.");
-		} catch (ConnectTimeoutException e) {
-			return cancelResult(e, "ERROR: the server connection timed out.");
-		} catch (SocketTimeoutException e) {
-			return cancelResult(e, "ERROR: the server connection timed out.");
-		} catch (IOException e) {
-			return cancelResult(e, "ERROR: I/O problem.");
-		} finally {
-			httpClient.getConnectionManager().shutdown();
+		};
+		sActiveRequests++;
+		getActivity().setProgressBarVisibility(true);
+		if (mBlocksInput) {
+			getActivity().disableInput(true);
 		}
+	}
 
-		return onResponse(responseStr);
+	@Override
+	protected Result doInBackground(String... params) {
+		applyThreadPriority();
+		StageTimings.record(Stage.QUEUED, mQueuedAt);
+		try {
+			return mExecutor.execute(mRequest.name(), params[0], params.length > 1 ? params[1] : null);
+		} catch (RequestFailedException e) {
+			return cancelResult(e.getCause(), e.getMessage());
+		}
 	}
 
 	@Override
@@ -134,22 +119,77 @@ public abstract class HermitHttpServerRequest<Result> extends AsyncActivityTask<
 	}
 
 	private void end() {
-		if (getActivity().getHermitClient().isRequestDelayed()) {
-			getActivity().getHermitClient().notifyDelayedRequestFinished();
+		if (mBlocksInput) {
+			getActivity().enableInput();
+		}
+		sActiveRequests--;
+		if (sActiveRequests <= 0) {
+			sActiveRequests = 0;
+			getActivity().setProgressBarVisibility(false);
 		}
+	}
 
-		getActivity().enableInput();
-		getActivity().setProgressBarVisibility(false);
+	private Result cancelResult(Throwable error, String errorMsg) {
+		if (error != null) {
+			error.printStackTrace();
+		}
+		//An aborted request fails on purpose, so there's no error to report
+		if (!isCancelled()) {
+			mErrorMessage = errorMsg;
+			cancel(true);
+		}
+		return null;
 	}
 
-	private Result cancelResult(Exception error, String errorMsg) {
-		error.printStackTrace();
-		mErrorMessage = errorMsg;
+	/**
+	 * Cancels this request and closes its connection, so that a request whose result is
+	 * no longer needed doesn't keep waiting on the server. No error message is shown.
+	 */
+	public void abort() {
 		cancel(true);
+		RequestExecutor<Result> executor = mExecutor;
+		if (executor != null) {
+			executor.abort();
+		}
+	}
+
+	/**
+	 * Called on the background thread just before the request is sent, e.g., to add
+	 * headers to it. Does nothing by default.
+	 * @param request The request about to be sent.
+	 */
+	protected void onPrepareRequest(Request request) {}
+
+	/**
+	 * Called on the background thread instead of {@link #onResponse(JsonReader)} if the
+	 * server answers a conditional request with {@code 304 Not Modified}.
+	 * @return the result to use when the server's data is unchanged ({@code null} by
+	 * default).
+	 */
+	protected Result onNotModified() {
 		return null;
 	}
 
-	protected abstract Result onResponse(String response);
+	/**
+	 * Decodes the body of a successful response. This is called on the background thread.
+	 * @param reader A {@link JsonReader} positioned at the start of the response body.
+	 * @return the decoded result.
+	 * @throws IOException if the body cannot be read or is not valid JSON.
+	 */
+	protected abstract Result onResponse(JsonReader reader) throws IOException;
+
+	/**
+	 * Decodes the body of a successful response that the server sent in the
+	 * {@link BinaryResponses} encoding, which it only does for requests that offered to
+	 * accept it (see {@link #onPrepareRequest(Request)}). This is called on the background
+	 * thread.
+	 * @param in The response body.
+	 * @return the decoded result.
+	 * @throws IOException if the body cannot be read or decoded. By default, always.
+	 */
+	protected Result onBinaryResponse(InputStream in) throws IOException {
+		throw new IOException("Unexpected binary response");
+	}
 	
 	protected String getErrorMessage() {
 		return mErrorMessage;
@@ -159,6 +199,26 @@ public abstract class HermitHttpServerRequest<Result> extends AsyncActivityTask<
 		mErrorMessage = message;
 	}
 
+	/**
+	 * Returns the HTTP status code of the server's response.
+	 * @return the status code, or 0 if the server never responded.
+	 */
+	protected int getStatusCode() {
+		RequestExecutor<Result> executor = mExecutor;
+		return (executor != null) ? executor.getStatusCode() : 0;
+	}
+
+	/**
+	 * Returns the value of a header in the server's response.
+	 * @param name The header's name.
+	 * @return the header's value, or {@code null} if the server never responded or did not
+	 * send the header.
+	 */
+	protected String getResponseHeader(String name) {
+		RequestExecutor<Result> executor = mExecutor;
+		return (executor != null) ? executor.getResponseHeader(name) : null;
+	}
+
 	public enum HttpRequest { GET, POST }
 
 }
@@ -0,0 +1,133 @@
+package edu.kufpg.armatus.networking;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.http.HttpStatus;
+
+import com.google.common.collect.ImmutableList;
+
+import edu.kufpg.armatus.data.BinaryResponses;
+import edu.kufpg.armatus.data.CommandInfo;
+import edu.kufpg.armatus.data.CommandResponse;
+import edu.kufpg.armatus.data.Completion;
+import edu.kufpg.armatus.networking.HermitTransport.Request;
+import edu.kufpg.armatus.util.JsonReader;
+
+/**
+ * The endpoints of a HERMIT-web server and the decoders for the responses that have no
+ * model class of their own. Requests are built from the model classes ({@link
+ * edu.kufpg.armatus.data.Command Command}, {@link edu.kufpg.armatus.data.CommandBatch
+ * CommandBatch}, {@link edu.kufpg.armatus.data.Complete Complete} and {@link
+ * edu.kufpg.armatus.data.Token Token}), and are sent by a {@link RequestExecutor}.
+ */
+public final class HermitProtocol {
+	public static final String CONNECT = "/connect", COMMAND = "/command", BATCH = "/batch",
+			COMPLETE = "/complete", HISTORY = "/history", COMMANDS = "/commands";
+
+	private static final String RESPONSES = "responses", COMPLETIONS = "completions", CMDS = "cmds", MSG = "msg";
+
+	private HermitProtocol() {}
+
+	/**
+	 * Offers to accept a command's response in the {@link BinaryResponses} encoding.
+	 * Servers that don't know the encoding just answer with JSON.
+	 * @param request A request to the {@link #COMMAND} endpoint.
+	 */
+	public static void acceptBinary(Request request) {
+		request.addHeader("Accept", BinaryResponses.CONTENT_TYPE + ", application/json;q=0.5");
+	}
+
+	/**
+	 * Decodes the response to a {@link #BATCH} request.
+	 * @return the response to each command in the batch, in order.
+	 */
+	public static List<CommandResponse> readBatchResponses(JsonReader reader) throws IOException {
+		ImmutableList.Builder<CommandResponse> responsesBuilder = ImmutableList.builder();
+		reader.beginObject();
+		while (reader.hasNext()) {
+			if (reader.nextName().equals(RESPONSES)) {
+				reader.beginArray();
+				while (reader.hasNext()) {
+					responsesBuilder.add(CommandResponse.fromJson(reader));
+				}
+				reader.endArray();
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		return responsesBuilder.build();
+	}
+
+	/**
+	 * Decodes the response to a {@link #COMPLETE} request.
+	 */
+	public static List<Completion> readCompletions(JsonReader reader) throws IOException {
+		ImmutableList.Builder<Completion> completionsBuilder = ImmutableList.builder();
+		reader.beginObject();
+		while (reader.hasNext()) {
+			if (reader.nextName().equals(COMPLETIONS)) {
+				reader.beginArray();
+				while (reader.hasNext()) {
+					completionsBuilder.add(Completion.fromJson(reader));
+				}
+				reader.endArray();
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		return completionsBuilder.build();
+	}
+
+	/**
+	 * Decodes the response to a {@link #COMMANDS} request.
+	 */
+	public static List<CommandInfo> readCommands(JsonReader reader) throws IOException {
+		ImmutableList.Builder<CommandInfo> commandListBuilder = ImmutableList.builder();
+		reader.beginObject();
+		while (reader.hasNext()) {
+			if (reader.nextName().equals(CMDS)) {
+				reader.beginArray();
+				while (reader.hasNext()) {
+					commandListBuilder.add(CommandInfo.fromJson(reader));
+				}
+				reader.endArray();
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		return commandListBuilder.build();
+	}
+
+	/**
+	 * Decodes only the message of a response, e.g., to {@code abort} or {@code resume}.
+	 * @return the message, or {@code null} if the server sent none.
+	 */
+	public static String readMessage(JsonReader reader) throws IOException {
+		String message = null;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			if (reader.nextName().equals(MSG)) {
+				message = reader.nextString();
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		return message;
+	}
+
+	/**
+	 * Returns whether a {@link #BATCH} request failed because the server has no batch
+	 * endpoint, in which case the commands have to be sent one at a time.
+	 */
+	public static boolean isBatchUnsupported(int statusCode) {
+		return statusCode == HttpStatus.SC_NOT_FOUND
+				|| statusCode == HttpStatus.SC_METHOD_NOT_ALLOWED
+				|| statusCode == HttpStatus.SC_NOT_IMPLEMENTED;
+	}
+
+}
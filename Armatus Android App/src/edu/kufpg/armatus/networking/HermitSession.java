@@ -0,0 +1,249 @@
+package edu.kufpg.armatus.networking;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.http.HttpStatus;
+
+import edu.kufpg.armatus.data.BinaryResponses;
+import edu.kufpg.armatus.data.Command;
+import edu.kufpg.armatus.data.CommandBatch;
+import edu.kufpg.armatus.data.CommandInfo;
+import edu.kufpg.armatus.data.CommandResponse;
+import edu.kufpg.armatus.data.Complete;
+import edu.kufpg.armatus.data.Completion;
+import edu.kufpg.armatus.data.GlyphPatch;
+import edu.kufpg.armatus.data.History;
+import edu.kufpg.armatus.data.Token;
+import edu.kufpg.armatus.networking.HermitTransport.Request;
+import edu.kufpg.armatus.networking.RequestExecutor.RequestFailedException;
+import edu.kufpg.armatus.util.JsonReader;
+
+/**
+ * A HERMIT-web session whose every call blocks and returns the server's answer, so it can
+ * be driven from a command line, a test or many threads at once, without Android. It sends
+ * its requests with a {@link RequestExecutor} and decodes them with the model classes,
+ * just as {@link edu.kufpg.armatus.console.HermitClient HermitClient} does, including
+ * binary and delta command responses and batches. A session is not thread-safe; each
+ * thread should use its own.
+ */
+public class HermitSession {
+	private static final String GET = "GET", POST = "POST";
+
+	private final HermitTransport mTransport;
+	private final String mServerUrl;
+	private final Token mToken;
+	/** The response the next command's response may be sent as a delta against. */
+	private CommandResponse mDeltaBase;
+	private int mDeltaBaseWidth;
+	private boolean mBatchUnsupported;
+
+	private HermitSession(HermitTransport transport, String serverUrl, Token token) {
+		mTransport = transport;
+		mServerUrl = serverUrl;
+		mToken = token;
+	}
+
+	/**
+	 * Starts a new session on a server.
+	 * @param transport Carries the session's requests.
+	 * @param serverUrl The server's URL, e.g., {@code "http://localhost:3000"}.
+	 * @return the session, at the server's starting AST.
+	 * @throws RequestFailedException if the server cannot be reached or refuses the session.
+	 */
+	public static HermitSession connect(HermitTransport transport, String serverUrl) throws RequestFailedException {
+		Token token = new RequestExecutor<Token>(transport) {
+			@Override
+			protected Token onResponse(JsonReader reader) throws IOException {
+				return Token.fromJson(reader);
+			}
+		}.execute(POST, serverUrl + HermitProtocol.CONNECT, null);
+		return new HermitSession(transport, serverUrl, token);
+	}
+
+	public String getServerUrl() {
+		return mServerUrl;
+	}
+
+	public int getUser() {
+		return mToken.getUser();
+	}
+
+	/**
+	 * Returns the AST that the next command runs from.
+	 */
+	public int getAst() {
+		return mToken.getAst();
+	}
+
+	/**
+	 * Makes the next command run from another AST of this session, without asking the
+	 * server.
+	 */
+	public void setAst(int ast) {
+		mToken.setAst(ast);
+	}
+
+	/**
+	 * Returns whether the server turned out to have no batch endpoint, so that batches
+	 * are sent one command at a time.
+	 */
+	public boolean isBatchUnsupported() {
+		return mBatchUnsupported;
+	}
+
+	/**
+	 * Runs a command from the current AST and moves the session to the AST it leads to.
+	 * If the session has the response for the current AST at the same width, the server
+	 * may answer with only what changed. If the server's delta turns out to be against a
+	 * different response, the command is sent again for the whole response.
+	 * @param command The command.
+	 * @param width The width to pretty-print at, or 0 to leave it to the server.
+	 * @return the server's response.
+	 * @throws RequestFailedException if the server cannot be reached or rejects the command.
+	 */
+	public CommandResponse command(String command, int width) throws RequestFailedException {
+		CommandResponse base = getDeltaBase(width);
+		CommandResponse response;
+		try {
+			response = sendCommand(command, width, base);
+		} catch (RequestFailedException e) {
+			if (base == null || !(e.getCause() instanceof GlyphPatch.StaleBaseException)) {
+				throw e;
+			}
+			mDeltaBase = null;
+			response = sendCommand(command, width, null);
+		}
+		advance(response, width);
+		return response;
+	}
+
+	private CommandResponse sendCommand(String command, int width, final CommandResponse base) throws RequestFailedException {
+		Command body;
+		if (base != null) {
+			body = new Command(mToken, command, width, base.getAst());
+		} else if (width > 0) {
+			body = new Command(mToken, command, width);
+		} else {
+			body = new Command(mToken, command);
+		}
+		return new RequestExecutor<CommandResponse>(mTransport) {
+			@Override
+			protected void onPrepareRequest(Request request) {
+				HermitProtocol.acceptBinary(request);
+			}
+
+			@Override
+			protected CommandResponse onResponse(JsonReader reader) throws IOException {
+				return CommandResponse.fromJson(reader, base);
+			}
+
+			@Override
+			protected CommandResponse onBinaryResponse(InputStream in) throws IOException {
+				return BinaryResponses.read(in);
+			}
+		}.execute(POST, mServerUrl + HermitProtocol.COMMAND, body.toString());
+	}
+
+	/**
+	 * Runs several commands in a row from the current AST, with a single request if the
+	 * server has a batch endpoint, and moves the session to the AST the last one leads to.
+	 * @param commands The commands, in order.
+	 * @param width The width to pretty-print at, or 0 to leave it to the server.
+	 * @return the server's response to each command, in order.
+	 * @throws RequestFailedException if the server cannot be reached or rejects a command.
+	 * A batch sent in one request moves the session only if every command in it ran; sent
+	 * one command at a time, the commands before the rejected one have still moved it.
+	 */
+	public List<CommandResponse> batch(List<String> commands, int width) throws RequestFailedException {
+		if (!mBatchUnsupported) {
+			CommandBatch batch = (width > 0) ? new CommandBatch(mToken, commands, width) : new CommandBatch(mToken, commands);
+			try {
+				List<CommandResponse> responses = new RequestExecutor<List<CommandResponse>>(mTransport) {
+					@Override
+					protected List<CommandResponse> onResponse(JsonReader reader) throws IOException {
+						return HermitProtocol.readBatchResponses(reader);
+					}
+				}.execute(POST, mServerUrl + HermitProtocol.BATCH, batch.toString());
+				if (responses.size() != commands.size()) {
+					throw new RequestFailedException("ERROR: server returned an unexpected batch response.",
+							HttpStatus.SC_OK, null);
+				}
+				for (CommandResponse response : responses) {
+					advance(response, width);
+				}
+				return responses;
+			} catch (RequestFailedException e) {
+				if (!HermitProtocol.isBatchUnsupported(e.getStatusCode())) {
+					throw e;
+				}
+				mBatchUnsupported = true;
+			}
+		}
+
+		List<CommandResponse> responses = new ArrayList<CommandResponse>(commands.size());
+		for (String command : commands) {
+			responses.add(command(command, width));
+		}
+		return Collections.unmodifiableList(responses);
+	}
+
+	/**
+	 * Asks the server how a partly typed command could be completed.
+	 * @throws RequestFailedException if the server cannot be reached or rejects the request.
+	 */
+	public List<Completion> complete(String input) throws RequestFailedException {
+		return new RequestExecutor<List<Completion>>(mTransport) {
+			@Override
+			protected List<Completion> onResponse(JsonReader reader) throws IOException {
+				return HermitProtocol.readCompletions(reader);
+			}
+		}.execute(POST, mServerUrl + HermitProtocol.COMPLETE, new Complete(mToken.getUser(), input).toString());
+	}
+
+	/**
+	 * Returns the commands the session has run, as the server recorded them.
+	 * @throws RequestFailedException if the server cannot be reached or has forgotten the
+	 * session.
+	 */
+	public History history() throws RequestFailedException {
+		return new RequestExecutor<History>(mTransport) {
+			@Override
+			protected History onResponse(JsonReader reader) throws IOException {
+				return History.fromJson(reader);
+			}
+		}.execute(POST, mServerUrl + HermitProtocol.HISTORY, mToken.toString());
+	}
+
+	/**
+	 * Returns the commands the server understands.
+	 * @throws RequestFailedException if the server cannot be reached.
+	 */
+	public List<CommandInfo> commands() throws RequestFailedException {
+		return new RequestExecutor<List<CommandInfo>>(mTransport) {
+			@Override
+			protected List<CommandInfo> onResponse(JsonReader reader) throws IOException {
+				return HermitProtocol.readCommands(reader);
+			}
+		}.execute(GET, mServerUrl + HermitProtocol.COMMANDS, null);
+	}
+
+	private CommandResponse getDeltaBase(int width) {
+		if (width > 0 && mDeltaBase != null && mDeltaBase.getAst() == mToken.getAst() && mDeltaBaseWidth == width) {
+			return mDeltaBase;
+		}
+		return null;
+	}
+
+	private void advance(CommandResponse response, int width) {
+		mToken.setAst(response.getAst());
+		if (response.hasGlyphs()) {
+			mDeltaBase = response;
+			mDeltaBaseWidth = width;
+		}
+	}
+
+}
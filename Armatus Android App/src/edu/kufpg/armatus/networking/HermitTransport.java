@@ -0,0 +1,170 @@
+package edu.kufpg.armatus.networking;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import edu.kufpg.armatus.util.JsonReader;
+
+/**
+ * A way of exchanging HERMIT-web requests and responses with a server. {@link
+ * HermitHttpServerRequest} builds each request and decodes each response the same way
+ * whichever transport carries them, so HTTP, Bluetooth and the in-process {@link
+ * InMemoryTransport} are interchangeable.
+ */
+public interface HermitTransport {
+
+	/**
+	 * Makes sure the transport can carry requests, e.g., by connecting a socket. This is
+	 * called on a background thread before each request and may block.
+	 * @throws IOException if the server cannot be reached.
+	 */
+	void open() throws IOException;
+
+	/**
+	 * Prepares a request to be sent.
+	 * @param request The request.
+	 * @return a call that sends the request when executed.
+	 */
+	Call newCall(Request request);
+
+	/**
+	 * Releases any connections the transport holds. The transport may be opened again
+	 * afterwards.
+	 */
+	void close();
+
+	/**
+	 * A single exchange of a request for a response.
+	 */
+	interface Call {
+		/**
+		 * Sends the request and waits for the response's status and headers. This blocks.
+		 * @param timeoutMs How long to wait for the server.
+		 * @return the response, which must be {@link Response#close() closed}.
+		 * @throws IOException if the server could not be reached or did not respond in time.
+		 */
+		Response execute(int timeoutMs) throws IOException;
+
+		/**
+		 * Stops waiting for the response, causing {@link #execute(int)} to fail. This may
+		 * be called from any thread.
+		 */
+		void abort();
+	}
+
+	/**
+	 * A server's response to a {@link Request}.
+	 */
+	interface Response {
+		/** Returns the response's HTTP status code. */
+		int getStatus();
+
+		/**
+		 * Returns the value of a response header.
+		 * @return the header's value, or {@code null} if the server did not send it.
+		 */
+		String getHeader(String name);
+
+		/**
+		 * Returns a {@link JsonReader} positioned at the start of the response's body.
+		 * @throws IOException if the body cannot be read.
+		 */
+		JsonReader openBody() throws IOException;
+
+		/**
+		 * Returns the raw bytes of the response's body, for bodies that are not JSON
+		 * (see {@link #getContentType()}). Only one of this and {@link #openBody()} may
+		 * be called.
+		 * @throws IOException if the body cannot be read, or the transport only carries
+		 * JSON bodies.
+		 */
+		InputStream openStream() throws IOException;
+
+		/**
+		 * Returns the media type of the response's body, without any parameters.
+		 * @return the media type, or {@code null} if the server did not say.
+		 */
+		String getContentType();
+
+		/**
+		 * Returns how long reading the body has so far spent waiting for it to arrive,
+		 * so that the wait can be told apart from decoding.
+		 * @return the time, in nanoseconds, or 0 if the body arrived with the headers.
+		 */
+		long getReadNanos();
+
+		/**
+		 * Returns how many bytes of the body have been read off the wire so far. This is
+		 * less than {@link #getDecodedBytes()} if the server compressed the body.
+		 * @return the number of bytes, or 0 if the transport does not count them.
+		 */
+		long getWireBytes();
+
+		/**
+		 * Returns how many bytes of the body have been decoded so far, after any
+		 * decompression.
+		 * @return the number of bytes, or 0 if the transport does not count them.
+		 */
+		long getDecodedBytes();
+
+		/**
+		 * Releases the response, even if its body was not read to the end.
+		 */
+		void close() throws IOException;
+	}
+
+	/**
+	 * A request to a HERMIT-web endpoint.
+	 */
+	final class Request {
+		private final String mMethod;
+		private final String mUrl;
+		private final String mBody;
+		private final Map<String, String> mHeaders = new LinkedHashMap<String, String>();
+
+		/**
+		 * @param method {@code "GET"}, {@code "POST"} or {@code "HEAD"}.
+		 * @param url The endpoint's URL.
+		 * @param body The JSON body, or {@code null} if the request has none.
+		 */
+		public Request(String method, String url, String body) {
+			mMethod = method;
+			mUrl = url;
+			mBody = body;
+		}
+
+		public String getMethod() {
+			return mMethod;
+		}
+
+		public String getUrl() {
+			return mUrl;
+		}
+
+		/** Returns the endpoint's path, e.g., {@code "/command"}. */
+		public String getPath() {
+			return URI.create(mUrl).getPath();
+		}
+
+		public String getBody() {
+			return mBody;
+		}
+
+		public boolean hasBody() {
+			return mBody != null && !mBody.isEmpty();
+		}
+
+		public void addHeader(String name, String value) {
+			mHeaders.put(name, value);
+		}
+
+		public Map<String, String> getHeaders() {
+			return Collections.unmodifiableMap(mHeaders);
+		}
+	}
+
+}
@@ -0,0 +1,261 @@
+package edu.kufpg.armatus.networking;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.protocol.HTTP;
+
+import com.google.common.io.CountingInputStream;
+
+import edu.kufpg.armatus.util.JsonReader;
+
+/**
+ * Carries requests to a HERMIT-web server over HTTP, using the pooled connections of
+ * {@link HermitHttpClient}. Responses may be compressed with gzip or deflate, and request
+ * bodies are gzipped too once the server has shown that it understands gzip. Understanding
+ * gzip responses doesn't promise accepting gzipped requests, though, so a server that
+ * rejects a compressed body is sent it again uncompressed and is never sent a compressed
+ * body again. A {@code 400 Bad Request} may just mean that the request itself was bad, so
+ * it only counts as a rejection if the uncompressed body is then accepted, and never
+ * from a server that has already accepted a compressed body.
+ */
+public class HttpTransport implements HermitTransport {
+	/** The longest to wait for a connection to open, whatever the request's budget. */
+	private static final int MAX_CONNECT_TIMEOUT_MS = 10000;
+
+	/** Request bodies smaller than this aren't worth compressing. */
+	private static final int MIN_COMPRESSED_BODY_BYTES = 1024;
+
+	/** The servers (host and port) that have sent a gzipped response. */
+	private static final Set<String> sGzipServers = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	/** The servers that have rejected a gzipped request body. */
+	private static final Set<String> sGzipRefusingServers = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	/** The servers that have accepted a gzipped request body. */
+	private static final Set<String> sGzipAcceptingServers = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	@Override
+	public void open() {}
+
+	@Override
+	public Call newCall(Request request) {
+		return new HttpCall(request);
+	}
+
+	/**
+	 * Does nothing, since pooled connections are shared by every server and are closed
+	 * once they go idle.
+	 */
+	@Override
+	public void close() {}
+
+	private static String getServer(String url) {
+		URI uri = URI.create(url);
+		return uri.getHost() + ':' + uri.getPort();
+	}
+
+	private static byte[] gzip(byte[] bytes) throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream(bytes.length / 4);
+		GZIPOutputStream out = new GZIPOutputStream(buffer);
+		out.write(bytes);
+		out.close();
+		return buffer.toByteArray();
+	}
+
+	private static class HttpCall implements Call {
+		private final HttpUriRequest mRequest;
+		private final String mServer;
+		private String mBody;
+		private boolean mCompressed;
+
+		public HttpCall(Request request) {
+			mServer = getServer(request.getUrl());
+			if (request.getMethod().equals("GET")) {
+				mRequest = new HttpGet(request.getUrl());
+			} else if (request.getMethod().equals("HEAD")) {
+				mRequest = new HttpHead(request.getUrl());
+			} else {
+				final HttpPost httpPost = new HttpPost(request.getUrl());
+				httpPost.setHeader("content-type", "application/json");
+				if (request.hasBody()) {
+					mBody = request.getBody();
+					try {
+						//A compressed entity's Content-Encoding is sent along with it
+						httpPost.setEntity(newEntity(mBody));
+					} catch (UnsupportedEncodingException e) {
+						e.printStackTrace();
+					}
+				}
+				mRequest = httpPost;
+			}
+			mRequest.addHeader("Accept-Encoding", "gzip, deflate");
+			for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+				mRequest.addHeader(header.getKey(), header.getValue());
+			}
+		}
+
+		private HttpEntity newEntity(String body) throws UnsupportedEncodingException {
+			if (body.length() >= MIN_COMPRESSED_BODY_BYTES && sGzipServers.contains(mServer)
+					&& !sGzipRefusingServers.contains(mServer)) {
+				try {
+					ByteArrayEntity entity = new ByteArrayEntity(gzip(body.getBytes(HTTP.UTF_8)));
+					entity.setContentEncoding("gzip");
+					mCompressed = true;
+					return entity;
+				} catch (IOException e) {
+					//Writing to memory can't really fail, but send it uncompressed if it does
+					e.printStackTrace();
+				}
+			}
+			return new StringEntity(body, HTTP.UTF_8);
+		}
+
+		@Override
+		public Response execute(int timeoutMs) throws IOException {
+			HttpConnectionParams.setConnectionTimeout(mRequest.getParams(), Math.min(timeoutMs, MAX_CONNECT_TIMEOUT_MS));
+			HttpConnectionParams.setSoTimeout(mRequest.getParams(), timeoutMs);
+			HttpResponse response = HermitHttpClient.execute(mRequest);
+			int status = response.getStatusLine().getStatusCode();
+			if (mCompressed && isCompressionRefusal(status)) {
+				HttpEntity refusal = response.getEntity();
+				if (refusal != null) {
+					refusal.consumeContent();
+				}
+				mCompressed = false;
+				((HttpPost) mRequest).setEntity(new StringEntity(mBody, HTTP.UTF_8));
+				response = HermitHttpClient.execute(mRequest);
+				if (status == HttpStatus.SC_UNSUPPORTED_MEDIA_TYPE
+						|| response.getStatusLine().getStatusCode() < HttpStatus.SC_BAD_REQUEST) {
+					sGzipRefusingServers.add(mServer);
+				}
+			} else if (mCompressed && status < HttpStatus.SC_BAD_REQUEST) {
+				sGzipAcceptingServers.add(mServer);
+			}
+			return new HttpTransportResponse(response, mServer);
+		}
+
+		/**
+		 * Returns whether a status may mean that the server couldn't read a gzipped body:
+		 * {@code 415 Unsupported Media Type} if it checks the Content-Encoding, or
+		 * {@code 400 Bad Request} if it tried to parse the compressed bytes as JSON, unless
+		 * the server has read a gzipped body before.
+		 */
+		private boolean isCompressionRefusal(int status) {
+			return status == HttpStatus.SC_UNSUPPORTED_MEDIA_TYPE
+					|| (status == HttpStatus.SC_BAD_REQUEST && !sGzipAcceptingServers.contains(mServer));
+		}
+
+		@Override
+		public void abort() {
+			mRequest.abort();
+		}
+	}
+
+	private static class HttpTransportResponse implements Response {
+		private final HttpResponse mResponse;
+		private final String mServer;
+		private TimedInputStream mWireBody;
+		private CountingInputStream mDecodedBody;
+
+		public HttpTransportResponse(HttpResponse response, String server) {
+			mResponse = response;
+			mServer = server;
+		}
+
+		@Override
+		public int getStatus() {
+			return mResponse.getStatusLine().getStatusCode();
+		}
+
+		@Override
+		public String getHeader(String name) {
+			Header header = mResponse.getFirstHeader(name);
+			return (header != null) ? header.getValue() : null;
+		}
+
+		@Override
+		public JsonReader openBody() throws IOException {
+			return new JsonReader(new InputStreamReader(openStream(), HTTP.UTF_8));
+		}
+
+		@Override
+		public InputStream openStream() throws IOException {
+			HttpEntity entity = mResponse.getEntity();
+			if (entity == null) {
+				throw new IOException("Response has no body");
+			}
+			//The body is streamed, and decompressed as it is decoded, never buffered as a whole
+			mWireBody = new TimedInputStream(entity.getContent());
+			InputStream body = mWireBody;
+			String encoding = getHeader("Content-Encoding");
+			if ("gzip".equalsIgnoreCase(encoding)) {
+				sGzipServers.add(mServer);
+				body = new GZIPInputStream(body);
+			} else if ("deflate".equalsIgnoreCase(encoding)) {
+				body = new InflaterInputStream(body);
+			}
+			mDecodedBody = new CountingInputStream(body);
+			return mDecodedBody;
+		}
+
+		@Override
+		public String getContentType() {
+			String contentType = getHeader(HTTP.CONTENT_TYPE);
+			if (contentType == null) {
+				return null;
+			}
+			int parametersStart = contentType.indexOf(';');
+			return (parametersStart >= 0 ? contentType.substring(0, parametersStart) : contentType).trim();
+		}
+
+		@Override
+		public long getReadNanos() {
+			return (mWireBody != null) ? mWireBody.getReadNanos() : 0;
+		}
+
+		@Override
+		public long getWireBytes() {
+			return (mWireBody != null) ? mWireBody.getBytesRead() : 0;
+		}
+
+		@Override
+		public long getDecodedBytes() {
+			return (mDecodedBody != null) ? mDecodedBody.getCount() : 0;
+		}
+
+		/**
+		 * Releases the pooled connection, even if decoding stopped early.
+		 */
+		@Override
+		public void close() throws IOException {
+			HttpEntity entity = mResponse.getEntity();
+			if (entity != null) {
+				entity.consumeContent();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,158 @@
+package edu.kufpg.armatus.networking;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.StringReader;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpStatus;
+
+import com.google.common.base.Charsets;
+
+import edu.kufpg.armatus.util.JsonReader;
+
+/**
+ * Answers requests in-process from a {@link Server} instead of sending them anywhere, so
+ * that the client can be exercised and its costs measured without a device, a network or
+ * a real HERMIT server (see {@link ScriptedHermit}).
+ */
+public class InMemoryTransport implements HermitTransport {
+	private final Server mServer;
+	private final long mLatencyMs;
+
+	/**
+	 * @param server Answers each request.
+	 * @param latencyMs How long each request takes to be answered, to simulate a network
+	 * round trip, or 0 to answer immediately.
+	 */
+	public InMemoryTransport(Server server, long latencyMs) {
+		mServer = server;
+		mLatencyMs = latencyMs;
+	}
+
+	@Override
+	public void open() {}
+
+	@Override
+	public Call newCall(final Request request) {
+		return new Call() {
+			private final CountDownLatch mAborted = new CountDownLatch(1);
+
+			@Override
+			public Response execute(int timeoutMs) throws IOException {
+				try {
+					if (mAborted.await(mLatencyMs, TimeUnit.MILLISECONDS)) {
+						throw new InterruptedIOException("Request aborted");
+					}
+				} catch (InterruptedException e) {
+					throw new InterruptedIOException();
+				}
+				return mServer.respond(request);
+			}
+
+			@Override
+			public void abort() {
+				mAborted.countDown();
+			}
+		};
+	}
+
+	@Override
+	public void close() {}
+
+	/**
+	 * Creates a successful response.
+	 * @param body The response's JSON body.
+	 */
+	public static Response ok(String body) {
+		return new StringResponse(HttpStatus.SC_OK, Collections.<String, String>emptyMap(), body);
+	}
+
+	/**
+	 * Creates a response with no body.
+	 * @param status The response's HTTP status code.
+	 */
+	public static Response status(int status) {
+		return new StringResponse(status, Collections.<String, String>emptyMap(), null);
+	}
+
+	/**
+	 * A server that runs in the same process as the client.
+	 */
+	public interface Server {
+		/**
+		 * Answers a request. This is called on the requesting thread.
+		 * @param request The request.
+		 * @return the response.
+		 * @throws IOException to simulate the server being unreachable.
+		 */
+		Response respond(Request request) throws IOException;
+	}
+
+	private static class StringResponse implements Response {
+		private final int mStatus;
+		private final Map<String, String> mHeaders;
+		private final String mBody;
+
+		public StringResponse(int status, Map<String, String> headers, String body) {
+			mStatus = status;
+			mHeaders = headers;
+			mBody = body;
+		}
+
+		@Override
+		public int getStatus() {
+			return mStatus;
+		}
+
+		@Override
+		public String getHeader(String name) {
+			return mHeaders.get(name);
+		}
+
+		@Override
+		public JsonReader openBody() throws IOException {
+			if (mBody == null) {
+				throw new IOException("Response has no body");
+			}
+			return new JsonReader(new StringReader(mBody));
+		}
+
+		@Override
+		public InputStream openStream() throws IOException {
+			if (mBody == null) {
+				throw new IOException("Response has no body");
+			}
+			return new ByteArrayInputStream(mBody.getBytes(Charsets.UTF_8));
+		}
+
+		@Override
+		public String getContentType() {
+			return (mBody != null) ? "application/json" : null;
+		}
+
+		@Override
+		public long getReadNanos() {
+			return 0;
+		}
+
+		@Override
+		public long getWireBytes() {
+			return 0;
+		}
+
+		@Override
+		public long getDecodedBytes() {
+			return 0;
+		}
+
+		@Override
+		public void close() {}
+	}
+
+}
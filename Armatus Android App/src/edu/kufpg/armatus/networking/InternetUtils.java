@@ -118,6 +118,17 @@ public class InternetUtils {
 		}
 	}
 
+	/**
+	 * Returns whether the device's Wi-Fi radio is on, whether or not it has connected to a
+	 * network yet.
+	 * @param context The {@link Context} to use.
+	 * @return {@code true} if Wi-Fi is enabled.
+	 */
+	public static boolean isWifiEnabled(Context context) {
+		WifiManager wifiManager = (WifiManager) context.getSystemService(Context.WIFI_SERVICE);
+		return wifiManager != null && wifiManager.isWifiEnabled();
+	}
+
 	private static ConnectivityManager getConMan(Context context) {
 		if (sConMan == null) {
 			sConMan = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
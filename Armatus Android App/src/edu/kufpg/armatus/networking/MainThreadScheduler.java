@@ -0,0 +1,27 @@
+package edu.kufpg.armatus.networking;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * Runs a {@link ServerPool}'s tasks on the main thread.
+ */
+public class MainThreadScheduler implements ServerPool.Scheduler {
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+	@Override
+	public void post(Runnable task) {
+		mHandler.post(task);
+	}
+
+	@Override
+	public void postDelayed(Runnable task, long delayMs) {
+		mHandler.postDelayed(task, delayMs);
+	}
+
+	@Override
+	public void cancel(Runnable task) {
+		mHandler.removeCallbacks(task);
+	}
+
+}
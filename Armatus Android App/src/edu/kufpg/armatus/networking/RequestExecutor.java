@@ -0,0 +1,323 @@
+package edu.kufpg.armatus.networking;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.util.Random;
+
+import org.apache.http.HttpException;
+import org.apache.http.HttpStatus;
+import org.apache.http.NoHttpResponseException;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.HttpHostConnectException;
+
+import edu.kufpg.armatus.data.BinaryResponses;
+import edu.kufpg.armatus.networking.HermitTransport.Call;
+import edu.kufpg.armatus.networking.HermitTransport.Request;
+import edu.kufpg.armatus.networking.HermitTransport.Response;
+import edu.kufpg.armatus.util.JsonReader;
+import edu.kufpg.armatus.util.MalformedJsonException;
+import edu.kufpg.armatus.util.StageTimings;
+import edu.kufpg.armatus.util.StageTimings.Stage;
+
+/**
+ * Sends a request to a HERMIT-web server over a {@link HermitTransport} and decodes the
+ * response, on the calling thread. Each {@link RequestKind} gets its own timeout, idempotent
+ * requests are retried with jittered backoff, and every server has a {@link CircuitBreaker}.
+ * This is shared by the app's {@link HermitHttpServerRequest}s and by {@link HermitSession}
+ * on a plain JVM, so both speak the protocol the same way. Subclasses decode the response
+ * in {@link #onResponse(JsonReader)}. An executor sends one request and is then discarded.
+ */
+public abstract class RequestExecutor<Result> {
+	/** The most times an idempotent request is sent before giving up. */
+	private static final int MAX_ATTEMPTS = 3;
+	private static final long BASE_RETRY_DELAY_MS = 250;
+	private static final long MAX_RETRY_DELAY_MS = 4000;
+
+	private static final Random sRandom = new Random();
+
+	private final HermitTransport mTransport;
+	private volatile boolean mAborted;
+	private volatile Call mCall;
+	private volatile int mStatusCode;
+	private volatile Response mResponse;
+
+	/**
+	 * @param transport Carries the request.
+	 */
+	public RequestExecutor(HermitTransport transport) {
+		mTransport = transport;
+	}
+
+	/**
+	 * Sends the request, retrying it if it is safe to, and decodes the response.
+	 * @param method {@code "GET"}, {@code "POST"} or {@code "HEAD"}.
+	 * @param url The endpoint's URL.
+	 * @param body The JSON body, or {@code null} if the request has none.
+	 * @return the decoded result.
+	 * @throws RequestFailedException if the request failed or was aborted. Its message
+	 * describes the failure to the user.
+	 */
+	public Result execute(String method, String url, String body) throws RequestFailedException {
+		RequestKind kind = RequestKind.forUrl(url);
+		CircuitBreaker breaker = CircuitBreaker.forUrl(url);
+
+		for (int attempt = 1; ; attempt++) {
+			if (!breaker.allowRequest()) {
+				throw new RequestFailedException("ERROR: the server is not responding. Requests will fail immediately for the next "
+						+ secondsUntilRetry(breaker) + " seconds.", 0, null);
+			}
+
+			long start = elapsedMs();
+			try {
+				Result result = sendRequest(kind, method, url, body);
+				breaker.recordSuccess();
+				kind.recordLatency(elapsedMs() - start);
+				return result;
+			} catch (HttpException e) {
+				kind.recordLatency(elapsedMs() - start);
+				//The server answered, but with an error; only its own failures count against it
+				boolean serverFailed = mStatusCode >= HttpStatus.SC_INTERNAL_SERVER_ERROR;
+				if (!serverFailed) {
+					breaker.recordSuccess();
+					throw new RequestFailedException("ERROR: server problem (" + mStatusCode + ").", mStatusCode, e);
+				}
+				boolean opened = breaker.recordFailure();
+				if (shouldRetry(kind, attempt, opened)) {
+					continue;
+				}
+				throw new RequestFailedException("ERROR: server problem (" + mStatusCode + ")."
+						+ breakerNotice(opened, breaker), mStatusCode, e);
+			} catch (MalformedJsonException e) {
+				kind.recordLatency(elapsedMs() - start);
+				breaker.recordSuccess();
+				throw new RequestFailedException("ERROR: malformed server response.", mStatusCode, e);
+			} catch (IOException e) {
+				if (isAborted()) {
+					throw new RequestFailedException("Request aborted", mStatusCode, e);
+				}
+				if (e instanceof SocketTimeoutException || e instanceof ConnectTimeoutException) {
+					kind.recordTimeout(elapsedMs() - start);
+				}
+				boolean opened = breaker.recordFailure();
+				if (shouldRetry(kind, attempt, opened)) {
+					continue;
+				}
+				throw new RequestFailedException(describeFailure(e) + breakerNotice(opened, breaker), mStatusCode, e);
+			}
+		}
+	}
+
+	/**
+	 * Sends the request once.
+	 * @throws HttpException if the server answered with an error status.
+	 * @throws IOException if the server could not be reached, the request was aborted, or
+	 * the response could not be read.
+	 */
+	private Result sendRequest(RequestKind kind, String method, String url, String body)
+			throws HttpException, IOException {
+		Request request = new Request(method, url, body);
+		onPrepareRequest(request);
+		mTransport.open();
+		Call call = mTransport.newCall(request);
+		mCall = call;
+		if (isAborted()) {
+			throw new IOException("Request aborted");
+		}
+		long sentAt = StageTimings.start();
+		Response response = call.execute(kind.getTimeoutMs());
+		StageTimings.record(Stage.FIRST_BYTE, sentAt);
+
+		mResponse = response;
+		mStatusCode = response.getStatus();
+		try {
+			if (mStatusCode == HttpStatus.SC_NOT_MODIFIED) {
+				return onNotModified();
+			} else if (mStatusCode == HttpStatus.SC_OK) {
+				long decodeStart = StageTimings.start();
+				Closeable responseBody = null;
+				try {
+					Result result;
+					if (BinaryResponses.CONTENT_TYPE.equals(response.getContentType())) {
+						InputStream in = response.openStream();
+						responseBody = in;
+						result = onBinaryResponse(in);
+					} else {
+						JsonReader reader = response.openBody();
+						responseBody = reader;
+						result = onResponse(reader);
+					}
+					//Decoding and reading are interleaved, so split the time between them
+					long readNanos = response.getReadNanos();
+					StageTimings.recordNanos(Stage.BODY_READ, readNanos);
+					StageTimings.recordNanos(Stage.DECODE, System.nanoTime() - decodeStart - readNanos);
+					return result;
+				} catch (IllegalStateException e) {
+					throw new MalformedJsonException(e.getMessage(), e);
+				} catch (IllegalArgumentException e) {
+					throw new MalformedJsonException(e.getMessage(), e);
+				} finally {
+					if (responseBody != null) {
+						responseBody.close();
+					}
+					kind.recordBodyBytes(response.getWireBytes(), response.getDecodedBytes());
+				}
+			} else {
+				throw new HttpException("Error code " + mStatusCode);
+			}
+		} finally {
+			//Releases the connection, even if decoding stopped early
+			response.close();
+		}
+	}
+
+	/**
+	 * Decides whether to try a failed request again and, if so, waits for a random
+	 * fraction of an exponentially growing delay so that retries from many clients don't
+	 * arrive at the server together.
+	 */
+	private boolean shouldRetry(RequestKind kind, int attempt, boolean breakerOpened) {
+		if (!kind.isIdempotent() || attempt >= MAX_ATTEMPTS || breakerOpened || isAborted()) {
+			return false;
+		}
+		long maxDelayMs = Math.min(MAX_RETRY_DELAY_MS, BASE_RETRY_DELAY_MS << (attempt - 1));
+		try {
+			Thread.sleep((long) (sRandom.nextDouble() * maxDelayMs));
+		} catch (InterruptedException e) {
+			return false;
+		}
+		return !isAborted();
+	}
+
+	private static String describeFailure(IOException e) {
+		if (e instanceof HttpHostConnectException) {
+			return "ERROR: server connection refused.";
+		} else if (e instanceof ClientProtocolException) {
+			return "ERROR: client protocol problem.";
+		} else if (e instanceof NoHttpResponseException) {
+			return "ERROR: the target server failed to respond.";
+		} else if (e instanceof ConnectTimeoutException || e instanceof SocketTimeoutException) {
+			return "ERROR: the server connection timed out.";
+		} else {
+			return "ERROR: I/O problem.";
+		}
+	}
+
+	private static String breakerNotice(boolean opened, CircuitBreaker breaker) {
+		if (opened) {
+			return " The server seems to be down, so requests will fail immediately for the next "
+					+ secondsUntilRetry(breaker) + " seconds.";
+		} else {
+			return "";
+		}
+	}
+
+	private static long secondsUntilRetry(CircuitBreaker breaker) {
+		return (breaker.getRemainingOpenMs() + 999) / 1000;
+	}
+
+	private static long elapsedMs() {
+		return System.nanoTime() / 1000000;
+	}
+
+	/**
+	 * Stops the request and closes its connection, causing {@link #execute(String, String, String)}
+	 * to fail without retrying. This may be called from any thread.
+	 */
+	public void abort() {
+		mAborted = true;
+		Call call = mCall;
+		if (call != null) {
+			call.abort();
+		}
+	}
+
+	/**
+	 * Returns whether the request has been {@link #abort() aborted}, in which case it is
+	 * not sent again.
+	 */
+	protected boolean isAborted() {
+		return mAborted;
+	}
+
+	/**
+	 * Called just before the request is sent, e.g., to add headers to it. Does nothing by
+	 * default.
+	 * @param request The request about to be sent.
+	 */
+	protected void onPrepareRequest(Request request) {}
+
+	/**
+	 * Called instead of {@link #onResponse(JsonReader)} if the server answers a conditional
+	 * request with {@code 304 Not Modified}.
+	 * @return the result to use when the server's data is unchanged ({@code null} by
+	 * default).
+	 */
+	protected Result onNotModified() {
+		return null;
+	}
+
+	/**
+	 * Decodes the body of a successful response.
+	 * @param reader A {@link JsonReader} positioned at the start of the response body.
+	 * @return the decoded result.
+	 * @throws IOException if the body cannot be read or is not valid JSON.
+	 */
+	protected abstract Result onResponse(JsonReader reader) throws IOException;
+
+	/**
+	 * Decodes the body of a successful response that the server sent in the
+	 * {@link BinaryResponses} encoding, which it only does for requests that offered to
+	 * accept it (see {@link #onPrepareRequest(Request)}).
+	 * @param in The response body.
+	 * @return the decoded result.
+	 * @throws IOException if the body cannot be read or decoded. By default, always.
+	 */
+	protected Result onBinaryResponse(InputStream in) throws IOException {
+		throw new IOException("Unexpected binary response");
+	}
+
+	/**
+	 * Returns the HTTP status code of the server's response.
+	 * @return the status code, or 0 if the server never responded.
+	 */
+	public int getStatusCode() {
+		return mStatusCode;
+	}
+
+	/**
+	 * Returns the value of a header in the server's response.
+	 * @param name The header's name.
+	 * @return the header's value, or {@code null} if the server never responded or did not
+	 * send the header.
+	 */
+	public String getResponseHeader(String name) {
+		Response response = mResponse;
+		return (response != null) ? response.getHeader(name) : null;
+	}
+
+	/**
+	 * Thrown when a request fails, with a message that can be shown to the user.
+	 */
+	public static class RequestFailedException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		private final int mStatusCode;
+
+		public RequestFailedException(String message, int statusCode, Throwable cause) {
+			super(message, cause);
+			mStatusCode = statusCode;
+		}
+
+		/**
+		 * Returns the HTTP status code the server answered with.
+		 * @return the status code, or 0 if the server never responded.
+		 */
+		public int getStatusCode() {
+			return mStatusCode;
+		}
+	}
+
+}
@@ -0,0 +1,136 @@
+package edu.kufpg.armatus.networking;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.kufpg.armatus.util.LatencyHistogram;
+
+/**
+ * The kinds of request sent to a HERMIT server. Each kind has its own timeout budget,
+ * which adapts to the latencies observed for that kind, and says whether the request is
+ * safe to retry. {@link #HEALTH} checks are sent by a {@link ServerPool} rather than
+ * through {@link RequestExecutor}, so they name no endpoint of their own and are never
+ * returned by {@link #forUrl(String)}; their latencies are kept apart from those of the
+ * requests they happen to share an endpoint with.
+ */
+public enum RequestKind {
+	CONNECT("connect", false, 10000, 2000, 20000),
+	COMMAND("command", false, 30000, 10000, 120000),
+	BATCH("batch", false, 60000, 10000, 300000),
+	COMPLETE("complete", true, 1000, 500, 3000),
+	COMMANDS("commands", true, 10000, 2000, 30000),
+	HISTORY("history", true, 10000, 2000, 30000),
+	HEALTH(null, true, 3000, 1000, 5000),
+	OTHER(null, false, 10000, 2000, 30000);
+
+	/** How many latencies must be observed before the timeout adapts to them. */
+	private static final int MIN_SAMPLES = 20;
+
+	/** The timeout is this multiple of the observed 99th percentile latency. */
+	private static final int PERCENTILE_HEADROOM = 2;
+
+	private final String mEndpoint;
+	private final boolean mIdempotent;
+	private final int mDefaultTimeoutMs, mMinTimeoutMs, mMaxTimeoutMs;
+	private final LatencyHistogram mLatencies = new LatencyHistogram();
+	private final AtomicLong mWireBytes = new AtomicLong();
+	private final AtomicLong mDecodedBytes = new AtomicLong();
+
+	private RequestKind(String endpoint, boolean idempotent, int defaultTimeoutMs,
+			int minTimeoutMs, int maxTimeoutMs) {
+		mEndpoint = endpoint;
+		mIdempotent = idempotent;
+		mDefaultTimeoutMs = defaultTimeoutMs;
+		mMinTimeoutMs = minTimeoutMs;
+		mMaxTimeoutMs = maxTimeoutMs;
+	}
+
+	/**
+	 * Returns the kind of request sent to a URL, based on the endpoint it names.
+	 * @param url The request's URL.
+	 * @return the kind of request, or {@link #OTHER} if the endpoint is not known.
+	 */
+	public static RequestKind forUrl(String url) {
+		String endpoint = url.substring(url.lastIndexOf('/') + 1);
+		int queryStart = endpoint.indexOf('?');
+		if (queryStart >= 0) {
+			endpoint = endpoint.substring(0, queryStart);
+		}
+		for (RequestKind kind : values()) {
+			if (endpoint.equals(kind.mEndpoint)) {
+				return kind;
+			}
+		}
+		return OTHER;
+	}
+
+	/**
+	 * Returns whether sending this kind of request twice has the same effect as sending
+	 * it once, so that it can be retried after a failure.
+	 */
+	public boolean isIdempotent() {
+		return mIdempotent;
+	}
+
+	/**
+	 * Returns how long to wait for this kind of request. Once enough requests have
+	 * completed, this is based on their 99th percentile latency, kept within the kind's
+	 * minimum and maximum budgets.
+	 * @return the timeout, in milliseconds.
+	 */
+	public int getTimeoutMs() {
+		if (mLatencies.getRecentSampleCount() < MIN_SAMPLES) {
+			return mDefaultTimeoutMs;
+		}
+		long timeout = PERCENTILE_HEADROOM * mLatencies.getPercentile(0.99);
+		return (int) Math.max(mMinTimeoutMs, Math.min(mMaxTimeoutMs, timeout));
+	}
+
+	public LatencyHistogram getLatencies() {
+		return mLatencies;
+	}
+
+	void recordLatency(long latencyMs) {
+		mLatencies.record(latencyMs);
+	}
+
+	/**
+	 * Records an attempt that gave up waiting for the server. Its real latency is unknown
+	 * but at least as long as it waited, so it is recorded as that long; leaving it out
+	 * would let a slow server shrink the timeout until every request timed out.
+	 * @param waitedMs How long the attempt waited before it timed out.
+	 */
+	void recordTimeout(long waitedMs) {
+		mLatencies.record(waitedMs);
+	}
+
+	/**
+	 * Returns how many response body bytes of this kind have arrived over the network.
+	 */
+	public long getWireBytes() {
+		return mWireBytes.get();
+	}
+
+	/**
+	 * Returns how many response body bytes of this kind have been decoded, which is more
+	 * than {@link #getWireBytes()} if responses were compressed.
+	 */
+	public long getDecodedBytes() {
+		return mDecodedBytes.get();
+	}
+
+	void recordBodyBytes(long wireBytes, long decodedBytes) {
+		mWireBytes.addAndGet(wireBytes);
+		mDecodedBytes.addAndGet(decodedBytes);
+	}
+
+	/**
+	 * Resets the byte counts of every kind of request.
+	 */
+	public static void clearByteCounts() {
+		for (RequestKind kind : values()) {
+			kind.mWireBytes.set(0);
+			kind.mDecodedBytes.set(0);
+		}
+	}
+
+}
@@ -0,0 +1,226 @@
+package edu.kufpg.armatus.networking;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.http.HttpStatus;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import edu.kufpg.armatus.networking.HermitTransport.Request;
+import edu.kufpg.armatus.networking.HermitTransport.Response;
+
+/**
+ * A stand-in for a HERMIT-web server that answers every endpoint the client uses with
+ * responses of a predictable size. Each command moves to a new AST and is answered with a
+ * pretty-printed expression of a fixed number of glyphs, unless a scripted answer was
+ * given for it with {@link #script(String, String)}. Each expression differs from the one
+ * before it in a small run of glyphs, which is all that is sent if the client says it has
+ * the one before it. Commands can also be scripted to fail, and the batch endpoint can be
+ * turned off, to stand in for older or less forgiving servers.
+ */
+public class ScriptedHermit implements InMemoryTransport.Server {
+	private static final String[] COMMANDS = { "abort", "back", "beta-reduce", "binding-of",
+		"consider", "down", "info", "inline", "let-float", "log", "resume", "top", "unfold", "up" };
+	private static final String[] WORDS = { "let", "x", "=", "\\", "y", "->", "case", "of", "in", "(", ")", "f" };
+	private static final String[] STYLES = { "KEYWORD", "VAR", "SYNTAX", "SYNTAX", "VAR", "SYNTAX",
+		"KEYWORD", "KEYWORD", "KEYWORD", "SYNTAX", "SYNTAX", "VAR" };
+	/** How many glyphs each command rewrites. */
+	private static final int EDIT_SIZE = 8;
+
+	private final int mGlyphsPerResponse;
+	private final Map<String, String> mScript = new HashMap<String, String>();
+	private final Set<String> mFailing = new HashSet<String>();
+	private final List<JSONObject> mHistory = new ArrayList<JSONObject>();
+	private final Map<Integer, List<JSONObject>> mGlyphsByAst = new HashMap<Integer, List<JSONObject>>();
+	private int mNextAst = 1;
+	private boolean mDown = false;
+	private boolean mBatchSupported = true;
+	private boolean mStaleDeltas = false;
+
+	/**
+	 * @param glyphsPerResponse How many glyphs each unscripted command response has.
+	 */
+	public ScriptedHermit(int glyphsPerResponse) {
+		mGlyphsPerResponse = glyphsPerResponse;
+	}
+
+	/**
+	 * Makes the server answer a command with a message instead of an expression.
+	 * @param command The command.
+	 * @param message The message to answer with.
+	 */
+	public synchronized void script(String command, String message) {
+		mScript.put(command, message);
+	}
+
+	/**
+	 * Makes the server reject a command with {@code 400 Bad Request}, as HERMIT-web does a
+	 * command that cannot run. A batch that includes the command runs the commands before
+	 * it and is then rejected as a whole.
+	 * @param command The command.
+	 */
+	public synchronized void scriptFailure(String command) {
+		mFailing.add(command);
+	}
+
+	/**
+	 * Makes the server answer its batch endpoint with {@code 404 Not Found}, as servers
+	 * from before batches do, or answer it again.
+	 */
+	public synchronized void setBatchSupported(boolean supported) {
+		mBatchSupported = supported;
+	}
+
+	/**
+	 * Makes the server send its deltas against a response other than the one the client
+	 * said it has, as a server that has lost track of the client's responses might, or
+	 * send them against the right one again.
+	 */
+	public synchronized void setStaleDeltas(boolean stale) {
+		mStaleDeltas = stale;
+	}
+
+	/**
+	 * Makes the server fail every request, as if it had crashed, or recover.
+	 * @param down {@code true} to fail requests, {@code false} to answer them again.
+	 */
+	public synchronized void setDown(boolean down) {
+		mDown = down;
+	}
+
+	public synchronized boolean isDown() {
+		return mDown;
+	}
+
+	@Override
+	public synchronized Response respond(Request request) throws IOException {
+		if (mDown) {
+			throw new IOException("Scripted server is down");
+		}
+		try {
+			JSONObject body = request.hasBody() ? new JSONObject(request.getBody()) : new JSONObject();
+			String path = request.getPath();
+			if (request.getMethod().equals("HEAD")) {
+				return InMemoryTransport.status(HttpStatus.SC_OK);
+			} else if (path.equals("/connect")) {
+				return InMemoryTransport.ok(token(0, 0).toString());
+			} else if (path.equals("/commands")) {
+				return InMemoryTransport.ok(commands().toString());
+			} else if (path.equals("/complete")) {
+				return InMemoryTransport.ok(complete(body.getString("cmd")).toString());
+			} else if (path.equals("/command")) {
+				if (mFailing.contains(body.getString("cmd"))) {
+					return InMemoryTransport.status(HttpStatus.SC_BAD_REQUEST);
+				}
+				JSONObject token = body.getJSONObject("token");
+				return InMemoryTransport.ok(runCommand(token.getInt("ast"), body.getString("cmd"),
+						body.optInt("base", -1)).toString());
+			} else if (path.equals("/batch")) {
+				if (!mBatchSupported) {
+					return InMemoryTransport.status(HttpStatus.SC_NOT_FOUND);
+				}
+				int ast = body.getJSONObject("token").getInt("ast");
+				JSONArray commands = body.getJSONArray("cmds");
+				JSONArray responses = new JSONArray();
+				for (int i = 0; i < commands.length(); i++) {
+					if (mFailing.contains(commands.getString(i))) {
+						return InMemoryTransport.status(HttpStatus.SC_BAD_REQUEST);
+					}
+					JSONObject response = runCommand(ast, commands.getString(i), -1);
+					ast = response.getInt("ast");
+					responses.put(response);
+				}
+				return InMemoryTransport.ok(new JSONObject().put("responses", responses).toString());
+			} else if (path.equals("/history")) {
+				return InMemoryTransport.ok(new JSONObject().put("cmds", new JSONArray(mHistory))
+						.put("tags", new JSONArray()).toString());
+			} else {
+				return InMemoryTransport.status(HttpStatus.SC_NOT_FOUND);
+			}
+		} catch (JSONException e) {
+			return InMemoryTransport.status(HttpStatus.SC_BAD_REQUEST);
+		}
+	}
+
+	/**
+	 * @param baseAst The AST whose response the client has, which the response may be a
+	 * delta against, or -1 if none.
+	 */
+	private JSONObject runCommand(int fromAst, String command, int baseAst) throws JSONException {
+		int toAst = mNextAst++;
+		mHistory.add(new JSONObject().put("from", fromAst).put("cmd", command).put("to", toAst));
+		JSONObject response = new JSONObject().put("ast", toAst);
+		String message = mScript.get(command);
+		if (message != null) {
+			response.put("msg", message);
+			return response;
+		}
+
+		List<JSONObject> base = mGlyphsByAst.get(fromAst);
+		if (base == null) {
+			base = new ArrayList<JSONObject>(mGlyphsPerResponse);
+			for (int i = 0; i < mGlyphsPerResponse; i++) {
+				base.add(glyph(i, fromAst));
+			}
+		}
+		int start = base.isEmpty() ? 0 : (toAst * 37) % base.size();
+		int end = Math.min(start + EDIT_SIZE, base.size());
+		List<JSONObject> edit = new ArrayList<JSONObject>(end - start);
+		for (int i = start; i < end; i++) {
+			edit.add(glyph(i, toAst));
+		}
+		List<JSONObject> glyphs = new ArrayList<JSONObject>(base);
+		glyphs.subList(start, end).clear();
+		glyphs.addAll(start, edit);
+		mGlyphsByAst.put(toAst, glyphs);
+
+		if (baseAst == fromAst && mGlyphsByAst.containsKey(fromAst)) {
+			response.put("base", mStaleDeltas ? fromAst - 1 : fromAst).put("edits", new JSONArray().put(new JSONObject()
+					.put("start", start).put("end", end).put("glyphs", new JSONArray(edit))));
+		} else {
+			response.put("glyphs", new JSONArray(glyphs));
+		}
+		return response;
+	}
+
+	private static JSONObject glyph(int index, int ast) throws JSONException {
+		int word = (index + ast) % WORDS.length;
+		//Break lines every so often, like a pretty-printer would
+		String text = (index % 16 == 15) ? WORDS[word] + "\n" : WORDS[word] + " ";
+		return new JSONObject().put("style", STYLES[word]).put("path", new JSONArray()).put("text", text);
+	}
+
+	private static JSONObject token(int user, int ast) throws JSONException {
+		return new JSONObject().put("user", user).put("ast", ast);
+	}
+
+	private static JSONObject commands() throws JSONException {
+		JSONArray commands = new JSONArray();
+		for (String command : COMMANDS) {
+			commands.put(new JSONObject().put("name", command).put("help", "Scripted " + command + " command.")
+					.put("tags", new JSONArray().put("Navigation")).put("argTys", new JSONArray())
+					.put("resTy", "RewriteH"));
+		}
+		return new JSONObject().put("cmds", commands);
+	}
+
+	private static JSONObject complete(String input) throws JSONException {
+		String word = input.substring(input.lastIndexOf(' ') + 1);
+		JSONArray completions = new JSONArray();
+		for (String command : COMMANDS) {
+			if (command.startsWith(word)) {
+				completions.put(new JSONObject().put("isFinished", true)
+						.put("replacement", command).put("display", command));
+			}
+		}
+		return new JSONObject().put("completions", completions);
+	}
+
+}
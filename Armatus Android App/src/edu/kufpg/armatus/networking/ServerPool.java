@@ -0,0 +1,315 @@
+package edu.kufpg.armatus.networking;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.conn.ConnectTimeoutException;
+
+import com.google.common.collect.ImmutableList;
+
+import edu.kufpg.armatus.networking.HermitTransport.Request;
+import edu.kufpg.armatus.networking.HermitTransport.Response;
+
+/**
+ * A set of interchangeable HERMIT servers that a session can be placed on. Every server
+ * is health-checked in the background, and new sessions go to the healthy server that has
+ * been answering fastest. HERMIT-web does not report how loaded it is, but a busy server
+ * is a slow one, so the check's round trip stands in for its load, with the number of
+ * sessions this client has placed on each server breaking ties.
+ */
+public class ServerPool {
+	/** How long to wait between rounds of health checks. */
+	static final long CHECK_INTERVAL_MS = 15000;
+	/** How much each new round trip moves a server's average. */
+	private static final double LATENCY_WEIGHT = 0.3;
+
+	private final ImmutableList<Server> mServers;
+	private final HermitTransport mTransport;
+	private final Executor mExecutor;
+	private final Scheduler mScheduler;
+	private Listener mListener;
+	private boolean mStarted;
+	private boolean mChecking;
+
+	private final Runnable mScheduledCheck = new Runnable() {
+		@Override
+		public void run() {
+			checkNow();
+		}
+	};
+
+	/**
+	 * @param serverUrls The servers' URLs.
+	 * @param transport The transport that carries requests to all of the servers.
+	 * @param executor Runs the health checks, which block.
+	 * @param scheduler Runs the pool's bookkeeping and calls its listener, all on one
+	 * thread, such as the main thread.
+	 */
+	public ServerPool(List<String> serverUrls, HermitTransport transport, Executor executor, Scheduler scheduler) {
+		ImmutableList.Builder<Server> servers = ImmutableList.builder();
+		for (String url : serverUrls) {
+			servers.add(new Server(url));
+		}
+		mServers = servers.build();
+		mTransport = transport;
+		mExecutor = executor;
+		mScheduler = scheduler;
+	}
+
+	/**
+	 * Sets the listener to be called on the scheduler's thread after each round of health checks.
+	 */
+	public void setListener(Listener listener) {
+		mListener = listener;
+	}
+
+	/**
+	 * Checks every server now and then again every so often, until {@link #stop()} is
+	 * called. This must be called on the scheduler's thread.
+	 */
+	public void start() {
+		mStarted = true;
+		checkNow();
+	}
+
+	/**
+	 * Stops checking the servers. A round that is already running still finishes.
+	 */
+	public void stop() {
+		mStarted = false;
+		mScheduler.cancel(mScheduledCheck);
+	}
+
+	/**
+	 * Checks every server at once, unless a round of checks is already running. This must
+	 * be called on the scheduler's thread.
+	 */
+	public void checkNow() {
+		if (mChecking) {
+			return;
+		}
+		mChecking = true;
+		mScheduler.cancel(mScheduledCheck);
+		final AtomicInteger remaining = new AtomicInteger(mServers.size());
+		for (final Server server : mServers) {
+			mExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					final long latencyMs = probe(server.mUrl);
+					mScheduler.post(new Runnable() {
+						@Override
+						public void run() {
+							server.record(latencyMs);
+							if (remaining.decrementAndGet() == 0) {
+								finishRound();
+							}
+						}
+					});
+				}
+			});
+		}
+	}
+
+	private void finishRound() {
+		mChecking = false;
+		if (mStarted) {
+			mScheduler.postDelayed(mScheduledCheck, CHECK_INTERVAL_MS);
+		}
+		if (mListener != null) {
+			mListener.onServersChecked(this);
+		}
+	}
+
+	/**
+	 * Asks a server for the headers of its command catalog, which it can answer without
+	 * building or sending the catalog. A server that doesn't route {@code HEAD} answers
+	 * with a client error, which still shows it is up. The checks have their own {@link
+	 * RequestKind#HEALTH timeout}, so that they don't skew the timeout of real
+	 * {@code /commands} requests.
+	 * @return how long the server took to answer, in milliseconds, or -1 if it did not
+	 * answer or answered with a server error.
+	 */
+	private long probe(String url) {
+		RequestKind kind = RequestKind.HEALTH;
+		long start = System.nanoTime();
+		try {
+			mTransport.open();
+			Response response = mTransport.newCall(new Request("HEAD", url + "/commands", null)).execute(kind.getTimeoutMs());
+			try {
+				kind.recordLatency((System.nanoTime() - start) / 1000000);
+				if (response.getStatus() >= HttpStatus.SC_INTERNAL_SERVER_ERROR) {
+					return -1;
+				}
+			} finally {
+				response.close();
+			}
+		} catch (IOException e) {
+			if (e instanceof SocketTimeoutException || e instanceof ConnectTimeoutException) {
+				kind.recordTimeout((System.nanoTime() - start) / 1000000);
+			}
+			return -1;
+		}
+		//A server that answers is reachable again, whatever requests failed before
+		CircuitBreaker.forUrl(url).recordSuccess();
+		return (System.nanoTime() - start) / 1000000;
+	}
+
+	/**
+	 * Chooses the server to place a new session on: the healthy server with the fastest
+	 * average round trip and, among equally fast ones, the fewest sessions. Before the
+	 * first round of checks finishes, no server is known to be up.
+	 * @param excludedUrl A server not to choose, such as one that just failed, or
+	 * {@code null}.
+	 * @return the server's URL, or {@code null} if no server is known to be up.
+	 */
+	public String pickServer(String excludedUrl) {
+		Server best = null;
+		for (Server server : mServers) {
+			if (server.mState != State.UP || server.mUrl.equals(excludedUrl)) {
+				continue;
+			}
+			if (best == null || server.mLatencyMs < best.mLatencyMs
+					|| (server.mLatencyMs == best.mLatencyMs && server.mSessions < best.mSessions)) {
+				best = server;
+			}
+		}
+		return (best != null) ? best.mUrl : null;
+	}
+
+	/**
+	 * Records that a session was placed on a server.
+	 */
+	public void recordSession(String url) {
+		Server server = find(url);
+		if (server != null) {
+			server.mSessions++;
+		}
+	}
+
+	/**
+	 * Returns whether the last check of a server failed.
+	 */
+	public boolean isDown(String url) {
+		Server server = find(url);
+		return server != null && server.mState == State.DOWN;
+	}
+
+	public List<Server> getServers() {
+		return mServers;
+	}
+
+	public List<String> getServerUrls() {
+		ImmutableList.Builder<String> urls = ImmutableList.builder();
+		for (Server server : mServers) {
+			urls.add(server.mUrl);
+		}
+		return urls.build();
+	}
+
+	private Server find(String url) {
+		for (Server server : mServers) {
+			if (server.mUrl.equals(url)) {
+				return server;
+			}
+		}
+		return null;
+	}
+
+	public enum State { UNKNOWN, UP, DOWN }
+
+	/**
+	 * What the pool knows about one of its servers. This is only updated on the
+	 * scheduler's thread.
+	 */
+	public static class Server {
+		private final String mUrl;
+		private State mState = State.UNKNOWN;
+		private long mLatencyMs = -1;
+		private int mSessions;
+
+		private Server(String url) {
+			mUrl = url;
+		}
+
+		private void record(long latencyMs) {
+			if (latencyMs < 0) {
+				mState = State.DOWN;
+				//A server that comes back starts over, rather than being judged on old samples
+				mLatencyMs = -1;
+			} else {
+				mState = State.UP;
+				mLatencyMs = (mLatencyMs < 0) ? latencyMs
+						: Math.round(LATENCY_WEIGHT * latencyMs + (1 - LATENCY_WEIGHT) * mLatencyMs);
+			}
+		}
+
+		public String getUrl() {
+			return mUrl;
+		}
+
+		/** Returns the server's host and port, for showing to the user. */
+		public String getName() {
+			URI uri;
+			try {
+				uri = URI.create(mUrl);
+			} catch (IllegalArgumentException e) {
+				return mUrl;
+			}
+			if (uri.getHost() == null) {
+				return mUrl;
+			}
+			return (uri.getPort() != -1) ? uri.getHost() + ':' + uri.getPort() : uri.getHost();
+		}
+
+		public State getState() {
+			return mState;
+		}
+
+		/**
+		 * Returns the server's average health check round trip.
+		 * @return the time, in milliseconds, or -1 if the server has not answered since it
+		 * was last down.
+		 */
+		public long getLatencyMs() {
+			return mLatencyMs;
+		}
+
+		/** Returns how many sessions this client has placed on the server. */
+		public int getSessions() {
+			return mSessions;
+		}
+	}
+
+	/**
+	 * Runs tasks one at a time on a single thread, now or after a delay, as an Android
+	 * {@code Handler} does.
+	 */
+	public interface Scheduler {
+		void post(Runnable task);
+
+		void postDelayed(Runnable task, long delayMs);
+
+		/**
+		 * Stops a task that was posted from running, if it has not run yet.
+		 */
+		void cancel(Runnable task);
+	}
+
+	/**
+	 * Interface definition for a callback to be invoked when a round of health checks
+	 * finishes.
+	 */
+	public interface Listener {
+		/**
+		 * Called on the scheduler's thread once every server has been checked.
+		 * @param pool The pool, with each server's new state.
+		 */
+		void onServersChecked(ServerPool pool);
+	}
+
+}
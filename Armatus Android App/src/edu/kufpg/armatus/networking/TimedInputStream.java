@@ -0,0 +1,62 @@
+package edu.kufpg.armatus.networking;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An {@link InputStream} that keeps track of how long its reads block, so that the time
+ * spent waiting for a response body can be told apart from the time spent decoding it,
+ * and of how many bytes it has read.
+ */
+class TimedInputStream extends FilterInputStream {
+	private long mReadNanos;
+	private long mBytesRead;
+
+	TimedInputStream(InputStream in) {
+		super(in);
+	}
+
+	@Override
+	public int read() throws IOException {
+		long start = System.nanoTime();
+		try {
+			int b = super.read();
+			if (b >= 0) {
+				mBytesRead++;
+			}
+			return b;
+		} finally {
+			mReadNanos += System.nanoTime() - start;
+		}
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int count) throws IOException {
+		long start = System.nanoTime();
+		try {
+			int read = super.read(buffer, offset, count);
+			if (read > 0) {
+				mBytesRead += read;
+			}
+			return read;
+		} finally {
+			mReadNanos += System.nanoTime() - start;
+		}
+	}
+
+	/**
+	 * Returns the total time spent in reads so far, in nanoseconds.
+	 */
+	long getReadNanos() {
+		return mReadNanos;
+	}
+
+	/**
+	 * Returns the number of bytes read so far.
+	 */
+	long getBytesRead() {
+		return mBytesRead;
+	}
+
+}
@@ -0,0 +1,52 @@
+package edu.kufpg.armatus.util;
+
+/**
+ * Counts the repeats of a held button that come due while the work of an earlier one is
+ * still running, so that they can be handed on as a single action once it is done,
+ * rather than piling up or being dropped (see {@link OnTurboListener}). Not thread-safe.
+ */
+public class HeldRepeats {
+	private int mHeld = 0;
+
+	/**
+	 * Records that a repeat has come due.
+	 * @param busy Whether the work of an earlier repeat is still running.
+	 * @return how many repeats to fire now as one action, counting every repeat held back
+	 * since the last one fired, or 0 if they are still held back.
+	 */
+	public int onRepeatDue(boolean busy) {
+		mHeld++;
+		if (busy) {
+			return 0;
+		}
+		int repeats = mHeld;
+		mHeld = 0;
+		return repeats;
+	}
+
+	/**
+	 * Drops the repeats still held back, as when the button is pressed again or let go.
+	 */
+	public void clear() {
+		mHeld = 0;
+	}
+
+	/**
+	 * Returns how many repeats are held back.
+	 */
+	public int getHeldCount() {
+		return mHeld;
+	}
+
+	/**
+	 * Returns how long to wait before the next repeat: the button's own interval, unless
+	 * the work usually takes longer, so that holding the button doesn't ask for work
+	 * faster than it can be done.
+	 * @param normalInterval The button's interval, in milliseconds.
+	 * @param actionLatencyMs How long the work usually takes, in milliseconds, or 0.
+	 */
+	public static int getRepeatInterval(int normalInterval, long actionLatencyMs) {
+		return (int) Math.max(normalInterval, actionLatencyMs);
+	}
+
+}
@@ -0,0 +1,480 @@
+package edu.kufpg.armatus.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads a JSON document as a stream of tokens, without building it in memory first. This
+ * has the same interface as {@code android.util.JsonReader}, so that decoders written
+ * against it run unchanged on a plain JVM, where the Android one doesn't exist. Only
+ * strict JSON is accepted.
+ * <p>
+ * As with Android's reader, asking for a token of the wrong kind throws an
+ * {@link IllegalStateException}, and asking for a number that doesn't fit throws a
+ * {@link NumberFormatException}; input that isn't JSON at all throws a
+ * {@link MalformedJsonException}.
+ */
+public class JsonReader implements Closeable {
+	private static final int EMPTY_DOCUMENT = 0, NONEMPTY_DOCUMENT = 1, EMPTY_ARRAY = 2, NONEMPTY_ARRAY = 3,
+			EMPTY_OBJECT = 4, DANGLING_NAME = 5, NONEMPTY_OBJECT = 6, CLOSED = 7;
+
+	private final Reader mIn;
+	private final char[] mBuffer = new char[1024];
+	private int mPos = 0;
+	private int mLimit = 0;
+	/** How many characters were read before the start of the buffer, for error messages. */
+	private long mBufferStart = 0;
+
+	private int[] mStack = new int[32];
+	private int mStackSize = 0;
+
+	/** The next token, once {@link #peek()} has read it. */
+	private JsonToken mPeeked;
+	/** The text of the next token, if it is a name, string, number or boolean. */
+	private String mPeekedText;
+
+	public JsonReader(Reader in) {
+		if (in == null) {
+			throw new NullPointerException("in == null");
+		}
+		mIn = in;
+		push(EMPTY_DOCUMENT);
+	}
+
+	/**
+	 * Returns the kind of the next token without consuming it.
+	 * @throws IOException if the input cannot be read or is not JSON.
+	 */
+	public JsonToken peek() throws IOException {
+		if (mPeeked != null) {
+			return mPeeked;
+		}
+		switch (mStack[mStackSize - 1]) {
+		case EMPTY_DOCUMENT:
+			mStack[mStackSize - 1] = NONEMPTY_DOCUMENT;
+			return readValue();
+		case NONEMPTY_DOCUMENT:
+			if (nextNonWhitespace() != -1) {
+				throw syntaxError("Expected the end of the document");
+			}
+			return peeked(JsonToken.END_DOCUMENT, null);
+		case EMPTY_ARRAY:
+		case NONEMPTY_ARRAY: {
+			int c = nextNonWhitespace();
+			if (c == ']') {
+				mStackSize--;
+				return peeked(JsonToken.END_ARRAY, null);
+			}
+			if (mStack[mStackSize - 1] == NONEMPTY_ARRAY) {
+				if (c != ',') {
+					throw syntaxError("Expected ',' or ']'");
+				}
+			} else {
+				mPos--;
+				mStack[mStackSize - 1] = NONEMPTY_ARRAY;
+			}
+			return readValue();
+		}
+		case EMPTY_OBJECT:
+		case NONEMPTY_OBJECT: {
+			int c = nextNonWhitespace();
+			if (c == '}') {
+				mStackSize--;
+				return peeked(JsonToken.END_OBJECT, null);
+			}
+			if (mStack[mStackSize - 1] == NONEMPTY_OBJECT) {
+				if (c != ',') {
+					throw syntaxError("Expected ',' or '}'");
+				}
+				c = nextNonWhitespace();
+			}
+			if (c != '"') {
+				throw syntaxError("Expected a name");
+			}
+			mStack[mStackSize - 1] = DANGLING_NAME;
+			return peeked(JsonToken.NAME, readString());
+		}
+		case DANGLING_NAME:
+			if (nextNonWhitespace() != ':') {
+				throw syntaxError("Expected ':'");
+			}
+			mStack[mStackSize - 1] = NONEMPTY_OBJECT;
+			return readValue();
+		default:
+			throw new IllegalStateException("JsonReader is closed");
+		}
+	}
+
+	/**
+	 * Returns whether the current array or object has another element.
+	 */
+	public boolean hasNext() throws IOException {
+		JsonToken token = peek();
+		return token != JsonToken.END_OBJECT && token != JsonToken.END_ARRAY && token != JsonToken.END_DOCUMENT;
+	}
+
+	public void beginArray() throws IOException {
+		expect(JsonToken.BEGIN_ARRAY);
+	}
+
+	public void endArray() throws IOException {
+		expect(JsonToken.END_ARRAY);
+	}
+
+	public void beginObject() throws IOException {
+		expect(JsonToken.BEGIN_OBJECT);
+	}
+
+	public void endObject() throws IOException {
+		expect(JsonToken.END_OBJECT);
+	}
+
+	public String nextName() throws IOException {
+		return expect(JsonToken.NAME);
+	}
+
+	/**
+	 * Returns the next string, or the text of the next number.
+	 */
+	public String nextString() throws IOException {
+		if (peek() == JsonToken.NUMBER) {
+			return consume();
+		}
+		return expect(JsonToken.STRING);
+	}
+
+	public boolean nextBoolean() throws IOException {
+		return Boolean.parseBoolean(expect(JsonToken.BOOLEAN));
+	}
+
+	public void nextNull() throws IOException {
+		expect(JsonToken.NULL);
+	}
+
+	/**
+	 * Returns the next number, or the number that the next string holds.
+	 * @throws NumberFormatException if the number is not a whole {@code double}.
+	 */
+	public double nextDouble() throws IOException {
+		return Double.parseDouble(nextNumberText());
+	}
+
+	/**
+	 * @throws NumberFormatException if the number is not a whole {@code long}.
+	 */
+	public long nextLong() throws IOException {
+		String text = nextNumberText();
+		try {
+			return Long.parseLong(text);
+		} catch (NumberFormatException e) {
+			double value = Double.parseDouble(text);
+			long result = (long) value;
+			if (result != value) {
+				throw new NumberFormatException("Expected a long but was " + text);
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * @throws NumberFormatException if the number is not a whole {@code int}.
+	 */
+	public int nextInt() throws IOException {
+		String text = nextNumberText();
+		try {
+			return Integer.parseInt(text);
+		} catch (NumberFormatException e) {
+			double value = Double.parseDouble(text);
+			int result = (int) value;
+			if (result != value) {
+				throw new NumberFormatException("Expected an int but was " + text);
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Skips the next value, including everything nested in it.
+	 */
+	public void skipValue() throws IOException {
+		int depth = 0;
+		do {
+			JsonToken token = peek();
+			boolean ends = token == JsonToken.END_ARRAY || token == JsonToken.END_OBJECT;
+			if (token == JsonToken.END_DOCUMENT || (ends && depth == 0)) {
+				throw new IllegalStateException("Expected a value but was " + token + " at " + getPosition());
+			}
+			consume();
+			if (token == JsonToken.BEGIN_ARRAY || token == JsonToken.BEGIN_OBJECT) {
+				depth++;
+			} else if (ends) {
+				depth--;
+			}
+			//Inside an object, a name is skipped and then its value on the next pass
+		} while (depth > 0);
+	}
+
+	@Override
+	public void close() throws IOException {
+		mPeeked = null;
+		mStackSize = 1;
+		mStack[0] = CLOSED;
+		mIn.close();
+	}
+
+	private String nextNumberText() throws IOException {
+		JsonToken token = peek();
+		if (token != JsonToken.NUMBER && token != JsonToken.STRING) {
+			throw new IllegalStateException("Expected a number but was " + token);
+		}
+		return consume();
+	}
+
+	private String expect(JsonToken expected) throws IOException {
+		JsonToken token = peek();
+		if (token != expected) {
+			throw new IllegalStateException("Expected " + expected + " but was " + token + " at " + getPosition());
+		}
+		return consume();
+	}
+
+	private String consume() {
+		String text = mPeekedText;
+		mPeeked = null;
+		mPeekedText = null;
+		return text;
+	}
+
+	private JsonToken peeked(JsonToken token, String text) {
+		mPeeked = token;
+		mPeekedText = text;
+		return token;
+	}
+
+	private JsonToken readValue() throws IOException {
+		int c = nextNonWhitespace();
+		switch (c) {
+		case '{':
+			push(EMPTY_OBJECT);
+			return peeked(JsonToken.BEGIN_OBJECT, null);
+		case '[':
+			push(EMPTY_ARRAY);
+			return peeked(JsonToken.BEGIN_ARRAY, null);
+		case '"':
+			return peeked(JsonToken.STRING, readString());
+		case -1:
+			throw syntaxError("Unexpected end of input");
+		default:
+			mPos--;
+			return readLiteral();
+		}
+	}
+
+	private JsonToken readLiteral() throws IOException {
+		StringBuilder builder = new StringBuilder();
+		while (mPos < mLimit || fill()) {
+			char c = mBuffer[mPos];
+			if (isDelimiter(c)) {
+				break;
+			}
+			builder.append(c);
+			mPos++;
+		}
+		String text = builder.toString();
+		if (text.equals("true") || text.equals("false")) {
+			return peeked(JsonToken.BOOLEAN, text);
+		} else if (text.equals("null")) {
+			return peeked(JsonToken.NULL, null);
+		} else if (isNumber(text)) {
+			return peeked(JsonToken.NUMBER, text);
+		}
+		throw syntaxError("Unexpected value '" + text + "'");
+	}
+
+	private static boolean isDelimiter(char c) {
+		switch (c) {
+		case ',': case ':': case '[': case ']': case '{': case '}': case '"':
+		case ' ': case '\t': case '\n': case '\r':
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Returns whether a literal matches JSON's number grammar:
+	 * {@code -?(0|[1-9][0-9]*)(\.[0-9]+)?([eE][+-]?[0-9]+)?}.
+	 */
+	private static boolean isNumber(String text) {
+		int i = 0, length = text.length();
+		if (i < length && text.charAt(i) == '-') {
+			i++;
+		}
+		if (i < length && text.charAt(i) == '0') {
+			i++;
+		} else {
+			int digitsStart = i;
+			i = skipDigits(text, i);
+			if (i == digitsStart) {
+				return false;
+			}
+		}
+		if (i < length && text.charAt(i) == '.') {
+			int digitsStart = ++i;
+			i = skipDigits(text, i);
+			if (i == digitsStart) {
+				return false;
+			}
+		}
+		if (i < length && (text.charAt(i) == 'e' || text.charAt(i) == 'E')) {
+			i++;
+			if (i < length && (text.charAt(i) == '+' || text.charAt(i) == '-')) {
+				i++;
+			}
+			int digitsStart = i;
+			i = skipDigits(text, i);
+			if (i == digitsStart) {
+				return false;
+			}
+		}
+		return i == length;
+	}
+
+	private static int skipDigits(String text, int i) {
+		while (i < text.length() && text.charAt(i) >= '0' && text.charAt(i) <= '9') {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * Reads the rest of a string whose opening quote has been read, unescaping it.
+	 */
+	private String readString() throws IOException {
+		StringBuilder builder = null;
+		while (true) {
+			int start = mPos;
+			while (mPos < mLimit) {
+				char c = mBuffer[mPos++];
+				if (c == '"') {
+					if (builder == null) {
+						return new String(mBuffer, start, mPos - start - 1);
+					}
+					builder.append(mBuffer, start, mPos - start - 1);
+					return builder.toString();
+				} else if (c == '\\') {
+					if (builder == null) {
+						builder = new StringBuilder();
+					}
+					builder.append(mBuffer, start, mPos - start - 1);
+					builder.append(readEscape());
+					start = mPos;
+				} else if (c < 0x20) {
+					throw syntaxError("Unescaped control character in string");
+				}
+			}
+			if (builder == null) {
+				builder = new StringBuilder();
+			}
+			builder.append(mBuffer, start, mPos - start);
+			if (!fill()) {
+				throw syntaxError("Unterminated string");
+			}
+		}
+	}
+
+	private char readEscape() throws IOException {
+		if (mPos == mLimit && !fill()) {
+			throw syntaxError("Unterminated escape sequence");
+		}
+		char c = mBuffer[mPos++];
+		switch (c) {
+		case '"': case '\\': case '/':
+			return c;
+		case 'b':
+			return '\b';
+		case 'f':
+			return '\f';
+		case 'n':
+			return '\n';
+		case 'r':
+			return '\r';
+		case 't':
+			return '\t';
+		case 'u':
+			int value = 0;
+			for (int i = 0; i < 4; i++) {
+				if (mPos == mLimit && !fill()) {
+					throw syntaxError("Unterminated escape sequence");
+				}
+				int digit = Character.digit(mBuffer[mPos++], 16);
+				if (digit < 0) {
+					throw syntaxError("Malformed \\u escape");
+				}
+				value = (value << 4) | digit;
+			}
+			return (char) value;
+		default:
+			throw syntaxError("Invalid escape sequence \\" + c);
+		}
+	}
+
+	/**
+	 * Consumes and returns the next character that isn't whitespace, or -1 at the end of
+	 * the input.
+	 */
+	private int nextNonWhitespace() throws IOException {
+		while (mPos < mLimit || fill()) {
+			char c = mBuffer[mPos++];
+			if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+				return c;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Refills the buffer once everything in it has been consumed.
+	 * @return {@code false} at the end of the input.
+	 */
+	private boolean fill() throws IOException {
+		mBufferStart += mLimit;
+		mPos = 0;
+		mLimit = 0;
+		int count;
+		while ((count = mIn.read(mBuffer, 0, mBuffer.length)) == 0) {
+			//Keep asking until the reader has something or is done
+		}
+		if (count < 0) {
+			return false;
+		}
+		mLimit = count;
+		return true;
+	}
+
+	private void push(int scope) {
+		if (mStackSize == mStack.length) {
+			int[] stack = new int[mStackSize * 2];
+			System.arraycopy(mStack, 0, stack, 0, mStackSize);
+			mStack = stack;
+		}
+		mStack[mStackSize++] = scope;
+	}
+
+	private String getPosition() {
+		return "character " + (mBufferStart + mPos);
+	}
+
+	private MalformedJsonException syntaxError(String message) {
+		return new MalformedJsonException(message + " at " + getPosition());
+	}
+
+	/**
+	 * The kinds of token in a JSON document.
+	 */
+	public enum JsonToken {
+		BEGIN_ARRAY, END_ARRAY, BEGIN_OBJECT, END_OBJECT, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+	}
+
+}
@@ -47,6 +47,21 @@ public class JsonUtils {
 		return new JSONObject(openTextFile(path)); 
 	}
 
+	/**
+	 * Ensures that a required field was found while streaming a JSON object with a
+	 * {@link JsonReader}.
+	 * @param value The value read for the field, or {@code null} if the field was absent.
+	 * @param name The name of the field.
+	 * @return {@code value}, if it is not {@code null}.
+	 * @throws MalformedJsonException if {@code value} is {@code null}.
+	 */
+	public static <T> T checkField(T value, String name) throws MalformedJsonException {
+		if (value == null) {
+			throw new MalformedJsonException("Missing required field \"" + name + "\"");
+		}
+		return value;
+	}
+
 	/**
 	 * Returns a string representation of the contents of a saved file.
 	 * @param path The string representation of the file path to open.
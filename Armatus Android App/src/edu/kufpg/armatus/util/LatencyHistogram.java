@@ -0,0 +1,107 @@
+package edu.kufpg.armatus.util;
+
+/**
+ * A compact, thread-safe histogram of latencies. Samples are counted in buckets that grow
+ * by a quarter-octave, so percentiles are accurate to within about 20% no matter how
+ * large the latencies are. Older samples are gradually forgotten so that percentiles
+ * follow changes in behavior. The histogram doesn't care about units, as long as every
+ * sample uses the same one.
+ */
+public class LatencyHistogram {
+	/** Bucket {@code i} counts latencies up to {@code 2^(i/4)}. */
+	private static final int BUCKETS_PER_OCTAVE = 4;
+	private static final int BUCKET_COUNT = 32 * BUCKETS_PER_OCTAVE; //Up to about an hour, in microseconds
+
+	/** Once this many samples are held, every count is halved. */
+	private static final int DECAY_THRESHOLD = 1000;
+
+	private final long[] mCounts = new long[BUCKET_COUNT];
+	private long mTotal;
+	private long mSampleCount;
+	private long mMax;
+
+	/**
+	 * Records a latency.
+	 * @param latency The latency.
+	 */
+	public synchronized void record(long latency) {
+		mCounts[bucketFor(latency)]++;
+		mTotal++;
+		mSampleCount++;
+		mMax = Math.max(mMax, latency);
+		if (mTotal >= DECAY_THRESHOLD) {
+			mTotal = 0;
+			for (int i = 0; i < BUCKET_COUNT; i++) {
+				mCounts[i] /= 2;
+				mTotal += mCounts[i];
+			}
+		}
+	}
+
+	/**
+	 * Returns the latency below which a given fraction of recent samples fall.
+	 * @param fraction The percentile, between 0 and 1 (e.g., 0.99 for the 99th percentile).
+	 * @return the percentile's upper bound, or 0 if nothing was recorded.
+	 */
+	public synchronized long getPercentile(double fraction) {
+		if (mTotal == 0) {
+			return 0;
+		}
+		long target = (long) Math.ceil(fraction * mTotal);
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += mCounts[i];
+			if (seen >= target && mCounts[i] > 0) {
+				return upperBound(i);
+			}
+		}
+		return upperBound(BUCKET_COUNT - 1);
+	}
+
+	/**
+	 * Returns how many samples were recorded in total, including ones that have since been
+	 * forgotten.
+	 * @return the number of samples.
+	 */
+	public synchronized long getSampleCount() {
+		return mSampleCount;
+	}
+
+	/**
+	 * Returns how many recent samples the percentiles are based on.
+	 * @return the number of samples held.
+	 */
+	public synchronized long getRecentSampleCount() {
+		return mTotal;
+	}
+
+	/**
+	 * Returns the largest latency ever recorded.
+	 * @return the maximum latency.
+	 */
+	public synchronized long getMax() {
+		return mMax;
+	}
+
+	public synchronized void clear() {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			mCounts[i] = 0;
+		}
+		mTotal = 0;
+		mSampleCount = 0;
+		mMax = 0;
+	}
+
+	private static int bucketFor(long latency) {
+		if (latency <= 1) {
+			return 0;
+		}
+		int bucket = (int) Math.ceil(BUCKETS_PER_OCTAVE * Math.log(latency) / Math.log(2));
+		return Math.min(bucket, BUCKET_COUNT - 1);
+	}
+
+	private static long upperBound(int bucket) {
+		return (long) Math.ceil(Math.pow(2, (double) bucket / BUCKETS_PER_OCTAVE));
+	}
+
+}
@@ -0,0 +1,20 @@
+package edu.kufpg.armatus.util;
+
+import java.io.IOException;
+
+/**
+ * Thrown by a {@link JsonReader} when its input is not valid JSON, or by a decoder when
+ * valid JSON is missing something it needs.
+ */
+public class MalformedJsonException extends IOException {
+	private static final long serialVersionUID = 1L;
+
+	public MalformedJsonException(String message) {
+		super(message);
+	}
+
+	public MalformedJsonException(String message, Throwable cause) {
+		super(message, cause);
+	}
+
+}
@@ -13,6 +13,12 @@ import android.view.View.OnTouchListener;
  *
  * <p>Interval is scheduled after the onClick completes, so it has to run fast.
  * If it runs slow, it does not generate skipped onClicks.
+ *
+ * <p>Repeats that start slow work, such as a request to a server, can apply backpressure
+ * by overriding {@link #isBusy()}: repeats that come due while the work is still running
+ * are held back and then handed to {@link #onRepeat(View, int)} all at once. Overriding
+ * {@link #getActionLatencyMs()} also slows the repeat rate to match how long the work
+ * usually takes.
  * 
  * @author <a href="http://stackoverflow.com/users/952135/oliv">Oliv</a> of StackOverflow
  * (see <a href="http://stackoverflow.com/a/12795551">http://stackoverflow.com/a/12795551</a>)
@@ -24,13 +30,17 @@ public abstract class OnTurboListener implements OnTouchListener {
 	private int mNormalInterval;
 	private boolean mEnabled = true;
 	private View mDownView;
+	private final HeldRepeats mHeldRepeats = new HeldRepeats();
 	private Runnable mHandlerRunnable = new Runnable() {
 		@Override
 		public void run() {
 			synchronized (this) {
 				if (mEnabled) {
-					mHandler.postDelayed(this, mNormalInterval);
-					onClick(mDownView);
+					mHandler.postDelayed(this, HeldRepeats.getRepeatInterval(getNormalInterval(), getActionLatencyMs()));
+					int repeats = mHeldRepeats.onRepeatDue(isBusy());
+					if (repeats > 0) {
+						onRepeat(mDownView, repeats);
+					}
 				}
 			}
 		}
@@ -54,18 +64,49 @@ public abstract class OnTurboListener implements OnTouchListener {
 
 	public abstract void onClick(View v);
 
+	/**
+	 * Called when the button repeats. By default, this calls {@link #onClick(View)} once,
+	 * so repeats that were held back while {@link #isBusy() busy} are dropped; override
+	 * it to merge them into a single action instead.
+	 * @param v The view that is held.
+	 * @param repeats How many repeats came due since the last one fired, at least 1.
+	 */
+	protected void onRepeat(View v, int repeats) {
+		onClick(v);
+	}
+
+	/**
+	 * Returns whether the work started by the last click or repeat is still running, in
+	 * which case the next repeat is held back. By default, work is never busy.
+	 */
+	protected boolean isBusy() {
+		return false;
+	}
+
+	/**
+	 * Returns how long the work started by a click usually takes. Repeats are never spaced
+	 * closer than this, so that holding the button doesn't ask for work faster than it can
+	 * be done.
+	 * @return the time, in milliseconds, or 0 (the default) if it is negligible.
+	 */
+	protected long getActionLatencyMs() {
+		return 0;
+	}
+
 	@Override
 	public boolean onTouch(View view, MotionEvent motionEvent) {
 		switch (motionEvent.getAction()) {
 		case MotionEvent.ACTION_DOWN:
 			mHandler.removeCallbacks(mHandlerRunnable);
 			synchronized (this) {
+				mHeldRepeats.clear();
 				mHandler.postDelayed(mHandlerRunnable, mInitialInterval);
 				mDownView = view;
 				onClick(view);
 			}
 			return false;
 		case MotionEvent.ACTION_UP:
+			//Repeats still held back when the button is let go are dropped
 			mHandler.removeCallbacks(mHandlerRunnable);
 			mDownView = null;
 			return false;
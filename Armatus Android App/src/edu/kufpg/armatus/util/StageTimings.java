@@ -0,0 +1,151 @@
+package edu.kufpg.armatus.util;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+/**
+ * Registry of how long each stage of running a HERMIT command takes, from the request
+ * being queued to the result being drawn. Every stage has its own {@link
+ * LatencyHistogram} for percentiles, and its most recent raw samples are kept so that
+ * they can be exported for offline analysis. All durations are in microseconds.
+ */
+public final class StageTimings {
+	/** How many raw samples are kept per stage for {@link #export(String)}. */
+	private static final int MAX_RAW_SAMPLES = 1000;
+
+	private StageTimings() {}
+
+	/**
+	 * Returns the current time, for use as the start of a stage.
+	 * @return the current time, in nanoseconds.
+	 */
+	public static long start() {
+		return System.nanoTime();
+	}
+
+	/**
+	 * Records that a stage has just finished.
+	 * @param stage The stage.
+	 * @param startNanos When the stage started, as returned by {@link #start()}.
+	 */
+	public static void record(Stage stage, long startNanos) {
+		recordNanos(stage, System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * Records how long a stage took.
+	 * @param stage The stage.
+	 * @param durationNanos The stage's duration, in nanoseconds.
+	 */
+	public static void recordNanos(Stage stage, long durationNanos) {
+		stage.add(durationNanos / 1000);
+	}
+
+	/**
+	 * Writes every stage's raw samples to a CSV file, one sample per line.
+	 * @param path The file to write.
+	 * @throws IOException if the file cannot be written.
+	 */
+	public static void export(String path) throws IOException {
+		File file = new File(path);
+		file.getParentFile().mkdirs();
+		BufferedWriter writer = new BufferedWriter(new FileWriter(file));
+		try {
+			writer.write("stage,timestamp_ms,duration_us");
+			writer.newLine();
+			for (Stage stage : Stage.values()) {
+				long[][] samples = stage.getRawSamples();
+				for (long[] sample : samples) {
+					writer.write(stage.getName() + ',' + sample[0] + ',' + sample[1]);
+					writer.newLine();
+				}
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Discards every stage's samples.
+	 */
+	public static void clear() {
+		for (Stage stage : Stage.values()) {
+			stage.clear();
+		}
+	}
+
+	/**
+	 * The stages of running a command, in the order they happen.
+	 */
+	public enum Stage {
+		/** From a request being submitted until it starts running. */
+		QUEUED("queued"),
+		/** Opening a new connection to the server (not counted for reused connections). */
+		CONNECT("connect"),
+		/** From sending a request until the response headers arrive. */
+		FIRST_BYTE("first-byte"),
+		/** Time spent waiting for the response body to arrive. */
+		BODY_READ("body-read"),
+		/** Decoding the response body, excluding time spent waiting for it to arrive. */
+		DECODE("decode"),
+		/** Building the colored text of a {@code CommandResponse}'s glyphs. */
+		SPAN_BUILD("span-build"),
+		/** Applying a delta to the glyphs and text of the response it is against. */
+		PATCH("patch"),
+		/** Splitting a console entry's contents into lines. */
+		CONTENT_LINES("content-lines"),
+		/** Notifying the console's adapter that its entries have changed. */
+		ADAPTER_NOTIFY("adapter-notify"),
+		/** From the console receiving a response until it is next drawn. */
+		FIRST_FRAME("first-frame"),
+		/** From a command being submitted until its result is drawn. */
+		TOTAL("total");
+
+		private final String mName;
+		private final LatencyHistogram mHistogram = new LatencyHistogram();
+		private final long[] mRawTimestamps = new long[MAX_RAW_SAMPLES];
+		private final long[] mRawDurations = new long[MAX_RAW_SAMPLES];
+		private int mRawCount;
+		private int mRawNext;
+
+		private Stage(String name) {
+			mName = name;
+		}
+
+		public String getName() {
+			return mName;
+		}
+
+		public LatencyHistogram getHistogram() {
+			return mHistogram;
+		}
+
+		private synchronized void add(long durationUs) {
+			mHistogram.record(durationUs);
+			mRawTimestamps[mRawNext] = System.currentTimeMillis();
+			mRawDurations[mRawNext] = durationUs;
+			mRawNext = (mRawNext + 1) % MAX_RAW_SAMPLES;
+			mRawCount = Math.min(mRawCount + 1, MAX_RAW_SAMPLES);
+		}
+
+		/** Returns the raw samples, oldest first, as {timestamp, duration} pairs. */
+		private synchronized long[][] getRawSamples() {
+			long[][] samples = new long[mRawCount][];
+			int first = (mRawNext - mRawCount + MAX_RAW_SAMPLES) % MAX_RAW_SAMPLES;
+			for (int i = 0; i < mRawCount; i++) {
+				int index = (first + i) % MAX_RAW_SAMPLES;
+				samples[i] = new long[] { mRawTimestamps[index], mRawDurations[index] };
+			}
+			return samples;
+		}
+
+		private synchronized void clear() {
+			mHistogram.clear();
+			mRawCount = 0;
+			mRawNext = 0;
+		}
+	}
+
+}
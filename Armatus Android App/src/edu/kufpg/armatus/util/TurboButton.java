@@ -52,6 +52,16 @@ public class TurboButton extends Button {
 		mOnClickListener = l;
 	}
 
+	/**
+	 * Replaces the listener that fires the button's clicks, e.g., with one that holds back
+	 * repeats while earlier ones are still being served (see {@link OnTurboListener#isBusy()}).
+	 * The listener set with {@link #setOnClickListener(OnClickListener)} is no longer called.
+	 */
+	public void setOnTurboListener(OnTurboListener listener) {
+		mOnTurboListener = listener;
+		setOnTouchListener(listener);
+	}
+
 	public int getInitialInterval() {
 		return mOnTurboListener.getInitialInterval();
 	}
@@ -0,0 +1,277 @@
+package edu.kufpg.armatus.console;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+import edu.kufpg.armatus.data.CommandResponse;
+import edu.kufpg.armatus.data.Crumb;
+import edu.kufpg.armatus.data.Glyph;
+import edu.kufpg.armatus.data.Glyph.GlyphStyle;
+
+/**
+ * Runs explorations with a runner that the test finishes by hand, to check how many
+ * candidates run at once and how their results are ranked and picked.
+ */
+public class ExplorationTest {
+	private static final int FROM_AST = 4;
+	private static final int WIDTH = 80;
+
+	private ManualRunner mRunner;
+	private List<Exploration> mExplored;
+	private Exploration.Listener mListener;
+
+	@Before
+	public void setUp() {
+		mRunner = new ManualRunner();
+		mExplored = new ArrayList<Exploration>();
+		mListener = new Exploration.Listener() {
+			@Override
+			public void onExplored(Exploration exploration) {
+				mExplored.add(exploration);
+			}
+		};
+	}
+
+	@Test
+	public void runsNoMoreThanTheLimitAtOnce() {
+		Exploration exploration = explore(2, "a", "b", "c", "d", "e");
+		assertEquals(Arrays.asList(0, 1), mRunner.mStarted);
+		assertEquals(2, exploration.getRunningCount());
+
+		exploration.finish(1, expression(6, 3), null);
+		assertEquals(Arrays.asList(0, 1, 2), mRunner.mStarted);
+		exploration.finish(0, expression(5, 2), null);
+		exploration.finish(2, expression(7, 1), null);
+		assertEquals(Arrays.asList(0, 1, 2, 3, 4), mRunner.mStarted);
+		assertEquals(2, exploration.getRunningCount());
+		assertFalse(exploration.isFinished());
+
+		exploration.finish(4, expression(9, 1), null);
+		exploration.finish(3, expression(8, 1), null);
+		assertTrue(exploration.isFinished());
+		assertEquals(0, exploration.getRunningCount());
+		assertEquals(2, mRunner.mMostRunning);
+		assertEquals(Collections.singletonList(exploration), mExplored);
+	}
+
+	@Test
+	public void everyCandidateRunsFromTheSameAstAtTheSameWidth() {
+		Exploration exploration = explore(3, "a", "b");
+		assertEquals(FROM_AST, exploration.getFromAst());
+		assertEquals(WIDTH, exploration.getCharsPerLine());
+		assertEquals(Arrays.asList("a", "b"), mRunner.mCandidates);
+	}
+
+	@Test
+	public void ranksTheSmallestExpressionFirst() {
+		Exploration exploration = explore(3, "long", "short", "medium");
+		exploration.finish(0, expression(5, 9), null);
+		exploration.finish(1, expression(6, 2), null);
+		exploration.finish(2, expression(7, 5), null);
+
+		assertEquals(Arrays.asList(1, 2, 0), exploration.getRanking());
+		assertEquals(1, exploration.getIndex(1));
+		assertEquals("short", exploration.getCandidate(exploration.getIndex(1)));
+		assertEquals(6, exploration.getResponse(exploration.getIndex(1)).getAst());
+		assertEquals(0, exploration.getIndex(3));
+	}
+
+	@Test
+	public void messagesRankAfterExpressionsAndFailuresLast() {
+		Exploration exploration = explore(4, "failed", "message", "expression");
+		exploration.finish(0, null, "ERROR: no such command.");
+		exploration.finish(1, new CommandResponse(5, "Rewrite failed"), null);
+		exploration.finish(2, expression(6, 40), null);
+
+		assertEquals(Arrays.asList(2, 1, 0), exploration.getRanking());
+	}
+
+	@Test
+	public void equallyGoodCandidatesKeepTheirOrder() {
+		Exploration exploration = explore(4, "a", "b", "c");
+		exploration.finish(2, expression(7, 3), null);
+		exploration.finish(0, expression(5, 3), null);
+		exploration.finish(1, expression(6, 3), null);
+
+		assertEquals(Arrays.asList(0, 1, 2), exploration.getRanking());
+	}
+
+	@Test
+	public void failedCandidateCannotBePicked() {
+		Exploration exploration = explore(2, "good", "bad");
+		exploration.finish(1, null, "ERROR: the server returned 500.");
+		exploration.finish(0, expression(5, 3), null);
+
+		assertEquals(0, exploration.getIndex(1));
+		assertEquals(-1, exploration.getIndex(2));
+		assertNull(exploration.getResponse(1));
+		assertEquals("ERROR: the server returned 500.", exploration.getError(1));
+		assertNull(exploration.getError(0));
+	}
+
+	@Test
+	public void failureWithoutAMessageCountsAsCancelled() {
+		Exploration exploration = explore(1, "a");
+		exploration.finish(0, null, null);
+		assertEquals("ERROR: cancelled.", exploration.getError(0));
+		assertEquals(-1, exploration.getIndex(1));
+	}
+
+	@Test
+	public void pickOutOfRangeHasNoResult() {
+		Exploration exploration = explore(2, "a", "b");
+		exploration.finish(0, expression(5, 1), null);
+		exploration.finish(1, expression(6, 2), null);
+
+		assertEquals(-1, exploration.getIndex(0));
+		assertEquals(-1, exploration.getIndex(-1));
+		assertEquals(-1, exploration.getIndex(3));
+		assertEquals(1, exploration.getIndex(2));
+	}
+
+	@Test
+	public void pickBeforeTheExplorationFinishesFails() {
+		Exploration exploration = explore(2, "a", "b");
+		exploration.finish(0, expression(5, 1), null);
+		try {
+			exploration.getIndex(1);
+			fail("Expected an unfinished exploration to have no ranking");
+		} catch (IllegalStateException e) {
+			//Expected
+		}
+	}
+
+	@Test
+	public void cachedCandidatesFinishStraightAway() {
+		Exploration exploration = new Exploration(Arrays.asList("a", "b", "c", "d"), FROM_AST, WIDTH, 2);
+		final List<Integer> run = new ArrayList<Integer>();
+		exploration.start(new Exploration.Runner() {
+			@Override
+			public void run(Exploration exploration, int index, String candidate) {
+				run.add(index);
+				exploration.finish(index, expression(FROM_AST + 1 + index, 4 - index), null);
+			}
+
+			@Override
+			public void cancelAll() {
+				fail("Nothing should be cancelled");
+			}
+		}, mListener);
+
+		assertEquals(Arrays.asList(0, 1, 2, 3), run);
+		assertEquals(Collections.singletonList(exploration), mExplored);
+		assertEquals(Arrays.asList(3, 2, 1, 0), exploration.getRanking());
+	}
+
+	@Test
+	public void noCandidatesFinishesStraightAway() {
+		Exploration exploration = explore(3);
+		assertTrue(exploration.isFinished());
+		assertTrue(exploration.getRanking().isEmpty());
+		assertEquals(-1, exploration.getIndex(1));
+		assertEquals(1, mExplored.size());
+	}
+
+	@Test
+	public void cancelledExplorationStopsAndNeverReports() {
+		Exploration exploration = explore(2, "a", "b", "c");
+		exploration.cancel();
+		assertTrue(mRunner.mCancelled);
+
+		//Requests that were already running may still come back
+		exploration.finish(0, expression(5, 1), null);
+		exploration.finish(1, null, "ERROR: aborted.");
+		assertEquals(Arrays.asList(0, 1), mRunner.mStarted);
+		assertFalse(exploration.isFinished());
+		assertTrue(mExplored.isEmpty());
+	}
+
+	@Test
+	public void candidateCannotFinishTwice() {
+		Exploration exploration = explore(2, "a", "b");
+		exploration.finish(0, expression(5, 1), null);
+		try {
+			exploration.finish(0, expression(5, 1), null);
+			fail("Expected a second finish to be rejected");
+		} catch (IllegalStateException e) {
+			//Expected
+		}
+	}
+
+	@Test
+	public void candidatesAreCopied() {
+		List<String> candidates = new ArrayList<String>(Arrays.asList("a", "b"));
+		Exploration exploration = new Exploration(candidates, FROM_AST, WIDTH, 2);
+		candidates.set(0, "z");
+		assertEquals("a", exploration.getCandidate(0));
+		assertEquals(2, exploration.size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void limitMustAllowACandidate() {
+		new Exploration(Arrays.asList("a"), FROM_AST, WIDTH, 0);
+	}
+
+	@Test
+	public void listenerGetsTheExplorationItFinished() {
+		Exploration exploration = explore(1, "a");
+		exploration.finish(0, expression(5, 1), null);
+		assertSame(exploration, mExplored.get(0));
+	}
+
+	private Exploration explore(int maxParallel, String... candidates) {
+		Exploration exploration = new Exploration(Arrays.asList(candidates), FROM_AST, WIDTH, maxParallel);
+		exploration.start(mRunner, mListener);
+		return exploration;
+	}
+
+	/**
+	 * Returns a response with an expression of some number of glyphs, each one character
+	 * long plus a space.
+	 */
+	private static CommandResponse expression(int ast, int glyphs) {
+		List<Glyph> list = new ArrayList<Glyph>(glyphs);
+		for (int i = 0; i < glyphs; i++) {
+			list.add(new Glyph(GlyphStyle.VAR, ImmutableList.<Crumb>of(), "x "));
+		}
+		return new CommandResponse(ast, list);
+	}
+
+	/**
+	 * Records the candidates it is asked to run, and leaves them running until the test
+	 * finishes them.
+	 */
+	private static class ManualRunner implements Exploration.Runner {
+		private final List<Integer> mStarted = new ArrayList<Integer>();
+		private final List<String> mCandidates = new ArrayList<String>();
+		private int mMostRunning = 0;
+		private boolean mCancelled = false;
+
+		@Override
+		public void run(Exploration exploration, int index, String candidate) {
+			mStarted.add(index);
+			mCandidates.add(candidate);
+			mMostRunning = Math.max(mMostRunning, exploration.getRunningCount());
+		}
+
+		@Override
+		public void cancelAll() {
+			mCancelled = true;
+		}
+	}
+
+}
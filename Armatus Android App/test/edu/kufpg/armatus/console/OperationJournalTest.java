@@ -0,0 +1,254 @@
+package edu.kufpg.armatus.console;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+/**
+ * Logs operations in an {@link OperationJournal} in a temporary directory, on a plain JVM,
+ * and reads them back as the next process would. The journal's writer runs its tasks when
+ * the test says so.
+ */
+public class OperationJournalTest {
+	@Rule
+	public TemporaryFolder mFolder = new TemporaryFolder();
+
+	private File mFile;
+	private ManualWriter mWriter;
+
+	@Before
+	public void setUp() throws IOException {
+		mFile = new File(mFolder.getRoot(), "pending-operations.log");
+		mWriter = new ManualWriter();
+	}
+
+	@Test
+	public void missingLogHasNothingUnfinished() {
+		OperationJournal journal = newJournal();
+		assertTrue(journal.getUnfinished().isEmpty());
+		assertFalse(mFile.exists());
+	}
+
+	@Test
+	public void logIsOnlyReadOnTheWriter() throws IOException {
+		write("{\"kind\":\"command\",\"id\":1,\"input\":\"down\"}");
+		OperationJournal journal = new OperationJournal(mFile, mWriter);
+		assertNull(journal.getUnfinished());
+
+		mWriter.runAll();
+		assertEquals(1, journal.getUnfinished().size());
+	}
+
+	@Test
+	public void unfinishedOperationsAreReadOldestFirst() throws Exception {
+		OperationJournal first = newJournal();
+		first.append("command", input("down"));
+		long second = first.append("command", input("up"));
+		first.append("history", new JSONObject());
+		first.complete(second);
+		mWriter.runAll();
+
+		List<JSONObject> unfinished = newJournal().getUnfinished();
+		assertEquals(2, unfinished.size());
+		assertEquals("down", unfinished.get(0).getString("input"));
+		assertEquals("command", unfinished.get(0).getString(OperationJournal.KIND));
+		assertEquals("history", unfinished.get(1).getString(OperationJournal.KIND));
+	}
+
+	@Test
+	public void doneMarkersAreAppended() throws IOException {
+		OperationJournal journal = newJournal();
+		long first = journal.append("command", input("down"));
+		journal.append("command", input("up"));
+		journal.complete(first);
+		mWriter.runAll();
+
+		List<String> lines = read();
+		assertEquals(3, lines.size());
+		assertEquals("{\"done\":" + first + "}", lines.get(2));
+	}
+
+	@Test
+	public void readingCompactsTheLog() throws IOException {
+		OperationJournal first = newJournal();
+		long down = first.append("command", input("down"));
+		first.append("command", input("up"));
+		first.complete(down);
+		mWriter.runAll();
+		assertEquals(3, read().size());
+
+		newJournal();
+		List<String> lines = read();
+		assertEquals(1, lines.size());
+		assertFalse(lines.get(0).contains(OperationJournal.DONE));
+		assertTrue(lines.get(0).contains("\"up\""));
+	}
+
+	@Test
+	public void logIsDeletedOnceEverythingIsDone() {
+		OperationJournal journal = newJournal();
+		long first = journal.append("command", input("down"));
+		long second = journal.append("command", input("up"));
+		journal.complete(first);
+		journal.complete(second);
+		mWriter.runAll();
+		assertFalse(mFile.exists());
+		assertTrue(newJournal().getUnfinished().isEmpty());
+	}
+
+	@Test
+	public void completingTwiceOnlyCountsOnce() throws Exception {
+		OperationJournal journal = newJournal();
+		long first = journal.append("command", input("down"));
+		journal.append("command", input("up"));
+		journal.complete(first);
+		journal.complete(first);
+		mWriter.runAll();
+		assertEquals(3, read().size());
+
+		List<JSONObject> unfinished = newJournal().getUnfinished();
+		assertEquals(1, unfinished.size());
+		assertEquals("up", unfinished.get(0).getString("input"));
+	}
+
+	@Test
+	public void operationThatWasNeverLoggedCannotBeCompleted() {
+		OperationJournal journal = newJournal();
+		journal.append("command", input("down"));
+		journal.complete(OperationJournal.NO_ID);
+		journal.complete(42);
+		mWriter.runAll();
+		assertEquals(1, newJournal().getUnfinished().size());
+	}
+
+	@Test
+	public void truncatedLastLineIsSkipped() throws Exception {
+		write("{\"kind\":\"command\",\"id\":1,\"input\":\"down\"}",
+				"{\"kind\":\"command\",\"id\":2,\"input\":\"up\"}",
+				"{\"kind\":\"command\",\"id\":3,\"inp");
+		List<JSONObject> unfinished = newJournal().getUnfinished();
+		assertEquals(2, unfinished.size());
+		assertEquals("up", unfinished.get(1).getString("input"));
+		assertEquals(2, read().size());
+	}
+
+	@Test
+	public void readOperationsCanBeCompleted() throws JSONException {
+		write("{\"kind\":\"command\",\"id\":1,\"input\":\"down\"}",
+				"{\"kind\":\"command\",\"id\":2,\"input\":\"up\"}");
+		OperationJournal journal = newJournal();
+		for (JSONObject operation : journal.getUnfinished()) {
+			journal.complete(operation.getLong(OperationJournal.ID));
+		}
+		mWriter.runAll();
+		assertFalse(mFile.exists());
+	}
+
+	@Test
+	public void operationsAppendedBeforeTheLogIsReadKeepTheirOwnIds() throws Exception {
+		write("{\"kind\":\"command\",\"id\":1,\"input\":\"down\"}");
+		OperationJournal journal = new OperationJournal(mFile, mWriter);
+		long appended = journal.append("command", input("up"));
+		mWriter.runAll();
+
+		List<JSONObject> unfinished = journal.getUnfinished();
+		assertEquals(1, unfinished.size());
+		long read = unfinished.get(0).getLong(OperationJournal.ID);
+		assertNotEquals(appended, read);
+
+		journal.complete(appended);
+		mWriter.runAll();
+		unfinished = newJournal().getUnfinished();
+		assertEquals(1, unfinished.size());
+		assertEquals("down", unfinished.get(0).getString("input"));
+	}
+
+	@Test
+	public void completingBeforeTheLogIsReadKeepsWhatWasRead() throws Exception {
+		write("{\"kind\":\"command\",\"id\":1,\"input\":\"down\"}");
+		OperationJournal journal = new OperationJournal(mFile, mWriter);
+		journal.complete(journal.append("command", input("up")));
+		mWriter.runAll();
+
+		assertTrue(mFile.exists());
+		List<JSONObject> unfinished = newJournal().getUnfinished();
+		assertEquals(1, unfinished.size());
+		assertEquals("down", unfinished.get(0).getString("input"));
+	}
+
+	/** Returns a journal on the test's log, once it has been read. */
+	private OperationJournal newJournal() {
+		OperationJournal journal = new OperationJournal(mFile, mWriter);
+		mWriter.runAll();
+		return journal;
+	}
+
+	private static JSONObject input(String input) {
+		try {
+			return new JSONObject().put("input", input);
+		} catch (JSONException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private void write(String... lines) {
+		StringBuilder builder = new StringBuilder();
+		for (String line : lines) {
+			builder.append(line).append('\n');
+		}
+		//The last line is never finished, as if the process might have died writing it
+		builder.setLength(builder.length() - 1);
+		try {
+			Files.write(builder.toString(), mFile, Charsets.UTF_8);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private List<String> read() throws IOException {
+		List<String> lines = new ArrayList<String>();
+		for (String line : Files.readLines(mFile, Charsets.UTF_8)) {
+			if (!line.isEmpty()) {
+				lines.add(line);
+			}
+		}
+		return lines;
+	}
+
+	/**
+	 * Holds the journal's tasks until the test runs them, in order.
+	 */
+	private static class ManualWriter implements Executor {
+		private final List<Runnable> mTasks = new ArrayList<Runnable>();
+
+		@Override
+		public void execute(Runnable task) {
+			mTasks.add(task);
+		}
+
+		void runAll() {
+			while (!mTasks.isEmpty()) {
+				mTasks.remove(0).run();
+			}
+		}
+	}
+
+}
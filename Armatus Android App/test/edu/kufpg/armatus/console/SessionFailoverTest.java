@@ -0,0 +1,181 @@
+package edu.kufpg.armatus.console;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import edu.kufpg.armatus.data.HistoryCommand;
+
+public class SessionFailoverTest {
+	private static final HistoryCommand DOWN = new HistoryCommand(0, "down", 1);
+	private static final HistoryCommand BETA = new HistoryCommand(1, "beta-reduce", 2);
+	private static final HistoryCommand LEFT = new HistoryCommand(2, "left", 3);
+	private static final HistoryCommand RIGHT = new HistoryCommand(2, "right", 4);
+	private static final HistoryCommand UP = new HistoryCommand(4, "up", 5);
+
+	@Test
+	public void pathFollowsTheCommandsThatLedToTheAst() {
+		List<HistoryCommand> history = Arrays.asList(UP, BETA, DOWN, RIGHT);
+		assertEquals(Arrays.asList(DOWN, BETA, RIGHT, UP), SessionFailover.getPath(history, 0, 5));
+	}
+
+	@Test
+	public void pathLeavesOutBranchesTheSessionLeft() {
+		List<HistoryCommand> history = Arrays.asList(DOWN, BETA, LEFT, RIGHT, UP);
+		assertEquals(Arrays.asList(DOWN, BETA, RIGHT, UP), SessionFailover.getPath(history, 0, 5));
+		assertEquals(Arrays.asList(DOWN, BETA, LEFT), SessionFailover.getPath(history, 0, 3));
+	}
+
+	@Test
+	public void pathToTheStartingAstIsEmpty() {
+		assertTrue(SessionFailover.getPath(Arrays.asList(DOWN, BETA), 0, 0).isEmpty());
+		assertTrue(SessionFailover.getPath(Collections.<HistoryCommand>emptyList(), 7, 7).isEmpty());
+	}
+
+	@Test
+	public void pathThatDoesNotReachTheStartingAstFails() {
+		assertNoPath(Collections.<HistoryCommand>emptyList(), 0, 7);
+		//The command that led to AST 1 is missing
+		assertNoPath(Arrays.asList(BETA, RIGHT, UP), 0, 5);
+		//The way back from AST 2 ends at AST 0, never passing the starting AST
+		assertNoPath(Arrays.asList(DOWN, BETA), 4, 2);
+	}
+
+	@Test
+	public void startingAstIsWhereTheHistoryLeadsBack() {
+		assertEquals(0, SessionFailover.getStartingAst(Arrays.asList(UP, BETA, DOWN, RIGHT), 5));
+		assertEquals(7, SessionFailover.getStartingAst(Collections.<HistoryCommand>emptyList(), 7));
+	}
+
+	@Test
+	public void failoverThatCannotFindTheWayDoesNotStart() {
+		SessionFailover failover = new SessionFailover();
+		try {
+			failover.start(Arrays.asList(BETA, RIGHT, UP), 0, 5);
+			fail("Expected the failover not to start");
+		} catch (IllegalArgumentException e) {
+			//Expected
+		}
+		assertFalse(failover.isMoving());
+	}
+
+	@Test
+	public void rebuiltHistoryHasTheNewServersAstsAndKeepsLeftBranches() {
+		SessionFailover failover = new SessionFailover();
+		failover.start(Arrays.asList(DOWN, BETA, LEFT, RIGHT, UP), 0, 5);
+		List<HistoryCommand> replayed = replay(failover.takePath(), 10);
+		List<HistoryCommand> history = failover.rebuildHistory(10, replayed);
+
+		assertEquals(Arrays.asList("10 down 11", "11 beta-reduce 12", "12 right 13", "13 up 14", "12 left -1"),
+				describe(history));
+		assertEquals(replayed, SessionFailover.getPath(history, 10, 14));
+	}
+
+	@Test
+	public void partlyReplayedHistoryKeepsTheRestOfTheWay() {
+		SessionFailover failover = new SessionFailover();
+		failover.start(Arrays.asList(DOWN, BETA, RIGHT, UP), 0, 5);
+		List<HistoryCommand> replayed = replay(failover.takePath(), 10).subList(0, 2);
+		List<HistoryCommand> history = failover.rebuildHistory(10, replayed);
+
+		assertEquals(Arrays.asList("10 down 11", "11 beta-reduce 12", "12 right -1", "-1 up -2"), describe(history));
+		assertEquals(replayed, SessionFailover.getPath(history, 10, 12));
+	}
+
+	@Test
+	public void sessionCanBeMovedTwiceInARow() {
+		SessionFailover failover = new SessionFailover();
+		failover.start(Arrays.asList(DOWN, BETA, LEFT, RIGHT, UP), 0, 5);
+		List<HistoryCommand> history = new ArrayList<HistoryCommand>(
+				failover.rebuildHistory(10, replay(failover.takePath(), 10)));
+		failover.finish();
+		//The session goes on at the second server before it fails too
+		history.add(new HistoryCommand(14, "down", 15));
+
+		failover.start(history, 10, 15);
+		List<HistoryCommand> path = failover.takePath();
+		assertEquals(Arrays.asList("10 down 11", "11 beta-reduce 12", "12 right 13", "13 up 14", "14 down 15"),
+				describe(path));
+		List<HistoryCommand> replayed = replay(path, 20);
+		history = failover.rebuildHistory(20, replayed);
+		failover.finish();
+
+		assertEquals(Arrays.asList("20 down 21", "21 beta-reduce 22", "22 right 23", "23 up 24", "24 down 25",
+				"22 left -1"), describe(history));
+		assertEquals(replayed, SessionFailover.getPath(history, 20, 25));
+	}
+
+	@Test
+	public void failureIsHeldUntilTaken() {
+		SessionFailover failover = new SessionFailover();
+		failover.holdFailure("ERROR: timed out.");
+		assertTrue(failover.isHoldingFailure());
+		assertEquals("ERROR: timed out.", failover.takeFailure());
+		assertFalse(failover.isHoldingFailure());
+		assertNull(failover.takeFailure());
+	}
+
+	@Test
+	public void pathIsTakenOnceWhileMoving() {
+		SessionFailover failover = new SessionFailover();
+		failover.start(Arrays.asList(DOWN, BETA), 0, 2);
+		assertTrue(failover.isMoving());
+		assertEquals(Arrays.asList(DOWN, BETA), failover.takePath());
+		assertTrue(failover.takePath().isEmpty());
+		failover.finish();
+		assertFalse(failover.isMoving());
+	}
+
+	@Test
+	public void resetForgetsTheHeldFailureAndTheMove() {
+		SessionFailover failover = new SessionFailover();
+		failover.holdFailure("ERROR: timed out.");
+		failover.start(Arrays.asList(DOWN), 0, 1);
+		failover.reset();
+		assertFalse(failover.isHoldingFailure());
+		assertFalse(failover.isMoving());
+		assertTrue(failover.takePath().isEmpty());
+	}
+
+	private static void assertNoPath(List<HistoryCommand> history, int startingAst, int ast) {
+		try {
+			SessionFailover.getPath(history, startingAst, ast);
+			fail("Expected no way from AST " + startingAst + " to AST " + ast);
+		} catch (IllegalArgumentException e) {
+			//Expected
+		}
+	}
+
+	/**
+	 * Runs a path on a server whose session starts at some AST and numbers each new AST
+	 * after the last.
+	 * @return the steps, with the ASTs that server gave them.
+	 */
+	private static List<HistoryCommand> replay(List<HistoryCommand> path, int startingAst) {
+		List<HistoryCommand> replayed = new ArrayList<HistoryCommand>();
+		int ast = startingAst;
+		for (HistoryCommand step : path) {
+			replayed.add(new HistoryCommand(ast, step.getCommand(), ast + 1));
+			ast++;
+		}
+		return replayed;
+	}
+
+	private static List<String> describe(List<HistoryCommand> history) {
+		List<String> descriptions = new ArrayList<String>();
+		for (HistoryCommand command : history) {
+			descriptions.add(command.getFrom() + " " + command.getCommand() + " " + command.getTo());
+		}
+		return descriptions;
+	}
+
+}
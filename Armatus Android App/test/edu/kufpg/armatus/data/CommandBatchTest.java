@@ -0,0 +1,46 @@
+package edu.kufpg.armatus.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class CommandBatchTest {
+
+	@Test
+	public void encodesTokenCommandsInOrderAndWidth() throws JSONException {
+		CommandBatch batch = new CommandBatch(new Token(3, 7), Arrays.asList("down", "beta-reduce", "up"), 80);
+		JSONObject o = new JSONObject(batch.toString());
+		assertEquals(3, o.getJSONObject("token").getInt("user"));
+		assertEquals(7, o.getJSONObject("token").getInt("ast"));
+		JSONArray cmds = o.getJSONArray("cmds");
+		assertEquals(3, cmds.length());
+		assertEquals("down", cmds.getString(0));
+		assertEquals("beta-reduce", cmds.getString(1));
+		assertEquals("up", cmds.getString(2));
+		assertEquals(80, o.getInt("width"));
+	}
+
+	@Test
+	public void leavesTheWidthToTheServerIfNoneIsGiven() throws JSONException {
+		CommandBatch batch = new CommandBatch(new Token(0, 0), Arrays.asList("down"));
+		assertFalse(batch.hasWidth());
+		assertFalse(new JSONObject(batch.toString()).has("width"));
+	}
+
+	@Test
+	public void keepsItsOwnCopyOfTheCommands() {
+		String[] commands = { "down", "up" };
+		CommandBatch batch = new CommandBatch(new Token(0, 0), Arrays.asList(commands));
+		commands[0] = "abort";
+		assertEquals(Arrays.asList("down", "up"), batch.getCommands());
+		assertTrue(batch.toString().contains("\"down\""));
+	}
+
+}
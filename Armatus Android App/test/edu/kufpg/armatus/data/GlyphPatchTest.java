@@ -0,0 +1,122 @@
+package edu.kufpg.armatus.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+import edu.kufpg.armatus.data.Glyph.GlyphStyle;
+import edu.kufpg.armatus.util.JsonReader;
+
+/**
+ * Decodes delta responses against a base response and checks that they come out as the
+ * whole response would have.
+ */
+public class GlyphPatchTest {
+	private static final CommandResponse BASE = new CommandResponse(6, glyphs("let", "x", "=", "f", "in", "x"));
+
+	@Test
+	public void replacementInsertionAndDeletionApply() throws IOException {
+		CommandResponse response = decode("{\"ast\":7,\"base\":6,\"edits\":["
+				+ "{\"start\":0,\"end\":0,\"glyphs\":[" + glyph("(") + "]},"
+				+ "{\"start\":1,\"end\":2,\"glyphs\":[" + glyph("y") + "," + glyph("z") + "]},"
+				+ "{\"start\":3,\"end\":5}]}", BASE);
+		assertEquals(7, response.getAst());
+		assertEquals(glyphs("(", "let", "y", "z", "=", "x"), response.getGlyphs());
+		assertEquals("( let y z = x ", response.getGlyphText().toString());
+	}
+
+	@Test
+	public void unchangedGlyphsAreSharedWithTheBase() throws IOException {
+		CommandResponse response = decode("{\"ast\":7,\"base\":6,\"edits\":["
+				+ "{\"start\":2,\"end\":3,\"glyphs\":[" + glyph("<-") + "]}]}", BASE);
+		assertSame(BASE.getGlyphs().get(0), response.getGlyphs().get(0));
+		assertSame(BASE.getGlyphs().get(5), response.getGlyphs().get(5));
+		assertEquals("let x <- f in x ", response.getGlyphText().toString());
+	}
+
+	@Test
+	public void deltaWithNoEditsIsTheBase() throws IOException {
+		CommandResponse response = decode("{\"ast\":7,\"base\":6,\"edits\":[],\"msg\":\"Unchanged\"}", BASE);
+		assertEquals(BASE.getGlyphs(), response.getGlyphs());
+		assertEquals(BASE.getGlyphText().toString(), response.getGlyphText().toString());
+		assertEquals("Unchanged", response.getMessage());
+	}
+
+	@Test
+	public void deltaMatchesTheWholeResponse() throws IOException {
+		String whole = "{\"ast\":7,\"glyphs\":[" + glyph("let") + "," + glyph("x") + "," + glyph("=") + ","
+				+ glyph("g") + "," + glyph("in") + "," + glyph("x") + "]}";
+		String delta = "{\"ast\":7,\"base\":6,\"edits\":[{\"start\":3,\"end\":4,\"glyphs\":[" + glyph("g") + "]}]}";
+		CommandResponse fromWhole = decode(whole, BASE);
+		CommandResponse fromDelta = decode(delta, BASE);
+		assertEquals(fromWhole.getGlyphs(), fromDelta.getGlyphs());
+		assertEquals(fromWhole.getGlyphText().toString(), fromDelta.getGlyphText().toString());
+	}
+
+	@Test
+	public void deltaWithoutABaseIsStale() throws IOException {
+		assertStale("{\"ast\":7,\"base\":6,\"edits\":[]}", null);
+	}
+
+	@Test
+	public void deltaAgainstAnotherAstIsStale() throws IOException {
+		assertStale("{\"ast\":7,\"base\":5,\"edits\":[]}", BASE);
+	}
+
+	@Test
+	public void deltaAgainstAResponseWithoutGlyphsIsStale() throws IOException {
+		assertStale("{\"ast\":7,\"base\":6,\"edits\":[]}", new CommandResponse(6, "No glyphs"));
+	}
+
+	@Test
+	public void editsThatDontFitTheBaseAreStale() throws IOException {
+		assertStale("{\"ast\":7,\"base\":6,\"edits\":[{\"start\":4,\"end\":9}]}", BASE);
+		assertStale("{\"ast\":7,\"base\":6,\"edits\":[{\"start\":3,\"end\":4},{\"start\":1,\"end\":2}]}", BASE);
+		assertStale("{\"ast\":7,\"base\":6,\"edits\":[{\"start\":3,\"end\":2}]}", BASE);
+	}
+
+	@Test(expected = IOException.class)
+	public void editWithoutARangeIsRejected() throws IOException {
+		decode("{\"ast\":7,\"base\":6,\"edits\":[{\"start\":3}]}", BASE);
+	}
+
+	private static void assertStale(String json, CommandResponse base) throws IOException {
+		try {
+			decode(json, base);
+			fail("Expected " + json + " to be stale");
+		} catch (GlyphPatch.StaleBaseException e) {
+			//Expected
+		}
+	}
+
+	private static CommandResponse decode(String json, CommandResponse base) throws IOException {
+		JsonReader reader = new JsonReader(new StringReader(json));
+		try {
+			return CommandResponse.fromJson(reader, base);
+		} finally {
+			reader.close();
+		}
+	}
+
+	private static List<Glyph> glyphs(String... words) {
+		List<Glyph> glyphs = new ArrayList<Glyph>(words.length);
+		for (String word : words) {
+			glyphs.add(new Glyph(GlyphStyle.VAR, ImmutableList.<Crumb>of(), word + " "));
+		}
+		return glyphs;
+	}
+
+	private static String glyph(String word) {
+		return "{\"style\":\"VAR\",\"path\":[],\"text\":\"" + word + " \"}";
+	}
+
+}
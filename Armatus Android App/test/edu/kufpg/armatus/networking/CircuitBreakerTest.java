@@ -0,0 +1,148 @@
+package edu.kufpg.armatus.networking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Ticker;
+
+import edu.kufpg.armatus.networking.CircuitBreaker.State;
+
+/**
+ * Walks a {@link CircuitBreaker} through its states with a clock that only moves when the
+ * test moves it.
+ */
+public class CircuitBreakerTest {
+	private ManualTicker mTicker;
+	private CircuitBreaker mBreaker;
+
+	@Before
+	public void setUp() {
+		mTicker = new ManualTicker();
+		mBreaker = new CircuitBreaker("hermit:3000", mTicker);
+	}
+
+	@Test
+	public void staysClosedUntilEnoughFailuresInARow() {
+		for (int i = 1; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+			assertFalse(mBreaker.recordFailure());
+			assertEquals(State.CLOSED, mBreaker.getState());
+			assertTrue(mBreaker.allowRequest());
+		}
+		assertTrue(mBreaker.recordFailure());
+		assertEquals(State.OPEN, mBreaker.getState());
+	}
+
+	@Test
+	public void successStartsTheCountAgain() {
+		for (int i = 1; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+			mBreaker.recordFailure();
+		}
+		mBreaker.recordSuccess();
+		assertFalse(mBreaker.recordFailure());
+		assertEquals(State.CLOSED, mBreaker.getState());
+	}
+
+	@Test
+	public void openBreakerRejectsRequestsUntilTheCoolDownPasses() {
+		open();
+		assertFalse(mBreaker.allowRequest());
+		assertEquals(CircuitBreaker.OPEN_MS, mBreaker.getRemainingOpenMs());
+
+		mTicker.advance(CircuitBreaker.OPEN_MS - 1);
+		assertFalse(mBreaker.allowRequest());
+		assertEquals(1, mBreaker.getRemainingOpenMs());
+	}
+
+	@Test
+	public void oneProbeIsLetThroughAfterTheCoolDown() {
+		open();
+		mTicker.advance(CircuitBreaker.OPEN_MS);
+		assertTrue(mBreaker.allowRequest());
+		assertEquals(State.HALF_OPEN, mBreaker.getState());
+		assertEquals(0, mBreaker.getRemainingOpenMs());
+		assertFalse(mBreaker.allowRequest());
+	}
+
+	@Test
+	public void successfulProbeClosesTheBreaker() {
+		open();
+		mTicker.advance(CircuitBreaker.OPEN_MS);
+		mBreaker.allowRequest();
+		mBreaker.recordSuccess();
+		assertEquals(State.CLOSED, mBreaker.getState());
+		assertTrue(mBreaker.allowRequest());
+		assertTrue(mBreaker.allowRequest());
+	}
+
+	@Test
+	public void failedProbeOpensTheBreakerForAnotherCoolDown() {
+		open();
+		mTicker.advance(CircuitBreaker.OPEN_MS);
+		mBreaker.allowRequest();
+		mTicker.advance(500);
+		assertTrue(mBreaker.recordFailure());
+		assertEquals(State.OPEN, mBreaker.getState());
+		assertEquals(CircuitBreaker.OPEN_MS, mBreaker.getRemainingOpenMs());
+		assertFalse(mBreaker.allowRequest());
+	}
+
+	@Test
+	public void probeThatNeverReportsIsReplacedAfterACoolDown() {
+		open();
+		mTicker.advance(CircuitBreaker.OPEN_MS);
+		mBreaker.allowRequest();
+		mTicker.advance(CircuitBreaker.OPEN_MS - 1);
+		assertFalse(mBreaker.allowRequest());
+		mTicker.advance(1);
+		assertTrue(mBreaker.allowRequest());
+		assertEquals(State.HALF_OPEN, mBreaker.getState());
+	}
+
+	@Test
+	public void failureWhileOpenDoesNotExtendTheCoolDown() {
+		open();
+		mTicker.advance(1000);
+		assertFalse(mBreaker.recordFailure());
+		assertEquals(CircuitBreaker.OPEN_MS - 1000, mBreaker.getRemainingOpenMs());
+	}
+
+	@Test
+	public void eachServerHasOneBreaker() {
+		CircuitBreaker breaker = CircuitBreaker.forUrl("http://breaker-test:3000/command");
+		assertSame(breaker, CircuitBreaker.forUrl("http://breaker-test:3000/commands"));
+		assertNotSame(breaker, CircuitBreaker.forUrl("http://breaker-test:3001/command"));
+		assertEquals("breaker-test:3000", breaker.getServer());
+	}
+
+	private void open() {
+		for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+			mBreaker.recordFailure();
+		}
+		assertEquals(State.OPEN, mBreaker.getState());
+	}
+
+	/**
+	 * A clock that starts at an arbitrary time and only moves when told to.
+	 */
+	private static class ManualTicker extends Ticker {
+		private long mNanos = TimeUnit.HOURS.toNanos(1);
+
+		@Override
+		public long read() {
+			return mNanos;
+		}
+
+		void advance(long ms) {
+			mNanos += TimeUnit.MILLISECONDS.toNanos(ms);
+		}
+	}
+
+}
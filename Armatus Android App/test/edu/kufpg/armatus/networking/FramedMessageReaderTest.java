@@ -0,0 +1,270 @@
+package edu.kufpg.armatus.networking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+/**
+ * Round-trips messages through a {@link FramedMessageWriter} and a {@link
+ * FramedMessageReader}, with the bytes arriving in pieces of every size, and feeds the
+ * reader streams that are cut short or out of sync. Messages of a few sizes are also
+ * piped from a writer thread to the reader, and the rate they arrive at is printed.
+ */
+public class FramedMessageReaderTest {
+	/** Characters of one, two, three and four UTF-8 bytes. */
+	private static final String MIXED = "aé→😀";
+
+	private static final List<String> MESSAGES = Arrays.asList("{\"cmd\":\"down\"}", MIXED,
+			repeat(MIXED, 3000), "∀ x. x ≡ x", "z");
+
+	/** The sizes of the messages piped from a writer thread, in bytes. */
+	private static final int[] PIPED_SIZES = { 1024, 64 * 1024, 1024 * 1024, 5 * 1024 * 1024 };
+	/** At least this many bytes are piped at each size, so that small messages are timed over many. */
+	private static final int MIN_PIPED_BYTES = 16 * 1024 * 1024;
+	private static final int MIN_PIPED_MESSAGES = 4;
+	/** How much the pipe holds, like a socket's receive buffer. */
+	private static final int PIPE_BYTES = 64 * 1024;
+
+	@Test
+	public void messagesRoundTripWhateverSizeTheReadsAre() throws IOException {
+		byte[] stream = write(MESSAGES);
+		for (int chunk : new int[] { 1, 2, 3, 5, 7, 4096, 8191, 8192, 8193, Integer.MAX_VALUE }) {
+			FramedMessageReader reader = new FramedMessageReader(new ChunkedInputStream(stream, chunk));
+			for (String message : MESSAGES) {
+				assertEquals("Reads of " + chunk + " bytes", message, reader.readMessage());
+			}
+			assertNull(reader.readMessage());
+		}
+	}
+
+	@Test
+	public void multiByteCharactersSplitAtEveryOffsetRoundTrip() throws IOException {
+		//Shift a run of multi-byte characters across the reader's buffer boundary
+		for (int pad = 0; pad < 12; pad++) {
+			String message = repeat("x", 8190 - 4 + pad) + repeat(MIXED, 4);
+			FramedMessageReader reader = new FramedMessageReader(new ByteArrayInputStream(write(Arrays.asList(message, MIXED))));
+			assertEquals(message, reader.readMessage());
+			assertEquals(MIXED, reader.readMessage());
+		}
+	}
+
+	@Test
+	public void writerPrefixesTheLengthInBytesNotChars() throws IOException {
+		byte[] stream = write(Arrays.asList(MIXED));
+		int bytes = MIXED.getBytes("UTF-8").length;
+		assertEquals(1 + 2 + 3 + 4, bytes);
+		assertEquals(bytes, ByteBuffer.wrap(stream).getInt());
+		assertEquals(4 + bytes, stream.length);
+	}
+
+	@Test
+	public void emptyMessagesAreSkipped() throws IOException {
+		byte[] stream = concat(header(0), header(0), write(Arrays.asList("ping")), header(0));
+		FramedMessageReader reader = new FramedMessageReader(new ChunkedInputStream(stream, 1));
+		assertEquals("ping", reader.readMessage());
+		assertNull(reader.readMessage());
+	}
+
+	@Test
+	public void streamEndingInsideAHeaderFails() throws IOException {
+		byte[] stream = concat(write(Arrays.asList("ok")), new byte[] { 0, 0 });
+		FramedMessageReader reader = new FramedMessageReader(new ByteArrayInputStream(stream));
+		assertEquals("ok", reader.readMessage());
+		try {
+			reader.readMessage();
+			fail("Expected an EOFException");
+		} catch (EOFException e) {
+			//Expected
+		}
+	}
+
+	@Test
+	public void streamEndingInsideAMessageFails() throws IOException {
+		byte[] whole = write(Arrays.asList(MIXED));
+		//Cut the stream inside the last, four-byte character as well as between characters
+		for (int cut : new int[] { whole.length - 1, whole.length - 4, 5 }) {
+			FramedMessageReader reader = new FramedMessageReader(new ByteArrayInputStream(Arrays.copyOf(whole, cut)));
+			try {
+				reader.readMessage();
+				fail("Expected an EOFException when cut at " + cut);
+			} catch (EOFException e) {
+				//Expected
+			}
+		}
+	}
+
+	@Test
+	public void oversizedAndNegativeLengthsAreRejected() throws IOException {
+		for (int length : new int[] { FramedMessageReader.MAX_MESSAGE_BYTES + 1, Integer.MAX_VALUE, -1 }) {
+			FramedMessageReader reader = new FramedMessageReader(new ByteArrayInputStream(concat(header(length), new byte[16])));
+			try {
+				reader.readMessage();
+				fail("Expected length " + length + " to be rejected");
+			} catch (EOFException e) {
+				fail("Length " + length + " was trusted");
+			} catch (IOException e) {
+				assertEquals("Bad message length: " + length, e.getMessage());
+			}
+		}
+	}
+
+	@Test
+	public void largestMessageIsAccepted() throws IOException {
+		String message = repeat("x", FramedMessageReader.MAX_MESSAGE_BYTES);
+		FramedMessageReader reader = new FramedMessageReader(new ByteArrayInputStream(write(Arrays.asList(message))));
+		assertEquals(message.length(), reader.readMessage().length());
+	}
+
+	@Test
+	public void writerRejectsMessagesTheReaderWould() {
+		try {
+			write(Arrays.asList(repeat("x", FramedMessageReader.MAX_MESSAGE_BYTES + 1)));
+			fail("Expected the message to be rejected");
+		} catch (IOException e) {
+			//Expected
+		}
+	}
+
+	@Test(expected = CharacterCodingException.class)
+	public void invalidUtf8IsRejected() throws IOException {
+		byte[] stream = concat(header(3), new byte[] { 'a', (byte) 0xc3, 'b' });
+		new FramedMessageReader(new ByteArrayInputStream(stream)).readMessage();
+	}
+
+	@Test(expected = CharacterCodingException.class)
+	public void messageEndingInsideACharacterIsRejected() throws IOException {
+		//The length cuts off the last byte of a two-byte character, although more bytes follow
+		byte[] stream = concat(header(2), new byte[] { 'a', (byte) 0xc3, (byte) 0xa9, 0, 0, 0, 0 });
+		new FramedMessageReader(new ByteArrayInputStream(stream)).readMessage();
+	}
+
+	@Test
+	public void messagesPipedFromAnotherThreadRoundTrip() throws Exception {
+		//The first pipe loads and compiles the code, so it isn't measured
+		pipe(PIPED_SIZES[1], MIN_PIPED_MESSAGES);
+		for (int size : PIPED_SIZES) {
+			int messages = Math.max(MIN_PIPED_MESSAGES, MIN_PIPED_BYTES / size);
+			long nanos = pipe(size, messages);
+			double megabytes = (double) size * messages / (1024 * 1024);
+			System.out.printf("Piped %d messages of %d KB: %.1f MB/s%n", messages, size / 1024, megabytes / (nanos / 1e9));
+		}
+	}
+
+	/**
+	 * Writes messages of a given size into a pipe on another thread, and reads them from
+	 * the other end on this one.
+	 * @param size How many UTF-8 bytes each message has.
+	 * @return how long reading every message took, in nanoseconds.
+	 */
+	private static long pipe(int size, final int messages) throws Exception {
+		//Mostly one-byte characters, as glyphs are, with a multi-byte one now and then
+		String run = repeat("x ", 45) + MIXED;
+		int runBytes = run.getBytes("UTF-8").length;
+		StringBuilder builder = new StringBuilder(size);
+		int bytes = 0;
+		for (; bytes + runBytes <= size; bytes += runBytes) {
+			builder.append(run);
+		}
+		final String message = builder.append(repeat("x", size - bytes)).toString();
+		assertEquals(size, message.getBytes("UTF-8").length);
+
+		PipedInputStream in = new PipedInputStream(PIPE_BYTES);
+		final PipedOutputStream out = new PipedOutputStream(in);
+		final AtomicReference<IOException> failure = new AtomicReference<IOException>();
+		Thread writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					FramedMessageWriter writer = new FramedMessageWriter(out);
+					for (int i = 0; i < messages; i++) {
+						writer.writeMessage(message);
+					}
+					out.close();
+				} catch (IOException e) {
+					failure.set(e);
+				}
+			}
+		});
+
+		FramedMessageReader reader = new FramedMessageReader(in);
+		long start = System.nanoTime();
+		writer.start();
+		for (int i = 0; i < messages; i++) {
+			String read = reader.readMessage();
+			assertEquals(message.length(), read.length());
+			if (i == messages - 1) {
+				assertEquals(message, read);
+			}
+		}
+		assertNull(reader.readMessage());
+		long nanos = System.nanoTime() - start;
+		writer.join();
+		if (failure.get() != null) {
+			throw failure.get();
+		}
+		return nanos;
+	}
+
+	private static byte[] write(List<String> messages) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		FramedMessageWriter writer = new FramedMessageWriter(out);
+		for (String message : messages) {
+			writer.writeMessage(message);
+		}
+		return out.toByteArray();
+	}
+
+	private static byte[] header(int length) {
+		return ByteBuffer.allocate(4).putInt(length).array();
+	}
+
+	private static byte[] concat(byte[]... arrays) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (byte[] array : arrays) {
+			out.write(array, 0, array.length);
+		}
+		return out.toByteArray();
+	}
+
+	private static String repeat(String s, int times) {
+		StringBuilder builder = new StringBuilder(s.length() * times);
+		for (int i = 0; i < times; i++) {
+			builder.append(s);
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Hands out at most a fixed number of bytes per read, as a socket may.
+	 */
+	private static class ChunkedInputStream extends FilterInputStream {
+		private final int mChunk;
+
+		public ChunkedInputStream(byte[] bytes, int chunk) {
+			super(new ByteArrayInputStream(bytes));
+			mChunk = chunk;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			return super.read(b, off, Math.min(len, mChunk));
+		}
+	}
+
+}
@@ -0,0 +1,119 @@
+package edu.kufpg.armatus.networking;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import edu.kufpg.armatus.networking.HermitTransport.Request;
+import edu.kufpg.armatus.networking.HermitTransport.Response;
+
+/**
+ * Sends requests to HTTP servers in the test's process, on a plain JVM, and checks that
+ * {@link HermitHttpClient} keeps their connections open between requests. The client's
+ * counters are shared by the whole process, so each test only checks how much they change.
+ */
+public class HermitHttpClientTest {
+	private static final int TIMEOUT_MS = 5000;
+	private static final int REQUESTS = 5;
+	private static final byte[] BODY = "{\"ast\":1}".getBytes(Charsets.UTF_8);
+
+	private HttpServer mFirst;
+	private HttpServer mSecond;
+	private long mOpened;
+	private long mReused;
+
+	@Before
+	public void setUp() throws IOException {
+		HermitHttpClient.shutdown();
+		mFirst = startServer();
+		mSecond = startServer();
+		mOpened = HermitHttpClient.getConnectionsOpened();
+		mReused = HermitHttpClient.getConnectionsReused();
+	}
+
+	@After
+	public void tearDown() {
+		HermitHttpClient.shutdown();
+		mFirst.stop(0);
+		mSecond.stop(0);
+	}
+
+	@Test
+	public void consecutiveRequestsShareOneConnection() throws IOException {
+		HttpTransport transport = new HttpTransport();
+		for (int i = 0; i < REQUESTS; i++) {
+			Response response = transport.newCall(new Request("GET", getUrl(mFirst), null)).execute(TIMEOUT_MS);
+			try {
+				assertEquals(HttpStatus.SC_OK, response.getStatus());
+				ByteStreams.toByteArray(response.openStream());
+			} finally {
+				response.close();
+			}
+		}
+		assertEquals(1, HermitHttpClient.getConnectionsOpened() - mOpened);
+		assertEquals(REQUESTS - 1, HermitHttpClient.getConnectionsReused() - mReused);
+	}
+
+	@Test
+	public void eachServerKeepsItsOwnConnection() throws IOException {
+		for (int i = 0; i < REQUESTS; i++) {
+			get(mFirst);
+			get(mSecond);
+		}
+		assertEquals(2, HermitHttpClient.getConnectionsOpened() - mOpened);
+		assertEquals(2 * (REQUESTS - 1), HermitHttpClient.getConnectionsReused() - mReused);
+	}
+
+	@Test
+	public void shutdownClosesPooledConnections() throws IOException {
+		get(mFirst);
+		get(mFirst);
+		HermitHttpClient.shutdown();
+		get(mFirst);
+		assertEquals(2, HermitHttpClient.getConnectionsOpened() - mOpened);
+		assertEquals(1, HermitHttpClient.getConnectionsReused() - mReused);
+	}
+
+	/** Sends a request straight through the client and reads the whole response. */
+	private static void get(HttpServer server) throws IOException {
+		HttpResponse response = HermitHttpClient.execute(new HttpGet(getUrl(server)));
+		assertEquals(HttpStatus.SC_OK, response.getStatusLine().getStatusCode());
+		response.getEntity().consumeContent();
+	}
+
+	private static String getUrl(HttpServer server) {
+		return "http://127.0.0.1:" + server.getAddress().getPort() + "/commands";
+	}
+
+	private static HttpServer startServer() throws IOException {
+		HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				exchange.getResponseHeaders().set("Content-Type", "application/json");
+				exchange.sendResponseHeaders(HttpStatus.SC_OK, BODY.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(BODY);
+				out.close();
+			}
+		});
+		server.start();
+		return server;
+	}
+
+}
@@ -0,0 +1,207 @@
+package edu.kufpg.armatus.networking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.http.HttpStatus;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.kufpg.armatus.data.CommandResponse;
+import edu.kufpg.armatus.networking.HermitTransport.Request;
+import edu.kufpg.armatus.networking.HermitTransport.Response;
+import edu.kufpg.armatus.networking.RequestExecutor.RequestFailedException;
+
+/**
+ * Runs batches through a {@link HermitSession} against a {@link ScriptedHermit}: in one
+ * request, split back into one response per command, and one command at a time when the
+ * server has no batch endpoint. Replays of sessions of a few lengths are timed both ways,
+ * and the times are printed.
+ */
+public class HermitSessionBatchTest {
+	private static final int GLYPHS = 50;
+	private static final int WIDTH = 80;
+	/** How many steps each timed replay has. */
+	private static final int[] REPLAY_LENGTHS = { 10, 100, 300 };
+	/** The most commands a replay sends in one batch, as a client does. */
+	private static final int REPLAY_BATCH_SIZE = 50;
+	/** How long the server takes to answer each request during a timed replay. */
+	private static final long REPLAY_LATENCY_MS = 2;
+	/** Every test has its own server name, so that no test opens another's circuit breaker. */
+	private static int sServers = 0;
+
+	private ScriptedHermit mHermit;
+	private List<Request> mRequests;
+	private boolean mShortBatches;
+	private HermitSession mSession;
+
+	@Before
+	public void setUp() throws IOException {
+		mHermit = new ScriptedHermit(GLYPHS);
+		mRequests = new ArrayList<Request>();
+		HermitTransport transport = new InMemoryTransport(new InMemoryTransport.Server() {
+			@Override
+			public Response respond(Request request) throws IOException {
+				mRequests.add(request);
+				if (mShortBatches && request.getPath().equals(HermitProtocol.BATCH)) {
+					return InMemoryTransport.ok("{\"responses\":[]}");
+				}
+				return mHermit.respond(request);
+			}
+		}, 0);
+		mSession = HermitSession.connect(transport, "http://batch-test-" + (sServers++));
+	}
+
+	@Test
+	public void batchIsSplitIntoOneResponsePerCommand() throws IOException, JSONException {
+		List<CommandResponse> responses = mSession.batch(Arrays.asList("down", "beta-reduce", "up"), WIDTH);
+		assertEquals(2, mRequests.size());
+		JSONObject body = new JSONObject(mRequests.get(1).getBody());
+		assertEquals(3, body.getJSONArray("cmds").length());
+		assertEquals(WIDTH, body.getInt("width"));
+
+		assertEquals(3, responses.size());
+		for (int i = 0; i < responses.size(); i++) {
+			assertEquals(i + 1, responses.get(i).getAst());
+			assertEquals(GLYPHS, responses.get(i).getGlyphs().size());
+		}
+		assertEquals(3, mSession.getAst());
+	}
+
+	@Test
+	public void batchedResponsesMatchCommandsRunOneAtATime() throws IOException {
+		List<CommandResponse> batched = mSession.batch(Arrays.asList("down", "down", "down"), WIDTH);
+
+		HermitSession single = HermitSession.connect(new InMemoryTransport(new ScriptedHermit(GLYPHS), 0),
+				"http://batch-test-" + (sServers++));
+		for (CommandResponse response : batched) {
+			assertEquals(single.command("down", 0).getGlyphs(), response.getGlyphs());
+		}
+	}
+
+	@Test
+	public void batchFollowsOnFromCommandsBeforeIt() throws IOException, JSONException {
+		mSession.command("down", WIDTH);
+		List<CommandResponse> responses = mSession.batch(Arrays.asList("down", "down"), WIDTH);
+		assertEquals(1, new JSONObject(mRequests.get(2).getBody()).getJSONObject("token").getInt("ast"));
+		assertEquals(2, responses.get(0).getAst());
+		assertEquals(3, mSession.getAst());
+	}
+
+	@Test
+	public void failurePartwayThroughABatchLeavesTheSessionWhereItWas() throws IOException, JSONException {
+		mSession.command("down", WIDTH);
+		mHermit.scriptFailure("bogus");
+		try {
+			mSession.batch(Arrays.asList("down", "bogus", "down"), WIDTH);
+			fail("Expected the batch to be rejected");
+		} catch (RequestFailedException e) {
+			assertEquals(HttpStatus.SC_BAD_REQUEST, e.getStatusCode());
+		}
+		assertEquals(1, mSession.getAst());
+		assertFalse(mSession.isBatchUnsupported());
+
+		//The session goes on from where it was
+		mSession.batch(Arrays.asList("down"), WIDTH);
+		Request retry = mRequests.get(mRequests.size() - 1);
+		assertEquals(1, new JSONObject(retry.getBody()).getJSONObject("token").getInt("ast"));
+	}
+
+	@Test
+	public void serverWithoutBatchesIsSentOneCommandAtATime() throws IOException {
+		mHermit.setBatchSupported(false);
+		List<CommandResponse> responses = mSession.batch(Arrays.asList("down", "down", "down"), WIDTH);
+		assertTrue(mSession.isBatchUnsupported());
+		assertEquals(3, responses.size());
+		assertEquals(3, mSession.getAst());
+		assertEquals(HermitProtocol.BATCH, mRequests.get(1).getPath());
+		for (Request request : mRequests.subList(2, mRequests.size())) {
+			assertEquals(HermitProtocol.COMMAND, request.getPath());
+		}
+
+		//Later batches don't ask the batch endpoint again
+		int sent = mRequests.size();
+		mSession.batch(Arrays.asList("down"), WIDTH);
+		assertEquals(sent + 1, mRequests.size());
+		assertEquals(HermitProtocol.COMMAND, mRequests.get(sent).getPath());
+	}
+
+	@Test
+	public void failurePartwayThroughCommandsOneAtATimeKeepsTheOnesBeforeIt() throws IOException {
+		mHermit.setBatchSupported(false);
+		mHermit.scriptFailure("bogus");
+		try {
+			mSession.batch(Arrays.asList("down", "down", "bogus", "down"), WIDTH);
+			fail("Expected the batch to be rejected");
+		} catch (RequestFailedException e) {
+			assertEquals(HttpStatus.SC_BAD_REQUEST, e.getStatusCode());
+		}
+		assertEquals(2, mSession.getAst());
+	}
+
+	@Test
+	public void batchWithTheWrongNumberOfResponsesFails() throws IOException {
+		mShortBatches = true;
+		try {
+			mSession.batch(Arrays.asList("down", "down"), WIDTH);
+			fail("Expected the batch to be rejected");
+		} catch (RequestFailedException e) {
+			assertEquals("ERROR: server returned an unexpected batch response.", e.getMessage());
+		}
+		assertEquals(0, mSession.getAst());
+		assertFalse(mSession.isBatchUnsupported());
+	}
+
+	@Test
+	public void batchedReplaysAreFasterThanCommandsOneAtATime() throws IOException {
+		//The first replays load and compile the code, so they aren't measured
+		timeReplay(REPLAY_BATCH_SIZE, true);
+		timeReplay(REPLAY_BATCH_SIZE, false);
+		for (int steps : REPLAY_LENGTHS) {
+			long batchedNanos = timeReplay(steps, true);
+			long singleNanos = timeReplay(steps, false);
+			System.out.printf("Replay of %d steps: %.1f ms batched, %.1f ms one at a time (%.1fx)%n",
+					steps, batchedNanos / 1e6, singleNanos / 1e6, (double) singleNanos / batchedNanos);
+			assertTrue(batchedNanos < singleNanos);
+		}
+	}
+
+	/**
+	 * Replays a session of some number of steps against a server that takes a while to
+	 * answer each request.
+	 * @param batched Whether to send the steps in batches, or one command at a time.
+	 * @return how long the replay took, in nanoseconds.
+	 */
+	private static long timeReplay(int steps, boolean batched) throws IOException {
+		HermitSession session = HermitSession.connect(
+				new InMemoryTransport(new ScriptedHermit(GLYPHS), REPLAY_LATENCY_MS), "http://batch-test-" + (sServers++));
+		List<String> commands = new ArrayList<String>(steps);
+		for (int i = 0; i < steps; i++) {
+			commands.add("down");
+		}
+
+		long start = System.nanoTime();
+		if (batched) {
+			for (int i = 0; i < steps; i += REPLAY_BATCH_SIZE) {
+				session.batch(commands.subList(i, Math.min(steps, i + REPLAY_BATCH_SIZE)), WIDTH);
+			}
+		} else {
+			for (String command : commands) {
+				session.command(command, WIDTH);
+			}
+		}
+		long nanos = System.nanoTime() - start;
+		assertEquals(steps, session.getAst());
+		return nanos;
+	}
+
+}
@@ -0,0 +1,158 @@
+package edu.kufpg.armatus.networking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.kufpg.armatus.data.CommandInfo;
+import edu.kufpg.armatus.data.CommandResponse;
+import edu.kufpg.armatus.data.History;
+import edu.kufpg.armatus.networking.HermitTransport.Request;
+import edu.kufpg.armatus.networking.HermitTransport.Response;
+import edu.kufpg.armatus.networking.RequestExecutor.RequestFailedException;
+
+/**
+ * Runs a {@link HermitSession} against a {@link ScriptedHermit}, on a plain JVM.
+ */
+public class HermitSessionTest {
+	private static final int GLYPHS = 200;
+	private static final int WIDTH = 80;
+	/** Every test has its own server name, so that no test opens another's circuit breaker. */
+	private static int sServers = 0;
+
+	private ScriptedHermit mHermit;
+	private List<Request> mRequests;
+	private HermitTransport mTransport;
+	private String mServerUrl;
+
+	@Before
+	public void setUp() {
+		mHermit = new ScriptedHermit(GLYPHS);
+		mRequests = new ArrayList<Request>();
+		mTransport = new InMemoryTransport(new InMemoryTransport.Server() {
+			@Override
+			public Response respond(Request request) throws IOException {
+				mRequests.add(request);
+				return mHermit.respond(request);
+			}
+		}, 0);
+		mServerUrl = "http://session-test-" + (sServers++);
+	}
+
+	@Test
+	public void connectStartsAtTheServersFirstAst() throws IOException {
+		HermitSession session = HermitSession.connect(mTransport, mServerUrl);
+		assertEquals(0, session.getUser());
+		assertEquals(0, session.getAst());
+	}
+
+	@Test
+	public void commandsMoveTheSessionAndAskForDeltas() throws IOException, JSONException {
+		HermitSession session = HermitSession.connect(mTransport, mServerUrl);
+		CommandResponse first = session.command("down", WIDTH);
+		CommandResponse second = session.command("down", WIDTH);
+		assertEquals(2, session.getAst());
+
+		JSONObject firstBody = new JSONObject(mRequests.get(1).getBody());
+		JSONObject secondBody = new JSONObject(mRequests.get(2).getBody());
+		assertFalse(firstBody.has("base"));
+		assertEquals(first.getAst(), secondBody.getInt("base"));
+		assertTrue(mRequests.get(2).getHeaders().get("Accept").startsWith("application/x-hermit-glyphs"));
+
+		//The delta decodes to what a session that never asked for one is sent whole
+		assertEquals(GLYPHS, second.getGlyphs().size());
+		assertEquals(new ScriptedSession(GLYPHS).runTwice(), second.getGlyphs());
+	}
+
+	@Test
+	public void staleDeltaIsFetchedAgainWhole() throws IOException, JSONException {
+		HermitSession session = HermitSession.connect(mTransport, mServerUrl);
+		session.command("down", WIDTH);
+		mHermit.setStaleDeltas(true);
+		CommandResponse response = session.command("down", WIDTH);
+
+		//Sent with a base, then again without one
+		assertEquals(4, mRequests.size());
+		assertTrue(new JSONObject(mRequests.get(2).getBody()).has("base"));
+		assertFalse(new JSONObject(mRequests.get(3).getBody()).has("base"));
+		assertEquals(GLYPHS, response.getGlyphs().size());
+		assertEquals(response.getAst(), session.getAst());
+
+		//The whole response is a good base for the next delta
+		mHermit.setStaleDeltas(false);
+		session.command("down", WIDTH);
+		assertEquals(response.getAst(), new JSONObject(mRequests.get(4).getBody()).getInt("base"));
+	}
+
+	@Test
+	public void commandWithoutAWidthSendsNoBase() throws IOException, JSONException {
+		HermitSession session = HermitSession.connect(mTransport, mServerUrl);
+		session.command("down", 0);
+		session.command("down", 0);
+		assertFalse(new JSONObject(mRequests.get(2).getBody()).has("base"));
+	}
+
+	@Test
+	public void batchRunsEveryCommandInOneRequest() throws IOException {
+		HermitSession session = HermitSession.connect(mTransport, mServerUrl);
+		List<CommandResponse> responses = session.batch(Arrays.asList("down", "down", "down"), WIDTH);
+		assertEquals(3, responses.size());
+		assertEquals(3, session.getAst());
+		assertEquals(2, mRequests.size());
+		assertEquals("/batch", mRequests.get(1).getPath());
+	}
+
+	@Test
+	public void catalogCompletionsAndHistoryDecode() throws IOException {
+		HermitSession session = HermitSession.connect(mTransport, mServerUrl);
+		session.command("down", WIDTH);
+		List<CommandInfo> commands = session.commands();
+		assertEquals("abort", commands.get(0).getName());
+		assertEquals("down", session.complete("do").get(0).getReplacement());
+		History history = session.history();
+		assertEquals(1, history.getCommands().size());
+		assertEquals("down", history.getCommands().get(0).getCommand());
+	}
+
+	@Test
+	public void unreachableServerFailsWithAMessage() throws IOException {
+		mHermit.setDown(true);
+		try {
+			HermitSession.connect(mTransport, mServerUrl);
+			fail("Expected the connection to fail");
+		} catch (RequestFailedException e) {
+			assertEquals("ERROR: I/O problem.", e.getMessage());
+			assertEquals(0, e.getStatusCode());
+		}
+	}
+
+	/**
+	 * Runs {@code down} twice without ever asking for a delta, to get the glyphs a delta
+	 * must decode to.
+	 */
+	private static class ScriptedSession {
+		private final HermitSession mSession;
+
+		public ScriptedSession(int glyphs) throws IOException {
+			mSession = HermitSession.connect(new InMemoryTransport(new ScriptedHermit(glyphs), 0),
+					"http://session-test-full-" + (sServers++));
+		}
+
+		public List<?> runTwice() throws IOException {
+			mSession.command("down", 0);
+			return mSession.command("down", 0).getGlyphs();
+		}
+	}
+
+}
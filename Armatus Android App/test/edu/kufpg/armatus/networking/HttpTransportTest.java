@@ -0,0 +1,273 @@
+package edu.kufpg.armatus.networking;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.http.HttpStatus;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import edu.kufpg.armatus.networking.HermitTransport.Request;
+import edu.kufpg.armatus.networking.HermitTransport.Response;
+
+/**
+ * Sends requests through an {@link HttpTransport} to an HTTP server in the test's process,
+ * on a plain JVM. Each test has its own server on its own port, so the servers the
+ * transport remembers as sending or refusing gzip are never shared between tests.
+ */
+public class HttpTransportTest {
+	private static final int TIMEOUT_MS = 5000;
+	/** A body long enough to be compressed. */
+	private static final String LARGE_BODY = "{\"cmd\":\"" + Strings.repeat("any-td", 400) + "\"}";
+
+	private HttpServer mServer;
+	private String mUrl;
+	private List<Exchange> mExchanges;
+	private HttpTransport mTransport;
+
+	/** What the server answers with. */
+	private byte[] mResponseBody;
+	/** How the server encodes its answer, if the request accepts it, or {@code null}. */
+	private String mResponseEncoding;
+	/** What the server answers a gzipped body with. */
+	private int mGzipStatus;
+	/** What the server answers an uncompressed body with. */
+	private int mPlainStatus;
+
+	@Before
+	public void setUp() throws IOException {
+		mExchanges = Collections.synchronizedList(new ArrayList<Exchange>());
+		mResponseBody = ("{\"ast\":1,\"glyphs\":\"" + Strings.repeat("x ", 2000) + "\"}").getBytes(Charsets.UTF_8);
+		mGzipStatus = HttpStatus.SC_OK;
+		mPlainStatus = HttpStatus.SC_OK;
+
+		mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		mServer.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				respond(exchange);
+			}
+		});
+		mServer.start();
+		mUrl = "http://127.0.0.1:" + mServer.getAddress().getPort();
+		mTransport = new HttpTransport();
+	}
+
+	@After
+	public void tearDown() {
+		mServer.stop(0);
+	}
+
+	@Test
+	public void asksForCompressedResponses() throws IOException {
+		read(get());
+		String accepted = mExchanges.get(0).mAcceptEncoding;
+		assertTrue(accepted, accepted.contains("gzip"));
+		assertTrue(accepted, accepted.contains("deflate"));
+	}
+
+	@Test
+	public void gzippedResponseIsDecodedAndCounted() throws IOException {
+		mResponseEncoding = "gzip";
+		Response response = get();
+		assertArrayEquals(mResponseBody, read(response));
+		assertEquals(mExchanges.get(0).mWireBytes, response.getWireBytes());
+		assertEquals(mResponseBody.length, response.getDecodedBytes());
+		assertTrue(response.getWireBytes() < response.getDecodedBytes());
+	}
+
+	@Test
+	public void deflatedResponseIsDecodedAndCounted() throws IOException {
+		mResponseEncoding = "deflate";
+		Response response = get();
+		assertArrayEquals(mResponseBody, read(response));
+		assertEquals(mExchanges.get(0).mWireBytes, response.getWireBytes());
+		assertEquals(mResponseBody.length, response.getDecodedBytes());
+		assertTrue(response.getWireBytes() < response.getDecodedBytes());
+	}
+
+	@Test
+	public void uncompressedResponseCountsTheSameBytesTwice() throws IOException {
+		Response response = get();
+		assertArrayEquals(mResponseBody, read(response));
+		assertEquals(mResponseBody.length, response.getWireBytes());
+		assertEquals(mResponseBody.length, response.getDecodedBytes());
+	}
+
+	@Test
+	public void bodyIsNotCompressedUntilTheServerSendsGzip() throws IOException {
+		read(post(LARGE_BODY));
+		assertNull(mExchanges.get(0).mContentEncoding);
+		assertEquals(LARGE_BODY, mExchanges.get(0).mBody);
+	}
+
+	@Test
+	public void largeBodyIsCompressedOnceTheServerSendsGzip() throws IOException {
+		primeGzip();
+		read(post(LARGE_BODY));
+		Exchange exchange = last();
+		assertEquals("gzip", exchange.mContentEncoding);
+		assertEquals(LARGE_BODY, exchange.mBody);
+	}
+
+	@Test
+	public void smallBodyIsNeverCompressed() throws IOException {
+		primeGzip();
+		read(post("{\"cmd\":\"down\"}"));
+		assertNull(last().mContentEncoding);
+	}
+
+	@Test
+	public void unsupportedMediaTypeResendsUncompressedAndStopsCompressing() throws IOException {
+		primeGzip();
+		mGzipStatus = HttpStatus.SC_UNSUPPORTED_MEDIA_TYPE;
+		Response response = post(LARGE_BODY);
+		assertEquals(HttpStatus.SC_OK, response.getStatus());
+		read(response);
+		assertEquals(3, mExchanges.size());
+		assertEquals("gzip", mExchanges.get(1).mContentEncoding);
+		assertNull(mExchanges.get(2).mContentEncoding);
+		assertEquals(LARGE_BODY, mExchanges.get(2).mBody);
+
+		read(post(LARGE_BODY));
+		assertEquals(4, mExchanges.size());
+		assertNull(last().mContentEncoding);
+	}
+
+	@Test
+	public void badRequestThatFailsUncompressedTooKeepsCompressing() throws IOException {
+		primeGzip();
+		mGzipStatus = HttpStatus.SC_BAD_REQUEST;
+		mPlainStatus = HttpStatus.SC_BAD_REQUEST;
+		Response response = post(LARGE_BODY);
+		assertEquals(HttpStatus.SC_BAD_REQUEST, response.getStatus());
+		read(response);
+		assertEquals(3, mExchanges.size());
+		assertNull(last().mContentEncoding);
+
+		read(post(LARGE_BODY));
+		assertEquals("gzip", mExchanges.get(3).mContentEncoding);
+	}
+
+	@Test
+	public void badRequestThatSucceedsUncompressedStopsCompressing() throws IOException {
+		primeGzip();
+		mGzipStatus = HttpStatus.SC_BAD_REQUEST;
+		Response response = post(LARGE_BODY);
+		assertEquals(HttpStatus.SC_OK, response.getStatus());
+		read(response);
+		assertEquals(3, mExchanges.size());
+
+		read(post(LARGE_BODY));
+		assertEquals(4, mExchanges.size());
+		assertNull(last().mContentEncoding);
+	}
+
+	@Test
+	public void badRequestFromAServerThatReadGzipIsNotResent() throws IOException {
+		primeGzip();
+		read(post(LARGE_BODY));
+		assertEquals("gzip", last().mContentEncoding);
+
+		mGzipStatus = HttpStatus.SC_BAD_REQUEST;
+		Response response = post(LARGE_BODY);
+		assertEquals(HttpStatus.SC_BAD_REQUEST, response.getStatus());
+		read(response);
+		assertEquals(3, mExchanges.size());
+	}
+
+	private Response get() throws IOException {
+		return mTransport.newCall(new Request("GET", mUrl + "/commands", null)).execute(TIMEOUT_MS);
+	}
+
+	private Response post(String body) throws IOException {
+		return mTransport.newCall(new Request("POST", mUrl + "/command", body)).execute(TIMEOUT_MS);
+	}
+
+	/** Makes the transport see a gzipped response from the server. */
+	private void primeGzip() throws IOException {
+		String encoding = mResponseEncoding;
+		mResponseEncoding = "gzip";
+		read(get());
+		mResponseEncoding = encoding;
+	}
+
+	private static byte[] read(Response response) throws IOException {
+		try {
+			InputStream in = response.openStream();
+			return ByteStreams.toByteArray(in);
+		} finally {
+			response.close();
+		}
+	}
+
+	private Exchange last() {
+		return mExchanges.get(mExchanges.size() - 1);
+	}
+
+	private void respond(HttpExchange exchange) throws IOException {
+		Exchange recorded = new Exchange();
+		recorded.mAcceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+		recorded.mContentEncoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+		InputStream in = exchange.getRequestBody();
+		if ("gzip".equals(recorded.mContentEncoding)) {
+			in = new GZIPInputStream(in);
+		}
+		byte[] body = ByteStreams.toByteArray(in);
+		recorded.mBody = (body.length > 0) ? new String(body, Charsets.UTF_8) : null;
+
+		int status = (recorded.mContentEncoding != null) ? mGzipStatus : mPlainStatus;
+		byte[] response = mResponseBody;
+		String accepted = recorded.mAcceptEncoding;
+		if (mResponseEncoding != null && accepted != null && accepted.contains(mResponseEncoding)) {
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			OutputStream out = mResponseEncoding.equals("gzip")
+					? new GZIPOutputStream(buffer) : new DeflaterOutputStream(buffer);
+			out.write(mResponseBody);
+			out.close();
+			response = buffer.toByteArray();
+			exchange.getResponseHeaders().set("Content-Encoding", mResponseEncoding);
+		}
+		recorded.mWireBytes = response.length;
+		mExchanges.add(recorded);
+
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, response.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(response);
+		out.close();
+	}
+
+	/**
+	 * What the server saw of one request, and how many bytes it answered with.
+	 */
+	private static class Exchange {
+		private String mAcceptEncoding;
+		private String mContentEncoding;
+		private String mBody;
+		private long mWireBytes;
+	}
+
+}
@@ -0,0 +1,117 @@
+package edu.kufpg.armatus.networking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks how each {@link RequestKind}'s timeout adapts to the latencies recorded for it.
+ * The kinds are shared by the whole process, so every test starts and ends with their
+ * latencies cleared.
+ */
+public class RequestKindTest {
+	private static final int MIN_SAMPLES = 20;
+
+	@Before
+	public void setUp() {
+		clearLatencies();
+	}
+
+	@After
+	public void tearDown() {
+		clearLatencies();
+	}
+
+	@Test
+	public void timeoutIsTheDefaultUntilEnoughSamples() {
+		for (int i = 0; i < MIN_SAMPLES - 1; i++) {
+			RequestKind.COMMAND.recordLatency(8000);
+		}
+		assertEquals(30000, RequestKind.COMMAND.getTimeoutMs());
+	}
+
+	@Test
+	public void timeoutIsTwiceTheNinetyNinthPercentile() {
+		for (int i = 0; i < MIN_SAMPLES; i++) {
+			RequestKind.COMMAND.recordLatency(8000);
+		}
+		long p99 = RequestKind.COMMAND.getLatencies().getPercentile(0.99);
+		assertTrue(p99 >= 8000);
+		assertEquals(2 * p99, RequestKind.COMMAND.getTimeoutMs());
+	}
+
+	@Test
+	public void timeoutFollowsTheSlowestRequests() {
+		for (int i = 0; i < 5 * MIN_SAMPLES; i++) {
+			RequestKind.COMMAND.recordLatency((i % 50 == 0) ? 20000 : 6000);
+		}
+		long p99 = RequestKind.COMMAND.getLatencies().getPercentile(0.99);
+		assertTrue(p99 >= 20000);
+		assertEquals(2 * p99, RequestKind.COMMAND.getTimeoutMs());
+	}
+
+	@Test
+	public void timeoutIsClampedToTheKindsMinimum() {
+		for (int i = 0; i < MIN_SAMPLES; i++) {
+			RequestKind.COMPLETE.recordLatency(10);
+		}
+		assertEquals(500, RequestKind.COMPLETE.getTimeoutMs());
+	}
+
+	@Test
+	public void timeoutIsClampedToTheKindsMaximum() {
+		for (int i = 0; i < MIN_SAMPLES; i++) {
+			RequestKind.COMPLETE.recordLatency(5000);
+		}
+		assertEquals(3000, RequestKind.COMPLETE.getTimeoutMs());
+	}
+
+	@Test
+	public void timeoutsCountAsSamplesOfHowLongTheyWaited() {
+		for (int i = 0; i < MIN_SAMPLES - 1; i++) {
+			RequestKind.HISTORY.recordLatency(1500);
+		}
+		RequestKind.HISTORY.recordTimeout(12000);
+		assertEquals(MIN_SAMPLES, RequestKind.HISTORY.getLatencies().getRecentSampleCount());
+		assertTrue(RequestKind.HISTORY.getTimeoutMs() >= 2 * 12000);
+	}
+
+	@Test
+	public void timeoutsKeepTheTimeoutFromShrinking() {
+		for (int i = 0; i < MIN_SAMPLES; i++) {
+			RequestKind.HISTORY.recordLatency(1500);
+		}
+		int fast = RequestKind.HISTORY.getTimeoutMs();
+		for (int i = 0; i < MIN_SAMPLES; i++) {
+			RequestKind.HISTORY.recordTimeout(fast);
+		}
+		assertTrue(RequestKind.HISTORY.getTimeoutMs() > fast);
+	}
+
+	@Test
+	public void kindsAreKeptApart() {
+		for (int i = 0; i < MIN_SAMPLES; i++) {
+			RequestKind.HEALTH.recordLatency(4000);
+		}
+		assertEquals(5000, RequestKind.HEALTH.getTimeoutMs());
+		assertEquals(10000, RequestKind.COMMANDS.getTimeoutMs());
+	}
+
+	@Test
+	public void kindIsFoundByEndpoint() {
+		assertEquals(RequestKind.COMMAND, RequestKind.forUrl("http://hermit:3000/command"));
+		assertEquals(RequestKind.COMMANDS, RequestKind.forUrl("http://hermit:3000/commands"));
+		assertEquals(RequestKind.COMPLETE, RequestKind.forUrl("http://hermit:3000/complete?cmd=an"));
+		assertEquals(RequestKind.OTHER, RequestKind.forUrl("http://hermit:3000/health"));
+	}
+
+	private static void clearLatencies() {
+		for (RequestKind kind : RequestKind.values()) {
+			kind.getLatencies().clear();
+		}
+	}
+
+}
@@ -0,0 +1,139 @@
+package edu.kufpg.armatus.networking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.apache.http.HttpStatus;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.kufpg.armatus.data.Command;
+import edu.kufpg.armatus.data.CommandResponse;
+import edu.kufpg.armatus.data.Complete;
+import edu.kufpg.armatus.data.Completion;
+import edu.kufpg.armatus.data.Glyph;
+import edu.kufpg.armatus.data.Token;
+import edu.kufpg.armatus.networking.HermitTransport.Request;
+import edu.kufpg.armatus.networking.HermitTransport.Response;
+import edu.kufpg.armatus.util.JsonReader;
+
+/**
+ * Runs the client's requests and decoders against a {@link ScriptedHermit} over an
+ * {@link InMemoryTransport}, on a plain JVM.
+ */
+public class ScriptedHermitTest {
+	private static final String SERVER = "http://hermit.test";
+	private static final int GLYPHS = 200;
+	private static final int WIDTH = 80;
+
+	private ScriptedHermit mHermit;
+	private HermitTransport mTransport;
+
+	@Before
+	public void setUp() {
+		mHermit = new ScriptedHermit(GLYPHS);
+		mTransport = new InMemoryTransport(mHermit, 0);
+	}
+
+	@Test
+	public void connectReturnsAToken() throws IOException {
+		Token token = connect();
+		assertEquals(0, token.getUser());
+		assertEquals(0, token.getAst());
+	}
+
+	@Test
+	public void commandDecodesGlyphsAndText() throws IOException {
+		Token token = connect();
+		CommandResponse response = command(new Command(token, "down", WIDTH), null);
+		assertEquals(1, response.getAst());
+		assertTrue(response.hasGlyphs());
+		assertFalse(response.hasMessage());
+		assertEquals(GLYPHS, response.getGlyphs().size());
+		StringBuilder text = new StringBuilder();
+		for (Glyph glyph : response.getGlyphs()) {
+			text.append(glyph.getText());
+		}
+		assertEquals(text.toString(), response.getGlyphText().toString());
+	}
+
+	@Test
+	public void deltaDecodesToTheFullResponse() throws IOException {
+		Token token = connect();
+		CommandResponse first = command(new Command(token, "down", WIDTH), null);
+		token.setAst(first.getAst());
+		CommandResponse delta = command(new Command(token, "down", WIDTH, first.getAst()), first);
+
+		//A second server that is never told about the first response sends the second whole
+		ScriptedHermit fullHermit = new ScriptedHermit(GLYPHS);
+		mTransport = new InMemoryTransport(fullHermit, 0);
+		Token fullToken = connect();
+		command(new Command(fullToken, "down", WIDTH), null);
+		fullToken.setAst(first.getAst());
+		CommandResponse full = command(new Command(fullToken, "down", WIDTH), null);
+
+		assertEquals(full, delta);
+		assertEquals(full.getGlyphText().toString(), delta.getGlyphText().toString());
+	}
+
+	@Test
+	public void scriptedCommandAnswersWithAMessage() throws IOException {
+		mHermit.script("info", "Core expression\n\n\nof type Int");
+		CommandResponse response = command(new Command(connect(), "info"), null);
+		assertFalse(response.hasGlyphs());
+		assertEquals("Core expression\nof type Int", response.getMessage());
+	}
+
+	@Test
+	public void completeOffersMatchingCommands() throws IOException {
+		Token token = connect();
+		JsonReader reader = open("POST", "/complete", new Complete(token.getUser(), "be").toString());
+		reader.beginObject();
+		assertEquals("completions", reader.nextName());
+		reader.beginArray();
+		Completion completion = Completion.fromJson(reader);
+		assertEquals("beta-reduce", completion.getReplacement());
+		assertFalse(reader.hasNext());
+		reader.endArray();
+		reader.endObject();
+	}
+
+	@Test
+	public void unknownEndpointIsNotFound() throws IOException {
+		Response response = mTransport.newCall(new Request("GET", SERVER + "/nowhere", null)).execute(1000);
+		assertEquals(HttpStatus.SC_NOT_FOUND, response.getStatus());
+		response.close();
+	}
+
+	@Test
+	public void downServerFailsRequests() throws IOException {
+		mHermit.setDown(true);
+		try {
+			connect();
+			fail("Expected the request to fail");
+		} catch (IOException e) {
+			//Expected
+		}
+		mHermit.setDown(false);
+		assertEquals(0, connect().getAst());
+	}
+
+	private Token connect() throws IOException {
+		return Token.fromJson(open("POST", "/connect", null));
+	}
+
+	private CommandResponse command(Command command, CommandResponse base) throws IOException {
+		return CommandResponse.fromJson(open("POST", "/command", command.toString()), base);
+	}
+
+	private JsonReader open(String method, String path, String body) throws IOException {
+		Response response = mTransport.newCall(new Request(method, SERVER + path, body)).execute(1000);
+		assertEquals(HttpStatus.SC_OK, response.getStatus());
+		return response.openBody();
+	}
+
+}
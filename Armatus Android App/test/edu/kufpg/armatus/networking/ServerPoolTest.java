@@ -0,0 +1,322 @@
+package edu.kufpg.armatus.networking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import org.apache.http.HttpStatus;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.kufpg.armatus.networking.HermitTransport.Request;
+import edu.kufpg.armatus.networking.HermitTransport.Response;
+import edu.kufpg.armatus.networking.ServerPool.State;
+
+/**
+ * Checks a {@link ServerPool}'s servers against in-process servers, on a plain JVM. Health
+ * checks run on the test's thread as soon as they are started, and the pool's bookkeeping
+ * runs only when the test says so.
+ */
+public class ServerPoolTest {
+	/** Every test has its own server names, so that no test opens another's circuit breaker. */
+	private static int sPools = 0;
+
+	/** How long each server takes to answer, in milliseconds, keyed by its URL. */
+	private Map<String, Long> mDelays;
+	/** What each server answers with, or -1 if it can't be reached, keyed by its URL. */
+	private Map<String, Integer> mStatuses;
+	private List<String> mChecked;
+	private ManualScheduler mScheduler;
+	private List<ServerPool> mRounds;
+	private String mFirst;
+	private String mSecond;
+	private String mThird;
+
+	@Before
+	public void setUp() {
+		mDelays = new HashMap<String, Long>();
+		mStatuses = new HashMap<String, Integer>();
+		mChecked = new ArrayList<String>();
+		mScheduler = new ManualScheduler();
+		mRounds = new ArrayList<ServerPool>();
+		String pool = "http://pool-test-" + (sPools++);
+		mFirst = pool + "-a:8080";
+		mSecond = pool + "-b:8080";
+		mThird = pool + "-c:8080";
+	}
+
+	@Test
+	public void noServerIsPickedBeforeTheFirstRound() {
+		ServerPool pool = newPool(mFirst, mSecond);
+		assertNull(pool.pickServer(null));
+		assertFalse(pool.isDown(mFirst));
+		assertEquals(State.UNKNOWN, pool.getServers().get(0).getState());
+	}
+
+	@Test
+	public void roundReportsOnceEveryServerIsChecked() {
+		ServerPool pool = newPool(mFirst, mSecond, mThird);
+		pool.checkNow();
+		assertEquals(Arrays.asList(mFirst + "/commands", mSecond + "/commands", mThird + "/commands"), mChecked);
+		assertTrue(mRounds.isEmpty());
+
+		mScheduler.runPosted();
+		assertEquals(1, mRounds.size());
+		assertSame(pool, mRounds.get(0));
+		for (ServerPool.Server server : pool.getServers()) {
+			assertEquals(State.UP, server.getState());
+		}
+	}
+
+	@Test
+	public void fastestServerIsPicked() {
+		mDelays.put(mFirst, 60L);
+		ServerPool pool = checkedPool(mFirst, mSecond);
+
+		assertEquals(mSecond, pool.pickServer(null));
+		assertTrue(pool.getServers().get(0).getLatencyMs() > pool.getServers().get(1).getLatencyMs());
+	}
+
+	@Test
+	public void excludedServerIsNotPicked() {
+		mDelays.put(mFirst, 60L);
+		ServerPool pool = checkedPool(mFirst, mSecond);
+
+		assertEquals(mFirst, pool.pickServer(mSecond));
+	}
+
+	@Test
+	public void equallyFastServersAreFilledEvenly() {
+		ServerPool pool = checkedPool(mFirst, mSecond);
+		assertEquals(mFirst, pool.pickServer(null));
+
+		pool.recordSession(mFirst);
+		assertEquals(mSecond, pool.pickServer(null));
+		assertEquals(1, pool.getServers().get(0).getSessions());
+		pool.recordSession(mSecond);
+		assertEquals(mFirst, pool.pickServer(null));
+	}
+
+	@Test
+	public void failedServersAreDownAndNeverPicked() {
+		mStatuses.put(mFirst, HttpStatus.SC_SERVICE_UNAVAILABLE);
+		mStatuses.put(mSecond, -1);
+		ServerPool pool = checkedPool(mFirst, mSecond, mThird);
+
+		assertTrue(pool.isDown(mFirst));
+		assertTrue(pool.isDown(mSecond));
+		assertFalse(pool.isDown(mThird));
+		assertEquals(-1, pool.getServers().get(0).getLatencyMs());
+		assertEquals(mThird, pool.pickServer(null));
+		assertNull(pool.pickServer(mThird));
+	}
+
+	@Test
+	public void serverWithoutHeadIsStillUp() {
+		mStatuses.put(mFirst, HttpStatus.SC_METHOD_NOT_ALLOWED);
+		ServerPool pool = checkedPool(mFirst);
+
+		assertFalse(pool.isDown(mFirst));
+		assertEquals(mFirst, pool.pickServer(null));
+	}
+
+	@Test
+	public void serverThatComesBackIsPickedAgain() {
+		mStatuses.put(mFirst, -1);
+		ServerPool pool = checkedPool(mFirst, mSecond);
+		assertEquals(mSecond, pool.pickServer(null));
+
+		mStatuses.remove(mFirst);
+		mDelays.put(mSecond, 60L);
+		pool.checkNow();
+		mScheduler.runPosted();
+		assertFalse(pool.isDown(mFirst));
+		assertEquals(mFirst, pool.pickServer(null));
+		assertEquals(2, mRounds.size());
+	}
+
+	@Test
+	public void answeringServerClosesItsCircuitBreaker() {
+		CircuitBreaker breaker = CircuitBreaker.forUrl(mFirst);
+		breaker.recordFailure();
+		breaker.recordFailure();
+		breaker.recordFailure();
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+		checkedPool(mFirst);
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+	}
+
+	@Test
+	public void checkWhileARoundIsRunningIsIgnored() {
+		ServerPool pool = newPool(mFirst, mSecond);
+		pool.checkNow();
+		pool.checkNow();
+		assertEquals(2, mChecked.size());
+
+		mScheduler.runPosted();
+		assertEquals(1, mRounds.size());
+		pool.checkNow();
+		assertEquals(4, mChecked.size());
+	}
+
+	@Test
+	public void startedPoolChecksAgainUntilStopped() {
+		ServerPool pool = newPool(mFirst);
+		pool.start();
+		mScheduler.runPosted();
+		assertEquals(ServerPool.CHECK_INTERVAL_MS, mScheduler.getDelay());
+
+		mScheduler.runDelayed();
+		mScheduler.runPosted();
+		assertEquals(2, mRounds.size());
+		assertEquals(2, mChecked.size());
+
+		pool.stop();
+		assertTrue(mScheduler.mDelayed.isEmpty());
+	}
+
+	@Test
+	public void checkNowPostponesTheNextRound() {
+		ServerPool pool = newPool(mFirst);
+		pool.start();
+		mScheduler.runPosted();
+		pool.checkNow();
+		assertTrue(mScheduler.mDelayed.isEmpty());
+
+		mScheduler.runPosted();
+		assertEquals(1, mScheduler.mDelayed.size());
+	}
+
+	@Test
+	public void unstartedPoolOnlyChecksWhenAsked() {
+		ServerPool pool = newPool(mFirst);
+		pool.checkNow();
+		mScheduler.runPosted();
+		assertEquals(1, mRounds.size());
+		assertTrue(mScheduler.mDelayed.isEmpty());
+	}
+
+	@Test
+	public void checksAreTimedAsHealthChecks() {
+		long health = RequestKind.HEALTH.getLatencies().getSampleCount();
+		long commands = RequestKind.COMMANDS.getLatencies().getSampleCount();
+		checkedPool(mFirst, mSecond);
+		assertEquals(health + 2, RequestKind.HEALTH.getLatencies().getSampleCount());
+		assertEquals(commands, RequestKind.COMMANDS.getLatencies().getSampleCount());
+	}
+
+	@Test
+	public void serversAreNamedByHostAndPort() {
+		ServerPool pool = newPool("http://hermit.example.org:8080", "http://hermit.example.org/");
+		assertEquals("hermit.example.org:8080", pool.getServers().get(0).getName());
+		assertEquals("hermit.example.org", pool.getServers().get(1).getName());
+		assertEquals(Arrays.asList("http://hermit.example.org:8080", "http://hermit.example.org/"),
+				pool.getServerUrls());
+	}
+
+	private ServerPool newPool(String... serverUrls) {
+		HermitTransport transport = new InMemoryTransport(new InMemoryTransport.Server() {
+			@Override
+			public Response respond(Request request) throws IOException {
+				mChecked.add(request.getUrl());
+				String serverUrl = request.getUrl().substring(0, request.getUrl().length() - "/commands".length());
+				Long delay = mDelays.get(serverUrl);
+				if (delay != null) {
+					try {
+						Thread.sleep(delay);
+					} catch (InterruptedException e) {
+						throw new IOException(e);
+					}
+				}
+				Integer status = mStatuses.get(serverUrl);
+				if (status == null) {
+					return InMemoryTransport.status(HttpStatus.SC_OK);
+				} else if (status < 0) {
+					throw new IOException("Connection refused");
+				}
+				return InMemoryTransport.status(status);
+			}
+		}, 0);
+		ServerPool pool = new ServerPool(Arrays.asList(serverUrls), transport, new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				command.run();
+			}
+		}, mScheduler);
+		pool.setListener(new ServerPool.Listener() {
+			@Override
+			public void onServersChecked(ServerPool pool) {
+				mRounds.add(pool);
+			}
+		});
+		return pool;
+	}
+
+	private ServerPool checkedPool(String... serverUrls) {
+		ServerPool pool = newPool(serverUrls);
+		pool.checkNow();
+		mScheduler.runPosted();
+		return pool;
+	}
+
+	/**
+	 * Holds posted tasks until the test runs them.
+	 */
+	private static class ManualScheduler implements ServerPool.Scheduler {
+		private final List<Runnable> mPosted = new ArrayList<Runnable>();
+		private final Map<Runnable, Long> mDelayed = new LinkedHashMap<Runnable, Long>();
+
+		@Override
+		public void post(Runnable task) {
+			mPosted.add(task);
+		}
+
+		@Override
+		public void postDelayed(Runnable task, long delayMs) {
+			mDelayed.put(task, delayMs);
+		}
+
+		@Override
+		public void cancel(Runnable task) {
+			while (mPosted.remove(task)) {
+				//Remove every copy
+			}
+			mDelayed.remove(task);
+		}
+
+		/** Runs the tasks posted without a delay, including ones they post. */
+		void runPosted() {
+			while (!mPosted.isEmpty()) {
+				mPosted.remove(0).run();
+			}
+		}
+
+		/** Runs the tasks posted with a delay, as if the delay has passed. */
+		void runDelayed() {
+			List<Runnable> delayed = new ArrayList<Runnable>(mDelayed.keySet());
+			mDelayed.clear();
+			for (Runnable task : delayed) {
+				task.run();
+			}
+		}
+
+		/** Returns the delay of the one task posted with a delay. */
+		long getDelay() {
+			assertEquals(1, mDelayed.size());
+			return mDelayed.values().iterator().next();
+		}
+	}
+
+}
@@ -0,0 +1,44 @@
+package edu.kufpg.armatus.util;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class HeldRepeatsTest {
+
+	@Test
+	public void repeatsFireOneAtATimeWhileIdle() {
+		HeldRepeats repeats = new HeldRepeats();
+		assertEquals(1, repeats.onRepeatDue(false));
+		assertEquals(1, repeats.onRepeatDue(false));
+		assertEquals(0, repeats.getHeldCount());
+	}
+
+	@Test
+	public void repeatsDueWhileBusyFireAsOne() {
+		HeldRepeats repeats = new HeldRepeats();
+		assertEquals(0, repeats.onRepeatDue(true));
+		assertEquals(0, repeats.onRepeatDue(true));
+		assertEquals(0, repeats.onRepeatDue(true));
+		assertEquals(3, repeats.getHeldCount());
+		assertEquals(4, repeats.onRepeatDue(false));
+		assertEquals(1, repeats.onRepeatDue(false));
+	}
+
+	@Test
+	public void clearDropsHeldRepeats() {
+		HeldRepeats repeats = new HeldRepeats();
+		repeats.onRepeatDue(true);
+		repeats.onRepeatDue(true);
+		repeats.clear();
+		assertEquals(1, repeats.onRepeatDue(false));
+	}
+
+	@Test
+	public void slowWorkStretchesTheInterval() {
+		assertEquals(100, HeldRepeats.getRepeatInterval(100, 0));
+		assertEquals(100, HeldRepeats.getRepeatInterval(100, 40));
+		assertEquals(250, HeldRepeats.getRepeatInterval(100, 250));
+	}
+
+}